@@ -0,0 +1,218 @@
+package de.invesdwin.util.collections.loadingcache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.concurrent.InterruptingFuture;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+
+/**
+ * Unlimited loading cache that returns futures instead of blocking. The futures of loaded values stay in the cache,
+ * thus subsequent calls get an already completed future. Failed loads and null values are not cached.
+ */
+@ThreadSafe
+public abstract class AAsyncLoadingCache<K, V> implements IAsyncLoadingCache<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> futures = new ConcurrentHashMap<K, CompletableFuture<V>>();
+    private final WrappedExecutorService executor = newExecutor();
+
+    /**
+     * default is null, which loads the values in the calling thread, thus the returned futures are already completed
+     */
+    protected WrappedExecutorService newExecutor() {
+        return null;
+    }
+
+    public WrappedExecutorService getExecutor() {
+        return executor;
+    }
+
+    protected abstract V loadValue(K key);
+
+    /**
+     * May be overwritten to load multiple keys at once, e.g. with a single query. Keys that are missing in the result
+     * are treated like null values.
+     */
+    protected Map<K, V> loadValues(final List<K> keys) {
+        final Map<K, V> values = new HashMap<K, V>();
+        for (int i = 0; i < keys.size(); i++) {
+            final K key = keys.get(i);
+            values.put(key, loadValue(key));
+        }
+        return values;
+    }
+
+    @Override
+    public CompletableFuture<V> get(final K key) {
+        final CompletableFuture<V> existingFuture = futures.get(key);
+        if (existingFuture != null) {
+            return newDependentFuture(existingFuture);
+        }
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        final CompletableFuture<V> racedFuture = futures.putIfAbsent(key, future);
+        if (racedFuture != null) {
+            return newDependentFuture(racedFuture);
+        }
+        load(Collections.singletonList(key), Collections.singletonList(future));
+        return newDependentFuture(future);
+    }
+
+    /**
+     * The shared futures are never handed out, so that callers can not cancel or complete them for everyone else.
+     */
+    private CompletableFuture<V> newDependentFuture(final CompletableFuture<V> future) {
+        return future.thenApply(Function.<V> identity());
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAll(final Iterable<? extends K> keys) {
+        final Map<K, CompletableFuture<V>> keyFutures = new LinkedHashMap<K, CompletableFuture<V>>();
+        final List<K> missingKeys = new ArrayList<K>();
+        final List<CompletableFuture<V>> missingFutures = new ArrayList<CompletableFuture<V>>();
+        for (final K key : keys) {
+            if (keyFutures.containsKey(key)) {
+                continue;
+            }
+            CompletableFuture<V> future = futures.get(key);
+            if (future == null) {
+                final CompletableFuture<V> newFuture = new CompletableFuture<V>();
+                future = futures.putIfAbsent(key, newFuture);
+                if (future == null) {
+                    future = newFuture;
+                    missingKeys.add(key);
+                    missingFutures.add(newFuture);
+                }
+            }
+            keyFutures.put(key, future);
+        }
+        if (!missingKeys.isEmpty()) {
+            load(missingKeys, missingFutures);
+        }
+        final CompletableFuture<?>[] allFutures = keyFutures.values()
+                .toArray(new CompletableFuture<?>[keyFutures.size()]);
+        return CompletableFuture.allOf(allFutures).thenApply(new Function<Void, Map<K, V>>() {
+            @Override
+            public Map<K, V> apply(final Void input) {
+                final Map<K, V> values = new LinkedHashMap<K, V>();
+                for (final Map.Entry<K, CompletableFuture<V>> e : keyFutures.entrySet()) {
+                    final V value = e.getValue().join();
+                    if (value != null) {
+                        values.put(e.getKey(), value);
+                    }
+                }
+                return values;
+            }
+        });
+    }
+
+    private void load(final List<K> keys, final List<CompletableFuture<V>> keyFutures) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                complete(keys, keyFutures);
+            }
+        };
+        if (executor == null) {
+            task.run();
+        } else {
+            try {
+                final Future<?> submitted = executor.submit(task);
+                if (submitted instanceof InterruptingFuture) {
+                    //the task was dropped while waiting for a free slot in the executor
+                    fail(keys, keyFutures, new InterruptedException());
+                }
+            } catch (final RejectedExecutionException e) {
+                fail(keys, keyFutures, e);
+            }
+        }
+    }
+
+    private void complete(final List<K> keys, final List<CompletableFuture<V>> keyFutures) {
+        final Map<K, V> values;
+        try {
+            if (keys.size() == 1) {
+                final K key = keys.get(0);
+                values = Collections.singletonMap(key, loadValue(key));
+            } else {
+                values = loadValues(keys);
+            }
+        } catch (final Throwable t) {
+            fail(keys, keyFutures, t);
+            return;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            final K key = keys.get(i);
+            final CompletableFuture<V> future = keyFutures.get(i);
+            final V value = values.get(key);
+            if (value == null) {
+                //the next call should try again
+                futures.remove(key, future);
+            }
+            future.complete(value);
+        }
+    }
+
+    private void fail(final List<K> keys, final List<CompletableFuture<V>> keyFutures, final Throwable t) {
+        for (int i = 0; i < keys.size(); i++) {
+            final CompletableFuture<V> future = keyFutures.get(i);
+            futures.remove(keys.get(i), future);
+            future.completeExceptionally(t);
+        }
+    }
+
+    @Override
+    public V getIfPresent(final K key) {
+        final CompletableFuture<V> future = futures.get(key);
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.getNow(null);
+    }
+
+    @Override
+    public boolean containsKey(final K key) {
+        return getIfPresent(key) != null;
+    }
+
+    @Override
+    public void put(final K key, final V value) {
+        if (value == null) {
+            futures.remove(key);
+        } else {
+            futures.put(key, CompletableFuture.completedFuture(value));
+        }
+    }
+
+    @Override
+    public void remove(final K key) {
+        futures.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        futures.clear();
+    }
+
+    @Override
+    public int size() {
+        return futures.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return futures.isEmpty();
+    }
+
+}
@@ -4,14 +4,32 @@ import java.util.function.Function;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.budget.ALoadingCacheBudgetConsumer;
+import de.invesdwin.util.collections.loadingcache.budget.LoadingCacheBudgetManager;
+import de.invesdwin.util.collections.loadingcache.eviction.LoadingCacheEvictionPolicy;
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+import de.invesdwin.util.collections.loadingcache.internal.ALongKeyLoadingCache;
+import de.invesdwin.util.collections.loadingcache.internal.ConcurrentLoadingCache;
 import de.invesdwin.util.collections.loadingcache.internal.GuavaLoadingCache;
 import de.invesdwin.util.collections.loadingcache.internal.LRUMapLoadingCache;
 import de.invesdwin.util.collections.loadingcache.internal.NoCachingLoadingCache;
+import de.invesdwin.util.collections.loadingcache.internal.TinyLfuLoadingCache;
 import de.invesdwin.util.collections.loadingcache.internal.UnlimitedCachingLoadingCache;
+import de.invesdwin.util.collections.loadingcache.internal.WeightedLRUMapLoadingCache;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.collections.loadingcache.weight.DefaultLoadingCacheWeigher;
+import de.invesdwin.util.collections.loadingcache.weight.ILoadingCacheWeigher;
 
 @ThreadSafe
 public abstract class ALoadingCache<K, V> extends ADelegateLoadingCache<K, V> {
 
+    private final LoadingCacheMetrics metrics = newMetrics();
+    private final Object budgetConsumerLock = new Object();
+    private volatile ALoadingCacheBudgetConsumer budgetConsumer;
+    private volatile boolean budgetConsumerInitialized;
+
     /**
      * default unlimited size
      */
@@ -20,7 +38,29 @@ public abstract class ALoadingCache<K, V> extends ADelegateLoadingCache<K, V> {
     }
 
     /**
-     * default is false, since this comes at a cost
+     * default is null, which limits the cache by getMaximumSize() instead. Can not be combined with a maximum size.
+     */
+    protected Long getMaximumWeight() {
+        return null;
+    }
+
+    /**
+     * Calculates the weights for getMaximumWeight(), default estimates the size in bytes.
+     */
+    protected ILoadingCacheWeigher<? super K, ? super V> getWeigher() {
+        return DefaultLoadingCacheWeigher.INSTANCE;
+    }
+
+    /**
+     * default is LRU, TINY_LFU is better when scans over lots of keys happen between accesses to a hot working set
+     */
+    protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+        return LoadingCacheEvictionPolicy.LRU;
+    }
+
+    /**
+     * default is false, since this comes at a cost. Unlimited caches then load each key only once without blocking
+     * readers, limited caches use guava.
      */
     protected boolean isHighConcurrency() {
         return false;
@@ -31,29 +71,204 @@ public abstract class ALoadingCache<K, V> extends ADelegateLoadingCache<K, V> {
         if (delegate instanceof LRUMapLoadingCache) {
             final LRUMapLoadingCache<K, V> lru = (LRUMapLoadingCache<K, V>) delegate;
             lru.increaseMaximumSize(maximumSize);
+        } else if (delegate instanceof TinyLfuLoadingCache) {
+            final TinyLfuLoadingCache<K, V> tinyLfu = (TinyLfuLoadingCache<K, V>) delegate;
+            tinyLfu.increaseMaximumSize(maximumSize);
+        } else if (delegate instanceof ALongKeyLoadingCache) {
+            final ALongKeyLoadingCache<K, V> longKey = (ALongKeyLoadingCache<K, V>) delegate;
+            longKey.increaseMaximumSize(maximumSize);
+        }
+        //else ignore
+    }
+
+    public void decreaseMaximumSize(final int maximumSize) {
+        final ILoadingCache<K, V> delegate = getDelegate();
+        if (delegate instanceof LRUMapLoadingCache) {
+            final LRUMapLoadingCache<K, V> lru = (LRUMapLoadingCache<K, V>) delegate;
+            lru.decreaseMaximumSize(maximumSize);
+        } else if (delegate instanceof TinyLfuLoadingCache) {
+            final TinyLfuLoadingCache<K, V> tinyLfu = (TinyLfuLoadingCache<K, V>) delegate;
+            tinyLfu.decreaseMaximumSize(maximumSize);
+        } else if (delegate instanceof ALongKeyLoadingCache) {
+            final ALongKeyLoadingCache<K, V> longKey = (ALongKeyLoadingCache<K, V>) delegate;
+            longKey.decreaseMaximumSize(maximumSize);
         }
         //else ignore
     }
 
+    /**
+     * default is null, which disables metrics
+     */
+    protected LoadingCacheMetrics newMetrics() {
+        return null;
+    }
+
+    public LoadingCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * default is null, which lets this cache only be limited by its own maximum size
+     */
+    protected LoadingCacheBudgetManager getBudgetManager() {
+        return null;
+    }
+
+    /**
+     * The estimated weight of one entry within the budget, e.g. its size in bytes. Caches with a maximum weight use the
+     * weights of their entries instead.
+     */
+    protected long getBudgetEntryWeight() {
+        return 1;
+    }
+
+    /**
+     * The consumer is created on first use instead of during construction, so that getBudgetManager() can return fields
+     * of subclasses.
+     */
+    private ALoadingCacheBudgetConsumer getBudgetConsumer() {
+        if (!budgetConsumerInitialized) {
+            synchronized (budgetConsumerLock) {
+                if (!budgetConsumerInitialized) {
+                    budgetConsumer = newBudgetConsumer();
+                    budgetConsumerInitialized = true;
+                }
+            }
+        }
+        return budgetConsumer;
+    }
+
+    private ALoadingCacheBudgetConsumer newBudgetConsumer() {
+        final LoadingCacheBudgetManager budgetManager = getBudgetManager();
+        if (budgetManager == null) {
+            return null;
+        }
+        final ALoadingCacheBudgetConsumer consumer = new ALoadingCacheBudgetConsumer(budgetManager) {
+            @Override
+            public long getWeight() {
+                final ILoadingCache<K, V> delegate = getDelegate();
+                if (delegate instanceof WeightedLRUMapLoadingCache) {
+                    final WeightedLRUMapLoadingCache<K, V> weighted = (WeightedLRUMapLoadingCache<K, V>) delegate;
+                    return weighted.getWeight();
+                }
+                return size() * getBudgetEntryWeight();
+            }
+
+            @Override
+            public long shrink(final long excessWeight) {
+                final ILoadingCache<K, V> delegate = getDelegate();
+                if (delegate instanceof WeightedLRUMapLoadingCache) {
+                    final WeightedLRUMapLoadingCache<K, V> weighted = (WeightedLRUMapLoadingCache<K, V>) delegate;
+                    final long weightBefore = weighted.getWeight();
+                    if (weightBefore <= excessWeight) {
+                        return 0;
+                    }
+                    weighted.setMaximumWeight(weightBefore - excessWeight);
+                    return weightBefore - weighted.getWeight();
+                }
+                final long entryWeight = getBudgetEntryWeight();
+                final int sizeBefore = size();
+                final long excessEntries = (excessWeight + entryWeight - 1) / entryWeight;
+                //keep at least one entry, the remaining excess might be freed by other caches
+                final int newMaximumSize = (int) Math.max(1, sizeBefore - excessEntries);
+                if (newMaximumSize >= sizeBefore) {
+                    return 0;
+                }
+                //caches that do not support this keep their size and get evicted entirely
+                decreaseMaximumSize(newMaximumSize);
+                return (sizeBefore - size()) * entryWeight;
+            }
+
+            @Override
+            public void evict() {
+                clear();
+            }
+        };
+        budgetManager.register(consumer);
+        return consumer;
+    }
+
+    @Override
+    public V get(final K key) {
+        if (metrics != null) {
+            metrics.recordRequest();
+        }
+        final V value = super.get(key);
+        final ALoadingCacheBudgetConsumer consumer = getBudgetConsumer();
+        if (consumer != null) {
+            consumer.onAccess();
+        }
+        return value;
+    }
+
     protected abstract V loadValue(K key);
 
+    /**
+     * Gets called when the delegate removed an entry because the maximum size or weight was exceeded. Default counts
+     * the eviction in the metrics.
+     */
+    protected void onEvicted(final K key, final V value) {
+        if (metrics != null) {
+            metrics.recordEviction();
+        }
+    }
+
+    /**
+     * Forwards the evictions of the delegate to onEvicted.
+     */
+    protected IRemovalListener<K, V> newEvictionListener() {
+        return new IRemovalListener<K, V>() {
+            @Override
+            public void onRemoval(final K key, final V value, final RemovalCause cause) {
+                onEvicted(key, value);
+            }
+        };
+    }
+
     @Override
     protected ILoadingCache<K, V> createDelegate() {
         final Integer maximumSize = getMaximumSize();
+        //the delegate is created before the metrics are initialized, thus they are only checked during loads
         final Function<K, V> loadValue = new Function<K, V>() {
             @Override
             public V apply(final K key) {
-                return loadValue(key);
+                if (metrics == null) {
+                    return loadValue(key);
+                }
+                final long start = System.nanoTime();
+                final V value = loadValue(key);
+                metrics.recordMiss(start);
+                return value;
             }
         };
-        if (isHighConcurrency()) {
-            return new GuavaLoadingCache<K, V>(loadValue, maximumSize);
+        final IRemovalListener<K, V> evictionListener = newEvictionListener();
+        final Long maximumWeight = getMaximumWeight();
+        if (maximumWeight != null) {
+            if (maximumSize != null) {
+                throw new IllegalStateException(
+                        "maximumSize [" + maximumSize + "] and maximumWeight [" + maximumWeight + "] can not be combined");
+            }
+            if (isHighConcurrency()) {
+                return new GuavaLoadingCache<K, V>(loadValue, null, LoadingCacheEvictionPolicy.LRU, maximumWeight,
+                        getWeigher(), evictionListener);
+            } else {
+                return new WeightedLRUMapLoadingCache<K, V>(loadValue, maximumWeight, getWeigher(), evictionListener);
+            }
+        } else if (isHighConcurrency()) {
+            if (maximumSize == null) {
+                return new ConcurrentLoadingCache<K, V>(loadValue);
+            } else {
+                return new GuavaLoadingCache<K, V>(loadValue, maximumSize, getEvictionPolicy(), null, null,
+                        evictionListener);
+            }
         } else if (maximumSize == null) {
             return new UnlimitedCachingLoadingCache<K, V>(loadValue);
         } else if (maximumSize == 0) {
             return new NoCachingLoadingCache<K, V>(loadValue);
+        } else if (getEvictionPolicy() == LoadingCacheEvictionPolicy.TINY_LFU) {
+            return new TinyLfuLoadingCache<K, V>(loadValue, maximumSize, evictionListener);
         } else {
-            return new LRUMapLoadingCache<K, V>(loadValue, maximumSize);
+            return new LRUMapLoadingCache<K, V>(loadValue, maximumSize, evictionListener);
         }
     }
 
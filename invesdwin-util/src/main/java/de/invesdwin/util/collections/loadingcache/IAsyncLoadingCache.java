@@ -0,0 +1,40 @@
+package de.invesdwin.util.collections.loadingcache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public interface IAsyncLoadingCache<K, V> {
+
+    /**
+     * Callers that request a key that is already being loaded share the same load. Each caller gets its own dependent
+     * future, thus cancelling or completing it does not affect the others.
+     */
+    CompletableFuture<V> get(K key);
+
+    /**
+     * The keys that are neither cached nor being loaded get loaded together in one batch. Keys with null values are
+     * missing in the resulting map.
+     */
+    CompletableFuture<Map<K, V>> getAll(Iterable<? extends K> keys);
+
+    /**
+     * Returns null if the value is not loaded yet, this never blocks.
+     */
+    V getIfPresent(K key);
+
+    boolean containsKey(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    void clear();
+
+    /**
+     * Includes the keys that are still being loaded.
+     */
+    int size();
+
+    boolean isEmpty();
+
+}
@@ -0,0 +1,57 @@
+package de.invesdwin.util.collections.loadingcache.budget;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Represents a cache within a LoadingCacheBudgetManager. The manager only keeps a weak reference to the consumer, thus
+ * the cache itself needs to hold on to it.
+ */
+@ThreadSafe
+public abstract class ALoadingCacheBudgetConsumer {
+
+    private final LoadingCacheBudgetManager manager;
+    private volatile long lastAccess;
+
+    public ALoadingCacheBudgetConsumer(final LoadingCacheBudgetManager manager) {
+        this.manager = manager;
+    }
+
+    public LoadingCacheBudgetManager getManager() {
+        return manager;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    void setLastAccess(final long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+    /**
+     * Should be called after each access of the cache, so that the manager knows which caches are hot.
+     */
+    public void onAccess() {
+        manager.onAccess(this);
+    }
+
+    /**
+     * The weighted size of the entries that are currently held by the cache.
+     */
+    public abstract long getWeight();
+
+    /**
+     * Frees at least the given weight by decreasing the maximum size of the cache, so that it keeps its most recently
+     * used entries. Returns the weight that got freed. The default returns 0 for caches that can not be shrunk, they
+     * get evicted entirely instead.
+     */
+    public long shrink(final long excessWeight) {
+        return 0;
+    }
+
+    /**
+     * Frees all entries of the cache, they get loaded again on the next access.
+     */
+    public abstract void evict();
+
+}
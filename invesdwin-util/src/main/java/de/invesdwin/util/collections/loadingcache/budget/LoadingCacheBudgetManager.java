@@ -0,0 +1,202 @@
+package de.invesdwin.util.collections.loadingcache.budget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+
+/**
+ * Keeps the total weight of all registered caches within a global budget. When the budget is exceeded, the least
+ * recently accessed caches get shrunk first by decreasing their maximum size. Only when that does not suffice, they get
+ * evicted entirely. The most recently accessed cache never gets shrunk or evicted, so that hot caches can still grow
+ * beyond their share.
+ * 
+ * The budget is checked every checkInterval accesses in a background thread, so that evictions never happen while the
+ * accessing thread holds locks of other caches.
+ */
+@ThreadSafe
+public class LoadingCacheBudgetManager {
+
+    /**
+     * computing the weights requires iterating all caches, thus this should not happen too often
+     */
+    public static final int DEFAULT_CHECK_INTERVAL = 1000;
+
+    /**
+     * shared by all managers, the threads of the cached pool time out when no budget gets checked
+     */
+    @GuardedBy("LoadingCacheBudgetManager.class")
+    private static WrappedExecutorService executor;
+
+    private final long maximumWeight;
+    private final int checkInterval;
+    private final AtomicLong accessClock = new AtomicLong();
+    private final AtomicBoolean enforcementPending = new AtomicBoolean();
+    private final AtomicLong shrinks = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    @GuardedBy("this")
+    private final Map<ALoadingCacheBudgetConsumer, Boolean> consumers = new WeakHashMap<ALoadingCacheBudgetConsumer, Boolean>();
+
+    public LoadingCacheBudgetManager(final long maximumWeight) {
+        this(maximumWeight, DEFAULT_CHECK_INTERVAL);
+    }
+
+    public LoadingCacheBudgetManager(final long maximumWeight, final int checkInterval) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight [" + maximumWeight + "] should be greater than 0");
+        }
+        if (checkInterval <= 0) {
+            throw new IllegalArgumentException("checkInterval [" + checkInterval + "] should be greater than 0");
+        }
+        this.maximumWeight = maximumWeight;
+        this.checkInterval = checkInterval;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getShrinks() {
+        return shrinks.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized void register(final ALoadingCacheBudgetConsumer consumer) {
+        if (consumer.getManager() != this) {
+            throw new IllegalArgumentException("consumer belongs to a different manager");
+        }
+        consumers.put(consumer, Boolean.TRUE);
+    }
+
+    public synchronized void unregister(final ALoadingCacheBudgetConsumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    public synchronized int getConsumerCount() {
+        return consumers.size();
+    }
+
+    private synchronized List<ALoadingCacheBudgetConsumer> getConsumers() {
+        return new ArrayList<ALoadingCacheBudgetConsumer>(consumers.keySet());
+    }
+
+    public long getWeight() {
+        long weight = 0;
+        for (final ALoadingCacheBudgetConsumer consumer : getConsumers()) {
+            weight += consumer.getWeight();
+        }
+        return weight;
+    }
+
+    void onAccess(final ALoadingCacheBudgetConsumer consumer) {
+        final long access = accessClock.incrementAndGet();
+        consumer.setLastAccess(access);
+        if (access % checkInterval == 0 && enforcementPending.compareAndSet(false, true)) {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        enforceBudget();
+                    } finally {
+                        enforcementPending.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Shrinks and then evicts the coldest caches until the total weight fits into the budget again. Returns the number
+     * of shrunk or evicted caches.
+     */
+    public int enforceBudget() {
+        final List<ConsumerWeight> consumerWeights = new ArrayList<ConsumerWeight>();
+        long weight = 0;
+        for (final ALoadingCacheBudgetConsumer consumer : getConsumers()) {
+            final ConsumerWeight consumerWeight = new ConsumerWeight(consumer);
+            consumerWeights.add(consumerWeight);
+            weight += consumerWeight.weight;
+        }
+        if (weight <= maximumWeight) {
+            return 0;
+        }
+        //the access times are copied so that they do not change while sorting
+        Collections.sort(consumerWeights, ConsumerWeight.COLDEST_FIRST);
+        //the hottest cache is the last one and stays untouched
+        final int coldCount = consumerWeights.size() - 1;
+        final long[] remainingWeights = new long[coldCount];
+        int shrunk = 0;
+        for (int i = 0; i < coldCount; i++) {
+            final ConsumerWeight consumerWeight = consumerWeights.get(i);
+            remainingWeights[i] = consumerWeight.weight;
+            if (weight > maximumWeight && consumerWeight.weight > 0) {
+                final long freed = consumerWeight.consumer.shrink(weight - maximumWeight);
+                if (freed > 0) {
+                    remainingWeights[i] -= freed;
+                    weight -= freed;
+                    shrunk++;
+                }
+            }
+        }
+        int evicted = 0;
+        for (int i = 0; i < coldCount && weight > maximumWeight; i++) {
+            if (remainingWeights[i] > 0) {
+                final ConsumerWeight consumerWeight = consumerWeights.get(i);
+                if (remainingWeights[i] < consumerWeight.weight) {
+                    //shrinking did not suffice
+                    shrunk--;
+                }
+                consumerWeight.consumer.evict();
+                weight -= remainingWeights[i];
+                evicted++;
+            }
+        }
+        shrinks.addAndGet(shrunk);
+        evictions.addAndGet(evicted);
+        return shrunk + evicted;
+    }
+
+    private static synchronized WrappedExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(LoadingCacheBudgetManager.class.getSimpleName());
+        }
+        return executor;
+    }
+
+    @Immutable
+    private static final class ConsumerWeight {
+
+        private static final Comparator<ConsumerWeight> COLDEST_FIRST = new Comparator<ConsumerWeight>() {
+            @Override
+            public int compare(final ConsumerWeight o1, final ConsumerWeight o2) {
+                return Long.compare(o1.lastAccess, o2.lastAccess);
+            }
+        };
+
+        private final ALoadingCacheBudgetConsumer consumer;
+        private final long lastAccess;
+        private final long weight;
+
+        private ConsumerWeight(final ALoadingCacheBudgetConsumer consumer) {
+            this.consumer = consumer;
+            this.lastAccess = consumer.getLastAccess();
+            this.weight = consumer.getWeight();
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package de.invesdwin.util.collections.loadingcache.eviction;
+
+import javax.annotation.concurrent.Immutable;
+
+@Immutable
+public enum LoadingCacheEvictionPolicy {
+    /**
+     * Evicts the least recently used entry. A single scan over more keys than fit into the cache flushes the whole
+     * working set.
+     */
+    LRU,
+    /**
+     * Only admits a new entry when it was requested more often than the entry it would evict, so that scans do not
+     * flush frequently used entries. New entries get a small LRU window to gain some frequency first.
+     */
+    TINY_LFU;
+}
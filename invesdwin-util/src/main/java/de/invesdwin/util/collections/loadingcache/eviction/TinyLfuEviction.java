@@ -0,0 +1,169 @@
+package de.invesdwin.util.collections.loadingcache.eviction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.eviction.internal.TinyLfuFrequencySketch;
+
+/**
+ * Window TinyLFU bookkeeping of the keys of a cache, the cache itself stores the values and removes the keys that are
+ * returned for eviction.
+ *
+ * New keys enter a small LRU window. Keys that fall out of the window only get admitted to the main segment when they
+ * were accessed more often than the least recently used key of the probation part of the main segment. Keys that get
+ * accessed again while in probation are promoted to the protected part of the main segment.
+ */
+@NotThreadSafe
+public class TinyLfuEviction<K> {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final TinyLfuFrequencySketch sketch;
+    private final Map<K, Boolean> window = newSegment();
+    private final Map<K, Boolean> probation = newSegment();
+    private final Map<K, Boolean> protectedSegment = newSegment();
+    private int maximumSize;
+    private int maximumWindowSize;
+    private int maximumMainSize;
+    private int maximumProtectedSize;
+
+    public TinyLfuEviction(final int maximumSize) {
+        this.sketch = new TinyLfuFrequencySketch(maximumSize);
+        setMaximumSizes(maximumSize);
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the keys that do not fit anymore and should be evicted.
+     */
+    public List<K> setMaximumSize(final int maximumSize) {
+        sketch.ensureCapacity(maximumSize);
+        setMaximumSizes(maximumSize);
+        final List<K> evicted = new ArrayList<K>();
+        while (probation.size() + protectedSegment.size() > maximumMainSize) {
+            evicted.add(removeMainVictim());
+        }
+        evictWindow(evicted);
+        return evicted;
+    }
+
+    private void setMaximumSizes(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize [" + maximumSize + "] should be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWindowSize = Math.max(1, maximumSize * WINDOW_PERCENT / 100);
+        this.maximumMainSize = maximumSize - maximumWindowSize;
+        this.maximumProtectedSize = maximumMainSize * PROTECTED_PERCENT / 100;
+    }
+
+    /**
+     * Records an access to the key, which is added if it is unknown. Returns the keys that should be evicted, which
+     * might contain the given key itself when it was not admitted.
+     */
+    public List<K> access(final K key) {
+        sketch.increment(key);
+        if (window.get(key) != null) {
+            return Collections.emptyList();
+        }
+        if (probation.remove(key) != null) {
+            protectedSegment.put(key, Boolean.TRUE);
+            while (protectedSegment.size() > maximumProtectedSize) {
+                //demote the least recently used protected key
+                final K demoted = removeEldest(protectedSegment);
+                probation.put(demoted, Boolean.TRUE);
+            }
+            return Collections.emptyList();
+        }
+        if (protectedSegment.get(key) != null) {
+            return Collections.emptyList();
+        }
+        window.put(key, Boolean.TRUE);
+        if (window.size() <= maximumWindowSize) {
+            return Collections.emptyList();
+        }
+        final List<K> evicted = new ArrayList<K>(1);
+        evictWindow(evicted);
+        return evicted;
+    }
+
+    public boolean contains(final K key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    public void remove(final K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    public int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    public int frequency(final K key) {
+        return sketch.frequency(key);
+    }
+
+    /**
+     * Keeps the frequencies, since the same keys will likely be accessed again after e.g. a refresh.
+     */
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+    }
+
+    private void evictWindow(final List<K> evicted) {
+        while (window.size() > maximumWindowSize) {
+            final K candidate = removeEldest(window);
+            if (probation.size() + protectedSegment.size() < maximumMainSize) {
+                probation.put(candidate, Boolean.TRUE);
+            } else if (maximumMainSize > 0 && sketch.frequency(candidate) > sketch.frequency(getMainVictim())) {
+                evicted.add(removeMainVictim());
+                probation.put(candidate, Boolean.TRUE);
+            } else {
+                evicted.add(candidate);
+            }
+        }
+    }
+
+    private K getMainVictim() {
+        if (!probation.isEmpty()) {
+            return probation.keySet().iterator().next();
+        } else {
+            return protectedSegment.keySet().iterator().next();
+        }
+    }
+
+    private K removeMainVictim() {
+        if (!probation.isEmpty()) {
+            return removeEldest(probation);
+        } else {
+            return removeEldest(protectedSegment);
+        }
+    }
+
+    private static <K> K removeEldest(final Map<K, Boolean> segment) {
+        final Iterator<K> iterator = segment.keySet().iterator();
+        final K eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    private static <K> Map<K, Boolean> newSegment() {
+        //access order moves keys to the end on get
+        return new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+    }
+
+}
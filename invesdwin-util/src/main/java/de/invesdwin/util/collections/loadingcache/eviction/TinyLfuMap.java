@@ -0,0 +1,91 @@
+package de.invesdwin.util.collections.loadingcache.eviction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import de.invesdwin.util.collections.ADelegateMap;
+
+/**
+ * Size limited map that decides with TinyLFU which entries to keep, similar to LRUMap. Hits and puts count as accesses,
+ * thus a loading cache should only put a value after a miss. A put might not get admitted, then the value is not
+ * stored.
+ */
+@NotThreadSafe
+public class TinyLfuMap<K, V> extends ADelegateMap<K, V> {
+
+    private final TinyLfuEviction<K> eviction;
+
+    public TinyLfuMap(final int maximumSize) {
+        this.eviction = new TinyLfuEviction<K>(maximumSize);
+    }
+
+    @Override
+    protected Map<K, V> newDelegate() {
+        return new HashMap<K, V>();
+    }
+
+    public int maxSize() {
+        return eviction.getMaximumSize();
+    }
+
+    public void setMaxSize(final int maximumSize) {
+        evict(eviction.setMaximumSize(maximumSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(final Object key) {
+        final V value = getDelegate().get(key);
+        if (value != null) {
+            evict(eviction.access((K) key));
+        }
+        return value;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        final V oldValue = getDelegate().put(key, value);
+        evict(eviction.access(key));
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        for (final Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(final Object key) {
+        eviction.remove((K) key);
+        return getDelegate().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        eviction.clear();
+        getDelegate().clear();
+    }
+
+    /**
+     * Can be overridden to get notified about entries that got removed or not admitted because the maximum size was
+     * exceeded.
+     */
+    protected void onEvicted(final K key, final V value) {}
+
+    private void evict(final List<K> evicted) {
+        for (int i = 0; i < evicted.size(); i++) {
+            final K key = evicted.get(i);
+            final V value = getDelegate().remove(key);
+            if (value != null) {
+                onEvicted(key, value);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package de.invesdwin.util.collections.loadingcache.eviction.internal;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Count-min sketch with 4 bit counters that estimates how often a key was accessed. All counters get halved after a
+ * sample of ten times the maximum size, so that the frequencies adapt when the working set changes.
+ *
+ * @see <a href="https://arxiv.org/abs/1512.00727">TinyLFU: A Highly Efficient Cache Admission Policy</a>
+ */
+@NotThreadSafe
+public class TinyLfuFrequencySketch {
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_COUNT = 15;
+    private static final int MAX_TABLE_LENGTH = 1 << 30;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    public TinyLfuFrequencySketch(final int maximumSize) {
+        ensureCapacity(maximumSize);
+    }
+
+    /**
+     * Discards the frequencies when the table needs to grow.
+     */
+    public void ensureCapacity(final int maximumSize) {
+        final int tableLength = ceilingPowerOfTwo(Math.max(maximumSize, 1));
+        if (table == null || table.length < tableLength) {
+            table = new long[tableLength];
+            tableMask = tableLength - 1;
+            size = 0;
+        }
+        sampleSize = (int) Math.min(10L * Math.max(maximumSize, 1), Integer.MAX_VALUE);
+    }
+
+    public int frequency(final Object key) {
+        final int hash = spread(key.hashCode());
+        //each key uses a group of 4 out of the 16 counters in a long
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = indexOf(hash, i);
+            final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(final Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = indexOf(hash, i);
+            added |= incrementAt(index, start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(final int index, final int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int oddCounters = 0;
+        for (int i = 0; i < table.length; i++) {
+            oddCounters += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        //the halving truncates the odd counters
+        size = (size >>> 1) - (oddCounters >>> 2);
+    }
+
+    private int indexOf(final int hash, final int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(final int hashCode) {
+        int x = hashCode;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(final int value) {
+        if (value >= MAX_TABLE_LENGTH) {
+            return MAX_TABLE_LENGTH;
+        }
+        final int highestOneBit = Integer.highestOneBit(value);
+        if (highestOneBit == value) {
+            return value;
+        } else {
+            return highestOneBit << 1;
+        }
+    }
+
+}
@@ -1,7 +1,16 @@
 package de.invesdwin.util.collections.loadingcache.guava;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import com.google.common.base.Optional;
@@ -10,27 +19,48 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 
 import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.eviction.LoadingCacheEvictionPolicy;
+import de.invesdwin.util.collections.loadingcache.eviction.TinyLfuEviction;
 import de.invesdwin.util.collections.loadingcache.guava.internal.OptionalValueWrapperLoadingCache;
+import de.invesdwin.util.collections.loadingcache.guava.internal.TinyLfuLoadingCacheMap;
 import de.invesdwin.util.collections.loadingcache.guava.internal.WrapperLoadingCacheMap;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.collections.loadingcache.weight.DefaultLoadingCacheWeigher;
+import de.invesdwin.util.collections.loadingcache.weight.ILoadingCacheWeigher;
+import de.invesdwin.util.concurrent.Executors;
 import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FTimeUnit;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
 @NotThreadSafe
 public class GuavaLoadingCacheMapConfig {
 
+    @GuardedBy("GuavaLoadingCacheMapConfig.class")
+    private static ScheduledExecutorService defaultRefreshExecutor;
+
     /**
      * Scale concurrency with CPUs.
      */
     private Integer concurrencyLevel = Runtime.getRuntime().availableProcessors();
     private Long maximumSize;
+    private Long maximumWeight;
+    private ILoadingCacheWeigher weigher;
     private Duration expireAfterWrite;
     private Duration expireAfterAccess;
+    private Duration refreshAfterWrite;
+    private Duration refreshJitter;
+    private ScheduledExecutorService refreshExecutor;
+    private LoadingCacheMetrics metrics;
     private Boolean softValues;
     private Boolean weakKeys;
     private Boolean weakValues;
     private IRemovalListener removalListener;
+    private LoadingCacheEvictionPolicy evictionPolicy = LoadingCacheEvictionPolicy.LRU;
 
     public Integer getConcurrencyLevel() {
         return concurrencyLevel;
@@ -51,7 +81,7 @@ public class GuavaLoadingCacheMapConfig {
     }
 
     public GuavaLoadingCacheMapConfig withMaximumSize(final Integer maximumSize) {
-        if (this.maximumSize == null) {
+        if (maximumSize == null) {
             this.maximumSize = null;
         } else {
             this.maximumSize = maximumSize.longValue();
@@ -59,6 +89,31 @@ public class GuavaLoadingCacheMapConfig {
         return this;
     }
 
+    public Long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Limits the cache by the total weight of the entries instead of their count, this can not be combined with a
+     * maximum size.
+     */
+    public GuavaLoadingCacheMapConfig withMaximumWeight(final Long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    public ILoadingCacheWeigher getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Default is the DefaultLoadingCacheWeigher when a maximum weight is set.
+     */
+    public GuavaLoadingCacheMapConfig withWeigher(final ILoadingCacheWeigher weigher) {
+        this.weigher = weigher;
+        return this;
+    }
+
     public Duration getExpireAfterWrite() {
         return expireAfterWrite;
     }
@@ -77,6 +132,57 @@ public class GuavaLoadingCacheMapConfig {
         return this;
     }
 
+    public Duration getRefreshAfterWrite() {
+        return refreshAfterWrite;
+    }
+
+    /**
+     * The first request after this duration triggers a reload in the background, while the stale value is still
+     * served until the reload is finished. Should be shorter than expireAfterWrite, otherwise the value expires before
+     * it gets refreshed.
+     */
+    public GuavaLoadingCacheMapConfig withRefreshAfterWrite(final Duration refreshAfterWrite) {
+        this.refreshAfterWrite = refreshAfterWrite;
+        return this;
+    }
+
+    public Duration getRefreshJitter() {
+        return refreshJitter;
+    }
+
+    /**
+     * Delays each background reload randomly up to this duration, so that entries that were loaded together do not
+     * hit the backend together when they get refreshed.
+     */
+    public GuavaLoadingCacheMapConfig withRefreshJitter(final Duration refreshJitter) {
+        this.refreshJitter = refreshJitter;
+        return this;
+    }
+
+    public ScheduledExecutorService getRefreshExecutor() {
+        return refreshExecutor;
+    }
+
+    /**
+     * Default is a shared executor with one thread per CPU.
+     */
+    public GuavaLoadingCacheMapConfig withRefreshExecutor(final ScheduledExecutorService refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    public LoadingCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Records the stale hits and reload latencies when refreshAfterWrite is used.
+     */
+    public GuavaLoadingCacheMapConfig withMetrics(final LoadingCacheMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
     public GuavaLoadingCacheMapConfig withSoftValues(final Boolean softValues) {
         this.softValues = softValues;
         return this;
@@ -108,13 +214,43 @@ public class GuavaLoadingCacheMapConfig {
         return removalListener;
     }
 
+    /**
+     * With TINY_LFU, evicted entries are reported with RemovalCause.SIZE after their explicit removal from the
+     * underlying guava cache.
+     */
     public GuavaLoadingCacheMapConfig withRemovalListener(final IRemovalListener removalListener) {
         this.removalListener = removalListener;
         return this;
     }
 
+    public LoadingCacheEvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * TINY_LFU keeps frequently used entries when the maximum size is reached, instead of the recently used ones.
+     */
+    public GuavaLoadingCacheMapConfig withEvictionPolicy(final LoadingCacheEvictionPolicy evictionPolicy) {
+        if (evictionPolicy == null) {
+            throw new IllegalArgumentException("evictionPolicy should not be null");
+        }
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    private boolean isTinyLfu() {
+        return evictionPolicy == LoadingCacheEvictionPolicy.TINY_LFU && maximumSize != null && maximumSize > 0;
+    }
+
     <K, V> Map<K, V> newMap(final AGuavaLoadingCacheMap<K, V> parent) {
-        final CacheBuilder<Object, Object> builder = newCacheBuilder();
+        final TinyLfuEviction<K> eviction;
+        if (isTinyLfu()) {
+            eviction = new TinyLfuEviction<K>((int) Math.min(maximumSize, Integer.MAX_VALUE));
+        } else {
+            eviction = null;
+        }
+        final CacheBuilder<Object, Object> builder = newCacheBuilder(eviction);
+        final Set<K> refreshingKeys = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
         final LoadingCache<K, V> delegate = new OptionalValueWrapperLoadingCache<K, V>(
                 builder.<K, Optional<V>> build(new CacheLoader<K, Optional<V>>() {
                     @Override
@@ -122,20 +258,109 @@ public class GuavaLoadingCacheMapConfig {
                         final V value = parent.loadValue(key);
                         return Optional.fromNullable(value);
                     }
+
+                    @Override
+                    public ListenableFuture<Optional<V>> reload(final K key, final Optional<V> oldValue)
+                            throws Exception {
+                        return scheduleReload(parent, refreshingKeys, key);
+                    }
                 })) {
+            @Override
+            public V getUnchecked(final K key) {
+                final V value = super.getUnchecked(key);
+                if (metrics != null && refreshAfterWrite != null && refreshingKeys.contains(key)) {
+                    metrics.recordStaleHit();
+                }
+                return value;
+            }
+
             @Override
             protected boolean isPutAllowed(final K key, final V value) {
                 return parent.isPutAllowed(key, value);
             };
         };
-        return new WrapperLoadingCacheMap<K, V>(delegate);
+        final WrapperLoadingCacheMap<K, V> map = new WrapperLoadingCacheMap<K, V>(delegate);
+        if (eviction != null) {
+            return new TinyLfuLoadingCacheMap<K, V>(map, eviction, removalListener);
+        } else {
+            return map;
+        }
+    }
+
+    private <K, V> ListenableFuture<Optional<V>> scheduleReload(final AGuavaLoadingCacheMap<K, V> parent,
+            final Set<K> refreshingKeys, final K key) {
+        final ListenableFutureTask<Optional<V>> task = ListenableFutureTask.create(new Callable<Optional<V>>() {
+            @Override
+            public Optional<V> call() throws Exception {
+                final long start = System.nanoTime();
+                try {
+                    final V value = parent.loadValue(key);
+                    return Optional.fromNullable(value);
+                } finally {
+                    refreshingKeys.remove(key);
+                    if (metrics != null) {
+                        metrics.recordLoadLatency(LoadingCacheMetrics.RELOAD_VALUE, start);
+                    }
+                }
+            }
+        });
+        refreshingKeys.add(key);
+        try {
+            newRefreshExecutor().schedule(task, newRefreshDelayMillis(), TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            //guava keeps the stale value and tries again on the next request
+            refreshingKeys.remove(key);
+            throw e;
+        }
+        return task;
     }
 
-    private <K, V> CacheBuilder<Object, Object> newCacheBuilder() {
+    private long newRefreshDelayMillis() {
+        if (refreshJitter == null) {
+            return 0L;
+        }
+        final long jitterMillis = refreshJitter.longValue(FTimeUnit.MILLISECONDS);
+        if (jitterMillis <= 0) {
+            return 0L;
+        }
+        return ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+    }
+
+    private ScheduledExecutorService newRefreshExecutor() {
+        if (refreshExecutor != null) {
+            return refreshExecutor;
+        } else {
+            return getDefaultRefreshExecutor();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getDefaultRefreshExecutor() {
+        if (defaultRefreshExecutor == null) {
+            defaultRefreshExecutor = Executors.newScheduledThreadPool(
+                    GuavaLoadingCacheMapConfig.class.getSimpleName() + "_refresh",
+                    Runtime.getRuntime().availableProcessors());
+        }
+        return defaultRefreshExecutor;
+    }
+
+    private <K, V> CacheBuilder<Object, Object> newCacheBuilder(final TinyLfuEviction<K> eviction) {
         final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
-        if (maximumSize != null) {
+        if (maximumSize != null && eviction == null) {
+            //with tiny lfu the size is limited by the wrapper
             builder.maximumSize(maximumSize);
         }
+        if (maximumWeight != null) {
+            builder.maximumWeight(maximumWeight);
+            Assertions.assertThat(builder.weigher(new Weigher<K, Optional<V>>() {
+                private final ILoadingCacheWeigher<K, V> delegate = newWeigher();
+
+                @Override
+                public int weigh(final K key, final Optional<V> value) {
+                    //guava only supports int weights
+                    return (int) Math.min(delegate.weigh(key, value.orNull()), Integer.MAX_VALUE);
+                }
+            })).isNotNull();
+        }
         if (concurrencyLevel != null) {
             builder.concurrencyLevel(concurrencyLevel);
         }
@@ -145,20 +370,47 @@ public class GuavaLoadingCacheMapConfig {
         if (expireAfterWrite != null) {
             builder.expireAfterWrite(expireAfterWrite.longValue(), expireAfterWrite.getTimeUnit().timeUnitValue());
         }
+        if (refreshAfterWrite != null) {
+            builder.refreshAfterWrite(refreshAfterWrite.longValue(), refreshAfterWrite.getTimeUnit().timeUnitValue());
+        }
         configureKeysAndValues(builder);
-        if (removalListener != null) {
+        if (removalListener != null || eviction != null) {
             Assertions.assertThat(builder.removalListener(new RemovalListener<K, Optional<V>>() {
                 private final IRemovalListener<K, V> delegate = removalListener;
 
                 @Override
                 public void onRemoval(final RemovalNotification<K, Optional<V>> notification) {
-                    delegate.onRemoval(notification.getKey(), notification.getValue().get(), notification.getCause());
+                    if (eviction != null && notification.wasEvicted()) {
+                        //expired or collected entries should not count against the maximum size anymore
+                        synchronized (eviction) {
+                            eviction.remove(notification.getKey());
+                        }
+                    }
+                    if (delegate != null) {
+                        //null values are cached as absent, collected values are null
+                        final Optional<V> value = notification.getValue();
+                        final V unwrapped;
+                        if (value != null) {
+                            unwrapped = value.orNull();
+                        } else {
+                            unwrapped = null;
+                        }
+                        delegate.onRemoval(notification.getKey(), unwrapped, notification.getCause());
+                    }
                 }
             })).isNotNull();
         }
         return builder;
     }
 
+    private ILoadingCacheWeigher newWeigher() {
+        if (weigher != null) {
+            return weigher;
+        } else {
+            return DefaultLoadingCacheWeigher.INSTANCE;
+        }
+    }
+
     private void configureKeysAndValues(final CacheBuilder<Object, Object> builder) {
         if (softValues != null && softValues) {
             builder.softValues();
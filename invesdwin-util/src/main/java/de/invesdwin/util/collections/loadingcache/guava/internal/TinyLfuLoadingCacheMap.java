@@ -0,0 +1,131 @@
+package de.invesdwin.util.collections.loadingcache.guava.internal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.eviction.TinyLfuEviction;
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+
+/**
+ * Guava only supports LRU eviction, thus the unlimited guava cache is limited here with TinyLFU. Evictions happen
+ * outside of the lock of the eviction bookkeeping, so that removal listeners can not deadlock.
+ */
+@ThreadSafe
+public class TinyLfuLoadingCacheMap<K, V> implements Map<K, V> {
+
+    private final Map<K, V> delegate;
+    @GuardedBy("self")
+    private final TinyLfuEviction<K> eviction;
+    private final IRemovalListener<K, V> removalListener;
+
+    public TinyLfuLoadingCacheMap(final Map<K, V> delegate, final TinyLfuEviction<K> eviction) {
+        this(delegate, eviction, null);
+    }
+
+    /**
+     * The listener gets notified with RemovalCause.SIZE about entries that got evicted, it might be null. The removal
+     * from the delegate is an explicit one for guava.
+     */
+    public TinyLfuLoadingCacheMap(final Map<K, V> delegate, final TinyLfuEviction<K> eviction,
+            final IRemovalListener<K, V> removalListener) {
+        this.delegate = delegate;
+        this.eviction = eviction;
+        this.removalListener = removalListener;
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        return delegate.containsValue(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(final Object key) {
+        final V value = delegate.get(key);
+        access((K) key);
+        return value;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        final V oldValue = delegate.put(key, value);
+        access(key);
+        return oldValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(final Object key) {
+        synchronized (eviction) {
+            eviction.remove((K) key);
+        }
+        return delegate.remove(key);
+    }
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        for (final Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (eviction) {
+            eviction.clear();
+        }
+        delegate.clear();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return delegate.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return delegate.values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return delegate.entrySet();
+    }
+
+    private void access(final K key) {
+        final List<K> evicted;
+        synchronized (eviction) {
+            evicted = eviction.access(key);
+        }
+        for (int i = 0; i < evicted.size(); i++) {
+            final K evictedKey = evicted.get(i);
+            final V evictedValue = delegate.remove(evictedKey);
+            if (removalListener != null && evictedValue != null) {
+                removalListener.onRemoval(evictedKey, evictedValue, RemovalCause.SIZE);
+            }
+        }
+    }
+
+}
@@ -1,11 +1,43 @@
 package de.invesdwin.util.collections.loadingcache.historical;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
 import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 
 import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.bean.tuple.ImmutableEntry;
+import de.invesdwin.util.collections.iterable.ACloseableIterator;
+import de.invesdwin.util.collections.iterable.EmptyCloseableIterator;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.iterable.WrapperCloseableIterator;
 import de.invesdwin.util.collections.iterable.buffer.BufferingIterator;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.AHistoricalCacheQueryInterceptor;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheBatchQueryInterceptor;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheQueryInterceptor;
 import de.invesdwin.util.collections.loadingcache.historical.internal.AGapHistoricalCacheMissCounter;
+import de.invesdwin.util.collections.loadingcache.historical.internal.AGapHistoricalCacheMissCounter.Reoptimization;
+import de.invesdwin.util.collections.loadingcache.historical.persistent.HistoricalCachePersistentStore;
+import de.invesdwin.util.collections.loadingcache.historical.persistent.IHistoricalCachePersistentStoreSource;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.Futures;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+import de.invesdwin.util.error.Throwables;
 import de.invesdwin.util.time.duration.Duration;
 import de.invesdwin.util.time.fdate.FDate;
 import de.invesdwin.util.time.fdate.FTimeUnit;
@@ -29,16 +61,71 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
      */
     public static final long DEFAULT_READ_BACK_STEP_MILLIS = new Duration(10, FTimeUnit.DAYS)
             .intValue(FTimeUnit.MILLISECONDS);
+    /**
+     * 16 segments allow a good amount of parallel loads without keeping too many read positions in memory.
+     */
+    public static final int DEFAULT_CONCURRENT_LOADING_SEGMENTS = 16;
     /**
      * having 2 here helps with queries for elements that are filtered by end time
      */
     private static final int MAX_LAST_VALUES_FROM_LOAD_FURTHER_VALUES = 2;
+    /**
+     * each segment covers a time range of this many read back steps, so that iterations mostly stay in one segment
+     */
+    private static final int CONCURRENT_LOADING_SEGMENT_READ_BACK_STEPS = 10;
+    /**
+     * small enough to not stall the first query on a slow db, large enough to not cause too many queries
+     */
+    public static final int DEFAULT_PREFETCH_CHUNK_SIZE = 1000;
+    /**
+     * one chunk gets consumed while the next one gets loaded
+     */
+    public static final int DEFAULT_PREFETCH_DEPTH = 2;
+    /**
+     * keeps the keys of a batch together with their floor values within the cache
+     */
+    public static final int DEFAULT_BATCH_LOADING_SIZE = 1000;
+    /**
+     * after this many values without a requested key, a new range is started with a separate query
+     */
+    private static final int MAX_SKIPPED_VALUES_PER_BATCH_RANGE = 100;
+    public static final String READ_ALL_VALUES_ASCENDING_FROM = "readAllValuesAscendingFrom";
+    public static final String READ_LATEST_VALUE_FOR = "readLatestValueFor";
+    private static final org.slf4j.ext.XLogger LOG = org.slf4j.ext.XLoggerFactory
+            .getXLogger(AGapHistoricalCache.class);
 
     private static boolean debugAutomaticReoptimization = false;
+    @GuardedBy("AGapHistoricalCache.class")
+    private static WrappedExecutorService defaultPrefetchExecutor;
+    private final IHistoricalCacheQueryInterceptor<V> gapQueryInterceptor = new GapQueryInterceptor();
+    private final HistoricalCachePersistentStore<V> persistentStore = newPersistentStore();
+    private final IHistoricalCachePersistentStoreSource<V> persistentStoreSource = new IHistoricalCachePersistentStoreSource<V>() {
+        @Override
+        public Iterable<? extends V> readAllValuesAscendingFrom(final FDate key) {
+            return readAllValuesFromDB(key);
+        }
+
+        @Override
+        public V readLatestValueFor(final FDate key) {
+            return readLatestValueFromDB(key);
+        }
+
+        @Override
+        public FDate extractKey(final V value) {
+            return AGapHistoricalCache.this.extractKey(null, value);
+        }
+
+        @Override
+        public FDate getKnownMaxKey() {
+            return maxKeyInDB;
+        }
+    };
     @GuardedBy("this")
-    private final BufferingIterator<V> furtherValues = new BufferingIterator<V>();
-    @GuardedBy("this")
-    private final BufferingIterator<V> lastValuesFromFurtherValues = new BufferingIterator<V>();
+    private final GapLoader defaultLoader = new GapLoader();
+    private final GapLoader[] concurrentLoaders = newConcurrentLoaders();
+    private final ConcurrentMap<FDate, FutureTask<V>> concurrentLoads = newConcurrentLoads();
+    private final ThreadLocal<GapLoader> currentConcurrentLoader = new ThreadLocal<GapLoader>();
+    private final boolean adaptiveSizing = isAdaptiveSizing();
     @GuardedBy("this")
     private final AGapHistoricalCacheMissCounter<V> cacheMissCounter = new AGapHistoricalCacheMissCounter<V>() {
 
@@ -54,7 +141,7 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
 
         @Override
         protected Iterable<? extends V> readAllValuesAscendingFrom(final FDate curMaxDate) {
-            return AGapHistoricalCache.this.readAllValuesAscendingFrom(curMaxDate);
+            return readAllValues(curMaxDate);
         }
 
         @Override
@@ -67,6 +154,21 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
             AGapHistoricalCache.this.increaseMaximumSize(optimalMaximumSize);
         }
 
+        @Override
+        protected void decreaseOptimalMaximumSize(final int optimalMaximumSize) {
+            AGapHistoricalCache.this.decreaseMaximumSize(optimalMaximumSize);
+        }
+
+        @Override
+        protected Integer getBudgetMaximumSize() {
+            return AGapHistoricalCache.this.getBudgetMaximumSize();
+        }
+
+        @Override
+        protected boolean isAdaptiveSizing() {
+            return adaptiveSizing;
+        }
+
         @Override
         protected String parentToString() {
             return AGapHistoricalCache.this.toString();
@@ -76,27 +178,30 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
         protected boolean isDebugAutomaticReoptimization() {
             return isDefaultDebugAutomaticReoptimization();
         }
+
+        @Override
+        protected void onReoptimization() {
+            final LoadingCacheMetrics metrics = getMetrics();
+            if (metrics != null) {
+                metrics.recordReoptimization();
+            }
+        }
     };
     /**
-     * As a convenience a field even if always reset
+     * volatile so that concurrent loaders can read this without the lock
      */
     @GuardedBy("this")
-    private boolean furtherValuesLoaded;
-    @GuardedBy("this")
-    private FDate minKeyInDB;
-    @GuardedBy("this")
-    private FDate minKeyInDBFromLoadFurtherValues;
-    @GuardedBy("this")
-    private FDate maxKeyInDBFromLoadFurtherValues;
+    private volatile FDate minKeyInDB;
     /**
      * Remembering this for cache eviction
      */
     @GuardedBy("this")
-    private FDate maxKeyInDB;
-    @GuardedBy("this")
-    private FDate maxKey;
+    private volatile FDate maxKeyInDB;
+    /**
+     * concurrent loaders compare this to clear themselves lazily
+     */
     @GuardedBy("this")
-    private FDate minKey;
+    private volatile int clearCount;
 
     /**
      * You can enable this setting to get useful info when the automatic reoptimization happens, so you can hardcode the
@@ -116,103 +221,160 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
         cacheMissCounter.increaseMaximumSize(maximumSize);
     }
 
+    /**
+     * E.g. the budget manager shrinks this cache, the next growth then starts from here.
+     */
+    @Override
+    protected synchronized void decreaseMaximumSize(final int maximumSize) {
+        super.decreaseMaximumSize(maximumSize);
+        cacheMissCounter.decreaseMaximumSize(maximumSize);
+    }
+
     /**
      * Assumption: cache eviction does not cause values to be evicted with their keys not being evicted aswell.
-     * 
+     *
      * Even maximiumSize eviction causes random entries in the list to be missing because of least-recently-used
      * strategy
      */
     @Override
-    protected final synchronized V loadValue(final FDate key) {
-        eventuallyGetMinMaxKeysInDB(key, false);
-
-        this.furtherValuesLoaded = false;
-        final FDate previousMaxKey = maxKey;
-        final boolean newMaxKey = updateMaxKey(key);
-        final boolean newMinKey = updateMinKey(key);
-
-        //Try loading from cache before trying a query; via gap finding or through min key
-        V value = loadFromCacheBeforeLoadFurtherValues(key, newMaxKey, newMinKey);
-        if (value != null) {
-            return value;
+    protected final V loadValue(final FDate key) {
+        if (concurrentLoaders == null) {
+            synchronized (this) {
+                return defaultLoader.loadValue(key);
+            }
+        } else {
+            return loadValueConcurrently(key);
         }
+    }
 
-        //Try the expensive query
-        if (!furtherValuesLoaded) {
-            final FDate adjKey = determineEaliestStartOfLoadFurtherValues(key);
-            furtherValuesLoaded = eventuallyLoadFurtherValues("loadValue", key, adjKey, newMinKey, false);
+    private V loadValueConcurrently(final FDate key) {
+        final GapLoader nestingLoader = currentConcurrentLoader.get();
+        if (nestingLoader != null) {
+            //nested loads stay in the segment that is already locked by this thread, thus no deadlocks can occur
+            return nestingLoader.loadValue(key);
         }
-        value = searchInFurtherValues(key);
-        if (!furtherValuesLoaded && isPotentiallyAlreadyEvicted(key, value)) {
-            cacheMissCounter.checkSuccessiveCacheEvictions(key);
-            final FDate adjKey = determineEaliestStartOfLoadFurtherValues(key);
-            furtherValuesLoaded = eventuallyLoadFurtherValues("loadValueBecauseOfEviction", key, adjKey, newMinKey,
-                    true);
-            value = searchInFurtherValues(key);
+        final FutureTask<V> load = new FutureTask<V>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return loadValueInSegment(key);
+            }
+        });
+        final FutureTask<V> existingLoad = concurrentLoads.putIfAbsent(key, load);
+        if (existingLoad != null) {
+            //share the result of the load that is already running for this key
+            return getConcurrentLoad(existingLoad);
         }
-        if (value != null) {
-            return value;
+        try {
+            load.run();
+            return getConcurrentLoad(load);
+        } finally {
+            concurrentLoads.remove(key, load);
         }
+    }
 
-        //Try to used the last value if there is no higher key in db
-        value = tryLoadFromCacheAfterLoadFurtherValues(key, newMaxKey, previousMaxKey);
-        if (value != null) {
-            return value;
+    private V loadValueInSegment(final FDate key) {
+        final GapLoader loader = concurrentLoaders[getConcurrentLoaderIndex(key)];
+        synchronized (loader) {
+            currentConcurrentLoader.set(loader);
+            try {
+                loader.clearIfStale();
+                V value = loader.loadValue(key);
+                while (loader.isStale()) {
+                    //a clear or refresh happened during the load, thus the value might be outdated
+                    loader.clearIfStale();
+                    value = loader.loadValue(key);
+                }
+                return value;
+            } finally {
+                currentConcurrentLoader.remove();
+            }
+        }
+    }
+
+    private V getConcurrentLoad(final FutureTask<V> load) {
+        try {
+            return load.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
         }
+    }
 
-        //And last we just try to get the newest value matching the key.
-        //If there are no values in db, this method is only called once
-        return readNewestValueFromDB(key);
+    private int getConcurrentLoaderIndex(final FDate key) {
+        final long segmentMillis = Math.max(1L, getReadBackStepMillis() * CONCURRENT_LOADING_SEGMENT_READ_BACK_STEPS);
+        final long segment = Math.floorDiv(key.millisValue(), segmentMillis);
+        return (int) Math.floorMod(segment, concurrentLoaders.length);
     }
 
-    private boolean isPotentiallyAlreadyEvicted(final FDate key, final V value) {
-        final boolean isEvictedBeforeCurrentFurtherValues = (value == null || extractKey(key, value).isAfter(key))
-                && (key.isAfter(minKeyInDB) || key.isAfter(minKeyInDBFromLoadFurtherValues));
-        if (isEvictedBeforeCurrentFurtherValues) {
-            return true;
+    @SuppressWarnings("unchecked")
+    private GapLoader[] newConcurrentLoaders() {
+        if (!isConcurrentLoading()) {
+            return null;
         }
-        final boolean mightBeEvictedAfterFurtherValues = value != null && furtherValues.isEmpty();
-        if (mightBeEvictedAfterFurtherValues) {
-            final FDate valueKey = extractKey(key, value);
-            final boolean isEvictedAfterCurrentFurtherValues = valueKey.isBefore(key)
-                    && valueKey.isBeforeOrEqual(maxKeyInDB);
-            if (isEvictedAfterCurrentFurtherValues) {
-                return true;
-            }
+        final int segments = getConcurrentLoadingSegments();
+        Assertions.checkTrue(segments > 0, "concurrentLoadingSegments [%s] should be positive", segments);
+        final GapLoader[] loaders = new AGapHistoricalCache.GapLoader[segments];
+        for (int i = 0; i < loaders.length; i++) {
+            loaders[i] = new GapLoader();
+        }
+        return loaders;
+    }
+
+    private ConcurrentMap<FDate, FutureTask<V>> newConcurrentLoads() {
+        if (isConcurrentLoading()) {
+            return new ConcurrentHashMap<FDate, FutureTask<V>>();
+        } else {
+            return null;
         }
+    }
 
+    /**
+     * When enabled, cache misses are no longer serialized on this cache. Instead the keys are distributed by their time
+     * range to segments that each keep their own read position, so that misses on different time ranges load in
+     * parallel. Concurrent misses on the same key share one load. This helps when many threads query different time
+     * ranges of a shared cache, though each segment has to find its read position in the db first.
+     */
+    protected boolean isConcurrentLoading() {
         return false;
     }
 
-    private boolean eventuallyGetMinMaxKeysInDB(final FDate key, final boolean force) {
+    protected int getConcurrentLoadingSegments() {
+        return DEFAULT_CONCURRENT_LOADING_SEGMENTS;
+    }
+
+    private GapLoader getCurrentLoader() {
+        if (concurrentLoaders == null) {
+            return defaultLoader;
+        } else {
+            return currentConcurrentLoader.get();
+        }
+    }
+
+    private boolean eventuallyGetMinMaxKeysInDB(final GapLoader loader, final FDate key, final boolean force) {
         boolean changed = false;
-        if (eventuallyGetMinKeyInDB(key, force)) {
+        if (eventuallyGetMinKeyInDB(loader, key, force)) {
             changed = true;
         }
-        if (eventuallyGetMaxKeyInDB(key, force)) {
+        if (eventuallyGetMaxKeyInDB(loader, key, force)) {
             changed = true;
         }
         return changed;
     }
 
-    private boolean eventuallyGetMaxKeyInDB(final FDate key, final boolean force) {
+    private boolean eventuallyGetMaxKeyInDB(final GapLoader loader, final FDate key, final boolean force) {
         //not updating highest allowed key, since this already happened during key adjustment
         final FDate newMaxKeyInDB = getAdjustKeyProvider().getHighestAllowedKey();
         if (newMaxKeyInDB != null) {
-            if (newMaxKeyInDB.isAfter(maxKeyInDB)) {
-                maxKeyInDB = newMaxKeyInDB;
-                return true;
-            } else {
-                return false;
-            }
+            return increaseMaxKeyInDB(newMaxKeyInDB);
         }
         //fallback to normal procedure if curHighWaterMark is not provided by provider
         if (maxKeyInDB == null || force) {
-            final V maxValue = readNewestValueFromDB(maxKey());
+            final V maxValue = readNewestValueFromDB(loader, maxKey());
             if (maxValue != null) {
                 final FDate maxValueKey = extractKey(key, maxValue);
-                if (maxKeyInDB == null || maxValueKey.compareTo(maxKeyInDB) <= -1) {
-                    maxKeyInDB = maxValueKey;
+                if (replaceMaxKeyInDB(maxValueKey)) {
                     getValuesMap().put(maxValueKey, maxValue);
                     return true;
                 }
@@ -221,14 +383,31 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
         return false;
     }
 
-    private boolean eventuallyGetMinKeyInDB(final FDate key, final boolean force) {
+    private synchronized boolean increaseMaxKeyInDB(final FDate newMaxKeyInDB) {
+        if (newMaxKeyInDB.isAfter(maxKeyInDB)) {
+            maxKeyInDB = newMaxKeyInDB;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private synchronized boolean replaceMaxKeyInDB(final FDate maxValueKey) {
+        if (maxKeyInDB == null || maxValueKey.compareTo(maxKeyInDB) <= -1) {
+            maxKeyInDB = maxValueKey;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean eventuallyGetMinKeyInDB(final GapLoader loader, final FDate key, final boolean force) {
         if (minKeyInDB == null || force) {
-            final V minValue = readNewestValueFromDB(minKey());
+            final V minValue = readNewestValueFromDB(loader, minKey());
             if (minValue != null) {
                 final FDate minValueKey = extractKey(key, minValue);
                 //min key must be kept intact if all values have been loaded from a later key
-                if (minKeyInDB == null || minValueKey.compareTo(minKeyInDB) <= -1) {
-                    minKeyInDB = minValueKey;
+                if (replaceMinKeyInDB(minValueKey)) {
                     getValuesMap().put(minValueKey, minValue);
                     return true;
                 }
@@ -237,247 +416,279 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
         return false;
     }
 
-    private boolean updateMaxKey(final FDate key) {
-        if (maxKey == null || key.compareTo(maxKey) >= 1) {
-            maxKey = key;
+    private synchronized boolean replaceMinKeyInDB(final FDate minValueKey) {
+        if (minKeyInDB == null || minValueKey.compareTo(minKeyInDB) <= -1) {
+            minKeyInDB = minValueKey;
             return true;
         } else {
             return false;
         }
     }
 
-    private boolean updateMinKey(final FDate key) {
-        if (minKey == null || key.compareTo(minKey) <= -1) {
-            minKey = key;
-            return true;
-        } else {
-            return false;
-        }
+    protected boolean allowNoDataInDBShortcut() {
+        return true;
     }
 
-    private V loadFromCacheBeforeLoadFurtherValues(final FDate key, final boolean newMaxKey, final boolean newMinKey) {
-        final V value = eventuallyGetMinValue(key, newMinKey);
-        if (value != null) {
-            return value;
-        }
-
-        //maybe use max value
-        if (maxKeyInDB != null && key.compareTo(maxKeyInDB) >= 0 && containsKey(maxKeyInDB)) {
-            return query().withFuture().getValue(maxKeyInDB);
-        }
-        return (V) null;
+    /**
+     * when this does not match, then getLatestValue will be used automatically anyway to go further back in time
+     */
+    private synchronized FDate determineEaliestStartOfLoadFurtherValues(final FDate key) {
+        //1 day is fine for most cases
+        return key.addMilliseconds(-cacheMissCounter.getOptimalReadBackStepMillis());
     }
 
-    private V eventuallyGetMinValue(final FDate key, final boolean newMinKey) {
-        //if key < minKey; use value for minKey
-        if (minKeyInDB != null) {
-            final boolean afterMinKey = !newMinKey && key.compareTo(minKey) >= 0;
-            if (afterMinKey && key.compareTo(minKeyInDB) <= 0 && containsKey(minKey)) {
-                //via readNewestValueTo
-                return query().withFuture().getValue(minKey);
-            }
-            if (key.compareTo(minKeyInDB) <= 0 && containsKey(minKeyInDB)) {
-                //via searchInFurtherValues
-                return query().withFuture().getValue(minKeyInDB);
+    private void checkSuccessiveCacheEvictions(final FDate key) {
+        final Reoptimization reoptimization;
+        synchronized (this) {
+            reoptimization = cacheMissCounter.checkSuccessiveCacheEvictions(key);
+        }
+        if (reoptimization != null) {
+            //counting the evicted values reads from the db, other segments should not have to wait for that
+            final int newOptimalMaximumSize = cacheMissCounter.countOptimalMaximumSize(reoptimization);
+            synchronized (this) {
+                cacheMissCounter.reoptimize(reoptimization, newOptimalMaximumSize);
             }
         }
-        return (V) null;
     }
 
-    private boolean eventuallyLoadFurtherValues(final String source, final FDate key, final FDate adjustedKey,
-            final boolean newMinKey, final boolean forced) {
-        if (forced || shouldLoadFurtherValues(key, newMinKey)) {
-            final FDate keyForReadAllValues;
-            if (newMinKey && minKeyInDBFromLoadFurtherValues != null && key.isBefore(minKeyInDBFromLoadFurtherValues)) {
-                //performance optimization for first load
-                keyForReadAllValues = FDate.min(minKeyInDB, FDate.max(minKeyInDB, adjustedKey));
-            } else {
-                keyForReadAllValues = FDate.max(minKeyInDB, adjustedKey);
-            }
-            furtherValues.clear();
-            lastValuesFromFurtherValues.clear();
-            furtherValues.addAll(readAllValuesAscendingFrom(keyForReadAllValues));
+    /**
+     * When enabled, the automatic reoptimization estimates the required maximum size from the density of the values
+     * that were loaded anyway, instead of reading the evicted range again. It also shrinks the maximum size and the
+     * read back step again when there were no reloads due to evictions for a while, so that the cache converges to
+     * the size that the access pattern actually needs.
+     */
+    protected boolean isAdaptiveSizing() {
+        return false;
+    }
 
-            if (!furtherValues.isEmpty()) {
-                assertFurtherValuesSorting(key);
-            }
-            return true;
-        }
+    private synchronized void onLoadForAdaptiveSizing() {
+        cacheMissCounter.onLoad();
+    }
+
+    private synchronized void onValuesLoadedForAdaptiveSizing(final FDate fromKey, final FDate toKey,
+            final int count) {
+        cacheMissCounter.onValuesLoaded(fromKey, toKey, count);
+    }
+
+    protected long getReadBackStepMillis() {
+        return DEFAULT_READ_BACK_STEP_MILLIS;
+    }
+
+    /**
+     * When enabled, forward iteration gets detected and the next chunks of readAllValuesAscendingFrom are loaded in the
+     * background while the current chunk is being consumed. Thus readAllValuesAscendingFrom needs to be thread safe.
+     */
+    protected boolean isPrefetching() {
         return false;
     }
 
-    protected boolean allowNoDataInDBShortcut() {
-        return true;
+    /**
+     * The maximum number of values that get loaded per prefetched chunk.
+     */
+    protected int getPrefetchChunkSize() {
+        return DEFAULT_PREFETCH_CHUNK_SIZE;
     }
 
-    private boolean shouldLoadFurtherValues(final FDate key, final boolean newMinKey) {
-        if (furtherValues.isEmpty()) {
-            final V tail = lastValuesFromFurtherValues.getTail();
-            if (tail == null) {
-                return true;
-            }
-            final V head = lastValuesFromFurtherValues.getHead();
-            final FDate tailKey = extractKey(key, tail);
-            final FDate headKey = extractKey(key, head);
-            final boolean isEndReachedAnyway = tailKey.equals(maxKeyInDB) && key.isBeforeOrEqual(maxKeyInDB)
-                    && headKey.isBeforeOrEqual(key);
-            return !isEndReachedAnyway;
-        }
-        final boolean keyIsBeforeMinKeyFromLoadFurtherValues = newMinKey
-                && key.isBefore(minKeyInDBFromLoadFurtherValues);
-        if (keyIsBeforeMinKeyFromLoadFurtherValues) {
-            return true;
+    /**
+     * The number of chunks that get loaded ahead of the current one.
+     */
+    protected int getPrefetchDepth() {
+        return DEFAULT_PREFETCH_DEPTH;
+    }
+
+    /**
+     * By default one executor is shared between all caches.
+     */
+    protected WrappedExecutorService getPrefetchExecutor() {
+        return getDefaultPrefetchExecutor();
+    }
+
+    private static synchronized WrappedExecutorService getDefaultPrefetchExecutor() {
+        if (defaultPrefetchExecutor == null) {
+            defaultPrefetchExecutor = Executors
+                    .newCachedThreadPool(AGapHistoricalCache.class.getSimpleName() + "_prefetch");
         }
-        final boolean newMinKeyFromDBMayFindNewValues = isMinKeyInDBFromLoadFurtherValues()
-                && key.compareTo(minKeyInDB) <= -1 && newMinKey;
-        if (newMinKeyFromDBMayFindNewValues) {
-            return true;
+        return defaultPrefetchExecutor;
+    }
+
+    private List<V> readPrefetchChunk(final FDate from, final int chunkSize) {
+        final List<V> chunk = new ArrayList<V>();
+        final ICloseableIterator<? extends V> values = WrapperCloseableIterator
+                .maybeWrap(readAllValues(from).iterator());
+        try {
+            while (chunk.size() < chunkSize && values.hasNext()) {
+                chunk.add(values.next());
+            }
+        } finally {
+            values.close();
         }
+        return chunk;
+    }
+
+    /**
+     * When enabled, query().getEntries(from, to) streams readAllValuesAscendingFrom directly to the caller and fills the
+     * cache on the way, instead of looking up each next entry individually. Useful for scanning large ranges.
+     */
+    protected boolean isBulkRangeLoading() {
+        return false;
+    }
 
+    /**
+     * When enabled, query().getEntries(keys) sorts the keys and loads each contiguous range of them with a single
+     * readAllValuesAscendingFrom, instead of looking up each key individually. Useful for lots of sparse keys that are
+     * not cached yet.
+     */
+    protected boolean isBatchLoading() {
         return false;
     }
 
-    private boolean isMinKeyInDBFromLoadFurtherValues() {
-        return minKeyInDBFromLoadFurtherValues != null
-                && FDate.isSameMillisecond(minKeyInDBFromLoadFurtherValues, minKeyInDB);
+    /**
+     * When enabled together with batch loading, the sorted keys are split between the available processors and their
+     * ranges get loaded on the prefetch executor. Thus readAllValuesAscendingFrom needs to be thread safe.
+     */
+    protected boolean isParallelBatchLoading() {
+        return false;
     }
 
-    private void assertFurtherValuesSorting(final FDate key) {
-        final FDate firstKey = extractKey(key, furtherValues.getHead());
-        if (firstKey.compareTo(key) <= -1) {
-            /*
-             * readAllValuesAscendingFrom loads all data, thus we set the min key very deep so that later queries are
-             * skipped if they are before minKey
-             */
-            minKey = minKey();
-        }
-        if (minKeyInDB == null || firstKey.compareTo(minKey) <= -1) {
-            minKeyInDB = firstKey;
-        }
-        minKeyInDBFromLoadFurtherValues = FDate.min(minKeyInDBFromLoadFurtherValues, firstKey);
-        final FDate lastKey = extractKey(key, furtherValues.getTail());
-        if (maxKeyInDB == null || lastKey.compareTo(maxKeyInDB) <= -1) {
-            maxKeyInDB = FDate.max(maxKeyInDB, lastKey);
+    @Override
+    protected IHistoricalCacheQueryInterceptor<V> getQueryInterceptor() {
+        if (isBulkRangeLoading() || isBatchLoading()) {
+            return gapQueryInterceptor;
+        } else {
+            return super.getQueryInterceptor();
         }
-        maxKeyInDBFromLoadFurtherValues = FDate.max(maxKeyInDBFromLoadFurtherValues, lastKey);
+    }
 
-        if (furtherValues.size() > 1) {
-            Assertions.checkState(firstKey.compareTo(lastKey) <= 0,
-                    "Not ascending sorted! At firstKey [%s] and lastKey [%s]", firstKey, lastKey);
+    private int getBatchLoadingSize() {
+        final Integer maximumSize = getMaximumSize();
+        if (maximumSize == null) {
+            return DEFAULT_BATCH_LOADING_SIZE;
+        } else {
+            //each key might need its floor value to be cached as well
+            return Math.min(DEFAULT_BATCH_LOADING_SIZE, maximumSize / 2);
         }
     }
 
-    private V searchInFurtherValues(final FDate key) {
-        //Take the first matching value from the sorted list
-        //Search for the newest value
-        V prevValue = (V) null;
-        FDate prevKey = null;
-        if (!lastValuesFromFurtherValues.isEmpty()) {
-            //though maybe use the last one for smaller increments than the data itself is loaded
-            for (final V lastValueFromFurtherValues : lastValuesFromFurtherValues) {
-                final FDate keyLastValueFromFurtherValues = extractKey(key, lastValueFromFurtherValues);
-                if (keyLastValueFromFurtherValues.isBeforeOrEqual(key)) {
-                    prevValue = lastValueFromFurtherValues;
-                    prevKey = keyLastValueFromFurtherValues;
-                } else {
-                    //only go to further values if it might be possible that those are useable
-                    return prevValue;
+    private void loadBatch(final List<FDate> keys) {
+        final List<FDate> sortedKeys = newSortedMissingKeys(keys);
+        if (!isParallelBatchLoading() || sortedKeys.size() <= 1) {
+            loadBatchRanges(sortedKeys);
+            return;
+        }
+        final int partitions = Math.min(sortedKeys.size(), Runtime.getRuntime().availableProcessors());
+        final List<Runnable> tasks = new ArrayList<Runnable>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            final List<FDate> partition = sortedKeys.subList(i * sortedKeys.size() / partitions,
+                    (i + 1) * sortedKeys.size() / partitions);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    loadBatchRanges(partition);
                 }
-            }
+            });
+        }
+        try {
+            Futures.submitAndWait(getPrefetchExecutor(), tasks);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
+    }
 
-        final FDate earliestStartOfLoadFurtherValues = determineEaliestStartOfLoadFurtherValues(key);
-        while (furtherValues.size() > 0) {
-            final V newValue = furtherValues.getHead();
-            final FDate newValueKey = extractKey(key, newValue);
-            final int compare = key.compareTo(newValueKey);
-            if (compare < 0) {
-                //key < newValueKey
-                //run over the key we wanted
-                break;
-            } else if (compare == 0) {
-                //key == newValueKey
-                //This is the value we searched for! It will later be added with the db key to the cache.
-                pushLastValueFromFurtherValues();
-                return newValue;
-            } else {
-                //key > newValueKey
-                //put this value into the cache; gaps do not get filled here, so that the max size of the cache does not get reached prematurely
-                put(newValueKey, newValue, prevKey, prevValue);
-                pushLastValueFromFurtherValues();
-                //continue with the next one
-                prevValue = newValue;
-                prevKey = newValueKey;
-
-                if (furtherValues.isEmpty() && newValueKey.isBefore(maxKeyInDB) && key.isBefore(maxKeyInDB)
-                        && maxKeyInDBFromLoadFurtherValues.isBefore(maxKeyInDB)) {
-                    final FDate timeForLoadFurtherValues = FDate.max(newValueKey, earliestStartOfLoadFurtherValues);
-                    Assertions.checkState(eventuallyLoadFurtherValues("searchInFurtherValues", newValueKey,
-                            timeForLoadFurtherValues, false, true));
-                    if (!furtherValues.isEmpty()) {
-                        pushLastValueFromFurtherValues();
-                        if (!timeForLoadFurtherValues.equals(newValue)) {
-                            //do not distort prev/next lookup when using earlisetStartOfLoadFurtherValues, thus reset those
-                            prevValue = null;
-                            prevKey = null;
-                        }
-                    }
+    private List<FDate> newSortedMissingKeys(final List<FDate> keys) {
+        final List<FDate> sortedKeys = new ArrayList<FDate>(keys.size());
+        for (final FDate key : keys) {
+            if (key != null) {
+                final FDate adjKey = adjustKey(key);
+                if (!getValuesMap().containsKey(adjKey)) {
+                    sortedKeys.add(adjKey);
                 }
             }
         }
-        return prevValue;
+        Collections.sort(sortedKeys);
+        int distinct = 0;
+        for (int i = 0; i < sortedKeys.size(); i++) {
+            final FDate key = sortedKeys.get(i);
+            if (distinct == 0 || !key.equals(sortedKeys.get(distinct - 1))) {
+                sortedKeys.set(distinct, key);
+                distinct++;
+            }
+        }
+        return sortedKeys.subList(0, distinct);
     }
 
-    private void pushLastValueFromFurtherValues() {
-        while (lastValuesFromFurtherValues.size() >= MAX_LAST_VALUES_FROM_LOAD_FURTHER_VALUES) {
-            lastValuesFromFurtherValues.next();
+    private void loadBatchRanges(final List<FDate> sortedKeys) {
+        int i = 0;
+        while (i < sortedKeys.size()) {
+            i = loadBatchRange(sortedKeys, i);
         }
-        lastValuesFromFurtherValues.add(furtherValues.next());
     }
 
     /**
-     * when this does not match, then getLatestValue will be used automatically anyway to go further back in time
+     * Merges the sorted keys with the values from the db and returns the index of the first key that could not be
+     * resolved within this range.
      */
-    private FDate determineEaliestStartOfLoadFurtherValues(final FDate key) {
-        //1 day is fine for most cases
-        return key.addMilliseconds(-cacheMissCounter.getOptimalReadBackStepMillis());
-    }
-
-    protected long getReadBackStepMillis() {
-        return DEFAULT_READ_BACK_STEP_MILLIS;
+    private int loadBatchRange(final List<FDate> sortedKeys, final int fromIndex) {
+        //the first key is looked up normally to find the floor value where the range starts
+        final Entry<FDate, V> firstEntry = query().withFuture().getEntry(sortedKeys.get(fromIndex));
+        final int i = fromIndex + 1;
+        if (firstEntry == null || i >= sortedKeys.size() || isMaxKeyInDBReached(firstEntry.getKey())) {
+            return i;
+        }
+        return mergeBatchRange(sortedKeys, i, firstEntry);
     }
 
-    /**
-     * These checks may only be called after furtherValues were searched and eventuelly the list has been reloaded.
-     */
-    private V tryLoadFromCacheAfterLoadFurtherValues(final FDate key, final boolean newMaxKey,
-            final FDate previousMaxKey) {
-        //maybe minKey in db did not change even though the minKey in the cache changed
-        //after reloading of furtherValues it is ok to search this again instead of doing another query for the newest value
-        if (furtherValuesLoaded) {
-            final V value = eventuallyGetMinValue(key, false);
-            if (value != null) {
-                return value;
+    private int mergeBatchRange(final List<FDate> sortedKeys, final int fromIndex, final Entry<FDate, V> firstEntry) {
+        int i = fromIndex;
+        Entry<FDate, V> floorEntry = firstEntry;
+        Entry<FDate, V> previousEntry = null;
+        boolean floorEntryPut = false;
+        int skippedValues = 0;
+        final ICloseableIterator<? extends V> values = WrapperCloseableIterator
+                .maybeWrap(readAllValues(firstEntry.getKey()).iterator());
+        try {
+            while (i < sortedKeys.size() && values.hasNext()) {
+                final V value = values.next();
+                final FDate valueKey = extractKey(null, value);
+                if (!valueKey.isAfter(floorEntry.getKey())) {
+                    continue;
+                }
+                while (i < sortedKeys.size() && sortedKeys.get(i).isBefore(valueKey)) {
+                    final FDate key = sortedKeys.get(i);
+                    if (key.isBefore(floorEntry.getKey())) {
+                        //keys before the first value need the default handling
+                        return i;
+                    }
+                    if (!floorEntryPut) {
+                        put(floorEntry, previousEntry);
+                        floorEntryPut = true;
+                    }
+                    getValuesMap().put(key, floorEntry.getValue());
+                    skippedValues = 0;
+                    i++;
+                }
+                skippedValues++;
+                if (skippedValues > MAX_SKIPPED_VALUES_PER_BATCH_RANGE) {
+                    return i;
+                }
+                previousEntry = floorEntry;
+                floorEntry = ImmutableEntry.of(valueKey, value);
+                floorEntryPut = false;
             }
+            //keys after the last value might need a refresh, thus they get their own range
+            return i;
+        } finally {
+            values.close();
         }
-
-        //with maxKey
-        if (newMaxKey && previousMaxKey != null && containsKey(previousMaxKey) && key.isAfterOrEqual(maxKeyInDB)) {
-            //use the last maxKey
-            //because this one is behind it and not a new one
-            //thus working if the db does not have further values
-            return query().withFuture().getValue(previousMaxKey);
-        }
-        return (V) null;
     }
 
-    private V readNewestValueFromDB(final FDate key) {
+    private V readNewestValueFromDB(final GapLoader loader, final FDate key) {
         // we give up and use the newest value from db
-        V value = readLatestValueFor(key);
+        V value = readLatestValue(key);
 
         //try to use first value of furthervalues
-        if (value == null && furtherValuesLoaded && !furtherValues.isEmpty()) {
-            value = furtherValues.getHead();
+        if (value == null && loader != null && loader.furtherValuesLoaded && !loader.furtherValues.isEmpty()) {
+            value = loader.furtherValues.getHead();
         }
 
         if (value != null) {
@@ -491,6 +702,54 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
         }
     }
 
+    /**
+     * Override this to keep the values of the db in segment files on disk, so that they survive restarts and can be
+     * shared between processes. Default is null which disables this.
+     */
+    protected HistoricalCachePersistentStore<V> newPersistentStore() {
+        return null;
+    }
+
+    /**
+     * goes through the persistent store if there is one
+     */
+    private Iterable<? extends V> readAllValues(final FDate key) {
+        if (persistentStore == null) {
+            return readAllValuesFromDB(key);
+        } else {
+            return persistentStore.readAllValuesAscendingFrom(key, persistentStoreSource);
+        }
+    }
+
+    private V readLatestValue(final FDate key) {
+        if (persistentStore == null) {
+            return readLatestValueFromDB(key);
+        } else {
+            return persistentStore.readLatestValueFor(key, persistentStoreSource);
+        }
+    }
+
+    private Iterable<? extends V> readAllValuesFromDB(final FDate key) {
+        final LoadingCacheMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return readAllValuesAscendingFrom(key);
+        } else {
+            return metrics.recordLoadLatency(READ_ALL_VALUES_ASCENDING_FROM, readAllValuesAscendingFrom(key));
+        }
+    }
+
+    private V readLatestValueFromDB(final FDate key) {
+        final LoadingCacheMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return readLatestValueFor(key);
+        } else {
+            final long start = System.nanoTime();
+            final V value = readLatestValueFor(key);
+            metrics.recordLoadLatency(READ_LATEST_VALUE_FOR, start);
+            return value;
+        }
+    }
+
     protected abstract Iterable<? extends V> readAllValuesAscendingFrom(final FDate key);
 
     /**
@@ -501,23 +760,795 @@ public abstract class AGapHistoricalCache<V> extends AHistoricalCache<V> {
      */
     protected abstract V readLatestValueFor(final FDate key);
 
-    @Override
-    protected synchronized boolean maybeRefresh() {
-        if (eventuallyGetMinMaxKeysInDB(maxKey(), true)) {
-            return super.maybeRefresh();
-        }
+    /**
+     * When enabled, a refresh that finds new values after the previous max key in db only loads those values and
+     * appends them, instead of clearing the whole cache. The cache still gets cleared when values were inserted before
+     * the first value or when the last cached value was removed or moved. Values that were inserted or corrected in
+     * between are not detected, since that would require reading the whole cached range again.
+     */
+    protected boolean isIncrementalRefresh() {
         return false;
     }
 
     @Override
-    public synchronized void clear() {
-        super.clear();
-        //remove flags so that the limit check gets skipped if get has not been called yet and this method might be called again
-        maxKeyInDB = null;
-        minKeyInDB = null;
-        //a clear forces the list to be completely reloaded next time get is called
-        furtherValues.clear();
-        lastValuesFromFurtherValues.clear();
+    protected boolean maybeRefresh() {
+        final FDate previousMaxKeyInDB = maxKeyInDB;
+        if (previousMaxKeyInDB != null && minKeyInDB != null && isIncrementalRefresh()) {
+            //looked up before taking the lock, since a concurrent eviction might cause the value to be loaded again
+            final V cachedLastValue;
+            if (containsKey(previousMaxKeyInDB)) {
+                cachedLastValue = getValuesMap().get(previousMaxKeyInDB);
+            } else {
+                cachedLastValue = null;
+            }
+            synchronized (this) {
+                return maybeRefreshIncrementally(previousMaxKeyInDB, cachedLastValue);
+            }
+        }
+        synchronized (this) {
+            if (eventuallyGetMinMaxKeysInDB(getCurrentLoader(), maxKey(), true)) {
+                return super.maybeRefresh();
+            }
+            return false;
+        }
+    }
+
+    private boolean maybeRefreshIncrementally(final FDate previousMaxKeyInDB, final V cachedLastValue) {
+        final GapLoader loader = getCurrentLoader();
+        if (eventuallyGetMinKeyInDB(loader, minKey(), true)) {
+            return super.maybeRefresh();
+        }
+        final FDate newMaxKeyInDB = readMaxKeyInDB();
+        if (newMaxKeyInDB == null) {
+            return super.maybeRefresh();
+        }
+        FDate lastKey = getKnownLastKey(previousMaxKeyInDB, cachedLastValue);
+        if (lastKey == null) {
+            final V lastValue = readLatestValue(previousMaxKeyInDB);
+            if (lastValue == null) {
+                return super.maybeRefresh();
+            }
+            lastKey = extractKey(null, lastValue);
+        }
+        if (newMaxKeyInDB.isBefore(lastKey)) {
+            //values were removed at the end
+            return super.maybeRefresh();
+        }
+        if (!newMaxKeyInDB.isAfter(lastKey)) {
+            return false;
+        }
+        final ICloseableIterator<? extends V> values = WrapperCloseableIterator
+                .maybeWrap(readAllValues(lastKey).iterator());
+        try {
+            if (!values.hasNext()) {
+                return super.maybeRefresh();
+            }
+            final V lastValue = values.next();
+            if (!extractKey(null, lastValue).equals(lastKey)) {
+                //the last cached value was removed or moved
+                return super.maybeRefresh();
+            }
+            //the loaders might still hold the previous end of the values
+            clearLoaders();
+            //keys after the last value were resolved to it and it was remembered as having no next value
+            clearTail(lastKey);
+            appendValues(ImmutableEntry.of(lastKey, lastValue), values, newMaxKeyInDB);
+        } finally {
+            values.close();
+        }
+        maxKeyInDB = newMaxKeyInDB;
+        return true;
+    }
+
+    /**
+     * Without a highest allowed key the max key in db is the key of the last value. Otherwise it might be the highest
+     * allowed key, thus only the cached value for it tells which value was the last one. Returns null if this is not
+     * known.
+     */
+    private FDate getKnownLastKey(final FDate previousMaxKeyInDB, final V cachedLastValue) {
+        if (cachedLastValue != null) {
+            return extractKey(null, cachedLastValue);
+        } else if (getAdjustKeyProvider().getHighestAllowedKey() == null) {
+            return previousMaxKeyInDB;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the key of the newest value that is allowed to be seen, not the highest allowed key itself.
+     */
+    private FDate readMaxKeyInDB() {
+        final FDate highestAllowedKey = getAdjustKeyProvider().getHighestAllowedKey();
+        final FDate maxAllowedKey;
+        if (highestAllowedKey != null) {
+            maxAllowedKey = highestAllowedKey;
+        } else {
+            maxAllowedKey = maxKey();
+        }
+        final V maxValue = readLatestValue(maxAllowedKey);
+        if (maxValue == null) {
+            return null;
+        }
+        final FDate maxValueKey = extractKey(null, maxValue);
+        if (maxValueKey.isAfter(maxAllowedKey)) {
+            //there are only values that are not allowed to be seen yet
+            return null;
+        }
+        return maxValueKey;
+    }
+
+    /**
+     * Only the first chunk that the db returns is appended, further values get loaded on demand.
+     */
+    private void appendValues(final Entry<FDate, V> lastEntry, final ICloseableIterator<? extends V> values,
+            final FDate newMaxKeyInDB) {
+        final Integer maximumSize = getMaximumSize();
+        Entry<FDate, V> previousEntry = lastEntry;
+        int appended = 0;
+        while ((maximumSize == null || appended < maximumSize) && values.hasNext()) {
+            final V value = values.next();
+            final FDate valueKey = extractKey(null, value);
+            if (valueKey.isAfter(newMaxKeyInDB)) {
+                //not allowed to be seen yet
+                break;
+            }
+            if (valueKey.isAfter(previousEntry.getKey())) {
+                final Entry<FDate, V> entry = ImmutableEntry.of(valueKey, value);
+                put(entry, previousEntry);
+                previousEntry = entry;
+                appended++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        //remove flags so that the limit check gets skipped if get has not been called yet and this method might be called again
+        maxKeyInDB = null;
+        minKeyInDB = null;
+        //a clear forces the list to be completely reloaded next time get is called
+        clearLoaders();
+        if (persistentStore != null) {
+            //release the file handles and mappings, they get opened again on the next access
+            persistentStore.close();
+        }
+    }
+
+    @Override
+    protected synchronized void onValuesPushed(final FDate lastKey) {
+        //keys after the max key in db are resolved to its value
+        if (maxKeyInDB != null) {
+            increaseMaxKeyInDB(lastKey);
+        }
+        //the loaders might still hold the previous end of the values
+        clearLoaders();
+    }
+
+    @GuardedBy("this")
+    private void clearLoaders() {
+        clearCount++;
+        //concurrent loaders clear themselves lazily, loads that are running right now get repeated
+        defaultLoader.clearIfStale();
+    }
+
+    private boolean isMaxKeyInDBReached(final FDate key) {
+        final FDate maxKeyInDBCopy = maxKeyInDB;
+        return maxKeyInDBCopy != null && key.isAfterOrEqual(maxKeyInDBCopy);
+    }
+
+    /**
+     * Keeps the read position in the db. Guarded by the cache itself by default or by the loader itself when
+     * concurrent loading is enabled.
+     */
+    @NotThreadSafe
+    private final class GapLoader {
+
+        private final BufferingIterator<V> furtherValues = new BufferingIterator<V>();
+        private final BufferingIterator<V> lastValuesFromFurtherValues = new BufferingIterator<V>();
+        /**
+         * As a convenience a field even if always reset
+         */
+        private boolean furtherValuesLoaded;
+        private FDate minKeyInDBFromLoadFurtherValues;
+        private FDate maxKeyInDBFromLoadFurtherValues;
+        private FDate maxKey;
+        private FDate minKey;
+        private int seenClearCount = clearCount;
+        private final Deque<PrefetchedChunk> prefetchedChunks = new ArrayDeque<PrefetchedChunk>();
+        private FDate lastLoadedKey;
+
+        private V loadValue(final FDate key) {
+            if (!isPrefetching()) {
+                return innerLoadValue(key);
+            }
+            final boolean forwardIteration = lastLoadedKey != null && key.isAfter(lastLoadedKey);
+            lastLoadedKey = key;
+            if (!forwardIteration) {
+                clearPrefetchedChunks();
+            }
+            final V value = innerLoadValue(key);
+            if (forwardIteration) {
+                maybePrefetch();
+            }
+            return value;
+        }
+
+        private V innerLoadValue(final FDate key) {
+            if (adaptiveSizing) {
+                onLoadForAdaptiveSizing();
+            }
+            eventuallyGetMinMaxKeysInDB(this, key, false);
+
+            this.furtherValuesLoaded = false;
+            final FDate previousMaxKey = maxKey;
+            final boolean newMaxKey = updateMaxKey(key);
+            final boolean newMinKey = updateMinKey(key);
+
+            //Try loading from cache before trying a query; via gap finding or through min key
+            V value = loadFromCacheBeforeLoadFurtherValues(key, newMaxKey, newMinKey);
+            if (value != null) {
+                return value;
+            }
+
+            //Try the expensive query
+            if (!furtherValuesLoaded) {
+                final FDate adjKey = determineEaliestStartOfLoadFurtherValues(key);
+                furtherValuesLoaded = eventuallyLoadFurtherValues("loadValue", key, adjKey, newMinKey, false);
+            }
+            value = searchInFurtherValues(key);
+            if (!furtherValuesLoaded && isPotentiallyAlreadyEvicted(key, value)) {
+                checkSuccessiveCacheEvictions(key);
+                final FDate adjKey = determineEaliestStartOfLoadFurtherValues(key);
+                furtherValuesLoaded = eventuallyLoadFurtherValues("loadValueBecauseOfEviction", key, adjKey,
+                        newMinKey, true);
+                value = searchInFurtherValues(key);
+            }
+            if (value != null) {
+                return value;
+            }
+
+            //Try to used the last value if there is no higher key in db
+            value = tryLoadFromCacheAfterLoadFurtherValues(key, newMaxKey, previousMaxKey);
+            if (value != null) {
+                return value;
+            }
+
+            //And last we just try to get the newest value matching the key.
+            //If there are no values in db, this method is only called once
+            return readNewestValueFromDB(this, key);
+        }
+
+        private boolean isPotentiallyAlreadyEvicted(final FDate key, final V value) {
+            final boolean isEvictedBeforeCurrentFurtherValues = (value == null || extractKey(key, value).isAfter(key))
+                    && (key.isAfter(minKeyInDB) || key.isAfter(minKeyInDBFromLoadFurtherValues));
+            if (isEvictedBeforeCurrentFurtherValues) {
+                return true;
+            }
+            final boolean mightBeEvictedAfterFurtherValues = value != null && furtherValues.isEmpty();
+            if (mightBeEvictedAfterFurtherValues) {
+                final FDate valueKey = extractKey(key, value);
+                final boolean isEvictedAfterCurrentFurtherValues = valueKey.isBefore(key)
+                        && valueKey.isBeforeOrEqual(maxKeyInDB);
+                if (isEvictedAfterCurrentFurtherValues) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean updateMaxKey(final FDate key) {
+            if (maxKey == null || key.compareTo(maxKey) >= 1) {
+                maxKey = key;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private boolean updateMinKey(final FDate key) {
+            if (minKey == null || key.compareTo(minKey) <= -1) {
+                minKey = key;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private V loadFromCacheBeforeLoadFurtherValues(final FDate key, final boolean newMaxKey,
+                final boolean newMinKey) {
+            final V value = eventuallyGetMinValue(key, newMinKey);
+            if (value != null) {
+                return value;
+            }
+
+            //maybe use max value
+            final FDate maxKeyInDBCopy = maxKeyInDB;
+            if (maxKeyInDBCopy != null && key.compareTo(maxKeyInDBCopy) >= 0 && containsKey(maxKeyInDBCopy)) {
+                return query().withFuture().getValue(maxKeyInDBCopy);
+            }
+            return (V) null;
+        }
+
+        private V eventuallyGetMinValue(final FDate key, final boolean newMinKey) {
+            //if key < minKey; use value for minKey
+            final FDate minKeyInDBCopy = minKeyInDB;
+            if (minKeyInDBCopy != null) {
+                final boolean afterMinKey = !newMinKey && key.compareTo(minKey) >= 0;
+                if (afterMinKey && key.compareTo(minKeyInDBCopy) <= 0 && containsKey(minKey)) {
+                    //via readNewestValueTo
+                    return query().withFuture().getValue(minKey);
+                }
+                if (key.compareTo(minKeyInDBCopy) <= 0 && containsKey(minKeyInDBCopy)) {
+                    //via searchInFurtherValues
+                    return query().withFuture().getValue(minKeyInDBCopy);
+                }
+            }
+            return (V) null;
+        }
+
+        private boolean eventuallyLoadFurtherValues(final String source, final FDate key, final FDate adjustedKey,
+                final boolean newMinKey, final boolean forced) {
+            if (forced || shouldLoadFurtherValues(key, newMinKey)) {
+                final FDate keyForReadAllValues;
+                if (newMinKey && minKeyInDBFromLoadFurtherValues != null
+                        && key.isBefore(minKeyInDBFromLoadFurtherValues)) {
+                    //performance optimization for first load
+                    keyForReadAllValues = FDate.min(minKeyInDB, FDate.max(minKeyInDB, adjustedKey));
+                } else {
+                    keyForReadAllValues = FDate.max(minKeyInDB, adjustedKey);
+                }
+                furtherValues.clear();
+                lastValuesFromFurtherValues.clear();
+                if (!addPrefetchedValues(key, keyForReadAllValues)) {
+                    furtherValues.addAll(readAllValues(keyForReadAllValues));
+                }
+
+                if (!furtherValues.isEmpty()) {
+                    assertFurtherValuesSorting(key);
+                    if (adaptiveSizing) {
+                        onValuesLoadedForAdaptiveSizing(extractKey(key, furtherValues.getHead()),
+                                extractKey(key, furtherValues.getTail()), furtherValues.size());
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        private boolean shouldLoadFurtherValues(final FDate key, final boolean newMinKey) {
+            if (furtherValues.isEmpty()) {
+                final V tail = lastValuesFromFurtherValues.getTail();
+                if (tail == null) {
+                    return true;
+                }
+                final V head = lastValuesFromFurtherValues.getHead();
+                final FDate tailKey = extractKey(key, tail);
+                final FDate headKey = extractKey(key, head);
+                final boolean isEndReachedAnyway = tailKey.equals(maxKeyInDB) && key.isBeforeOrEqual(maxKeyInDB)
+                        && headKey.isBeforeOrEqual(key);
+                return !isEndReachedAnyway;
+            }
+            final boolean keyIsBeforeMinKeyFromLoadFurtherValues = newMinKey
+                    && key.isBefore(minKeyInDBFromLoadFurtherValues);
+            if (keyIsBeforeMinKeyFromLoadFurtherValues) {
+                return true;
+            }
+            final boolean newMinKeyFromDBMayFindNewValues = isMinKeyInDBFromLoadFurtherValues()
+                    && key.compareTo(minKeyInDB) <= -1 && newMinKey;
+            if (newMinKeyFromDBMayFindNewValues) {
+                return true;
+            }
+
+            return false;
+        }
+
+        private boolean isMinKeyInDBFromLoadFurtherValues() {
+            return minKeyInDBFromLoadFurtherValues != null
+                    && FDate.isSameMillisecond(minKeyInDBFromLoadFurtherValues, minKeyInDB);
+        }
+
+        private void assertFurtherValuesSorting(final FDate key) {
+            final FDate firstKey = extractKey(key, furtherValues.getHead());
+            if (firstKey.compareTo(key) <= -1) {
+                /*
+                 * readAllValuesAscendingFrom loads all data, thus we set the min key very deep so that later queries
+                 * are skipped if they are before minKey
+                 */
+                minKey = minKey();
+            }
+            final FDate lastKey = extractKey(key, furtherValues.getTail());
+            synchronized (AGapHistoricalCache.this) {
+                //a load that spans a clear gets repeated, its values should not define the new bounds
+                if (!isStale()) {
+                    if (minKeyInDB == null || firstKey.compareTo(minKey) <= -1) {
+                        minKeyInDB = firstKey;
+                    }
+                    if (maxKeyInDB == null || lastKey.compareTo(maxKeyInDB) <= -1) {
+                        maxKeyInDB = FDate.max(maxKeyInDB, lastKey);
+                    }
+                }
+            }
+            minKeyInDBFromLoadFurtherValues = FDate.min(minKeyInDBFromLoadFurtherValues, firstKey);
+            maxKeyInDBFromLoadFurtherValues = FDate.max(maxKeyInDBFromLoadFurtherValues, lastKey);
+
+            if (furtherValues.size() > 1) {
+                Assertions.checkState(firstKey.compareTo(lastKey) <= 0,
+                        "Not ascending sorted! At firstKey [%s] and lastKey [%s]", firstKey, lastKey);
+            }
+        }
+
+        private V searchInFurtherValues(final FDate key) {
+            //Take the first matching value from the sorted list
+            //Search for the newest value
+            V prevValue = (V) null;
+            FDate prevKey = null;
+            if (!lastValuesFromFurtherValues.isEmpty()) {
+                //though maybe use the last one for smaller increments than the data itself is loaded
+                for (final V lastValueFromFurtherValues : lastValuesFromFurtherValues) {
+                    final FDate keyLastValueFromFurtherValues = extractKey(key, lastValueFromFurtherValues);
+                    if (keyLastValueFromFurtherValues.isBeforeOrEqual(key)) {
+                        prevValue = lastValueFromFurtherValues;
+                        prevKey = keyLastValueFromFurtherValues;
+                    } else {
+                        //only go to further values if it might be possible that those are useable
+                        return prevValue;
+                    }
+                }
+            }
+
+            final FDate earliestStartOfLoadFurtherValues = determineEaliestStartOfLoadFurtherValues(key);
+            while (furtherValues.size() > 0) {
+                final V newValue = furtherValues.getHead();
+                final FDate newValueKey = extractKey(key, newValue);
+                final int compare = key.compareTo(newValueKey);
+                if (compare < 0) {
+                    //key < newValueKey
+                    //run over the key we wanted
+                    break;
+                } else if (compare == 0) {
+                    //key == newValueKey
+                    //This is the value we searched for! It will later be added with the db key to the cache.
+                    pushLastValueFromFurtherValues();
+                    return newValue;
+                } else {
+                    //key > newValueKey
+                    //put this value into the cache; gaps do not get filled here, so that the max size of the cache does not get reached prematurely
+                    if (!isStale()) {
+                        //values that were loaded before a clear might be outdated
+                        put(newValueKey, newValue, prevKey, prevValue);
+                    }
+                    pushLastValueFromFurtherValues();
+                    //continue with the next one
+                    prevValue = newValue;
+                    prevKey = newValueKey;
+
+                    if (furtherValues.isEmpty() && newValueKey.isBefore(maxKeyInDB) && key.isBefore(maxKeyInDB)
+                            && maxKeyInDBFromLoadFurtherValues.isBefore(maxKeyInDB)) {
+                        final FDate timeForLoadFurtherValues = FDate.max(newValueKey,
+                                earliestStartOfLoadFurtherValues);
+                        Assertions.checkState(eventuallyLoadFurtherValues("searchInFurtherValues", newValueKey,
+                                timeForLoadFurtherValues, false, true));
+                        if (!furtherValues.isEmpty()) {
+                            pushLastValueFromFurtherValues();
+                            if (!timeForLoadFurtherValues.equals(newValue)) {
+                                //do not distort prev/next lookup when using earlisetStartOfLoadFurtherValues, thus reset those
+                                prevValue = null;
+                                prevKey = null;
+                            }
+                        }
+                    }
+                }
+            }
+            return prevValue;
+        }
+
+        private void pushLastValueFromFurtherValues() {
+            while (lastValuesFromFurtherValues.size() >= MAX_LAST_VALUES_FROM_LOAD_FURTHER_VALUES) {
+                lastValuesFromFurtherValues.next();
+            }
+            lastValuesFromFurtherValues.add(furtherValues.next());
+        }
+
+        /**
+         * These checks may only be called after furtherValues were searched and eventuelly the list has been reloaded.
+         */
+        private V tryLoadFromCacheAfterLoadFurtherValues(final FDate key, final boolean newMaxKey,
+                final FDate previousMaxKey) {
+            //maybe minKey in db did not change even though the minKey in the cache changed
+            //after reloading of furtherValues it is ok to search this again instead of doing another query for the newest value
+            if (furtherValuesLoaded) {
+                final V value = eventuallyGetMinValue(key, false);
+                if (value != null) {
+                    return value;
+                }
+            }
+
+            //with maxKey
+            if (newMaxKey && previousMaxKey != null && containsKey(previousMaxKey)
+                    && key.isAfterOrEqual(maxKeyInDB)) {
+                //use the last maxKey
+                //because this one is behind it and not a new one
+                //thus working if the db does not have further values
+                return query().withFuture().getValue(previousMaxKey);
+            }
+            return (V) null;
+        }
+
+        private void clearIfStale() {
+            final int curClearCount = clearCount;
+            if (seenClearCount != curClearCount) {
+                clear();
+                seenClearCount = curClearCount;
+            }
+        }
+
+        private boolean isStale() {
+            return seenClearCount != clearCount;
+        }
+
+        private void maybePrefetch() {
+            final int chunkSize = getPrefetchChunkSize();
+            while (prefetchedChunks.size() < getPrefetchDepth()) {
+                final FDate from;
+                final PrefetchedChunk lastChunk = prefetchedChunks.peekLast();
+                if (lastChunk == null) {
+                    //continue where the current chunk ends
+                    V tail = furtherValues.getTail();
+                    if (tail == null) {
+                        tail = lastValuesFromFurtherValues.getTail();
+                    }
+                    if (tail == null) {
+                        return;
+                    }
+                    from = extractKey(null, tail);
+                } else if (lastChunk.isDone()) {
+                    from = lastChunk.getNextFrom();
+                    if (from == null) {
+                        return;
+                    }
+                } else {
+                    //the next chunk can only be requested when we know where the last one ends
+                    return;
+                }
+                if (isMaxKeyInDBReached(from)) {
+                    return;
+                }
+                prefetchedChunks.add(new PrefetchedChunk(from, chunkSize));
+            }
+        }
+
+        /**
+         * Prefetched chunks are only usable if they start before the requested key. Values before the requested
+         * position are skipped.
+         */
+        private boolean addPrefetchedValues(final FDate key, final FDate from) {
+            while (!prefetchedChunks.isEmpty()) {
+                final PrefetchedChunk chunk = prefetchedChunks.peekFirst();
+                if (chunk.from.isAfter(key)) {
+                    //iteration jumped back
+                    clearPrefetchedChunks();
+                    return false;
+                }
+                prefetchedChunks.removeFirst();
+                final List<V> values = chunk.getValues();
+                if (values == null) {
+                    clearPrefetchedChunks();
+                    return false;
+                }
+                boolean added = false;
+                for (int i = 0; i < values.size(); i++) {
+                    final V value = values.get(i);
+                    if (added || !extractKey(key, value).isBefore(from)) {
+                        furtherValues.add(value);
+                        added = true;
+                    }
+                }
+                if (added) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void clearPrefetchedChunks() {
+            while (!prefetchedChunks.isEmpty()) {
+                prefetchedChunks.removeFirst().cancel();
+            }
+        }
+
+        private void clear() {
+            furtherValues.clear();
+            lastValuesFromFurtherValues.clear();
+            clearPrefetchedChunks();
+        }
+
+    }
+
+    @ThreadSafe
+    private final class PrefetchedChunk {
+
+        private final FDate from;
+        private final Future<List<V>> values;
+
+        private PrefetchedChunk(final FDate from, final int chunkSize) {
+            this.from = from;
+            this.values = getPrefetchExecutor().submit(new Callable<List<V>>() {
+                @Override
+                public List<V> call() throws Exception {
+                    try {
+                        return readPrefetchChunk(from, chunkSize);
+                    } catch (final RuntimeException e) {
+                        //logged here once, the consumer falls back to the synchronous load
+                        LOG.warn("Prefetching chunk from [" + from + "] failed for " + AGapHistoricalCache.this, e);
+                        throw e;
+                    }
+                }
+            });
+        }
+
+        private boolean isDone() {
+            return values.isDone();
+        }
+
+        /**
+         * Returns null if the chunk could not be loaded, then the synchronous load should be used which also reports
+         * errors properly. Failures of the prefetch itself already got logged by the prefetch task.
+         */
+        private List<V> getValues() {
+            try {
+                return Futures.get(values);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (final RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns null when the end was reached.
+         */
+        private FDate getNextFrom() {
+            final List<V> chunk = getValues();
+            if (chunk == null || chunk.isEmpty()) {
+                return null;
+            }
+            final FDate lastKey = extractKey(null, chunk.get(chunk.size() - 1));
+            if (lastKey.isAfter(from)) {
+                return lastKey;
+            } else {
+                return null;
+            }
+        }
+
+        private void cancel() {
+            values.cancel(false);
+        }
+
+    }
+
+    @ThreadSafe
+    private final class GapQueryInterceptor extends AHistoricalCacheQueryInterceptor<V>
+            implements IHistoricalCacheBatchQueryInterceptor<V> {
+
+        private GapQueryInterceptor() {
+            super(AGapHistoricalCache.this);
+        }
+
+        @Override
+        protected ICloseableIterable<Entry<FDate, V>> innerGetEntries(final FDate from, final FDate to) {
+            if (!isBulkRangeLoading()) {
+                return null;
+            }
+            return new ICloseableIterable<Entry<FDate, V>>() {
+                @Override
+                public ICloseableIterator<Entry<FDate, V>> iterator() {
+                    //values after the highest allowed key must neither be returned nor cached
+                    final FDate highestAllowedKey = getAdjustKeyProvider().getHighestAllowedKey();
+                    final FDate adjFrom = limitToHighestAllowedKey(from, highestAllowedKey);
+                    final FDate adjTo = limitToHighestAllowedKey(to, highestAllowedKey);
+                    //the first entry might be before from, just like in the default implementation
+                    final Entry<FDate, V> firstEntry = query().withFuture().getEntry(adjFrom);
+                    if (firstEntry == null || firstEntry.getKey().isAfter(adjTo)) {
+                        return new EmptyCloseableIterator<Entry<FDate, V>>();
+                    }
+                    return new BulkRangeIterator(firstEntry, adjTo, highestAllowedKey);
+                }
+            };
+        }
+
+        private FDate limitToHighestAllowedKey(final FDate key, final FDate highestAllowedKey) {
+            if (highestAllowedKey != null && key.isAfter(highestAllowedKey)) {
+                return highestAllowedKey;
+            } else {
+                return key;
+            }
+        }
+
+        @Override
+        public int getEntriesBatchSize() {
+            if (isBatchLoading()) {
+                return getBatchLoadingSize();
+            } else {
+                return 0;
+            }
+        }
+
+        @Override
+        public void loadEntries(final List<FDate> keys) {
+            loadBatch(keys);
+        }
+
+    }
+
+    @NotThreadSafe
+    private final class BulkRangeIterator extends ACloseableIterator<Entry<FDate, V>> {
+
+        private final FDate to;
+        private final FDate highestAllowedKey;
+        private ICloseableIterator<? extends V> values;
+        private boolean valuesHadNewKeys;
+        private FDate lastKey;
+        private Entry<FDate, V> nextEntry;
+
+        private BulkRangeIterator(final Entry<FDate, V> firstEntry, final FDate to, final FDate highestAllowedKey) {
+            this.nextEntry = firstEntry;
+            this.lastKey = firstEntry.getKey();
+            this.to = to;
+            this.highestAllowedKey = highestAllowedKey;
+            this.values = WrapperCloseableIterator.maybeWrap(readAllValues(lastKey).iterator());
+        }
+
+        @Override
+        protected boolean innerHasNext() {
+            if (nextEntry == null) {
+                nextEntry = readNextEntry();
+            }
+            return nextEntry != null;
+        }
+
+        private Entry<FDate, V> readNextEntry() {
+            while (true) {
+                while (values.hasNext()) {
+                    final V value = values.next();
+                    final FDate key = extractKey(null, value);
+                    if (key.isAfter(to) || (highestAllowedKey != null && key.isAfter(highestAllowedKey))) {
+                        return null;
+                    }
+                    if (key.isAfter(lastKey)) {
+                        lastKey = key;
+                        valuesHadNewKeys = true;
+                        return ImmutableEntry.of(key, value);
+                    }
+                }
+                //the db might return the values in chunks, thus continue from the last key
+                if (!valuesHadNewKeys || isMaxKeyInDBReached(lastKey)) {
+                    return null;
+                }
+                values.close();
+                values = WrapperCloseableIterator.maybeWrap(readAllValues(lastKey).iterator());
+                valuesHadNewKeys = false;
+            }
+        }
+
+        @Override
+        protected Entry<FDate, V> innerNext() {
+            if (!innerHasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry<FDate, V> next = nextEntry;
+            nextEntry = null;
+            return next;
+        }
+
+        @Override
+        protected void innerClose() {
+            values.close();
+        }
+
     }
 
 }
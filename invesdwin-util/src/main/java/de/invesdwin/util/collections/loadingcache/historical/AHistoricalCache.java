@@ -1,8 +1,11 @@
 package de.invesdwin.util.collections.loadingcache.historical;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -10,11 +13,18 @@ import javax.annotation.concurrent.ThreadSafe;
 import org.assertj.core.description.TextDescription;
 
 import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.bean.tuple.ImmutableEntry;
 import de.invesdwin.util.collections.loadingcache.ADelegateLoadingCache;
 import de.invesdwin.util.collections.loadingcache.ALoadingCache;
 import de.invesdwin.util.collections.loadingcache.ILoadingCache;
+import de.invesdwin.util.collections.loadingcache.budget.ALoadingCacheBudgetConsumer;
+import de.invesdwin.util.collections.loadingcache.budget.LoadingCacheBudgetManager;
 import de.invesdwin.util.collections.loadingcache.historical.interceptor.HistoricalCacheQueryInterceptorSupport;
 import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheQueryInterceptor;
+import de.invesdwin.util.collections.loadingcache.historical.internal.FDateLongKeyLoadingCache;
+import de.invesdwin.util.collections.loadingcache.historical.internal.HistoricalCacheCombinedStore;
+import de.invesdwin.util.collections.loadingcache.historical.internal.HistoricalCacheSortedIndex;
+import de.invesdwin.util.collections.loadingcache.historical.internal.HistoricalCacheTailKeys;
 import de.invesdwin.util.collections.loadingcache.historical.key.IHistoricalCacheAdjustKeyProvider;
 import de.invesdwin.util.collections.loadingcache.historical.key.internal.DelegateHistoricalCacheExtractKeyProvider;
 import de.invesdwin.util.collections.loadingcache.historical.key.internal.DelegateHistoricalCacheShiftKeyProvider;
@@ -26,6 +36,8 @@ import de.invesdwin.util.collections.loadingcache.historical.query.internal.IHis
 import de.invesdwin.util.collections.loadingcache.historical.query.internal.core.CachedHistoricalCacheQueryCore;
 import de.invesdwin.util.collections.loadingcache.historical.query.internal.core.IHistoricalCacheQueryCore;
 import de.invesdwin.util.collections.loadingcache.historical.refresh.HistoricalCacheRefreshManager;
+import de.invesdwin.util.collections.loadingcache.historical.snapshot.HistoricalCacheSnapshot;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
 import de.invesdwin.util.time.fdate.FDate;
 
 @ThreadSafe
@@ -40,35 +52,71 @@ public abstract class AHistoricalCache<V> {
     protected final IHistoricalCacheInternalMethods<V> internalMethods = new HistoricalCacheInternalMethods();
 
     private final List<ALoadingCache<?, ?>> increaseMaximumSizeListeners = new ArrayList<ALoadingCache<?, ?>>();
+    //the highest key that was requested from or put into the values map or the previous/next keys caches
+    private final AtomicReference<FDate> maxCachedKey = new AtomicReference<FDate>();
+    //gets created by the first removal of a tail, so that following removals don't need to scan the caches
+    private volatile HistoricalCacheTailKeys tailKeys;
+    //pushes must not hold the cache monitor while resolving the previous value, since loads take it after their loader
+    private final Object pushLock = new Object();
 
     private final IHistoricalCacheQueryCore<V> queryCore = newHistoricalCacheQueryCore();
     private IHistoricalCacheAdjustKeyProvider adjustKeyProvider = new InnerHistoricalCacheAdjustKeyProvider();
     private IHistoricalCacheOnValueLoadedListener<V> onValueLoadedListener = new InnerHistoricalCacheOnValueLoadedListener();
 
     private volatile FDate lastRefresh = HistoricalCacheRefreshManager.getLastRefresh();
+    private volatile boolean refreshScheduled;
     private boolean isPutDisabled = getMaximumSize() != null && getMaximumSize() == 0;
+    private final LoadingCacheMetrics metrics = newMetrics();
+    private final HistoricalCacheCombinedStore<V> combinedStore = newCombinedStore();
+    private final HistoricalCacheSortedIndex sortedIndex = newSortedIndex();
     private IHistoricalCacheShiftKeyProvider shiftKeyProvider = new InnerHistoricalCacheShiftKeyProvider();
     private IHistoricalCacheExtractKeyProvider<V> extractKeyProvider = new InnerHistoricalCacheExtractKeyProvider();
+    private final Object budgetConsumerLock = new Object();
+    private volatile ALoadingCacheBudgetConsumer budgetConsumer;
+    private volatile boolean budgetConsumerInitialized;
     private final ILoadingCache<FDate, V> valuesMap = new ADelegateLoadingCache<FDate, V>() {
 
         @Override
         public V get(final FDate key) {
             final FDate adjKey = adjustKey(key);
-            return super.get(adjKey);
+            onKeyCached(adjKey);
+            if (metrics != null) {
+                metrics.recordRequest();
+            }
+            final V value = super.get(adjKey);
+            final ALoadingCacheBudgetConsumer consumer = getBudgetConsumer();
+            if (consumer != null) {
+                consumer.onAccess();
+            }
+            return value;
+        }
+
+        @Override
+        public void put(final FDate key, final V value) {
+            onKeyCached(key);
+            super.put(key, value);
         }
 
         @Override
         protected ILoadingCache<FDate, V> createDelegate() {
-            return newLoadingCacheProvider(new Function<FDate, V>() {
+            final Function<FDate, V> loadValue = new Function<FDate, V>() {
 
                 @Override
                 public V apply(final FDate key) {
+                    final long start = System.nanoTime();
                     final V value = AHistoricalCache.this.loadValue(key);
+                    if (metrics != null) {
+                        metrics.recordMiss(start);
+                    }
                     onValueLoadedListener.onValueLoaded(key, value);
                     return value;
                 }
 
-            }, getMaximumSize());
+            };
+            if (combinedStore != null) {
+                return combinedStore.newValuesCache(loadValue);
+            }
+            return newLoadingCacheProvider(loadValue, getMaximumSize(), metrics);
         }
     };
 
@@ -87,13 +135,163 @@ public abstract class AHistoricalCache<V> {
         return new CachedHistoricalCacheQueryCore<V>(internalMethods);
     }
 
+    /**
+     * When enabled, FDate keys are stored as primitive longs. The values map and the previous/next keys caches are then
+     * combined into one store to save the memory of boxed keys and map entries for caches with lots of entries.
+     */
+    protected boolean isPrimitiveKeyStore() {
+        return false;
+    }
+
+    /**
+     * When enabled, the neighbor links of loaded keys are kept in a sorted index instead of the previous/next keys
+     * caches. This keeps contiguous ranges intact and allows getPreviousEntries to scan a range instead of looking up
+     * each previous key individually.
+     */
+    protected boolean isSortedKeyIndex() {
+        return false;
+    }
+
+    /**
+     * Return an instance here to count hits, misses and load latencies of this cache. The default is null, which
+     * disables metrics.
+     */
+    protected LoadingCacheMetrics newMetrics() {
+        return null;
+    }
+
+    public LoadingCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Return a shared manager here to keep the total size of lots of caches within a global budget. Cold caches then
+     * get shrunk or cleared while hot caches can still grow. The default is null, which only limits this cache by its
+     * own maximum size.
+     */
+    protected LoadingCacheBudgetManager getBudgetManager() {
+        return null;
+    }
+
+    /**
+     * The estimated weight of one value within the budget, e.g. its size in bytes.
+     */
+    protected long getBudgetEntryWeight() {
+        return 1;
+    }
+
+    /**
+     * The number of values that fit into the whole budget or null when there is no budget manager. Automatic growth of
+     * the maximum size should not exceed this.
+     */
+    protected Integer getBudgetMaximumSize() {
+        final ALoadingCacheBudgetConsumer consumer = getBudgetConsumer();
+        if (consumer == null) {
+            return null;
+        }
+        final long budgetMaximumSize = consumer.getManager().getMaximumWeight() / getBudgetEntryWeight();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetMaximumSize));
+    }
+
+    /**
+     * The consumer is created on first use instead of during construction, so that getBudgetManager() can return fields
+     * of subclasses.
+     */
+    private ALoadingCacheBudgetConsumer getBudgetConsumer() {
+        if (!budgetConsumerInitialized) {
+            synchronized (budgetConsumerLock) {
+                if (!budgetConsumerInitialized) {
+                    budgetConsumer = newBudgetConsumer();
+                    budgetConsumerInitialized = true;
+                }
+            }
+        }
+        return budgetConsumer;
+    }
+
+    private ALoadingCacheBudgetConsumer newBudgetConsumer() {
+        final LoadingCacheBudgetManager budgetManager = getBudgetManager();
+        if (budgetManager == null) {
+            return null;
+        }
+        final ALoadingCacheBudgetConsumer consumer = new ALoadingCacheBudgetConsumer(budgetManager) {
+            @Override
+            public long getWeight() {
+                return getValuesMap().size() * getBudgetEntryWeight();
+            }
+
+            @Override
+            public long shrink(final long excessWeight) {
+                final Integer maximumSize = getMaximumSize();
+                if (maximumSize == null || maximumSize <= 0) {
+                    return 0;
+                }
+                final long entryWeight = getBudgetEntryWeight();
+                final int sizeBefore = getValuesMap().size();
+                final long excessEntries = (excessWeight + entryWeight - 1) / entryWeight;
+                //keep at least one entry, the remaining excess might be freed by other caches
+                final int newMaximumSize = (int) Math.max(1, sizeBefore - excessEntries);
+                if (newMaximumSize >= sizeBefore) {
+                    return 0;
+                }
+                decreaseMaximumSize(newMaximumSize);
+                return (sizeBefore - getValuesMap().size()) * entryWeight;
+            }
+
+            @Override
+            public void evict() {
+                clear();
+            }
+        };
+        budgetManager.register(consumer);
+        return consumer;
+    }
+
+    private HistoricalCacheSortedIndex newSortedIndex() {
+        if (isSortedKeyIndex()) {
+            return new HistoricalCacheSortedIndex(getMaximumSize());
+        } else {
+            return null;
+        }
+    }
+
+    private HistoricalCacheCombinedStore<V> newCombinedStore() {
+        final Integer maximumSize = getMaximumSize();
+        if (isPrimitiveKeyStore() && (maximumSize == null || maximumSize > 0)) {
+            return new HistoricalCacheCombinedStore<V>(maximumSize, metrics);
+        } else {
+            return null;
+        }
+    }
+
     protected synchronized void increaseMaximumSize(final int maximumSize) {
         for (final ALoadingCache<?, ?> l : increaseMaximumSizeListeners) {
             l.increaseMaximumSize(maximumSize);
         }
+        if (combinedStore != null) {
+            combinedStore.increaseMaximumSize(maximumSize);
+        }
+        if (sortedIndex != null) {
+            sortedIndex.increaseMaximumSize(maximumSize);
+        }
         queryCore.increaseMaximumSize(maximumSize);
     }
 
+    /**
+     * The query core keeps its size, since it increases the size again on its own when lookbacks need it.
+     */
+    protected synchronized void decreaseMaximumSize(final int maximumSize) {
+        for (final ALoadingCache<?, ?> l : increaseMaximumSizeListeners) {
+            l.decreaseMaximumSize(maximumSize);
+        }
+        if (combinedStore != null) {
+            combinedStore.decreaseMaximumSize(maximumSize);
+        }
+        if (sortedIndex != null) {
+            sortedIndex.decreaseMaximumSize(maximumSize);
+        }
+    }
+
     protected void setAdjustKeyProvider(final IHistoricalCacheAdjustKeyProvider adjustKeyProvider) {
         Assertions.assertThat(this.adjustKeyProvider)
                 .as("%s can only be set once", IHistoricalCacheAdjustKeyProvider.class.getSimpleName())
@@ -118,14 +316,41 @@ public abstract class AHistoricalCache<V> {
     }
 
     protected FDate adjustKey(final FDate key) {
-        final FDate lastRefreshFromManager = HistoricalCacheRefreshManager.getLastRefresh();
-        if (lastRefresh.isBefore(lastRefreshFromManager)) {
-            lastRefresh = new FDate();
-            maybeRefresh();
+        if (!refreshScheduled) {
+            final FDate lastRefreshFromManager = HistoricalCacheRefreshManager.getLastRefresh();
+            if (lastRefresh.isBefore(lastRefreshFromManager)) {
+                lastRefresh = lastRefreshFromManager;
+                maybeRefresh();
+            }
         }
         return adjustKeyProvider.adjustKey(key);
     }
 
+    /**
+     * Checks for new data right away instead of on the next access after HistoricalCacheRefreshManager.refresh().
+     * Returns true if the cache was changed.
+     * 
+     * By default the cache gets cleared and the values are loaded again on demand. AGapHistoricalCache keeps serving
+     * the cached values until the check found changes, and with incremental refresh it even keeps them afterwards.
+     */
+    public boolean refresh() {
+        //a refresh of the manager within the same millisecond should still be noticed afterwards
+        lastRefresh = HistoricalCacheRefreshManager.getLastRefresh();
+        return maybeRefresh();
+    }
+
+    public boolean isRefreshScheduled() {
+        return refreshScheduled;
+    }
+
+    /**
+     * Caches that are refreshed by a HistoricalCacheRefreshScheduler ignore HistoricalCacheRefreshManager.refresh(), so
+     * that they do not reload on the next access all at the same time.
+     */
+    public void setRefreshScheduled(final boolean refreshScheduled) {
+        this.refreshScheduled = refreshScheduled;
+    }
+
     protected boolean maybeRefresh() {
         clear();
         return true;
@@ -135,6 +360,14 @@ public abstract class AHistoricalCache<V> {
 
     protected <T> ILoadingCache<FDate, T> newLoadingCacheProvider(final Function<FDate, T> loadValue,
             final Integer maximumSize) {
+        return newLoadingCacheProvider(loadValue, maximumSize, null);
+    }
+
+    /**
+     * The evictions get counted in the given metrics, which might be null.
+     */
+    protected <T> ILoadingCache<FDate, T> newLoadingCacheProvider(final Function<FDate, T> loadValue,
+            final Integer maximumSize, final LoadingCacheMetrics evictionMetrics) {
         final ALoadingCache<FDate, T> loadingCache = new ALoadingCache<FDate, T>() {
 
             @Override
@@ -147,6 +380,26 @@ public abstract class AHistoricalCache<V> {
                 return loadValue.apply(key);
             }
 
+            @Override
+            protected ILoadingCache<FDate, T> createDelegate() {
+                if (isPrimitiveKeyStore() && (maximumSize == null || maximumSize > 0)) {
+                    if (evictionMetrics == null) {
+                        //don't convert the keys of evictions that are not counted anyway
+                        return new FDateLongKeyLoadingCache<T>(loadValue, maximumSize);
+                    }
+                    return new FDateLongKeyLoadingCache<T>(loadValue, maximumSize, newEvictionListener());
+                } else {
+                    return super.createDelegate();
+                }
+            }
+
+            @Override
+            protected void onEvicted(final FDate key, final T value) {
+                if (evictionMetrics != null) {
+                    evictionMetrics.recordEviction();
+                }
+            }
+
         };
         increaseMaximumSizeListeners.add(loadingCache);
         return loadingCache;
@@ -209,12 +462,22 @@ public abstract class AHistoricalCache<V> {
         return queryCore.newQuery();
     }
 
+    /**
+     * Returns a view that shares the loaded values of this cache but does not see values after the given key.
+     */
+    public HistoricalCacheSnapshot<V> newSnapshot(final FDate highestAllowedKey) {
+        return new HistoricalCacheSnapshot<V>(this, highestAllowedKey);
+    }
+
     public boolean containsKey(final FDate key) {
         return getValuesMap().containsKey(key);
     }
 
     public final void remove(final FDate key) {
         getValuesMap().remove(key);
+        if (sortedIndex != null) {
+            sortedIndex.remove(key);
+        }
         if (shiftKeyProvider.getPreviousKeysCache().containsKey(key)) {
             final FDate previousKey = shiftKeyProvider.getPreviousKeysCache().get(key);
             shiftKeyProvider.getPreviousKeysCache().remove(previousKey);
@@ -289,6 +552,140 @@ public abstract class AHistoricalCache<V> {
         }
     }
 
+    /**
+     * Appends a newly arrived value (e.g. from a live feed) at the end of this cache, so that it does not need to be
+     * loaded from the db. See pushValues(...).
+     */
+    public void pushValue(final V value) {
+        pushValues(Collections.singletonList(value));
+    }
+
+    /**
+     * Appends newly arrived values at the end of this cache and links them to the previous last value. The values
+     * need to be sorted ascending and after the values that are already known. Evicted values get loaded from the db
+     * again, thus they should be stored there aswell.
+     * 
+     * Use APushingHistoricalCacheAdjustKeyProvider.pushValues(...) so that the other caches that share the provider
+     * also see the new values.
+     */
+    public void pushValues(final List<? extends V> values) {
+        if (isPutDisabled || values.isEmpty()) {
+            return;
+        }
+        synchronized (pushLock) {
+            innerPushValues(values);
+        }
+    }
+
+    private void innerPushValues(final List<? extends V> values) {
+        Entry<FDate, V> previousEntry = null;
+        for (int i = 0; i < values.size(); i++) {
+            final V value = values.get(i);
+            final FDate key = extractKey(null, value);
+            if (i == 0) {
+                previousEntry = query().getEntry(key.addMilliseconds(-1));
+                removeStaleTail(previousEntry, key);
+            } else if (!key.isAfter(previousEntry.getKey())) {
+                throw new IllegalArgumentException(new TextDescription(
+                        "%s: values need to be sorted ascending, but [%s] is not after [%s]", this, key,
+                        previousEntry.getKey()).toString());
+            }
+            final Entry<FDate, V> entry = ImmutableEntry.of(key, value);
+            put(entry, previousEntry);
+            queryCore.append(previousEntry, entry);
+            previousEntry = entry;
+        }
+        onValuesPushed(previousEntry.getKey());
+    }
+
+    /**
+     * When the keys are limited by a highest allowed key before the new value or when nothing was cached for the new
+     * key or after it, only the link to the next value can be outdated. Otherwise keys after the previous value might
+     * have been resolved to it aswell, which need to be removed.
+     */
+    private void removeStaleTail(final Entry<FDate, V> previousEntry, final FDate key) {
+        //when clearing other caches they might become inconsistent...
+        final boolean shiftKeysOwned = shiftKeyProvider.getParent() == this;
+        final FDate highestAllowedKey = adjustKeyProvider.getHighestAllowedKey();
+        final boolean limitedBeforeKey = highestAllowedKey != null && highestAllowedKey.isBefore(key);
+        final FDate maxCachedKeyCopy = maxCachedKey.get();
+        if (limitedBeforeKey || maxCachedKeyCopy == null || maxCachedKeyCopy.isBefore(key)) {
+            if (shiftKeysOwned) {
+                if (previousEntry != null) {
+                    shiftKeyProvider.getNextKeysCache().remove(previousEntry.getKey());
+                }
+                if (limitedBeforeKey) {
+                    shiftKeyProvider.getNextKeysCache().remove(highestAllowedKey);
+                }
+            }
+        } else if (previousEntry != null) {
+            removeTail(key, previousEntry.getKey());
+        } else {
+            removeTail(key, key);
+        }
+    }
+
+    /**
+     * Removes the values and previous keys after or equal to the given key and the next keys after or equal to the
+     * other given key. Only the removed keys are touched when they are all known, otherwise the caches get scanned.
+     */
+    private void removeTail(final FDate fromKey, final FDate nextKeysFromKey) {
+        final boolean shiftKeysOwned = shiftKeyProvider.getParent() == this;
+        final HistoricalCacheTailKeys tailKeysCopy = tailKeys;
+        if (tailKeysCopy != null && tailKeysCopy.isComplete(nextKeysFromKey)) {
+            if (shiftKeysOwned) {
+                for (final FDate key : tailKeysCopy.getAfterOrEqual(nextKeysFromKey)) {
+                    shiftKeyProvider.getNextKeysCache().remove(key);
+                }
+            }
+            for (final FDate key : tailKeysCopy.removeAfterOrEqual(fromKey)) {
+                valuesMap.remove(key);
+                if (shiftKeysOwned) {
+                    shiftKeyProvider.getPreviousKeysCache().remove(key);
+                }
+            }
+        } else {
+            //keys that get cached during the scan are already remembered
+            final FDate floorKey = fromKey.addMilliseconds(-1);
+            if (tailKeysCopy == null) {
+                final Integer maximumSize = getMaximumSize();
+                tailKeys = new HistoricalCacheTailKeys(maximumSize != null ? maximumSize : DEFAULT_MAXIMUM_SIZE,
+                        floorKey);
+            } else {
+                tailKeysCopy.clear(floorKey);
+            }
+            removeKeysAfterOrEqual(valuesMap, fromKey);
+            if (shiftKeysOwned) {
+                removeKeysAfterOrEqual(shiftKeyProvider.getPreviousKeysCache(), fromKey);
+                removeKeysAfterOrEqual(shiftKeyProvider.getNextKeysCache(), nextKeysFromKey);
+            }
+        }
+        if (shiftKeysOwned && sortedIndex != null) {
+            sortedIndex.removeAfterOrEqual(fromKey);
+        }
+    }
+
+    private void onKeyCached(final FDate key) {
+        final HistoricalCacheTailKeys tailKeysCopy = tailKeys;
+        if (tailKeysCopy != null) {
+            tailKeysCopy.add(key);
+        }
+        while (true) {
+            final FDate current = maxCachedKey.get();
+            if (current != null && !key.isAfter(current)) {
+                return;
+            }
+            if (maxCachedKey.compareAndSet(current, key)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets called after values were pushed with the key of the last one.
+     */
+    protected void onValuesPushed(final FDate lastKey) {}
+
     private void putPrevious(final FDate previousKey, final V value, final FDate valueKey) {
         final int compare = previousKey.compareTo(valueKey);
         if (!(compare <= 0)) {
@@ -297,8 +694,13 @@ public abstract class AHistoricalCache<V> {
                             .toString());
         }
         if (compare != 0) {
-            shiftKeyProvider.getPreviousKeysCache().put(valueKey, previousKey);
-            shiftKeyProvider.getNextKeysCache().put(previousKey, valueKey);
+            onKeyCached(valueKey);
+            if (sortedIndex != null) {
+                sortedIndex.putLink(previousKey, valueKey);
+            } else {
+                shiftKeyProvider.getPreviousKeysCache().put(valueKey, previousKey);
+                shiftKeyProvider.getNextKeysCache().put(previousKey, valueKey);
+            }
         }
     }
 
@@ -310,8 +712,13 @@ public abstract class AHistoricalCache<V> {
                             .toString());
         }
         if (compare != 0) {
-            shiftKeyProvider.getNextKeysCache().put(valueKey, nextKey);
-            shiftKeyProvider.getPreviousKeysCache().put(nextKey, valueKey);
+            onKeyCached(nextKey);
+            if (sortedIndex != null) {
+                sortedIndex.putLink(valueKey, nextKey);
+            } else {
+                shiftKeyProvider.getNextKeysCache().put(valueKey, nextKey);
+                shiftKeyProvider.getPreviousKeysCache().put(nextKey, valueKey);
+            }
         }
     }
 
@@ -324,10 +731,36 @@ public abstract class AHistoricalCache<V> {
         if (shiftKeyProvider.getParent() == this) {
             shiftKeyProvider.clear();
         }
+        final HistoricalCacheTailKeys tailKeysCopy = tailKeys;
+        if (tailKeysCopy != null) {
+            //nothing is cached anymore, thus all keys can be remembered again
+            tailKeysCopy.clear();
+        }
         queryCore.clear();
         lastRefresh = HistoricalCacheRefreshManager.getLastRefresh();
     }
 
+    /**
+     * Removes the values and the previous/next keys that were cached for keys after or equal to the given one. This
+     * allows new values to be appended at the end without having to clear everything before them.
+     */
+    protected void clearTail(final FDate fromKey) {
+        final FDate maxCachedKeyCopy = maxCachedKey.get();
+        if (maxCachedKeyCopy != null && !maxCachedKeyCopy.isBefore(fromKey)) {
+            removeTail(fromKey, fromKey);
+        }
+        queryCore.clearTail(fromKey);
+        lastRefresh = HistoricalCacheRefreshManager.getLastRefresh();
+    }
+
+    private static void removeKeysAfterOrEqual(final ILoadingCache<FDate, ?> cache, final FDate fromKey) {
+        for (final FDate key : new ArrayList<FDate>(cache.keySet())) {
+            if (key.isAfterOrEqual(fromKey)) {
+                cache.remove(key);
+            }
+        }
+    }
+
     protected IHistoricalCacheQueryInterceptor<V> getQueryInterceptor() {
         return new HistoricalCacheQueryInterceptorSupport<V>();
     }
@@ -401,6 +834,11 @@ public abstract class AHistoricalCache<V> {
         public void increaseMaximumSize(final int maximumSize) {
             AHistoricalCache.this.increaseMaximumSize(maximumSize);
         }
+
+        @Override
+        public Iterator<FDate> newPreviousKeysRange(final FDate key) {
+            return shiftKeyProvider.newPreviousKeysRange(key);
+        }
     }
 
     private final class InnerHistoricalCacheExtractKeyProvider implements IHistoricalCacheExtractKeyProvider<V> {
@@ -419,6 +857,7 @@ public abstract class AHistoricalCache<V> {
             @Override
             public FDate get(final FDate key) {
                 final FDate adjKey = adjustKey(key);
+                onKeyCached(adjKey);
                 return super.get(adjKey);
             }
 
@@ -426,18 +865,23 @@ public abstract class AHistoricalCache<V> {
             public void put(final FDate key, final FDate value) {
                 //don't cache null values to prevent moving time issues of the underlying source (e.g. JForexTickCache getNextValue)
                 if (value != null && !key.equals(value)) {
+                    onKeyCached(key);
                     super.put(key, value);
                 }
             }
 
             @Override
             protected ILoadingCache<FDate, FDate> createDelegate() {
-                return newLoadingCacheProvider(new Function<FDate, FDate>() {
+                final Function<FDate, FDate> loadValue = new Function<FDate, FDate>() {
                     @Override
                     public FDate apply(final FDate key) {
                         return innerCalculatePreviousKey(key);
                     }
-                }, getMaximumSize());
+                };
+                if (combinedStore != null) {
+                    return combinedStore.newPreviousKeysCache(loadValue);
+                }
+                return newLoadingCacheProvider(loadValue, getMaximumSize());
             }
 
         };
@@ -447,6 +891,7 @@ public abstract class AHistoricalCache<V> {
             public void put(final FDate key, final FDate value) {
                 //don't cache null values to prevent moving time issues of the underlying source (e.g. JForexTickCache getNextValue)
                 if (value != null && !key.equals(value)) {
+                    onKeyCached(key);
                     super.put(key, value);
                 }
             }
@@ -454,30 +899,56 @@ public abstract class AHistoricalCache<V> {
             @Override
             public FDate get(final FDate key) {
                 final FDate adjKey = adjustKey(key);
+                onKeyCached(adjKey);
                 return super.get(adjKey);
             }
 
             @Override
             protected ILoadingCache<FDate, FDate> createDelegate() {
-                return newLoadingCacheProvider(new Function<FDate, FDate>() {
+                final Function<FDate, FDate> loadValue = new Function<FDate, FDate>() {
                     @Override
                     public FDate apply(final FDate key) {
                         return innerCalculateNextKey(key);
                     }
-                }, getMaximumSize());
+                };
+                if (combinedStore != null) {
+                    return combinedStore.newNextKeysCache(loadValue);
+                }
+                return newLoadingCacheProvider(loadValue, getMaximumSize());
             }
         };
 
         @Override
         public FDate calculatePreviousKey(final FDate key) {
+            if (sortedIndex != null) {
+                final FDate previousKey = sortedIndex.getPreviousKey(key);
+                if (previousKey != null) {
+                    return previousKey;
+                }
+            }
             return previousKeysCache.get(key);
         }
 
         @Override
         public FDate calculateNextKey(final FDate key) {
+            if (sortedIndex != null) {
+                final FDate nextKey = sortedIndex.getNextKey(key);
+                if (nextKey != null) {
+                    return nextKey;
+                }
+            }
             return nextKeysCache.get(key);
         }
 
+        @Override
+        public Iterator<FDate> newPreviousKeysRange(final FDate key) {
+            if (sortedIndex != null) {
+                return sortedIndex.newPreviousKeysRange(key);
+            } else {
+                return null;
+            }
+        }
+
         @Override
         public ILoadingCache<FDate, FDate> getPreviousKeysCache() {
             return previousKeysCache;
@@ -492,6 +963,9 @@ public abstract class AHistoricalCache<V> {
         public void clear() {
             previousKeysCache.clear();
             nextKeysCache.clear();
+            if (sortedIndex != null) {
+                sortedIndex.clear();
+            }
         }
 
         @Override
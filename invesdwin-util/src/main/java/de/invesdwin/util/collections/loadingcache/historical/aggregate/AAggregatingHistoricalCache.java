@@ -0,0 +1,168 @@
+package de.invesdwin.util.collections.loadingcache.historical.aggregate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+/**
+ * Aggregates the values of a source cache into buckets of a fixed duration, e.g. to build 5 minute, hourly or daily
+ * bars from ticks. The aggregate of a bucket is keyed by the end of the bucket, thus only completed buckets are visible
+ * to queries. Buckets without source values are skipped. Buckets of multiple units (e.g. 5 minutes) are aligned to
+ * multiples since 1970.
+ * 
+ * The aggregates need to remember the end of their bucket so that innerExtractKey can return it.
+ */
+@ThreadSafe
+public abstract class AAggregatingHistoricalCache<S, V> extends AHistoricalCache<V> {
+
+    private final AHistoricalCache<S> source;
+    private final Duration bucketDuration;
+    @GuardedBy("this")
+    private FDate openBucketEnd;
+    @GuardedBy("this")
+    private V openAggregate;
+
+    public AAggregatingHistoricalCache(final AHistoricalCache<S> source, final Duration bucketDuration) {
+        if (source == null) {
+            throw new IllegalArgumentException("source should not be null");
+        }
+        if (bucketDuration.longValue() <= 0) {
+            throw new IllegalArgumentException("bucketDuration [" + bucketDuration + "] should be positive");
+        }
+        this.source = source;
+        this.bucketDuration = bucketDuration;
+    }
+
+    public AHistoricalCache<S> getSource() {
+        return source;
+    }
+
+    public Duration getBucketDuration() {
+        return bucketDuration;
+    }
+
+    /**
+     * Adds the value to the aggregate of the bucket that ends at the given key. The aggregate is null for the first
+     * value of the bucket. The returned aggregate is used for the next value.
+     */
+    protected abstract V aggregate(FDate bucketEnd, V aggregate, S value);
+
+    public FDate getBucketStart(final FDate key) {
+        final FTimeUnit timeUnit = bucketDuration.getTimeUnit();
+        final FDate truncated = key.truncate(timeUnit);
+        final long units = bucketDuration.longValue();
+        if (units == 1) {
+            return truncated;
+        }
+        final long offset = truncated.longValue(timeUnit) % units;
+        return truncated.add(timeUnit, (int) -offset);
+    }
+
+    public FDate getBucketEnd(final FDate key) {
+        return getBucketStart(key).add(bucketDuration);
+    }
+
+    @Override
+    protected V loadValue(final FDate key) {
+        //the latest completed bucket ends at or before the key
+        FDate bucketEnd = getBucketStart(key);
+        while (true) {
+            final V aggregate = aggregateBucket(bucketEnd, bucketEnd);
+            if (aggregate != null) {
+                return aggregate;
+            }
+            //skip empty buckets
+            final Entry<FDate, S> previousEntry = source.query()
+                    .withFutureNull()
+                    .getEntry(bucketEnd.subtract(bucketDuration).addMilliseconds(-1));
+            if (previousEntry == null) {
+                return null;
+            }
+            bucketEnd = getBucketEnd(previousEntry.getKey());
+        }
+    }
+
+    /**
+     * Aggregates the source values of the bucket that come before the given key.
+     */
+    private V aggregateBucket(final FDate bucketEnd, final FDate to) {
+        V aggregate = null;
+        final FDate bucketStart = bucketEnd.subtract(bucketDuration);
+        final ICloseableIterator<Entry<FDate, S>> entries = source.query()
+                .getEntries(bucketStart, to.addMilliseconds(-1))
+                .iterator();
+        try {
+            while (entries.hasNext()) {
+                final Entry<FDate, S> entry = entries.next();
+                //the range starts with the previous value when there is none at its start
+                if (!entry.getKey().isBefore(bucketStart)) {
+                    aggregate = aggregate(bucketEnd, aggregate, entry.getValue());
+                }
+            }
+        } finally {
+            entries.close();
+        }
+        return aggregate;
+    }
+
+    @Override
+    protected FDate innerCalculatePreviousKey(final FDate key) {
+        return getBucketStart(key.addMilliseconds(-1));
+    }
+
+    @Override
+    protected FDate innerCalculateNextKey(final FDate key) {
+        //the next bucket is the one of the first source value at or after the key
+        Entry<FDate, S> nextEntry = source.query().withFuture().getNextEntry(key, 0);
+        if (nextEntry != null && nextEntry.getKey().isBefore(key)) {
+            nextEntry = source.query().withFuture().getNextEntry(key, 1);
+        }
+        if (nextEntry == null || nextEntry.getKey().isBefore(key)) {
+            return null;
+        }
+        return getBucketEnd(nextEntry.getKey());
+    }
+
+    public void pushSourceValue(final S value) {
+        pushSourceValues(Collections.singletonList(value));
+    }
+
+    /**
+     * Updates the aggregate of the current bucket with values that were pushed to the source cache, so that the bucket
+     * does not need to be aggregated from the source again. When a value starts a new bucket, the aggregate of the
+     * previous one gets appended to this cache.
+     */
+    public synchronized void pushSourceValues(final List<? extends S> values) {
+        for (int i = 0; i < values.size(); i++) {
+            final S value = values.get(i);
+            final FDate key = source.extractKey(null, value);
+            final FDate bucketEnd = getBucketEnd(key);
+            if (!bucketEnd.equals(openBucketEnd)) {
+                if (openAggregate != null) {
+                    pushValue(openAggregate);
+                }
+                //the bucket might have started before the values were pushed
+                openBucketEnd = bucketEnd;
+                openAggregate = aggregateBucket(bucketEnd, key);
+            }
+            openAggregate = aggregate(bucketEnd, openAggregate, value);
+        }
+    }
+
+    /**
+     * Returns the aggregate of the bucket that is not completed yet, or null if no values were pushed.
+     */
+    public synchronized V getOpenAggregate() {
+        return openAggregate;
+    }
+
+}
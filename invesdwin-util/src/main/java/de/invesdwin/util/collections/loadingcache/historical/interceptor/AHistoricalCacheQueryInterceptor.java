@@ -19,13 +19,21 @@ public abstract class AHistoricalCacheQueryInterceptor<V> implements IHistorical
         this.parent = parent;
     }
 
+    protected AHistoricalCache<V> getParent() {
+        return parent;
+    }
+
     @Override
     public ICloseableIterable<FDate> getKeys(final FDate from, final FDate to) {
+        final ICloseableIterable<Entry<FDate, V>> entries = getEntries(from, to);
+        if (entries == null) {
+            return null;
+        }
         return new ICloseableIterable<FDate>() {
             @Override
             public ICloseableIterator<FDate> iterator() {
                 return new ICloseableIterator<FDate>() {
-                    private final ICloseableIterator<Entry<FDate, V>> entriesIterator = getEntries(from, to).iterator();
+                    private final ICloseableIterator<Entry<FDate, V>> entriesIterator = entries.iterator();
 
                     @Override
                     public boolean hasNext() {
@@ -54,6 +62,9 @@ public abstract class AHistoricalCacheQueryInterceptor<V> implements IHistorical
     @Override
     public final ICloseableIterable<Entry<FDate, V>> getEntries(final FDate from, final FDate to) {
         final ICloseableIterable<Entry<FDate, V>> innerGetEntries = innerGetEntries(from, to);
+        if (innerGetEntries == null) {
+            return null;
+        }
         return new ATransformingCloseableIterable<Entry<FDate, V>, Entry<FDate, V>>(innerGetEntries) {
 
             private Entry<FDate, V> prevEntry;
@@ -68,6 +79,9 @@ public abstract class AHistoricalCacheQueryInterceptor<V> implements IHistorical
         };
     }
 
+    /**
+     * Returning null here falls back to the default implementation.
+     */
     protected abstract ICloseableIterable<Entry<FDate, V>> innerGetEntries(final FDate from, final FDate to);
 
 }
@@ -0,0 +1,163 @@
+package de.invesdwin.util.collections.loadingcache.historical.interceptor;
+
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.collections.loadingcache.historical.internal.HistoricalCacheKeyIndex;
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Loads all keys of the cache once into a sorted primitive index, so that getKeys(from, to), getPreviousKey(key, n) and
+ * getPreviousValueKeyBetween are answered by binary search and offset arithmetic instead of one neighbor lookup per
+ * key. Keys after the highest allowed key of the cache are hidden.
+ * 
+ * Call appendKey(...) for values that arrive after the index was built and clear() when the data was changed otherwise.
+ */
+@ThreadSafe
+public abstract class AKeyIndexHistoricalCacheQueryInterceptor<V> extends AHistoricalCacheQueryInterceptor<V>
+        implements IHistoricalCachePreviousKeyQueryInterceptor<V> {
+
+    private volatile HistoricalCacheKeyIndex index;
+
+    public AKeyIndexHistoricalCacheQueryInterceptor(final AHistoricalCache<V> parent) {
+        super(parent);
+    }
+
+    /**
+     * Reads the keys of all values from the db.
+     */
+    protected abstract Iterable<FDate> readAllKeysAscending();
+
+    private HistoricalCacheKeyIndex getIndex() {
+        HistoricalCacheKeyIndex indexCopy = index;
+        if (indexCopy == null) {
+            synchronized (this) {
+                indexCopy = index;
+                if (indexCopy == null) {
+                    indexCopy = new HistoricalCacheKeyIndex(readAllKeysAscending());
+                    index = indexCopy;
+                }
+            }
+        }
+        return indexCopy;
+    }
+
+    public void appendKey(final FDate key) {
+        final HistoricalCacheKeyIndex indexCopy = index;
+        if (indexCopy != null) {
+            indexCopy.append(key);
+        }
+    }
+
+    /**
+     * The index gets rebuilt on the next access.
+     */
+    public synchronized void clear() {
+        index = null;
+    }
+
+    /**
+     * Returns the index of the last key that is allowed for the given key, or -1 if there is none.
+     */
+    private int floorIndex(final HistoricalCacheKeyIndex indexCopy, final FDate key) {
+        final FDate highestAllowedKey = getParent().getAdjustKeyProvider().getHighestAllowedKey();
+        if (highestAllowedKey != null && key.isAfter(highestAllowedKey)) {
+            return indexCopy.floorIndex(highestAllowedKey);
+        } else {
+            return indexCopy.floorIndex(key);
+        }
+    }
+
+    @Override
+    public FDate getPreviousKey(final FDate key, final int shiftBackUnits) {
+        final HistoricalCacheKeyIndex indexCopy = getIndex();
+        final int previousIndex = floorIndex(indexCopy, key) - shiftBackUnits;
+        if (previousIndex < 0) {
+            //let the default implementation handle keys before the first one
+            return null;
+        }
+        return indexCopy.getKey(previousIndex);
+    }
+
+    @Override
+    public ICloseableIterable<FDate> getKeys(final FDate from, final FDate to) {
+        return new ICloseableIterable<FDate>() {
+            @Override
+            public ICloseableIterator<FDate> iterator() {
+                final HistoricalCacheKeyIndex indexCopy = getIndex();
+                //the first key might be before from, just like in the default implementation
+                final int fromIndex = Math.max(0, indexCopy.floorIndex(from));
+                final int toIndex = floorIndex(indexCopy, to);
+                return new KeysIterator(indexCopy, fromIndex, toIndex);
+            }
+        };
+    }
+
+    @Override
+    protected ICloseableIterable<Entry<FDate, V>> innerGetEntries(final FDate from, final FDate to) {
+        final ICloseableIterable<FDate> keys = getKeys(from, to);
+        return new ICloseableIterable<Entry<FDate, V>>() {
+            @Override
+            public ICloseableIterator<Entry<FDate, V>> iterator() {
+                final ICloseableIterator<FDate> keysIterator = keys.iterator();
+                return new ICloseableIterator<Entry<FDate, V>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return keysIterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<FDate, V> next() {
+                        return getParent().query().getEntry(keysIterator.next());
+                    }
+
+                    @Override
+                    public void close() {
+                        keysIterator.close();
+                    }
+                };
+            }
+        };
+    }
+
+    @NotThreadSafe
+    private static final class KeysIterator implements ICloseableIterator<FDate> {
+
+        private final HistoricalCacheKeyIndex index;
+        private final int toIndex;
+        private int nextIndex;
+
+        private KeysIterator(final HistoricalCacheKeyIndex index, final int fromIndex, final int toIndex) {
+            this.index = index;
+            this.nextIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextIndex <= toIndex;
+        }
+
+        @Override
+        public FDate next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return index.getKey(nextIndex++);
+        }
+
+        @Override
+        public void close() {
+            nextIndex = toIndex + 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,23 @@
+package de.invesdwin.util.collections.loadingcache.historical.interceptor;
+
+import java.util.List;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Interceptors that implement this are asked to load the keys of getEntries(keys) together.
+ */
+public interface IHistoricalCacheBatchQueryInterceptor<V> extends IHistoricalCacheQueryInterceptor<V> {
+
+    /**
+     * When this returns a value greater than 0, getEntries(keys) collects chunks of this many keys and passes them to
+     * loadEntries(keys) before looking them up individually.
+     */
+    int getEntriesBatchSize();
+
+    /**
+     * Loads the values for the given keys in as few queries as possible and puts them into the cache.
+     */
+    void loadEntries(List<FDate> keys);
+
+}
@@ -0,0 +1,16 @@
+package de.invesdwin.util.collections.loadingcache.historical.interceptor;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Interceptors that implement this are asked for previous keys before they get looked up one by one.
+ */
+public interface IHistoricalCachePreviousKeyQueryInterceptor<V> extends IHistoricalCacheQueryInterceptor<V> {
+
+    /**
+     * Returns the key of the value that lies shiftBackUnits before the value of the given key. Returning null falls
+     * back to the default implementation.
+     */
+    FDate getPreviousKey(FDate key, int shiftBackUnits);
+
+}
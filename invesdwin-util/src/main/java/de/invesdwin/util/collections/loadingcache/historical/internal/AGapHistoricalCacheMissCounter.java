@@ -1,5 +1,6 @@
 package de.invesdwin.util.collections.loadingcache.historical.internal;
 
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import de.invesdwin.util.collections.loadingcache.historical.AGapHistoricalCache;
@@ -12,6 +13,15 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
 
     private static final int OPTIMAL_MULTIPLICATOR = 2;
     private static final int MAX_SUCCESSIVE_CACHE_EVICTIONS = 2;
+    /**
+     * the number of loads after which adaptive sizing checks whether the cache can be shrunk
+     */
+    private static final int ADAPTIVE_SIZING_WINDOW_LOADS = 100;
+    /**
+     * shrinking slower than growing lets the size converge instead of oscillating
+     */
+    private static final int ADAPTIVE_SIZING_SHRINK_NUMERATOR = 3;
+    private static final int ADAPTIVE_SIZING_SHRINK_DENOMINATOR = 4;
     private static final org.slf4j.ext.XLogger LOG = org.slf4j.ext.XLoggerFactory
             .getXLogger(AGapHistoricalCacheMissCounter.class);
 
@@ -23,7 +33,24 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
     private Integer optimiumMaximumSize = getMaximumSize();
     private long optimiumReadBackStepMillis = getReadBackStepMillis();
 
-    public void checkSuccessiveCacheEvictions(final FDate key) {
+    /**
+     * adaptive sizing never shrinks below this, it gets raised by increases from outside (e.g. for lookbacks)
+     */
+    private Integer minimumMaximumSize = optimiumMaximumSize;
+    private boolean increasingOptimalMaximumSize;
+    private int windowLoads;
+    private int windowEvictionReloads;
+    private long loadedValuesIntervals;
+    private long loadedValuesMillis;
+
+    /**
+     * Returns a reoptimization when the evicted values need to be counted in the db first. This should happen via
+     * countOptimalMaximumSize(...) without holding the lock of this counter, the result is then given to
+     * reoptimize(...).
+     */
+    public Reoptimization checkSuccessiveCacheEvictions(final FDate key) {
+        windowEvictionReloads++;
+        Reoptimization reoptimization = null;
         if (key.isBeforeOrEqual(successiveCacheEvictionsToMinKey)) {
             if (successiveCacheEvictionsFromMaxKey == null) {
                 successiveCacheEvictionsFromMaxKey = key;
@@ -32,19 +59,100 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
         } else {
             maxSuccessiveCacheEvictions = Math.max(maxSuccessiveCacheEvictions, successiveCacheEvictions);
             if (successiveCacheEvictions >= MAX_SUCCESSIVE_CACHE_EVICTIONS) {
-                maybeReoptimize();
+                reoptimization = new Reoptimization(successiveCacheEvictionsToMinKey,
+                        successiveCacheEvictionsFromMaxKey, successiveCacheEvictions);
             }
             successiveCacheEvictions = 0;
             successiveCacheEvictionsFromMaxKey = key;
         }
         successiveCacheEvictionsToMinKey = key;
+        if (reoptimization == null) {
+            return null;
+        }
+        if (optimiumMaximumSize == null || optimiumMaximumSize <= 0) {
+            //only the read back step can be adjusted
+            reoptimize(reoptimization, 0);
+            return null;
+        }
+        if (isAdaptiveSizing()) {
+            //the estimation does not need to read from the db
+            reoptimize(reoptimization, estimateNewOptimalMaximumSize(reoptimization));
+            return null;
+        }
+        return reoptimization;
     }
 
     public void increaseMaximumSize(final int maximumSize) {
         this.optimiumMaximumSize = maximumSize;
+        if (!increasingOptimalMaximumSize && minimumMaximumSize != null) {
+            minimumMaximumSize = Math.max(minimumMaximumSize, maximumSize);
+        }
+    }
+
+    public void decreaseMaximumSize(final int maximumSize) {
+        if (optimiumMaximumSize != null && optimiumMaximumSize > maximumSize) {
+            this.optimiumMaximumSize = maximumSize;
+        }
+        if (minimumMaximumSize != null && minimumMaximumSize > maximumSize) {
+            minimumMaximumSize = maximumSize;
+        }
+    }
+
+    /**
+     * Should be called for each load when adaptive sizing is enabled.
+     */
+    public void onLoad() {
+        windowLoads++;
+        if (windowLoads >= ADAPTIVE_SIZING_WINDOW_LOADS) {
+            if (windowEvictionReloads == 0) {
+                maybeShrink();
+            }
+            windowLoads = 0;
+            windowEvictionReloads = 0;
+        }
+    }
+
+    /**
+     * Remembers the density of the values, so that adaptive sizing can estimate the number of values in a time range
+     * without reading them again.
+     */
+    public void onValuesLoaded(final FDate fromKey, final FDate toKey, final int count) {
+        if (count > 1) {
+            loadedValuesIntervals += count - 1;
+            loadedValuesMillis += toKey.millisValue() - fromKey.millisValue();
+        }
+    }
+
+    private void maybeShrink() {
+        final long currentReadBackStepMillis = optimiumReadBackStepMillis;
+        final Integer currentMaximumSize = optimiumMaximumSize;
+        boolean changed = false;
+        final long newOptimalReadBackStepMillis = Math.max(getReadBackStepMillis(),
+                currentReadBackStepMillis * ADAPTIVE_SIZING_SHRINK_NUMERATOR / ADAPTIVE_SIZING_SHRINK_DENOMINATOR);
+        if (newOptimalReadBackStepMillis < currentReadBackStepMillis) {
+            optimiumReadBackStepMillis = newOptimalReadBackStepMillis;
+            changed = true;
+        }
+        if (currentMaximumSize != null && minimumMaximumSize != null && currentMaximumSize > minimumMaximumSize) {
+            final int newOptimalMaximumSize = Math.max(minimumMaximumSize,
+                    currentMaximumSize * ADAPTIVE_SIZING_SHRINK_NUMERATOR / ADAPTIVE_SIZING_SHRINK_DENOMINATOR);
+            if (newOptimalMaximumSize < currentMaximumSize) {
+                optimiumMaximumSize = newOptimalMaximumSize;
+                decreaseOptimalMaximumSize(newOptimalMaximumSize);
+                changed = true;
+            }
+        }
+        if (changed) {
+            //let the next growth start from the current situation
+            maxSuccessiveCacheEvictions = 1;
+            onReoptimization();
+            if (isDebugAutomaticReoptimization()) {
+                warn(currentReadBackStepMillis, currentMaximumSize, null);
+            }
+        }
     }
 
-    private void maybeReoptimize() {
+    public void reoptimize(final Reoptimization reoptimization, final int newOptimalMaximumSize) {
         final long currentReadBackStepMillis = optimiumReadBackStepMillis;
         final Integer currentMaximumSize = optimiumMaximumSize;
         final long newOptimalReadBackStepMillis = determineNewOptimalReadBackStepMillis();
@@ -54,32 +162,57 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
             changed = true;
         }
         if (currentMaximumSize != null && currentMaximumSize > 0) {
-            final int newOptimalMaximumSize = determineNewOptimalMaximumSize();
-            if (newOptimalMaximumSize > currentMaximumSize) {
-                optimiumMaximumSize = newOptimalMaximumSize;
-                increaseOptimalMaximumSize(newOptimalMaximumSize);
+            final int cappedOptimalMaximumSize = capToBudget(newOptimalMaximumSize);
+            if (cappedOptimalMaximumSize > currentMaximumSize) {
+                optimiumMaximumSize = cappedOptimalMaximumSize;
+                increasingOptimalMaximumSize = true;
+                try {
+                    increaseOptimalMaximumSize(cappedOptimalMaximumSize);
+                } finally {
+                    increasingOptimalMaximumSize = false;
+                }
                 changed = true;
             }
         }
-        if (changed && isDebugAutomaticReoptimization()) {
-            warn(currentReadBackStepMillis, currentMaximumSize);
+        if (changed) {
+            onReoptimization();
+            if (isDebugAutomaticReoptimization()) {
+                warn(currentReadBackStepMillis, currentMaximumSize, reoptimization);
+            }
         }
     }
 
+    private int capToBudget(final int newOptimalMaximumSize) {
+        final Integer budgetMaximumSize = getBudgetMaximumSize();
+        if (budgetMaximumSize != null && newOptimalMaximumSize > budgetMaximumSize) {
+            return budgetMaximumSize;
+        } else {
+            return newOptimalMaximumSize;
+        }
+    }
+
+    protected abstract void onReoptimization();
+
     protected abstract boolean isDebugAutomaticReoptimization();
 
-    private void warn(final long currentReadBackStepMillis, final Integer currentMaximumSize) {
+    private void warn(final long currentReadBackStepMillis, final Integer currentMaximumSize,
+            final Reoptimization reoptimization) {
         if (LOG.isWarnEnabled()) {
-            LOG.warn(AGapHistoricalCache.class.getSimpleName() + "[" + parentToString()
+            final StringBuilder message = new StringBuilder();
+            message.append(AGapHistoricalCache.class.getSimpleName() + "[" + parentToString()
                     + "]: automatically adjusting getMaximumSize[current=" + currentMaximumSize + "|newOptimum="
                     + optimiumMaximumSize + "] and getReadBackStepMillis[current=" + currentReadBackStepMillis + "/"
                     + new Duration(currentReadBackStepMillis, FTimeUnit.MILLISECONDS) + "|newOptimum="
                     + optimiumReadBackStepMillis + "/"
                     + new Duration(optimiumReadBackStepMillis, FTimeUnit.MILLISECONDS)
-                    + "] for optimal performance. Encountered " + successiveCacheEvictions
-                    + " successive lookback reloads due to cache evictions between: "
-                    + successiveCacheEvictionsFromMaxKey + " -> " + successiveCacheEvictionsToMinKey + " = "
-                    + new Duration(successiveCacheEvictionsToMinKey, successiveCacheEvictionsFromMaxKey));
+                    + "] for optimal performance.");
+            if (reoptimization != null) {
+                message.append(" Encountered " + reoptimization.successiveCacheEvictions
+                        + " successive lookback reloads due to cache evictions between: " + reoptimization.toKey
+                        + " -> " + reoptimization.fromKey + " = "
+                        + new Duration(reoptimization.fromKey, reoptimization.toKey));
+            }
+            LOG.warn(message.toString());
         }
     }
 
@@ -87,18 +220,36 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
 
     protected abstract void increaseOptimalMaximumSize(int optimalMaximumSize);
 
+    protected abstract void decreaseOptimalMaximumSize(int optimalMaximumSize);
+
+    /**
+     * When enabled, the maximum size is estimated from the density of the loaded values instead of reading the evicted
+     * range again. Also the maximum size and the read back step shrink again when no evictions happen for a while.
+     */
+    protected abstract boolean isAdaptiveSizing();
+
     public long getOptimalReadBackStepMillis() {
         return optimiumReadBackStepMillis;
     }
 
     protected abstract Integer getMaximumSize();
 
+    /**
+     * The maximum size that fits into the budget of the cache or null when it is unlimited. The doubling of the maximum
+     * size on evictions stops there, otherwise the budget manager would have to evict other caches for it.
+     */
+    protected abstract Integer getBudgetMaximumSize();
+
     protected abstract long getReadBackStepMillis();
 
-    private int determineNewOptimalMaximumSize() {
-        FDate curMaxDate = successiveCacheEvictionsToMinKey;
+    /**
+     * Counts the evicted values in the db. This does not access the state of this counter, thus it can be called
+     * without holding its lock.
+     */
+    public int countOptimalMaximumSize(final Reoptimization reoptimization) {
+        FDate curMaxDate = reoptimization.fromKey;
         int newOptimalMaximumSize = 0;
-        while (curMaxDate.isBefore(successiveCacheEvictionsFromMaxKey)) {
+        while (curMaxDate.isBefore(reoptimization.toKey)) {
             final Iterable<? extends V> readAllValues = readAllValuesAscendingFrom(curMaxDate);
             final FDate prevMaxDate = curMaxDate;
             for (final V v : readAllValues) {
@@ -112,6 +263,17 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
         return newOptimalMaximumSize * OPTIMAL_MULTIPLICATOR;
     }
 
+    private int estimateNewOptimalMaximumSize(final Reoptimization reoptimization) {
+        if (loadedValuesMillis <= 0) {
+            //density is still unknown
+            return optimiumMaximumSize * OPTIMAL_MULTIPLICATOR;
+        }
+        final long evictedMillis = reoptimization.toKey.millisValue() - reoptimization.fromKey.millisValue();
+        final double density = (double) loadedValuesIntervals / loadedValuesMillis;
+        final double estimatedValues = evictedMillis * density + 1;
+        return (int) Math.min(Integer.MAX_VALUE / OPTIMAL_MULTIPLICATOR, estimatedValues) * OPTIMAL_MULTIPLICATOR;
+    }
+
     private long determineNewOptimalReadBackStepMillis() {
         return getReadBackStepMillis() * maxSuccessiveCacheEvictions * OPTIMAL_MULTIPLICATOR;
     }
@@ -120,4 +282,22 @@ public abstract class AGapHistoricalCacheMissCounter<V> {
 
     protected abstract Iterable<? extends V> readAllValuesAscendingFrom(final FDate curMaxDate);
 
+    /**
+     * The range of successive cache evictions that triggered a reoptimization.
+     */
+    @Immutable
+    public static final class Reoptimization {
+
+        private final FDate fromKey;
+        private final FDate toKey;
+        private final int successiveCacheEvictions;
+
+        private Reoptimization(final FDate fromKey, final FDate toKey, final int successiveCacheEvictions) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+            this.successiveCacheEvictions = successiveCacheEvictions;
+        }
+
+    }
+
 }
@@ -0,0 +1,33 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.function.Function;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+import de.invesdwin.util.collections.loadingcache.internal.ALongKeyLoadingCache;
+import de.invesdwin.util.time.fdate.FDate;
+
+@ThreadSafe
+public class FDateLongKeyLoadingCache<V> extends ALongKeyLoadingCache<FDate, V> {
+
+    public FDateLongKeyLoadingCache(final Function<FDate, V> loadValue, final Integer maximumSize) {
+        super(loadValue, maximumSize);
+    }
+
+    public FDateLongKeyLoadingCache(final Function<FDate, V> loadValue, final Integer maximumSize,
+            final IRemovalListener<FDate, V> evictionListener) {
+        super(loadValue, maximumSize, evictionListener);
+    }
+
+    @Override
+    protected long toLongKey(final FDate key) {
+        return key.millisValue();
+    }
+
+    @Override
+    protected FDate fromLongKey(final long key) {
+        return new FDate(key);
+    }
+
+}
@@ -0,0 +1,321 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.ILoadingCache;
+import de.invesdwin.util.collections.loadingcache.internal.LongKeyHashMap;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Keeps the value, the previous key and the next key of a historical cache in one slot per primitive long key. Thus
+ * instead of three maps with boxed FDate keys, only one map with one slot object per key is needed. Evictions remove
+ * the whole slot so that neighbor links don't get evicted independently of their values.
+ */
+@ThreadSafe
+public class HistoricalCacheCombinedStore<V> {
+
+    private static final int VALUE = 0;
+    private static final int PREVIOUS_KEY = 1;
+    private static final int NEXT_KEY = 2;
+    private static final int FIELDS_COUNT = 3;
+
+    @GuardedBy("this")
+    private final LongKeyHashMap<Slot> map;
+    @GuardedBy("this")
+    private final int[] counts = new int[FIELDS_COUNT];
+
+    public HistoricalCacheCombinedStore(final Integer maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * The evictions of slots that contain a value get counted in the given metrics, which might be null.
+     */
+    public HistoricalCacheCombinedStore(final Integer maximumSize, final LoadingCacheMetrics metrics) {
+        this.map = new LongKeyHashMap<Slot>(maximumSize) {
+            @Override
+            protected void onEvicted(final long key, final Slot value) {
+                for (int field = 0; field < FIELDS_COUNT; field++) {
+                    if (value.has(field)) {
+                        counts[field]--;
+                    }
+                }
+                if (metrics != null && value.has(VALUE)) {
+                    metrics.recordEviction();
+                }
+            }
+        };
+    }
+
+    public synchronized void increaseMaximumSize(final int maximumSize) {
+        map.increaseMaximumSize(maximumSize);
+    }
+
+    public synchronized void decreaseMaximumSize(final int maximumSize) {
+        map.decreaseMaximumSize(maximumSize);
+    }
+
+    public ILoadingCache<FDate, V> newValuesCache(final Function<FDate, V> loadValue) {
+        return new ASlotFieldLoadingCache<V>(loadValue, VALUE) {
+            @SuppressWarnings("unchecked")
+            @Override
+            protected V getField(final Slot slot) {
+                return (V) slot.value;
+            }
+
+            @Override
+            protected void setField(final Slot slot, final V value) {
+                slot.value = value;
+            }
+        };
+    }
+
+    public ILoadingCache<FDate, FDate> newPreviousKeysCache(final Function<FDate, FDate> loadValue) {
+        return new ASlotFieldLoadingCache<FDate>(loadValue, PREVIOUS_KEY) {
+            @Override
+            protected FDate getField(final Slot slot) {
+                return slot.previousKey;
+            }
+
+            @Override
+            protected void setField(final Slot slot, final FDate value) {
+                slot.previousKey = value;
+            }
+        };
+    }
+
+    public ILoadingCache<FDate, FDate> newNextKeysCache(final Function<FDate, FDate> loadValue) {
+        return new ASlotFieldLoadingCache<FDate>(loadValue, NEXT_KEY) {
+            @Override
+            protected FDate getField(final Slot slot) {
+                return slot.nextKey;
+            }
+
+            @Override
+            protected void setField(final Slot slot, final FDate value) {
+                slot.nextKey = value;
+            }
+        };
+    }
+
+    @NotThreadSafe
+    private static final class Slot {
+        private Object value;
+        //the loaded instances are kept so that reads do not allocate, they are normally shared with the values anyway
+        private FDate previousKey;
+        private FDate nextKey;
+        private int fields;
+
+        private boolean has(final int field) {
+            return (fields & (1 << field)) != 0;
+        }
+
+        private void set(final int field) {
+            fields |= 1 << field;
+        }
+
+        private void unset(final int field) {
+            fields &= ~(1 << field);
+        }
+
+        private boolean isEmpty() {
+            return fields == 0;
+        }
+    }
+
+    @ThreadSafe
+    private abstract class ASlotFieldLoadingCache<T> implements ILoadingCache<FDate, T> {
+
+        private final Function<FDate, T> loadValue;
+        private final int field;
+
+        ASlotFieldLoadingCache(final Function<FDate, T> loadValue, final int field) {
+            this.loadValue = loadValue;
+            this.field = field;
+        }
+
+        protected abstract T getField(Slot slot);
+
+        protected abstract void setField(Slot slot, T value);
+
+        @Override
+        public T get(final FDate key) {
+            final long longKey = key.millisValue();
+            synchronized (HistoricalCacheCombinedStore.this) {
+                final Slot slot = map.get(longKey);
+                if (slot != null && slot.has(field)) {
+                    return getField(slot);
+                }
+            }
+            //bad idea to synchronize in apply, this might cause deadlocks when threads are used inside of it
+            final T v = loadValue.apply(key);
+            if (v != null) {
+                synchronized (HistoricalCacheCombinedStore.this) {
+                    final Slot slot = map.get(longKey);
+                    if (slot != null && slot.has(field)) {
+                        return getField(slot);
+                    }
+                    putField(longKey, slot, v);
+                }
+            }
+            return v;
+        }
+
+        @GuardedBy("HistoricalCacheCombinedStore.this")
+        private void putField(final long longKey, final Slot existingSlot, final T value) {
+            Slot slot = existingSlot;
+            if (slot == null) {
+                slot = new Slot();
+                map.put(longKey, slot);
+            }
+            if (!slot.has(field)) {
+                slot.set(field);
+                counts[field]++;
+            }
+            setField(slot, value);
+        }
+
+        @GuardedBy("HistoricalCacheCombinedStore.this")
+        private void removeField(final long longKey, final Slot slot) {
+            if (slot.has(field)) {
+                slot.unset(field);
+                setField(slot, null);
+                counts[field]--;
+                if (slot.isEmpty()) {
+                    map.remove(longKey);
+                }
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (HistoricalCacheCombinedStore.this) {
+                if (counts[field] == 0) {
+                    return;
+                }
+                boolean otherFieldsEmpty = true;
+                for (int f = 0; f < FIELDS_COUNT; f++) {
+                    if (f != field && counts[f] > 0) {
+                        otherFieldsEmpty = false;
+                        break;
+                    }
+                }
+                if (otherFieldsEmpty) {
+                    map.clear();
+                    counts[field] = 0;
+                    return;
+                }
+                final long[] emptySlotKeys = new long[counts[field]];
+                int emptySlotsCount = 0;
+                int index = map.nextIndex(0);
+                while (index >= 0) {
+                    final Slot slot = map.valueAt(index);
+                    if (slot.has(field)) {
+                        slot.unset(field);
+                        setField(slot, null);
+                        if (slot.isEmpty()) {
+                            emptySlotKeys[emptySlotsCount++] = map.keyAt(index);
+                        }
+                    }
+                    index = map.nextIndex(index + 1);
+                }
+                //remove after iterating since removals shift other slots
+                for (int i = 0; i < emptySlotsCount; i++) {
+                    map.remove(emptySlotKeys[i]);
+                }
+                counts[field] = 0;
+            }
+        }
+
+        @Override
+        public boolean containsKey(final FDate key) {
+            synchronized (HistoricalCacheCombinedStore.this) {
+                final Slot slot = map.get(key.millisValue());
+                return slot != null && slot.has(field);
+            }
+        }
+
+        @Override
+        public void remove(final FDate key) {
+            final long longKey = key.millisValue();
+            synchronized (HistoricalCacheCombinedStore.this) {
+                final Slot slot = map.get(longKey);
+                if (slot != null) {
+                    removeField(longKey, slot);
+                }
+            }
+        }
+
+        @Override
+        public void put(final FDate key, final T value) {
+            final long longKey = key.millisValue();
+            synchronized (HistoricalCacheCombinedStore.this) {
+                final Slot slot = map.get(longKey);
+                if (value == null) {
+                    //null values are not cached anyway
+                    if (slot != null) {
+                        removeField(longKey, slot);
+                    }
+                } else {
+                    putField(longKey, slot, value);
+                }
+            }
+        }
+
+        @Override
+        public Set<Entry<FDate, T>> entrySet() {
+            return asMap().entrySet();
+        }
+
+        @Override
+        public int size() {
+            synchronized (HistoricalCacheCombinedStore.this) {
+                return counts[field];
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public Set<FDate> keySet() {
+            return asMap().keySet();
+        }
+
+        @Override
+        public Collection<T> values() {
+            return asMap().values();
+        }
+
+        @Override
+        public Map<FDate, T> asMap() {
+            synchronized (HistoricalCacheCombinedStore.this) {
+                final Map<FDate, T> copy = new HashMap<FDate, T>(counts[field]);
+                int index = map.nextIndex(0);
+                while (index >= 0) {
+                    final Slot slot = map.valueAt(index);
+                    if (slot.has(field)) {
+                        copy.put(new FDate(map.keyAt(index)), getField(slot));
+                    }
+                    index = map.nextIndex(index + 1);
+                }
+                return Collections.unmodifiableMap(copy);
+            }
+        }
+
+    }
+
+}
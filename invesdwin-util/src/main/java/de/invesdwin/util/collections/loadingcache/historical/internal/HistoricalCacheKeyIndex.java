@@ -0,0 +1,83 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Keeps all keys of a cache as sorted millis in a primitive array, so that neighbors and ranges are found by binary
+ * search and offset arithmetic instead of one lookup per key.
+ *
+ * Reads are lock free, appends are synchronized. The array is only replaced when it grows, and the size is published
+ * after the keys, so that readers always see a consistent prefix.
+ */
+@ThreadSafe
+public class HistoricalCacheKeyIndex {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile long[] keys;
+    private volatile int size;
+
+    public HistoricalCacheKeyIndex(final Iterable<FDate> keysAscending) {
+        long[] newKeys = new long[MIN_CAPACITY];
+        int newSize = 0;
+        for (final FDate key : keysAscending) {
+            final long k = key.millisValue();
+            if (newSize > 0 && k <= newKeys[newSize - 1]) {
+                throw new IllegalArgumentException("keys need to be sorted ascending, but [" + key
+                        + "] is not after [" + new FDate(newKeys[newSize - 1]) + "]");
+            }
+            if (newSize == newKeys.length) {
+                newKeys = Arrays.copyOf(newKeys, newKeys.length * 2);
+            }
+            newKeys[newSize++] = k;
+        }
+        this.keys = newKeys;
+        this.size = newSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public FDate getKey(final int index) {
+        return new FDate(keys[index]);
+    }
+
+    /**
+     * Returns the index of the last key that is before or equal to the given one, or -1 if there is none.
+     */
+    public int floorIndex(final FDate key) {
+        //read the size first, so that the array contains at least that many keys
+        final int curSize = size;
+        final int index = Arrays.binarySearch(keys, 0, curSize, key.millisValue());
+        if (index >= 0) {
+            return index;
+        } else {
+            //insertion point minus one
+            return -index - 2;
+        }
+    }
+
+    /**
+     * Appends keys that are after the last known key, e.g. for values that were pushed to the cache. Keys that are
+     * already known get ignored.
+     */
+    public synchronized void append(final FDate key) {
+        final long k = key.millisValue();
+        final int curSize = size;
+        if (curSize > 0 && k <= keys[curSize - 1]) {
+            return;
+        }
+        if (curSize == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[curSize] = k;
+        size = curSize + 1;
+    }
+
+}
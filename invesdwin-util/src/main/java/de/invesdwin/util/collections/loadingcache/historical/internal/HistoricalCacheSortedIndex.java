@@ -0,0 +1,206 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Keeps the neighbor links of loaded keys sorted by millis, so that contiguous ranges of loaded keys can be navigated
+ * in O(log n) and iterated without a lookup per key. When the maximum size is exceeded, the end that lies further away
+ * from the latest link gets trimmed, so that the ranges stay contiguous.
+ *
+ * Reads are lock free, writes are synchronized.
+ */
+@ThreadSafe
+public class HistoricalCacheSortedIndex {
+
+    //each key maps to its next key, thus previous keys are found via lowerEntry
+    private final ConcurrentSkipListMap<Long, Long> nextKeys = new ConcurrentSkipListMap<Long, Long>();
+    @GuardedBy("this")
+    private Integer maximumSize;
+    //size() of the skip list is O(n), thus we count ourselves
+    @GuardedBy("this")
+    private int size;
+
+    public HistoricalCacheSortedIndex(final Integer maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public synchronized void increaseMaximumSize(final int maximumSize) {
+        if (this.maximumSize != null && this.maximumSize < maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    public synchronized void decreaseMaximumSize(final int maximumSize) {
+        if (this.maximumSize != null && this.maximumSize > maximumSize) {
+            this.maximumSize = maximumSize;
+            if (!nextKeys.isEmpty()) {
+                maybeTrim(nextKeys.lastKey());
+            }
+        }
+    }
+
+    public FDate getPreviousKey(final FDate key) {
+        final long k = key.millisValue();
+        final Entry<Long, Long> previous = nextKeys.lowerEntry(k);
+        if (previous != null && previous.getValue() == k) {
+            return new FDate(previous.getKey());
+        } else {
+            return null;
+        }
+    }
+
+    public FDate getNextKey(final FDate key) {
+        final Long next = nextKeys.get(key.millisValue());
+        if (next != null) {
+            return new FDate(next);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Iterates the previous keys of the given key descending for as long as they are contiguously linked. Returns null
+     * if the previous key of the given key is unknown.
+     */
+    public Iterator<FDate> newPreviousKeysRange(final FDate key) {
+        final long k = key.millisValue();
+        final Entry<Long, Long> previous = nextKeys.lowerEntry(k);
+        if (previous != null && previous.getValue() == k) {
+            return new PreviousKeysRangeIterator(k, nextKeys.headMap(k, false).descendingMap().entrySet().iterator());
+        } else {
+            return null;
+        }
+    }
+
+    public synchronized void putLink(final FDate previousKey, final FDate nextKey) {
+        final long previous = previousKey.millisValue();
+        final long next = nextKey.millisValue();
+        if (previous >= next) {
+            return;
+        }
+        //links that jump over one of the new keys are not adjacent anymore
+        final Entry<Long, Long> lower = nextKeys.lowerEntry(previous);
+        if (lower != null && lower.getValue() > previous) {
+            nextKeys.remove(lower.getKey());
+            size--;
+        }
+        final Iterator<Long> between = nextKeys.subMap(previous, false, next, false).keySet().iterator();
+        while (between.hasNext()) {
+            between.next();
+            between.remove();
+            size--;
+        }
+        if (nextKeys.put(previous, next) == null) {
+            size++;
+        }
+        maybeTrim(previous);
+    }
+
+    public synchronized void remove(final FDate key) {
+        final long k = key.millisValue();
+        if (nextKeys.remove(k) != null) {
+            size--;
+        }
+        final Entry<Long, Long> lower = nextKeys.lowerEntry(k);
+        if (lower != null && lower.getValue() == k) {
+            nextKeys.remove(lower.getKey());
+            size--;
+        }
+    }
+
+    /**
+     * Removes the links of the given key and of all keys after it, including the link that points to one of them.
+     */
+    public synchronized void removeAfterOrEqual(final FDate key) {
+        final long k = key.millisValue();
+        final Iterator<Long> tail = nextKeys.tailMap(k, true).keySet().iterator();
+        while (tail.hasNext()) {
+            tail.next();
+            tail.remove();
+            size--;
+        }
+        final Entry<Long, Long> lower = nextKeys.lowerEntry(k);
+        if (lower != null && lower.getValue() >= k) {
+            nextKeys.remove(lower.getKey());
+            size--;
+        }
+    }
+
+    public synchronized void clear() {
+        nextKeys.clear();
+        size = 0;
+    }
+
+    @GuardedBy("this")
+    private void maybeTrim(final long latestKey) {
+        if (maximumSize == null) {
+            return;
+        }
+        while (size > maximumSize) {
+            final long first = nextKeys.firstKey();
+            final long last = nextKeys.lastKey();
+            if (last - latestKey > latestKey - first) {
+                nextKeys.pollLastEntry();
+            } else {
+                nextKeys.pollFirstEntry();
+            }
+            size--;
+        }
+    }
+
+    @NotThreadSafe
+    private static final class PreviousKeysRangeIterator implements Iterator<FDate> {
+
+        private final Iterator<Entry<Long, Long>> descending;
+        private long current;
+        private Entry<Long, Long> next;
+
+        private PreviousKeysRangeIterator(final long key, final Iterator<Entry<Long, Long>> descending) {
+            this.current = key;
+            this.descending = descending;
+            this.next = readNext();
+        }
+
+        private Entry<Long, Long> readNext() {
+            if (descending.hasNext()) {
+                final Entry<Long, Long> entry = descending.next();
+                //stop when the range is not contiguous anymore
+                if (entry.getValue() == current) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public FDate next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            current = next.getKey();
+            next = readNext();
+            return new FDate(current);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
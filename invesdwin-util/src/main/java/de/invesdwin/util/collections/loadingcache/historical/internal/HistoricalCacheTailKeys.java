@@ -0,0 +1,104 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Remembers the cached keys that lie after a floor key, so that the tail of the caches can be removed without
+ * scanning all their keys. When the maximum size is exceeded, the lowest keys are forgotten and the floor moves up
+ * accordingly. Thus removals from keys before the floor need a full scan of the caches instead.
+ *
+ * Adding is lock free, trimming and removing are synchronized.
+ */
+@ThreadSafe
+public class HistoricalCacheTailKeys {
+
+    private final ConcurrentSkipListSet<Long> keys = new ConcurrentSkipListSet<Long>();
+    //size() of the skip list is O(n), thus we count ourselves
+    private final AtomicInteger size = new AtomicInteger();
+    private final int maximumSize;
+    //all cached keys after this one are known
+    private volatile long floorKey;
+
+    public HistoricalCacheTailKeys(final int maximumSize, final FDate floorKey) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize should be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.floorKey = floorKey.millisValue();
+    }
+
+    public void add(final FDate key) {
+        final long k = key.millisValue();
+        if (k > floorKey && keys.add(k) && size.incrementAndGet() > maximumSize) {
+            trim();
+        }
+    }
+
+    /**
+     * Returns true when all cached keys after or equal to the given one are known.
+     */
+    public boolean isComplete(final FDate fromKey) {
+        return fromKey.millisValue() > floorKey;
+    }
+
+    public List<FDate> getAfterOrEqual(final FDate fromKey) {
+        final List<FDate> result = new ArrayList<FDate>();
+        for (final Long key : keys.tailSet(fromKey.millisValue(), true)) {
+            result.add(new FDate(key));
+        }
+        return result;
+    }
+
+    public synchronized List<FDate> removeAfterOrEqual(final FDate fromKey) {
+        final List<FDate> result = new ArrayList<FDate>();
+        final Iterator<Long> tail = keys.tailSet(fromKey.millisValue(), true).iterator();
+        while (tail.hasNext()) {
+            final Long key = tail.next();
+            if (keys.remove(key)) {
+                size.decrementAndGet();
+                result.add(new FDate(key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets all keys, the caches then need to be empty.
+     */
+    public void clear() {
+        clear(Long.MIN_VALUE);
+    }
+
+    /**
+     * Forgets all keys, the caches then need to be empty or only contain keys before or equal to the given floor.
+     */
+    public void clear(final FDate floorKey) {
+        clear(floorKey.millisValue());
+    }
+
+    private synchronized void clear(final long floorKey) {
+        this.floorKey = floorKey;
+        keys.clear();
+        size.set(0);
+    }
+
+    private synchronized void trim() {
+        while (size.get() > maximumSize) {
+            final Long lowest = keys.pollFirst();
+            if (lowest == null) {
+                return;
+            }
+            size.decrementAndGet();
+            floorKey = Math.max(floorKey, lowest);
+        }
+    }
+
+}
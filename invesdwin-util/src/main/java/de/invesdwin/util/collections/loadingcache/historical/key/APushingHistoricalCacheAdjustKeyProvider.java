@@ -53,6 +53,23 @@ public abstract class APushingHistoricalCacheAdjustKeyProvider implements IHisto
         this.curHighestAllowedKey = highestAllowedKey;
     }
 
+    public <V> void pushValue(final AHistoricalCache<V> historicalCache, final V value) {
+        pushValues(historicalCache, Collections.singletonList(value));
+    }
+
+    /**
+     * Appends the newly arrived values to the given cache and then moves the highest allowed key to the last of them.
+     * Thus the other caches that share this provider see the new key while the given cache does not need to load the
+     * values from the db again.
+     */
+    public <V> void pushValues(final AHistoricalCache<V> historicalCache, final List<? extends V> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        historicalCache.pushValues(values);
+        pushHighestAllowedKey(historicalCache.extractKey(null, values.get(values.size() - 1)));
+    }
+
     @Override
     public FDate getHighestAllowedKey() {
         if (curHighestAllowedKey == null) {
@@ -1,5 +1,7 @@
 package de.invesdwin.util.collections.loadingcache.historical.key.internal;
 
+import java.util.Iterator;
+
 import javax.annotation.concurrent.Immutable;
 
 import de.invesdwin.util.collections.loadingcache.ILoadingCache;
@@ -45,4 +47,9 @@ public class DelegateHistoricalCacheShiftKeyProvider implements IHistoricalCache
         return delegate.getShiftKeyProvider().getPreviousKeysCache();
     }
 
+    @Override
+    public Iterator<FDate> newPreviousKeysRange(final FDate key) {
+        return delegate.getShiftKeyProvider().newPreviousKeysRange(key);
+    }
+
 }
@@ -1,5 +1,7 @@
 package de.invesdwin.util.collections.loadingcache.historical.key.internal;
 
+import java.util.Iterator;
+
 import de.invesdwin.util.collections.loadingcache.ILoadingCache;
 import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
 import de.invesdwin.util.time.fdate.FDate;
@@ -16,6 +18,11 @@ public interface IHistoricalCacheShiftKeyProvider {
 
     ILoadingCache<FDate, FDate> getNextKeysCache();
 
+    /**
+     * Returns null if the previous keys can not be iterated as a range.
+     */
+    Iterator<FDate> newPreviousKeysRange(FDate key);
+
     AHistoricalCache<?> getParent();
 
 }
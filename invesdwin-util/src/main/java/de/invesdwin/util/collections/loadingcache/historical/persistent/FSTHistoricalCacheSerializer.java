@@ -0,0 +1,25 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent;
+
+import java.io.Serializable;
+
+import javax.annotation.concurrent.Immutable;
+
+import de.invesdwin.util.lang.Objects;
+
+/**
+ * Uses the FST configuration of Objects, thus the values need to be serializable.
+ */
+@Immutable
+public class FSTHistoricalCacheSerializer<V> implements IHistoricalCacheSerializer<V> {
+
+    @Override
+    public byte[] toBytes(final V value) {
+        return Objects.serialize((Serializable) value);
+    }
+
+    @Override
+    public V fromBytes(final byte[] bytes) {
+        return Objects.deserialize(bytes);
+    }
+
+}
@@ -0,0 +1,483 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.iterable.ACloseableIterator;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.iterable.WrapperCloseableIterator;
+import de.invesdwin.util.collections.loadingcache.historical.persistent.internal.HistoricalCachePersistentRecord;
+import de.invesdwin.util.collections.loadingcache.historical.persistent.internal.HistoricalCachePersistentSegment;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+/**
+ * A second level tier for historical caches that keeps the values loaded from the db in append-only segment files,
+ * one per time partition. Since the files are read via memory mapping and appended under a file lock, warm restarts
+ * and multiple processes on the same machine can share the values.
+ *
+ * Each record remembers its previous key in the db. Thus contiguous ranges of records can be answered from disk
+ * without asking the db. Everything else is read from the db and appended to the segments, as long as it comes after
+ * the last key of its partition. Like AGapHistoricalCache, this expects new values in the db to be only added on the
+ * high end.
+ */
+@ThreadSafe
+public class HistoricalCachePersistentStore<V> implements Closeable {
+
+    public static final FTimeUnit DEFAULT_PARTITION_UNIT = FTimeUnit.YEARS;
+    /**
+     * Values read from the db are appended in batches of this size, so that the segment file is not locked and mapped
+     * again for every value.
+     */
+    public static final int DEFAULT_APPEND_BATCH_SIZE = 1000;
+    /**
+     * Segments of other processes are picked up at most this often, so that lookups don't have to list the directory
+     * and check the segment files each time.
+     */
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ONE_SECOND;
+    private static final String SEGMENT_FILE_SUFFIX = ".segment";
+
+    private final File directory;
+    private final FTimeUnit partitionUnit;
+    private final IHistoricalCacheSerializer<V> serializer;
+    @GuardedBy("this")
+    private final NavigableMap<Long, HistoricalCachePersistentSegment> segments = new TreeMap<Long, HistoricalCachePersistentSegment>();
+    @GuardedBy("this")
+    private boolean refreshed;
+    @GuardedBy("this")
+    private long lastRefreshNanos;
+
+    public HistoricalCachePersistentStore(final File directory) {
+        this(directory, DEFAULT_PARTITION_UNIT, new FSTHistoricalCacheSerializer<V>());
+    }
+
+    /**
+     * The partition unit should be YEARS, MONTHS or DAYS.
+     */
+    public HistoricalCachePersistentStore(final File directory, final FTimeUnit partitionUnit,
+            final IHistoricalCacheSerializer<V> serializer) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create directory: " + directory);
+        }
+        this.directory = directory;
+        this.partitionUnit = partitionUnit;
+        this.serializer = serializer;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Values appended by this store are visible immediately, values appended by other processes after this interval.
+     */
+    protected Duration getRefreshInterval() {
+        return DEFAULT_REFRESH_INTERVAL;
+    }
+
+    /**
+     * Values that are contiguous on disk are returned without asking the db, the db is only asked for what comes after
+     * the contiguous range.
+     */
+    public ICloseableIterable<V> readAllValuesAscendingFrom(final FDate key,
+            final IHistoricalCachePersistentStoreSource<V> source) {
+        return new ICloseableIterable<V>() {
+            @Override
+            public ICloseableIterator<V> iterator() {
+                return new PersistentValuesIterator(key, source);
+            }
+        };
+    }
+
+    public V readLatestValueFor(final FDate key, final IHistoricalCachePersistentStoreSource<V> source) {
+        final V persistentValue = readLatestPersistentValueFor(key.millisValue());
+        if (persistentValue != null) {
+            return persistentValue;
+        }
+        final V value = source.readLatestValueFor(key);
+        if (value != null) {
+            final FDate valueKey = source.extractKey(value);
+            if (valueKey.isAfter(key)) {
+                //there are no values before this one
+                append(valueKey, HistoricalCachePersistentSegment.NO_PREVIOUS_KEY, value);
+            } else {
+                append(valueKey, HistoricalCachePersistentSegment.UNKNOWN_PREVIOUS_KEY, value);
+            }
+        }
+        return value;
+    }
+
+    private synchronized V readLatestPersistentValueFor(final long key) {
+        maybeRefresh();
+        final Position floor = floor(key);
+        if (floor != null) {
+            if (floor.key == key) {
+                return getValue(floor);
+            }
+            //the floor is only known to be the latest value when its successor in the db is known
+            final Position next = next(floor);
+            if (next != null && isContiguous(next)) {
+                return getValue(floor);
+            }
+            return null;
+        }
+        //values after the key are only returned if there are no values before
+        final Position first = first();
+        if (first != null && isContiguous(first)) {
+            return getValue(first);
+        }
+        return null;
+    }
+
+    private synchronized Position findFirstPersistent(final long key) {
+        maybeRefresh();
+        final Position ceiling = ceiling(key);
+        if (ceiling != null && (ceiling.key == key || isContiguous(ceiling))) {
+            return ceiling;
+        } else {
+            return null;
+        }
+    }
+
+    private synchronized FDate findFloorPersistentKey(final long key) {
+        maybeRefresh();
+        final Position floor = floor(key);
+        if (floor != null) {
+            return new FDate(floor.key);
+        } else {
+            return null;
+        }
+    }
+
+    private synchronized Position nextPersistent(final Position position) {
+        final Position next = next(position);
+        if (next != null && isContiguous(next)) {
+            return next;
+        } else {
+            return null;
+        }
+    }
+
+    private void append(final FDate key, final long previousKey, final V value) {
+        final HistoricalCachePersistentSegment segment = getOrCreateSegment(key);
+        final long longKey = key.millisValue();
+        if (segment.isAppendable(longKey, previousKey)) {
+            segment.append(longKey, previousKey, serializer.toBytes(value));
+        }
+    }
+
+    private long getPartition(final FDate key) {
+        return key.truncate(partitionUnit).millisValue();
+    }
+
+    private HistoricalCachePersistentSegment getOrCreateSegment(final FDate key) {
+        return getOrCreateSegment(getPartition(key));
+    }
+
+    private synchronized HistoricalCachePersistentSegment getOrCreateSegment(final long partition) {
+        HistoricalCachePersistentSegment segment = segments.get(partition);
+        if (segment == null) {
+            segment = new HistoricalCachePersistentSegment(new File(directory, partition + SEGMENT_FILE_SUFFIX));
+            segments.put(partition, segment);
+        }
+        return segment;
+    }
+
+    @GuardedBy("this")
+    private void maybeRefresh() {
+        final long refreshIntervalNanos = getRefreshInterval().longValue(FTimeUnit.NANOSECONDS);
+        if (!refreshed || System.nanoTime() - lastRefreshNanos >= refreshIntervalNanos) {
+            refresh();
+        }
+    }
+
+    /**
+     * Picks up segments and records that were written by other processes. This happens automatically after the refresh
+     * interval.
+     */
+    public synchronized void refresh() {
+        final String[] fileNames = directory.list();
+        if (fileNames != null) {
+            for (final String fileName : fileNames) {
+                if (fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+                    final long partition = Long
+                            .parseLong(fileName.substring(0, fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+                    if (!segments.containsKey(partition)) {
+                        segments.put(partition, new HistoricalCachePersistentSegment(new File(directory, fileName)));
+                    }
+                }
+            }
+        }
+        for (final HistoricalCachePersistentSegment segment : segments.values()) {
+            segment.refresh();
+        }
+        refreshed = true;
+        lastRefreshNanos = System.nanoTime();
+    }
+
+    @GuardedBy("this")
+    private V getValue(final Position position) {
+        return serializer.fromBytes(position.segment.getBytes(position.index));
+    }
+
+    /**
+     * A record is contiguous when the previous record on disk is also its previous value in the db.
+     */
+    @GuardedBy("this")
+    private boolean isContiguous(final Position position) {
+        final long previousKey = position.segment.getPreviousKey(position.index);
+        final Position previous = previous(position);
+        if (previous == null) {
+            return previousKey == HistoricalCachePersistentSegment.NO_PREVIOUS_KEY;
+        } else {
+            return previousKey == previous.key;
+        }
+    }
+
+    @GuardedBy("this")
+    private Position first() {
+        for (final HistoricalCachePersistentSegment segment : segments.values()) {
+            if (segment.size() > 0) {
+                return new Position(segment, 0);
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private Position floor(final long key) {
+        Entry<Long, HistoricalCachePersistentSegment> entry = segments.floorEntry(key);
+        while (entry != null) {
+            final HistoricalCachePersistentSegment segment = entry.getValue();
+            final int index = segment.floorIndex(key);
+            if (index >= 0) {
+                return new Position(segment, index);
+            }
+            entry = segments.lowerEntry(entry.getKey());
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private Position ceiling(final long key) {
+        final Entry<Long, HistoricalCachePersistentSegment> floorEntry = segments.floorEntry(key);
+        if (floorEntry != null) {
+            final int index = floorEntry.getValue().ceilingIndex(key);
+            if (index >= 0) {
+                return new Position(floorEntry.getValue(), index);
+            }
+        }
+        for (final HistoricalCachePersistentSegment segment : segments.tailMap(key, false).values()) {
+            if (segment.size() > 0) {
+                return new Position(segment, 0);
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private Position next(final Position position) {
+        if (position.index + 1 < position.segment.size()) {
+            return new Position(position.segment, position.index + 1);
+        }
+        for (final HistoricalCachePersistentSegment segment : segments.tailMap(position.key, false).values()) {
+            if (segment != position.segment && segment.size() > 0) {
+                return new Position(segment, 0);
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private Position previous(final Position position) {
+        if (position.index > 0) {
+            return new Position(position.segment, position.index - 1);
+        }
+        for (final HistoricalCachePersistentSegment segment : segments.headMap(position.key, true)
+                .descendingMap()
+                .values()) {
+            if (segment != position.segment && segment.size() > 0) {
+                return new Position(segment, segment.size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the file handles and memory mappings of the segments. They get opened again on the next access.
+     */
+    @Override
+    public synchronized void close() {
+        for (final HistoricalCachePersistentSegment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        refreshed = false;
+    }
+
+    @Immutable
+    private static final class Position {
+        private final HistoricalCachePersistentSegment segment;
+        private final int index;
+        private final long key;
+
+        private Position(final HistoricalCachePersistentSegment segment, final int index) {
+            this.segment = segment;
+            this.index = index;
+            this.key = segment.getKey(index);
+        }
+    }
+
+    @NotThreadSafe
+    private final class PersistentValuesIterator extends ACloseableIterator<V> {
+
+        private final IHistoricalCachePersistentStoreSource<V> source;
+        private final FDate key;
+        private final FDate floorKey;
+        private Position position;
+        private ICloseableIterator<? extends V> sourceValues;
+        private FDate lastKey;
+        private long previousKeyForAppend;
+        private final List<HistoricalCachePersistentRecord> pendingAppends = new ArrayList<HistoricalCachePersistentRecord>();
+        private long pendingAppendsPartition;
+        private V nextValue;
+
+        private PersistentValuesIterator(final FDate key, final IHistoricalCachePersistentStoreSource<V> source) {
+            this.source = source;
+            this.key = key;
+            this.position = findFirstPersistent(key.millisValue());
+            if (position == null) {
+                this.floorKey = findFloorPersistentKey(key.millisValue());
+            } else {
+                this.floorKey = null;
+            }
+        }
+
+        @Override
+        protected boolean innerHasNext() {
+            if (nextValue == null) {
+                nextValue = readNextValue();
+            }
+            return nextValue != null;
+        }
+
+        private V readNextValue() {
+            if (position != null) {
+                synchronized (HistoricalCachePersistentStore.this) {
+                    if (position.index < position.segment.size()) {
+                        final V value = getValue(position);
+                        lastKey = new FDate(position.key);
+                        position = nextPersistent(position);
+                        return value;
+                    }
+                    //the store was closed in the meantime, thus continue with the db
+                    position = null;
+                }
+            }
+            if (sourceValues == null) {
+                final FDate knownMaxKey = source.getKnownMaxKey();
+                if (lastKey != null && knownMaxKey != null && !lastKey.isBefore(knownMaxKey)) {
+                    //the contiguous range already reaches the end of the db
+                    return null;
+                }
+                if (lastKey != null) {
+                    //continue with the db after the contiguous range
+                    sourceValues = WrapperCloseableIterator
+                            .maybeWrap(source.readAllValuesAscendingFrom(lastKey).iterator());
+                    previousKeyForAppend = lastKey.millisValue();
+                } else if (floorKey != null) {
+                    //starting at the floor on disk allows to link the following values to it
+                    sourceValues = WrapperCloseableIterator
+                            .maybeWrap(source.readAllValuesAscendingFrom(floorKey).iterator());
+                    previousKeyForAppend = HistoricalCachePersistentSegment.UNKNOWN_PREVIOUS_KEY;
+                } else {
+                    //the db knows best where the values start
+                    sourceValues = WrapperCloseableIterator
+                            .maybeWrap(source.readAllValuesAscendingFrom(key).iterator());
+                    if (key.isBeforeOrEqual(FDate.MIN_DATE)) {
+                        previousKeyForAppend = HistoricalCachePersistentSegment.NO_PREVIOUS_KEY;
+                    } else {
+                        previousKeyForAppend = HistoricalCachePersistentSegment.UNKNOWN_PREVIOUS_KEY;
+                    }
+                }
+            }
+            while (sourceValues.hasNext()) {
+                final V value = sourceValues.next();
+                final FDate valueKey = source.extractKey(value);
+                if (lastKey != null && !valueKey.isAfter(lastKey)) {
+                    continue;
+                }
+                if (floorKey != null && valueKey.equals(floorKey)) {
+                    previousKeyForAppend = valueKey.millisValue();
+                    lastKey = valueKey;
+                    continue;
+                }
+                appendLater(valueKey, previousKeyForAppend, value);
+                previousKeyForAppend = valueKey.millisValue();
+                lastKey = valueKey;
+                if (!valueKey.isBefore(key)) {
+                    return value;
+                }
+            }
+            flushPendingAppends();
+            return null;
+        }
+
+        private void appendLater(final FDate valueKey, final long previousKey, final V value) {
+            final long partition = getPartition(valueKey);
+            if (!pendingAppends.isEmpty() && partition != pendingAppendsPartition) {
+                flushPendingAppends();
+            }
+            final long longKey = valueKey.millisValue();
+            //pending records only move the end further, thus values that are not appendable now will never be
+            if (pendingAppends.isEmpty() && !getOrCreateSegment(partition).isAppendable(longKey, previousKey)) {
+                return;
+            }
+            pendingAppendsPartition = partition;
+            pendingAppends.add(new HistoricalCachePersistentRecord(longKey, previousKey, serializer.toBytes(value)));
+            if (pendingAppends.size() >= DEFAULT_APPEND_BATCH_SIZE) {
+                flushPendingAppends();
+            }
+        }
+
+        private void flushPendingAppends() {
+            if (!pendingAppends.isEmpty()) {
+                getOrCreateSegment(pendingAppendsPartition).append(pendingAppends);
+                pendingAppends.clear();
+            }
+        }
+
+        @Override
+        protected V innerNext() {
+            if (!innerHasNext()) {
+                throw new NoSuchElementException();
+            }
+            final V next = nextValue;
+            nextValue = null;
+            return next;
+        }
+
+        @Override
+        protected void innerClose() {
+            if (sourceValues != null) {
+                sourceValues.close();
+            }
+            flushPendingAppends();
+        }
+
+    }
+
+}
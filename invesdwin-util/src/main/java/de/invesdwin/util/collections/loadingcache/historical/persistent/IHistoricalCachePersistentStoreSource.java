@@ -0,0 +1,21 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * The db behind the persistent store, it gets queried for everything that can not be answered from disk.
+ */
+public interface IHistoricalCachePersistentStoreSource<V> {
+
+    Iterable<? extends V> readAllValuesAscendingFrom(FDate key);
+
+    V readLatestValueFor(FDate key);
+
+    FDate extractKey(V value);
+
+    /**
+     * The db is not asked for values after this key, might return null when it is not known.
+     */
+    FDate getKnownMaxKey();
+
+}
@@ -0,0 +1,9 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent;
+
+public interface IHistoricalCacheSerializer<V> {
+
+    byte[] toBytes(V value);
+
+    V fromBytes(byte[] bytes);
+
+}
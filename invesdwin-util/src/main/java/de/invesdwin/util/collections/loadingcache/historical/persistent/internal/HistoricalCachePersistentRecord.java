@@ -0,0 +1,33 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent.internal;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A record that is waiting to be appended to a segment.
+ */
+@Immutable
+public class HistoricalCachePersistentRecord {
+
+    private final long key;
+    private final long previousKey;
+    private final byte[] bytes;
+
+    public HistoricalCachePersistentRecord(final long key, final long previousKey, final byte[] bytes) {
+        this.key = key;
+        this.previousKey = previousKey;
+        this.bytes = bytes;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public long getPreviousKey() {
+        return previousKey;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,281 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An append-only file of records sorted by key. Each record consists of the key, the previous key in the db, the
+ * length of the value and the serialized value. The file is read via a memory mapping and the keys are indexed in
+ * memory. Appends are guarded by a file lock so that multiple processes can share the same file.
+ */
+@ThreadSafe
+public class HistoricalCachePersistentSegment implements Closeable {
+
+    /**
+     * marks a record as the first value in the db
+     */
+    public static final long NO_PREVIOUS_KEY = Long.MIN_VALUE;
+    /**
+     * marks a record whose previous value in the db is not known
+     */
+    public static final long UNKNOWN_PREVIOUS_KEY = Long.MAX_VALUE;
+
+    //key + previous key + length
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final File file;
+    @GuardedBy("this")
+    private long[] keys = new long[INITIAL_CAPACITY];
+    @GuardedBy("this")
+    private long[] previousKeys = new long[INITIAL_CAPACITY];
+    @GuardedBy("this")
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    @GuardedBy("this")
+    private int size;
+    @GuardedBy("this")
+    private long scannedLength;
+    @GuardedBy("this")
+    private RandomAccessFile reader;
+    @GuardedBy("this")
+    private MappedByteBuffer mapped;
+
+    public HistoricalCachePersistentSegment(final File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Indexes the records that were appended in the meantime, also by other processes.
+     */
+    public synchronized void refresh() {
+        final long length = file.length();
+        if (length <= scannedLength) {
+            return;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Segment file is too large for memory mapping: " + file);
+        }
+        try {
+            if (reader == null) {
+                reader = new RandomAccessFile(file, "r");
+            }
+            mapped = reader.getChannel().map(MapMode.READ_ONLY, 0, length);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        long position = scannedLength;
+        while (position + HEADER_SIZE <= length) {
+            final int offset = (int) position;
+            final int valueLength = mapped.getInt(offset + 16);
+            final long next = position + HEADER_SIZE + valueLength;
+            if (next > length) {
+                //an incomplete record that is still being written
+                break;
+            }
+            addToIndex(mapped.getLong(offset), mapped.getLong(offset + 8), offset);
+            position = next;
+        }
+        scannedLength = position;
+    }
+
+    @GuardedBy("this")
+    private void addToIndex(final long key, final long previousKey, final int offset) {
+        if (size > 0 && keys[size - 1] == key) {
+            //a later record supersedes the last one when its previous key got known
+            previousKeys[size - 1] = previousKey;
+            offsets[size - 1] = offset;
+            return;
+        }
+        if (size == keys.length) {
+            final int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            previousKeys = Arrays.copyOf(previousKeys, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        keys[size] = key;
+        previousKeys[size] = previousKey;
+        offsets[size] = offset;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getKey(final int index) {
+        return keys[index];
+    }
+
+    public synchronized long getPreviousKey(final int index) {
+        return previousKeys[index];
+    }
+
+    public synchronized byte[] getBytes(final int index) {
+        final int offset = offsets[index];
+        final byte[] bytes = new byte[mapped.getInt(offset + 16)];
+        final ByteBuffer duplicate = mapped.duplicate();
+        duplicate.position(offset + HEADER_SIZE);
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns -1 if there is no key equal or higher.
+     */
+    public synchronized int ceilingIndex(final long key) {
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            return index;
+        }
+        final int insertionPoint = -(index + 1);
+        if (insertionPoint < size) {
+            return insertionPoint;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns -1 if there is no key equal or lower.
+     */
+    public synchronized int floorIndex(final long key) {
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            return index;
+        }
+        final int insertionPoint = -(index + 1);
+        return insertionPoint - 1;
+    }
+
+    /**
+     * Only keys after the last key can be appended. The last record can be appended again when its previous key was
+     * unknown before.
+     */
+    public synchronized boolean isAppendable(final long key, final long previousKey) {
+        if (size == 0) {
+            return true;
+        }
+        return isAppendable(keys[size - 1], previousKeys[size - 1], key, previousKey);
+    }
+
+    private static boolean isAppendable(final long lastKey, final long lastPreviousKey, final long key,
+            final long previousKey) {
+        return key > lastKey
+                || key == lastKey && lastPreviousKey == UNKNOWN_PREVIOUS_KEY && previousKey != UNKNOWN_PREVIOUS_KEY;
+    }
+
+    public boolean append(final long key, final long previousKey, final byte[] bytes) {
+        return append(Collections.singletonList(new HistoricalCachePersistentRecord(key, previousKey, bytes))) > 0;
+    }
+
+    /**
+     * Appends the records in one go, so that the file is only opened, locked and mapped again once. Records that are
+     * not appendable anymore because other processes appended them in the meantime are skipped. Returns the number of
+     * records that were appended.
+     */
+    public synchronized int append(final List<HistoricalCachePersistentRecord> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        final List<HistoricalCachePersistentRecord> appendable;
+        try {
+            final RandomAccessFile writer = new RandomAccessFile(file, "rw");
+            try {
+                final FileLock lock = writer.getChannel().lock();
+                try {
+                    //other processes might have appended in the meantime
+                    refresh();
+                    appendable = filterAppendable(records);
+                    if (appendable.isEmpty()) {
+                        return 0;
+                    }
+                    //discard incomplete records of writers that died
+                    writer.setLength(scannedLength);
+                    writer.seek(scannedLength);
+                    writer.write(toBytes(appendable));
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+        refresh();
+        return appendable.size();
+    }
+
+    @GuardedBy("this")
+    private List<HistoricalCachePersistentRecord> filterAppendable(
+            final List<HistoricalCachePersistentRecord> records) {
+        final List<HistoricalCachePersistentRecord> appendable = new ArrayList<HistoricalCachePersistentRecord>(
+                records.size());
+        for (int i = 0; i < records.size(); i++) {
+            final HistoricalCachePersistentRecord record = records.get(i);
+            final boolean recordAppendable;
+            if (appendable.isEmpty()) {
+                recordAppendable = isAppendable(record.getKey(), record.getPreviousKey());
+            } else {
+                final HistoricalCachePersistentRecord last = appendable.get(appendable.size() - 1);
+                recordAppendable = isAppendable(last.getKey(), last.getPreviousKey(), record.getKey(),
+                        record.getPreviousKey());
+            }
+            if (recordAppendable) {
+                appendable.add(record);
+            }
+        }
+        return appendable;
+    }
+
+    private static byte[] toBytes(final List<HistoricalCachePersistentRecord> records) {
+        int length = 0;
+        for (int i = 0; i < records.size(); i++) {
+            length += HEADER_SIZE + records.get(i).getBytes().length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < records.size(); i++) {
+            final HistoricalCachePersistentRecord record = records.get(i);
+            final byte[] bytes = record.getBytes();
+            buffer.putLong(record.getKey());
+            buffer.putLong(record.getPreviousKey());
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+            reader = null;
+            mapped = null;
+        }
+        //the index gets rebuilt when the segment is used again
+        size = 0;
+        scannedLength = 0;
+    }
+
+}
@@ -1,5 +1,6 @@
 package de.invesdwin.util.collections.loadingcache.historical.query;
 
+import java.util.List;
 import java.util.Map.Entry;
 
 import de.invesdwin.util.collections.iterable.ICloseableIterable;
@@ -46,6 +47,18 @@ public interface IHistoricalCacheQuery<V> {
 
     ICloseableIterable<V> getPreviousValues(FDate key, int shiftBackUnits);
 
+    /**
+     * Clears the given list and fills it with the same entries as getPreviousEntries, so it can be reused between
+     * calls. When the lookback cache can satisfy the query, no objects get allocated.
+     */
+    void getPreviousEntries(FDate key, int shiftBackUnits, List<Entry<FDate, V>> entries);
+
+    /**
+     * Clears the given list and fills it with the same values as getPreviousValues, so it can be reused between calls.
+     * When the lookback cache can satisfy the query and this query instance is reused, no objects get allocated.
+     */
+    void getPreviousValues(FDate key, int shiftBackUnits, List<V> values);
+
     ICloseableIterable<FDate> getKeys(FDate from, FDate to);
 
     ICloseableIterable<Entry<FDate, V>> getEntries(FDate from, FDate to);
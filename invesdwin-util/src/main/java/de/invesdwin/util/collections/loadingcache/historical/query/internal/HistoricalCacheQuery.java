@@ -13,6 +13,9 @@ import de.invesdwin.util.collections.ADelegateList;
 import de.invesdwin.util.collections.iterable.ICloseableIterable;
 import de.invesdwin.util.collections.iterable.ICloseableIterator;
 import de.invesdwin.util.collections.iterable.WrapperCloseableIterator;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheBatchQueryInterceptor;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCachePreviousKeyQueryInterceptor;
+import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheQueryInterceptor;
 import de.invesdwin.util.collections.loadingcache.historical.query.IHistoricalCacheQuery;
 import de.invesdwin.util.collections.loadingcache.historical.query.IHistoricalCacheQueryElementFilter;
 import de.invesdwin.util.collections.loadingcache.historical.query.IHistoricalCacheQueryWithFuture;
@@ -52,6 +55,7 @@ public class HistoricalCacheQuery<V> implements IHistoricalCacheQuery<V> {
     private boolean filterDuplicateKeys = true;
     private boolean rememberNullValue = false;
     private IHistoricalCacheQueryElementFilter<V> elementFilter;
+    private List<Entry<FDate, V>> previousEntriesBuffer;
 
     public HistoricalCacheQuery(final IHistoricalCacheQueryCore<V> core) {
         this.core = core;
@@ -125,6 +129,14 @@ public class HistoricalCacheQuery<V> implements IHistoricalCacheQuery<V> {
         return new ICloseableIterable<Entry<FDate, V>>() {
             @Override
             public ICloseableIterator<Entry<FDate, V>> iterator() {
+                final IHistoricalCacheQueryInterceptor<V> interceptor = core.getParent().getQueryInterceptor();
+                if (interceptor instanceof IHistoricalCacheBatchQueryInterceptor) {
+                    final ICloseableIterator<Entry<FDate, V>> batched = newBatchedEntriesIterator(
+                            (IHistoricalCacheBatchQueryInterceptor<V>) interceptor, keys, assertValue);
+                    if (batched != null) {
+                        return batched;
+                    }
+                }
                 return new ICloseableIterator<Entry<FDate, V>>() {
                     private final ICloseableIterator<FDate> keysIterator = WrapperCloseableIterator
                             .maybeWrap(keys.iterator());
@@ -188,9 +200,34 @@ public class HistoricalCacheQuery<V> implements IHistoricalCacheQuery<V> {
     @Override
     public final FDate getPreviousKey(final FDate key, final int shiftBackUnits) {
         assertShiftUnitsPositive(shiftBackUnits);
+        final FDate interceptor = getInterceptedPreviousKey(key, shiftBackUnits);
+        if (interceptor != null) {
+            return interceptor;
+        }
         return HistoricalCacheAssertValue.unwrapEntryKey(core.getParent(), getPreviousEntry(key, shiftBackUnits));
     }
 
+    private FDate getInterceptedPreviousKey(final FDate key, final int shiftBackUnits) {
+        if (elementFilter != null) {
+            //the interceptor does not know which values would be filtered
+            return null;
+        }
+        final IHistoricalCacheQueryInterceptor<V> interceptor = core.getParent().getQueryInterceptor();
+        if (interceptor instanceof IHistoricalCachePreviousKeyQueryInterceptor) {
+            return ((IHistoricalCachePreviousKeyQueryInterceptor<V>) interceptor).getPreviousKey(key, shiftBackUnits);
+        } else {
+            return null;
+        }
+    }
+
+    private Entry<FDate, V> getInterceptedPreviousEntry(final FDate key, final int shiftBackUnits) {
+        final FDate interceptor = getInterceptedPreviousKey(key, shiftBackUnits);
+        if (interceptor != null) {
+            return getEntry(interceptor);
+        }
+        return getPreviousEntry(key, shiftBackUnits);
+    }
+
     /**
      * Skips null values for keys.
      * 
@@ -410,7 +447,7 @@ public class HistoricalCacheQuery<V> implements IHistoricalCacheQuery<V> {
             } else {
                 shiftBackUnits = 1;
             }
-            final Entry<FDate, V> previousEntry = getPreviousEntry(curKey, shiftBackUnits);
+            final Entry<FDate, V> previousEntry = getInterceptedPreviousEntry(curKey, shiftBackUnits);
             if (previousEntry == null) {
                 return null;
             }
@@ -510,4 +547,99 @@ public class HistoricalCacheQuery<V> implements IHistoricalCacheQuery<V> {
         return core.getPreviousEntries(internalMethods, key, shiftBackUnits);
     }
 
+    @Override
+    public final void getPreviousEntries(final FDate key, final int shiftBackUnits,
+            final List<Entry<FDate, V>> entries) {
+        assertShiftUnitsPositiveNonZero(shiftBackUnits);
+        entries.clear();
+        core.getPreviousEntries(internalMethods, key, shiftBackUnits, entries);
+    }
+
+    @Override
+    public final void getPreviousValues(final FDate key, final int shiftBackUnits, final List<V> values) {
+        assertShiftUnitsPositiveNonZero(shiftBackUnits);
+        values.clear();
+        if (previousEntriesBuffer == null) {
+            previousEntriesBuffer = new ArrayList<Entry<FDate, V>>(shiftBackUnits);
+        }
+        try {
+            core.getPreviousEntries(internalMethods, key, shiftBackUnits, previousEntriesBuffer);
+            for (int i = 0; i < previousEntriesBuffer.size(); i++) {
+                values.add(HistoricalCacheAssertValue.unwrapEntryValue(previousEntriesBuffer.get(i)));
+            }
+        } finally {
+            //don't keep references to the values
+            previousEntriesBuffer.clear();
+        }
+    }
+
+    private ICloseableIterator<Entry<FDate, V>> newBatchedEntriesIterator(
+            final IHistoricalCacheBatchQueryInterceptor<V> interceptor, final Iterable<FDate> keys,
+            final HistoricalCacheAssertValue assertValue) {
+        final int batchSize = interceptor.getEntriesBatchSize();
+        if (batchSize > 0) {
+            return new BatchedEntriesIterator(interceptor, batchSize, keys, assertValue);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Collects chunks of keys so that the interceptor can load them together, afterwards the keys are looked up in the
+     * original order as usual.
+     */
+    @NotThreadSafe
+    private final class BatchedEntriesIterator implements ICloseableIterator<Entry<FDate, V>> {
+
+        private final IHistoricalCacheBatchQueryInterceptor<V> interceptor;
+        private final int batchSize;
+        private final ICloseableIterator<FDate> keysIterator;
+        private final HistoricalCacheAssertValue assertValue;
+        private final List<FDate> batch;
+        private int batchIndex;
+
+        private BatchedEntriesIterator(final IHistoricalCacheBatchQueryInterceptor<V> interceptor, final int batchSize,
+                final Iterable<FDate> keys, final HistoricalCacheAssertValue assertValue) {
+            this.interceptor = interceptor;
+            this.batchSize = batchSize;
+            this.keysIterator = WrapperCloseableIterator.maybeWrap(keys.iterator());
+            this.assertValue = assertValue;
+            this.batch = new ArrayList<FDate>(batchSize);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (batchIndex < batch.size()) {
+                return true;
+            }
+            batch.clear();
+            batchIndex = 0;
+            while (batch.size() < batchSize && keysIterator.hasNext()) {
+                batch.add(keysIterator.next());
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            interceptor.loadEntries(batch);
+            return true;
+        }
+
+        @Override
+        public Entry<FDate, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final FDate key = batch.get(batchIndex);
+            batchIndex++;
+            return core.getEntry(internalMethods, key, assertValue);
+        }
+
+        @Override
+        public void close() {
+            batch.clear();
+            keysIterator.close();
+        }
+
+    }
+
 }
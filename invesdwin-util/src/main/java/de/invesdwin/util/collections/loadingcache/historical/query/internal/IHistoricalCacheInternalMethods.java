@@ -1,5 +1,7 @@
 package de.invesdwin.util.collections.loadingcache.historical.query.internal;
 
+import java.util.Iterator;
+
 import de.invesdwin.util.collections.loadingcache.ILoadingCache;
 import de.invesdwin.util.collections.loadingcache.historical.interceptor.IHistoricalCacheQueryInterceptor;
 import de.invesdwin.util.time.fdate.FDate;
@@ -24,4 +26,9 @@ public interface IHistoricalCacheInternalMethods<V> {
 
     void increaseMaximumSize(int maximumSize);
 
+    /**
+     * Returns null if the previous keys can not be iterated as a range.
+     */
+    Iterator<FDate> newPreviousKeysRange(FDate key);
+
 }
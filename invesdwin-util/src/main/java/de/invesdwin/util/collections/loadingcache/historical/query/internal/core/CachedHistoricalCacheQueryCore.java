@@ -1,13 +1,13 @@
 package de.invesdwin.util.collections.loadingcache.historical.query.internal.core;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import de.invesdwin.util.collections.Lists;
 import de.invesdwin.util.collections.iterable.ICloseableIterable;
 import de.invesdwin.util.collections.iterable.SingleValueIterable;
 import de.invesdwin.util.collections.iterable.WrapperCloseableIterable;
@@ -26,7 +26,7 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
     @GuardedBy("this")
     private Integer maximumSize;
     @GuardedBy("this")
-    private final List<Entry<FDate, V>> cachedPreviousEntries = new ArrayList<Entry<FDate, V>>();
+    private final HistoricalCacheLookbackBuffer<V> cachedPreviousEntries = new HistoricalCacheLookbackBuffer<V>();
     @GuardedBy("this")
     private FDate cachedPreviousEntriesKey = null;
 
@@ -78,9 +78,70 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
         }
     }
 
+    @Override
+    public synchronized void getPreviousEntries(final IHistoricalCacheQueryInternalMethods<V> query, final FDate key,
+            final int shiftBackUnits, final List<Entry<FDate, V>> entries) {
+        if (shiftBackUnits == 1) {
+            final Entry<FDate, V> entry = delegate.getPreviousEntry(query, key, 0);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        } else {
+            final FDate adjKey = getParent().adjustKey(key);
+            if (!copyCachedPreviousEntries(shiftBackUnits, adjKey, entries)) {
+                final List<Entry<FDate, V>> trailing = query.newEntriesList(shiftBackUnits);
+                final List<Entry<FDate, V>> result = getPreviousEntriesListAdjusted(query, adjKey, shiftBackUnits,
+                        trailing);
+                for (int i = 0; i < result.size(); i++) {
+                    entries.add(result.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the entries directly from the lookback cache when it can satisfy the query completely, just like
+     * cachedGetPreviousEntries would. Returns false if the query needs to be done in the normal way.
+     */
+    private boolean copyCachedPreviousEntries(final int shiftBackUnits, final FDate adjKey,
+            final List<Entry<FDate, V>> entries) {
+        if (cachedPreviousEntries.isEmpty()) {
+            return false;
+        }
+        final int lastIndex;
+        if (Objects.equals(adjKey, cachedPreviousEntriesKey) || Objects.equals(adjKey, getLastCachedEntry().getKey())) {
+            lastIndex = cachedPreviousEntries.size() - 1;
+        } else if (adjKey.isBeforeOrEqual(cachedPreviousEntriesKey)
+                && adjKey.isAfterOrEqual(getFirstCachedEntry().getKey())
+                && adjKey.isBeforeOrEqual(getLastCachedEntry().getKey())) {
+            lastIndex = cachedPreviousEntries.floorIndex(adjKey);
+        } else {
+            return false;
+        }
+        final int firstIndex = lastIndex - shiftBackUnits + 1;
+        if (firstIndex < 0) {
+            return false;
+        }
+        //duplicate keys might get filtered by the query, which is handled by the normal way
+        for (int i = firstIndex + 1; i <= lastIndex; i++) {
+            if (!cachedPreviousEntries.get(i).getKey().isAfter(cachedPreviousEntries.get(i - 1).getKey())) {
+                return false;
+            }
+        }
+        for (int i = firstIndex; i <= lastIndex; i++) {
+            entries.add(cachedPreviousEntries.get(i));
+        }
+        return true;
+    }
+
     private List<Entry<FDate, V>> getPreviousEntriesList(final IHistoricalCacheQueryInternalMethods<V> query,
             final FDate key, final int shiftBackUnits, final List<Entry<FDate, V>> trailing) {
         final FDate adjKey = getParent().adjustKey(key);
+        return getPreviousEntriesListAdjusted(query, adjKey, shiftBackUnits, trailing);
+    }
+
+    private List<Entry<FDate, V>> getPreviousEntriesListAdjusted(final IHistoricalCacheQueryInternalMethods<V> query,
+            final FDate adjKey, final int shiftBackUnits, final List<Entry<FDate, V>> trailing) {
         final List<Entry<FDate, V>> result;
         if (!cachedPreviousEntries.isEmpty()) {
             result = cachedGetPreviousEntries(query, shiftBackUnits, adjKey, trailing);
@@ -122,15 +183,14 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
         unitsBack = fillFromCacheAsFarAsPossible(trailing, unitsBack, adjKey);
         if (unitsBack == -1) {
             //we could satisfy the query completely with cached values
-            Collections.reverse(trailing);
             //cached values don't have to be updated
-            return trailing;
+            return Lists.reverse(trailing);
         } else {
             final int trailingCountFoundInCache = trailing.size();
             loadFurtherTrailingValuesViaQuery(query, trailing, unitsBack);
-            Collections.reverse(trailing);
-            prependCachedEntries(adjKey, trailing, trailingCountFoundInCache);
-            return trailing;
+            final List<Entry<FDate, V>> result = Lists.reverse(trailing);
+            prependCachedEntries(adjKey, result, trailingCountFoundInCache);
+            return result;
         }
     }
 
@@ -141,10 +201,10 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
 
         if (unitsBack == -1) {
             //we were above the cache and did not find anything useful in the cache, so we filled everything from query
-            Collections.reverse(trailing);
+            final List<Entry<FDate, V>> result = Lists.reverse(trailing);
             //we can replace the cache since it was too far away anyway
-            replaceCachedEntries(adjKey, trailing);
-            return trailing;
+            replaceCachedEntries(adjKey, result);
+            return result;
         }
 
         final int trailingCountFoundInQuery = trailing.size();
@@ -157,15 +217,14 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
             appendCachedEntries(adjKey, trailing, trailingCountFoundInQuery);
 
             //we could satisfy the query completely with cached values
-            Collections.reverse(trailing);
-            return trailing;
+            return Lists.reverse(trailing);
         } else {
             //and use the query again if there are missing elements at the end
             loadFurtherTrailingValuesViaQuery(query, trailing, unitsBack);
-            Collections.reverse(trailing);
+            final List<Entry<FDate, V>> result = Lists.reverse(trailing);
             //we can replace the cache since we extended it in both directions
-            replaceCachedEntries(adjKey, trailing);
-            return trailing;
+            replaceCachedEntries(adjKey, result);
+            return result;
         }
     }
 
@@ -197,7 +256,7 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
     private void prependCachedEntries(final FDate adjKey, final List<Entry<FDate, V>> trailing,
             final int trailingCountFoundInCache) {
         for (int i = trailingCountFoundInCache - 1; i < trailing.size(); i++) {
-            cachedPreviousEntries.add(0, trailing.get(i));
+            cachedPreviousEntries.addFirst(trailing.get(i));
         }
         if (maximumSize != null) {
             maybeIncreaseMaximumSize(trailing.size());
@@ -207,7 +266,7 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
                  * since we are going further back in time, we have to remove current values. We expect to go further
                  * back and will live with the cost of loading again the current values next time
                  */
-                cachedPreviousEntries.remove(cachedPreviousEntries.size() - 1);
+                cachedPreviousEntries.removeLast();
             }
             //so that we don't go accidentally into sameKey algorithm
             cachedPreviousEntriesKey = getLastCachedEntry().getKey();
@@ -217,14 +276,14 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
     private void appendCachedEntries(final FDate adjKey, final List<Entry<FDate, V>> trailing,
             final int trailingCountFoundInQuery) {
         for (int i = trailingCountFoundInQuery - 1; i >= 0; i--) {
-            cachedPreviousEntries.add(trailing.get(i));
+            cachedPreviousEntries.addLast(trailing.get(i));
         }
         cachedPreviousEntriesKey = adjKey;
         if (maximumSize != null) {
             maybeIncreaseMaximumSize(trailing.size());
             //ensure we stay in size limit
             while (cachedPreviousEntries.size() > maximumSize) {
-                cachedPreviousEntries.remove(0);
+                cachedPreviousEntries.removeFirst();
             }
         }
     }
@@ -251,14 +310,13 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
         unitsBack = fillFromCacheAsFarAsPossible(trailing, unitsBack, null);
         if (unitsBack == -1) {
             //we could satisfy the query completely with cached values
-            Collections.reverse(trailing);
             //cached values don't have to be updated
-            return trailing;
+            return Lists.reverse(trailing);
         } else {
             loadFurtherTrailingValuesViaQuery(query, trailing, unitsBack);
-            Collections.reverse(trailing);
-            replaceCachedEntries(adjKey, trailing);
-            return trailing;
+            final List<Entry<FDate, V>> result = Lists.reverse(trailing);
+            replaceCachedEntries(adjKey, result);
+            return result;
         }
     }
 
@@ -303,23 +361,19 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
         final GetPreviousEntryQueryImpl<V> impl = new GetPreviousEntryQueryImpl<V>(this, query, adjKey, shiftBackUnits);
         int unitsBack = shiftBackUnits - 1;
         unitsBack = fillFromQuery(trailing, impl, unitsBack);
-        Collections.reverse(trailing);
-        replaceCachedEntries(adjKey, trailing);
-        return trailing;
+        final List<Entry<FDate, V>> result = Lists.reverse(trailing);
+        replaceCachedEntries(adjKey, result);
+        return result;
     }
 
     private int fillFromCacheAsFarAsPossible(final List<Entry<FDate, V>> trailing, final int unitsBack,
             final FDate skippingKeysAbove) {
         //prefill what is possible and add suffixes by query as needed
-        int cachedIndex = cachedPreviousEntries.size() - 1;
+        int cachedIndex;
         if (skippingKeysAbove != null) {
-            while (cachedIndex >= 0) {
-                if (cachedPreviousEntries.get(cachedIndex).getKey().isAfter(skippingKeysAbove)) {
-                    cachedIndex--;
-                } else {
-                    break;
-                }
-            }
+            cachedIndex = cachedPreviousEntries.floorIndex(skippingKeysAbove);
+        } else {
+            cachedIndex = cachedPreviousEntries.size() - 1;
         }
         int newUnitsBack = unitsBack;
         while (newUnitsBack >= 0 && cachedIndex >= 0) {
@@ -334,11 +388,11 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
     }
 
     private Entry<FDate, V> getLastCachedEntry() {
-        return cachedPreviousEntries.get(cachedPreviousEntries.size() - 1);
+        return cachedPreviousEntries.getLast();
     }
 
     private Entry<FDate, V> getFirstCachedEntry() {
-        return cachedPreviousEntries.get(0);
+        return cachedPreviousEntries.getFirst();
     }
 
     @Override
@@ -360,6 +414,44 @@ public class CachedHistoricalCacheQueryCore<V> implements IHistoricalCacheQueryC
         cachedPreviousEntriesKey = null;
     }
 
+    @Override
+    public synchronized void append(final Entry<FDate, V> previousEntry, final Entry<FDate, V> entry) {
+        if (cachedPreviousEntries.isEmpty()) {
+            return;
+        }
+        final boolean windowEndsAtPreviousEntry = previousEntry != null
+                && getLastCachedEntry().getKey().equals(previousEntry.getKey());
+        if (windowEndsAtPreviousEntry && cachedPreviousEntriesKey.isBefore(entry.getKey())) {
+            cachedPreviousEntries.addLast(entry);
+            cachedPreviousEntriesKey = entry.getKey();
+            if (maximumSize != null) {
+                //ensure we stay in size limit
+                while (cachedPreviousEntries.size() > maximumSize) {
+                    cachedPreviousEntries.removeFirst();
+                }
+            }
+        } else if (!cachedPreviousEntriesKey.isBefore(entry.getKey())) {
+            //the window is missing the new entry
+            clear();
+        }
+    }
+
+    @Override
+    public synchronized void clearTail(final FDate fromKey) {
+        if (cachedPreviousEntries.isEmpty() || cachedPreviousEntriesKey.isBefore(fromKey)) {
+            return;
+        }
+        while (!cachedPreviousEntries.isEmpty() && !getLastCachedEntry().getKey().isBefore(fromKey)) {
+            cachedPreviousEntries.removeLast();
+        }
+        if (cachedPreviousEntries.isEmpty()) {
+            clear();
+        } else {
+            //the values before the removed ones did not change
+            cachedPreviousEntriesKey = getLastCachedEntry().getKey();
+        }
+    }
+
     @Override
     public synchronized void increaseMaximumSize(final int maximumSize) {
         this.maximumSize = maximumSize;
@@ -7,6 +7,7 @@ import java.util.Map.Entry;
 import javax.annotation.concurrent.Immutable;
 
 import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
 import de.invesdwin.util.collections.iterable.WrapperCloseableIterable;
 import de.invesdwin.util.collections.loadingcache.historical.query.internal.HistoricalCacheAssertValue;
 import de.invesdwin.util.collections.loadingcache.historical.query.internal.HistoricalCacheQuery;
@@ -107,6 +108,20 @@ public class DefaultHistoricalCacheQueryCore<V> implements IHistoricalCacheQuery
         return WrapperCloseableIterable.maybeWrap(trailing);
     }
 
+    @Override
+    public void getPreviousEntries(final IHistoricalCacheQueryInternalMethods<V> query, final FDate key,
+            final int shiftBackUnits, final List<Entry<FDate, V>> entries) {
+        final ICloseableIterator<Entry<FDate, V>> previousEntries = getPreviousEntries(query, key, shiftBackUnits)
+                .iterator();
+        try {
+            while (previousEntries.hasNext()) {
+                entries.add(previousEntries.next());
+            }
+        } finally {
+            previousEntries.close();
+        }
+    }
+
     @Override
     public ICloseableIterable<Entry<FDate, V>> getNextEntries(final IHistoricalCacheQueryInternalMethods<V> query,
             final FDate key, final int shiftForwardUnits) {
@@ -146,6 +161,16 @@ public class DefaultHistoricalCacheQueryCore<V> implements IHistoricalCacheQuery
         //noop since not caching anything
     }
 
+    @Override
+    public void append(final Entry<FDate, V> previousEntry, final Entry<FDate, V> entry) {
+        //noop since not caching anything
+    }
+
+    @Override
+    public void clearTail(final FDate fromKey) {
+        //noop since not caching anything
+    }
+
     @Override
     public void increaseMaximumSize(final int maximumSize) {
         //noop since not caching anything
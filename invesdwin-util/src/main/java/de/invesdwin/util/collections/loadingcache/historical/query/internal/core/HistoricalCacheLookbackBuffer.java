@@ -0,0 +1,133 @@
+package de.invesdwin.util.collections.loadingcache.historical.query.internal.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * A circular buffer of entries sorted ascending by key. Adding and removing at both ends is O(1) and lookups by key are
+ * done via binary search, which makes shifting the lookback window cheap even for lots of entries.
+ */
+@NotThreadSafe
+public class HistoricalCacheLookbackBuffer<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Entry<FDate, V>[] entries = newArray(INITIAL_CAPACITY);
+    private int head;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Index 0 is the oldest entry.
+     */
+    public Entry<FDate, V> get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index [" + index + "] should be between 0 and " + size);
+        }
+        return entries[physicalIndex(index)];
+    }
+
+    public Entry<FDate, V> getFirst() {
+        return get(0);
+    }
+
+    public Entry<FDate, V> getLast() {
+        return get(size - 1);
+    }
+
+    public void addFirst(final Entry<FDate, V> entry) {
+        ensureCapacity();
+        head = physicalIndex(entries.length - 1);
+        entries[head] = entry;
+        size++;
+    }
+
+    public void addLast(final Entry<FDate, V> entry) {
+        ensureCapacity();
+        entries[physicalIndex(size)] = entry;
+        size++;
+    }
+
+    public void addAll(final List<Entry<FDate, V>> list) {
+        for (int i = 0; i < list.size(); i++) {
+            addLast(list.get(i));
+        }
+    }
+
+    public Entry<FDate, V> removeFirst() {
+        final Entry<FDate, V> first = getFirst();
+        entries[head] = null;
+        head = physicalIndex(1);
+        size--;
+        return first;
+    }
+
+    public Entry<FDate, V> removeLast() {
+        final Entry<FDate, V> last = getLast();
+        entries[physicalIndex(size - 1)] = null;
+        size--;
+        return last;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, null);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the index of the last entry with a key before or equal to the given key, or -1 if there is none.
+     */
+    public int floorIndex(final FDate key) {
+        int low = 0;
+        int high = size;
+        //find the first entry after the key, so that the last of duplicate keys is used
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (get(mid).getKey().isAfter(key)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low - 1;
+    }
+
+    private int physicalIndex(final int index) {
+        final int physical = head + index;
+        if (physical >= entries.length) {
+            return physical - entries.length;
+        } else {
+            return physical;
+        }
+    }
+
+    private void ensureCapacity() {
+        if (size == entries.length) {
+            final Entry<FDate, V>[] newEntries = newArray(entries.length * 2);
+            for (int i = 0; i < size; i++) {
+                newEntries[i] = entries[physicalIndex(i)];
+            }
+            entries = newEntries;
+            head = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<FDate, V>[] newArray(final int capacity) {
+        return new Entry[capacity];
+    }
+
+}
@@ -1,5 +1,6 @@
 package de.invesdwin.util.collections.loadingcache.historical.query.internal.core;
 
+import java.util.List;
 import java.util.Map.Entry;
 
 import de.invesdwin.util.collections.iterable.ICloseableIterable;
@@ -15,10 +16,28 @@ public interface IHistoricalCacheQueryCore<V> {
     ICloseableIterable<Entry<FDate, V>> getPreviousEntries(IHistoricalCacheQueryInternalMethods<V> query, FDate key,
             int shiftBackUnits);
 
+    /**
+     * Fills the given empty list in ascending order instead of allocating a result iterable.
+     */
+    void getPreviousEntries(IHistoricalCacheQueryInternalMethods<V> query, FDate key, int shiftBackUnits,
+            List<Entry<FDate, V>> entries);
+
     IHistoricalCacheInternalMethods<V> getParent();
 
     void clear();
 
+    /**
+     * Notifies about a value that was appended after the previous last value, so that the cached lookback window can
+     * be extended in place instead of being loaded again.
+     */
+    void append(Entry<FDate, V> previousEntry, Entry<FDate, V> entry);
+
+    /**
+     * Notifies about the values after or equal to the given key being removed, so that only the affected end of the
+     * cached lookback window gets dropped.
+     */
+    void clearTail(FDate fromKey);
+
     void increaseMaximumSize(int maximumSize);
 
     V getValue(IHistoricalCacheQueryInternalMethods<V> query, FDate key, HistoricalCacheAssertValue assertValue);
@@ -1,5 +1,6 @@
 package de.invesdwin.util.collections.loadingcache.historical.query.internal.core.impl;
 
+import java.util.Iterator;
 import java.util.Map.Entry;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -20,6 +21,8 @@ public class GetPreviousEntryQueryImpl<V> {
     private final int shiftBackUnits;
     private final IHistoricalCacheQueryInternalMethods<V> query;
     private boolean duplicateEncountered = false;
+    private Iterator<FDate> previousKeysRange = null;
+    private FDate previousKeysRangeKey = null;
 
     public GetPreviousEntryQueryImpl(final IHistoricalCacheQueryCore<V> core,
             final IHistoricalCacheQueryInternalMethods<V> query, final FDate key, final int shiftBackUnits) {
@@ -47,7 +50,7 @@ public class GetPreviousEntryQueryImpl<V> {
                 if (iterations == 0) {
                     previousPreviousKey = previousKey;
                 } else {
-                    previousPreviousKey = core.getParent().calculatePreviousKey(previousKey);
+                    previousPreviousKey = calculatePreviousKey();
                 }
                 if (previousPreviousKey == null) {
                     return true;
@@ -80,6 +83,20 @@ public class GetPreviousEntryQueryImpl<V> {
         return true;
     }
 
+    private FDate calculatePreviousKey() {
+        if (previousKeysRange == null || !previousKey.equals(previousKeysRangeKey)) {
+            previousKeysRange = core.getParent().newPreviousKeysRange(previousKey);
+        }
+        if (previousKeysRange != null && previousKeysRange.hasNext()) {
+            //scan the range instead of looking up each previous key individually
+            previousKeysRangeKey = previousKeysRange.next();
+            return previousKeysRangeKey;
+        } else {
+            previousKeysRange = null;
+            return core.getParent().calculatePreviousKey(previousKey);
+        }
+    }
+
     public Entry<FDate, V> getResult() {
         return previousEntry;
     }
@@ -37,9 +37,17 @@ public final class HistoricalCacheRefreshManager {
      * Try every 3 hours if new data is in the cache. Queries may also call webservices.
      * 
      * Calling this manually makes the caches refresh themselves on their next call to get().
+     * 
+     * Caches that are registered in a HistoricalCacheRefreshScheduler ignore this.
      */
-    public static void refresh() {
-        lastRefresh = new FDate();
+    public static synchronized void refresh() {
+        final FDate now = new FDate();
+        //two refreshes within the same millisecond should still be noticed by the caches
+        if (now.isAfter(lastRefresh)) {
+            lastRefresh = now;
+        } else {
+            lastRefresh = lastRefresh.addMilliseconds(1);
+        }
     }
 
     public static boolean maybeRefresh() {
@@ -0,0 +1,172 @@
+package de.invesdwin.util.collections.loadingcache.historical.refresh;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+/**
+ * Refreshes the registered caches in the background with individual intervals, instead of letting all caches of the
+ * JVM reload on their next access after HistoricalCacheRefreshManager.refresh(). The refreshes are staggered over the
+ * interval so that the caches do not hit the db at the same time.
+ *
+ * Caches of the same group depend on the same data. Thus when one of them found changes, the ones that were registered
+ * after it in the group get refreshed right after it aswell. Register the caches in the order of their dependencies.
+ */
+@ThreadSafe
+public class HistoricalCacheRefreshScheduler {
+
+    private static final int STAGGER_SLOTS = 10;
+
+    private final ScheduledExecutorService executor;
+    @GuardedBy("this")
+    private final List<Registration> registrations = new ArrayList<Registration>();
+    @GuardedBy("this")
+    private int registrationCount;
+
+    public HistoricalCacheRefreshScheduler() {
+        this(Executors.newScheduledThreadPool(HistoricalCacheRefreshScheduler.class.getSimpleName(), 1));
+    }
+
+    public HistoricalCacheRefreshScheduler(final ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void register(final AHistoricalCache<?> historicalCache, final Duration refreshInterval) {
+        register(historicalCache, refreshInterval, null);
+    }
+
+    /**
+     * The group can be null if the cache does not depend on other caches.
+     */
+    public synchronized void register(final AHistoricalCache<?> historicalCache, final Duration refreshInterval,
+            final String group) {
+        if (getRegistration(historicalCache) != null) {
+            throw new IllegalStateException("Already registered: " + historicalCache);
+        }
+        final long intervalMillis = refreshInterval.longValue(FTimeUnit.MILLISECONDS);
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("refreshInterval [" + refreshInterval + "] should be positive");
+        }
+        //the first refresh of each cache is shifted by a fraction of the interval
+        final long initialDelayMillis = intervalMillis
+                + intervalMillis * (registrationCount % STAGGER_SLOTS) / STAGGER_SLOTS;
+        registrationCount++;
+        final Registration registration = new Registration(historicalCache, group);
+        registration.future = executor.scheduleAtFixedRate(registration, initialDelayMillis, intervalMillis,
+                FTimeUnit.MILLISECONDS.timeUnitValue());
+        registrations.add(registration);
+        historicalCache.setRefreshScheduled(true);
+    }
+
+    public synchronized boolean unregister(final AHistoricalCache<?> historicalCache) {
+        final Registration registration = getRegistration(historicalCache);
+        if (registration == null) {
+            return false;
+        }
+        remove(registration);
+        historicalCache.setRefreshScheduled(false);
+        return true;
+    }
+
+    public synchronized int getRegistrationCount() {
+        return registrations.size();
+    }
+
+    /**
+     * Refreshes the caches of the group in the order they were registered.
+     */
+    public Future<?> refreshGroup(final String group) {
+        if (group == null) {
+            throw new IllegalArgumentException("group should not be null");
+        }
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (final Registration registration : getRegistrations(group, null)) {
+                    registration.refreshCache();
+                }
+            }
+        });
+    }
+
+    private synchronized Registration getRegistration(final AHistoricalCache<?> historicalCache) {
+        for (int i = 0; i < registrations.size(); i++) {
+            final Registration registration = registrations.get(i);
+            if (registration.historicalCache.get() == historicalCache) {
+                return registration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the registrations of the group that come after the given one, or all of them if it is null.
+     */
+    private synchronized List<Registration> getRegistrations(final String group, final Registration after) {
+        final List<Registration> groupRegistrations = new ArrayList<Registration>();
+        boolean afterFound = after == null;
+        for (int i = 0; i < registrations.size(); i++) {
+            final Registration registration = registrations.get(i);
+            if (registration == after) {
+                afterFound = true;
+            } else if (afterFound && group.equals(registration.group)) {
+                groupRegistrations.add(registration);
+            }
+        }
+        return groupRegistrations;
+    }
+
+    private synchronized void remove(final Registration registration) {
+        registrations.remove(registration);
+        registration.future.cancel(false);
+    }
+
+    @ThreadSafe
+    private final class Registration implements Runnable {
+
+        private final WeakReference<AHistoricalCache<?>> historicalCache;
+        private final String group;
+        private volatile Future<?> future;
+
+        private Registration(final AHistoricalCache<?> historicalCache, final String group) {
+            this.historicalCache = new WeakReference<AHistoricalCache<?>>(historicalCache);
+            this.group = group;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (refreshCache() && group != null) {
+                    for (final Registration dependent : getRegistrations(group, this)) {
+                        dependent.refreshCache();
+                    }
+                }
+            } catch (final Throwable t) {
+                //keep the schedule alive, the next refresh might succeed
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), t);
+            }
+        }
+
+        private boolean refreshCache() {
+            final AHistoricalCache<?> cache = historicalCache.get();
+            if (cache == null) {
+                //the cache was garbage collected
+                remove(this);
+                return false;
+            }
+            return cache.refresh();
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+package de.invesdwin.util.collections.loadingcache.historical.snapshot;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.collections.loadingcache.historical.key.IHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * A view of the parent cache that is fixed at the given highest allowed key. It does not cache values itself, instead
+ * it loads them from the parent and uses the previous/next keys of the parent. Thus lots of parallel backtests with
+ * different highest allowed keys can share one loaded dataset, while each snapshot has its own query core so that they
+ * do not block each other.
+ * 
+ * The parent should not be limited to a lower highest allowed key than the snapshots.
+ */
+@ThreadSafe
+public class HistoricalCacheSnapshot<V> extends AHistoricalCache<V> {
+
+    private final AHistoricalCache<V> parent;
+    private final FDate highestAllowedKey;
+
+    public HistoricalCacheSnapshot(final AHistoricalCache<V> parent, final FDate highestAllowedKey) {
+        if (parent == null) {
+            throw new IllegalArgumentException("parent should not be null");
+        }
+        if (highestAllowedKey == null) {
+            throw new IllegalArgumentException("highestAllowedKey should not be null");
+        }
+        this.parent = parent;
+        this.highestAllowedKey = highestAllowedKey;
+        setShiftKeyDelegate(parent, false);
+        setAdjustKeyProvider(new SnapshotHistoricalCacheAdjustKeyProvider());
+    }
+
+    public AHistoricalCache<V> getParent() {
+        return parent;
+    }
+
+    public FDate getHighestAllowedKey() {
+        return highestAllowedKey;
+    }
+
+    @Override
+    public Integer getMaximumSize() {
+        //the values are cached in the parent
+        return DISABLED_MAXIMUM_SIZE;
+    }
+
+    @Override
+    protected V loadValue(final FDate key) {
+        //the queries of this snapshot check for future values themselves, like the parent does for its values map
+        return parent.query().withFuture().getValue(key);
+    }
+
+    @Override
+    protected FDate innerExtractKey(final FDate key, final V value) {
+        //the delegate extract key provider would look up the value of the parent without the highest allowed key
+        return parent.extractKey(key, value);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + parent + "@" + highestAllowedKey + "]";
+    }
+
+    @Immutable
+    private final class SnapshotHistoricalCacheAdjustKeyProvider implements IHistoricalCacheAdjustKeyProvider {
+
+        @Override
+        public FDate adjustKey(final FDate key) {
+            if (key.isAfter(highestAllowedKey)) {
+                return highestAllowedKey;
+            } else {
+                return key;
+            }
+        }
+
+        @Override
+        public void clear() {}
+
+        @Override
+        public FDate getHighestAllowedKey() {
+            return highestAllowedKey;
+        }
+
+        @Override
+        public boolean registerHistoricalCache(final AHistoricalCache<?> historicalCache) {
+            return true;
+        }
+
+        @Override
+        public AHistoricalCache<?> getParent() {
+            return HistoricalCacheSnapshot.this;
+        }
+
+    }
+
+}
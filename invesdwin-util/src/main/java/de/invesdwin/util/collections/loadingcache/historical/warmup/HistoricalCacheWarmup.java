@@ -0,0 +1,141 @@
+package de.invesdwin.util.collections.loadingcache.historical.warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import de.invesdwin.util.bean.tuple.Pair;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.concurrent.ConfiguredForkJoinPool;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.Futures;
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Loads the given keys and ranges of lots of caches in parallel, e.g. at startup, so that the warmup time scales with
+ * the number of cores instead of the number of caches. The keys and ranges of one cache are loaded one after another,
+ * since loading is synchronized on the cache anyway. The first failure aborts the warmup.
+ */
+@NotThreadSafe
+public class HistoricalCacheWarmup {
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final int parallelism;
+    private final int maxConcurrentLoads;
+    private final Map<AHistoricalCache<?>, List<Pair<FDate, FDate>>> cacheRanges = new LinkedHashMap<AHistoricalCache<?>, List<Pair<FDate, FDate>>>();
+    private IHistoricalCacheWarmupListener listener;
+
+    public HistoricalCacheWarmup() {
+        this(DEFAULT_PARALLELISM, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * The maximum concurrent loads can be lower than the parallelism to not overwhelm the db.
+     */
+    public HistoricalCacheWarmup(final int parallelism, final int maxConcurrentLoads) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism [" + parallelism + "] should be positive");
+        }
+        if (maxConcurrentLoads <= 0) {
+            throw new IllegalArgumentException("maxConcurrentLoads [" + maxConcurrentLoads + "] should be positive");
+        }
+        this.parallelism = parallelism;
+        this.maxConcurrentLoads = maxConcurrentLoads;
+    }
+
+    public void setListener(final IHistoricalCacheWarmupListener listener) {
+        this.listener = listener;
+    }
+
+    public void add(final AHistoricalCache<?> historicalCache, final FDate key) {
+        getRanges(historicalCache).add(Pair.of(key, (FDate) null));
+    }
+
+    public void add(final AHistoricalCache<?> historicalCache, final FDate from, final FDate to) {
+        getRanges(historicalCache).add(Pair.of(from, to));
+    }
+
+    private List<Pair<FDate, FDate>> getRanges(final AHistoricalCache<?> historicalCache) {
+        List<Pair<FDate, FDate>> ranges = cacheRanges.get(historicalCache);
+        if (ranges == null) {
+            ranges = new ArrayList<Pair<FDate, FDate>>();
+            cacheRanges.put(historicalCache, ranges);
+        }
+        return ranges;
+    }
+
+    public int getCacheCount() {
+        return cacheRanges.size();
+    }
+
+    public void warmup() throws InterruptedException {
+        final int totalCount = cacheRanges.size();
+        if (totalCount == 0) {
+            return;
+        }
+        final ConfiguredForkJoinPool pool = Executors.newForkJoinPool(HistoricalCacheWarmup.class.getSimpleName(),
+                Math.min(parallelism, totalCount));
+        try {
+            final Semaphore loads = new Semaphore(maxConcurrentLoads);
+            final AtomicInteger finishedCount = new AtomicInteger();
+            final CompletionService<Void> completion = new ExecutorCompletionService<Void>(pool);
+            for (final Map.Entry<AHistoricalCache<?>, List<Pair<FDate, FDate>>> e : cacheRanges.entrySet()) {
+                final AHistoricalCache<?> historicalCache = e.getKey();
+                final List<Pair<FDate, FDate>> ranges = e.getValue();
+                completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        loads.acquire();
+                        try {
+                            warmup(historicalCache, ranges);
+                        } finally {
+                            loads.release();
+                        }
+                        if (listener != null) {
+                            listener.onWarmedUp(historicalCache, finishedCount.incrementAndGet(), totalCount);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (int i = 0; i < totalCount; i++) {
+                //rethrows the first failure
+                Futures.get(completion.take());
+            }
+        } finally {
+            //aborts the remaining tasks on failure
+            pool.shutdownNow();
+        }
+    }
+
+    private static void warmup(final AHistoricalCache<?> historicalCache, final List<Pair<FDate, FDate>> ranges) {
+        for (int i = 0; i < ranges.size(); i++) {
+            final Pair<FDate, FDate> range = ranges.get(i);
+            if (range.getSecond() == null) {
+                historicalCache.query().getValue(range.getFirst());
+            } else {
+                final ICloseableIterator<?> values = historicalCache.query()
+                        .getValues(range.getFirst(), range.getSecond())
+                        .iterator();
+                try {
+                    while (values.hasNext()) {
+                        values.next();
+                    }
+                } finally {
+                    values.close();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+package de.invesdwin.util.collections.loadingcache.historical.warmup;
+
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+
+/**
+ * Gets called from the worker threads, thus implementations need to be thread safe.
+ */
+public interface IHistoricalCacheWarmupListener {
+
+    void onWarmedUp(AHistoricalCache<?> historicalCache, int finishedCount, int totalCount);
+
+}
@@ -0,0 +1,143 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.ILoadingCache;
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+
+/**
+ * Stores the keys as primitive longs to save the memory of boxed keys and map entries. The map views are copies.
+ */
+@ThreadSafe
+public abstract class ALongKeyLoadingCache<K, V> implements ILoadingCache<K, V> {
+
+    @GuardedBy("this")
+    private final LongKeyHashMap<V> map;
+    private final Function<K, V> loadValue;
+
+    public ALongKeyLoadingCache(final Function<K, V> loadValue, final Integer maximumSize) {
+        this(loadValue, maximumSize, null);
+    }
+
+    /**
+     * The listener gets notified with RemovalCause.SIZE about entries that got evicted, it might be null.
+     */
+    public ALongKeyLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final IRemovalListener<K, V> evictionListener) {
+        this.loadValue = loadValue;
+        if (evictionListener == null) {
+            this.map = new LongKeyHashMap<V>(maximumSize);
+        } else {
+            this.map = new LongKeyHashMap<V>(maximumSize) {
+                @Override
+                protected void onEvicted(final long key, final V value) {
+                    evictionListener.onRemoval(fromLongKey(key), value, RemovalCause.SIZE);
+                }
+            };
+        }
+    }
+
+    protected abstract long toLongKey(K key);
+
+    protected abstract K fromLongKey(long key);
+
+    @Override
+    public V get(final K key) {
+        final long longKey = toLongKey(key);
+        V v;
+        synchronized (this) {
+            v = map.get(longKey);
+        }
+        if (v == null) {
+            //bad idea to synchronize in apply, this might cause deadlocks when threads are used inside of it
+            v = loadValue.apply(key);
+            if (v != null) {
+                synchronized (this) {
+                    final V oldV = map.get(longKey);
+                    if (oldV != null) {
+                        v = oldV;
+                    } else {
+                        map.put(longKey, v);
+                    }
+                }
+            }
+        }
+        return v;
+    }
+
+    public synchronized void increaseMaximumSize(final int maximumSize) {
+        map.increaseMaximumSize(maximumSize);
+    }
+
+    public synchronized void decreaseMaximumSize(final int maximumSize) {
+        map.decreaseMaximumSize(maximumSize);
+    }
+
+    @Override
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    @Override
+    public synchronized boolean containsKey(final K key) {
+        return map.containsKey(toLongKey(key));
+    }
+
+    @Override
+    public synchronized void remove(final K key) {
+        map.remove(toLongKey(key));
+    }
+
+    @Override
+    public synchronized void put(final K key, final V value) {
+        map.put(toLongKey(key), value);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return asMap().entrySet();
+    }
+
+    @Override
+    public synchronized int size() {
+        return map.size();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return asMap().keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return asMap().values();
+    }
+
+    @Override
+    public synchronized Map<K, V> asMap() {
+        final Map<K, V> copy = new HashMap<K, V>(map.size());
+        int index = map.nextIndex(0);
+        while (index >= 0) {
+            copy.put(fromLongKey(map.keyAt(index)), map.valueAt(index));
+            index = map.nextIndex(index + 1);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+}
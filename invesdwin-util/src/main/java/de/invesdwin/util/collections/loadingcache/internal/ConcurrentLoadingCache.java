@@ -0,0 +1,184 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.collections.loadingcache.ILoadingCache;
+
+/**
+ * Unlimited loading cache for lots of concurrent readers. Reads never block, even while other keys are being loaded.
+ * Only one thread loads a missing key, the other threads that request the same key wait for that load instead of
+ * loading the value again.
+ *
+ * The value is not loaded inside of ConcurrentHashMap.computeIfAbsent, since that blocks unrelated keys of the same bin
+ * and fails for loads that recursively access the cache.
+ */
+@ThreadSafe
+public class ConcurrentLoadingCache<K, V> implements ILoadingCache<K, V> {
+
+    private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
+    private final ConcurrentMap<K, InFlightLoad<V>> inFlightLoads = new ConcurrentHashMap<K, InFlightLoad<V>>();
+    private final Function<K, V> loadValue;
+
+    public ConcurrentLoadingCache(final Function<K, V> loadValue) {
+        this.loadValue = loadValue;
+    }
+
+    @Override
+    public V get(final K key) {
+        final V v = map.get(key);
+        if (v != null) {
+            return v;
+        }
+        final InFlightLoad<V> load = new InFlightLoad<V>();
+        final InFlightLoad<V> existingLoad = inFlightLoads.putIfAbsent(key, load);
+        if (existingLoad != null) {
+            if (existingLoad.owner == Thread.currentThread()) {
+                //recursive load of the same key, waiting would deadlock
+                return loadValue.apply(key);
+            }
+            return existingLoad.await();
+        }
+        //the value might have been put by a load that finished in the meantime
+        final V loadedV = map.get(key);
+        if (loadedV != null) {
+            inFlightLoads.remove(key, load);
+            load.complete(loadedV, null);
+            return loadedV;
+        }
+        return load(key, load);
+    }
+
+    private V load(final K key, final InFlightLoad<V> load) {
+        final V v;
+        try {
+            v = loadValue.apply(key);
+        } catch (final Throwable t) {
+            inFlightLoads.remove(key, load);
+            load.complete(null, t);
+            throw propagate(t);
+        }
+        //a clear or remove during the load discards the in flight load, then the value should not be cached anymore
+        if (v != null && inFlightLoads.get(key) == load) {
+            map.putIfAbsent(key, v);
+        }
+        inFlightLoads.remove(key, load);
+        load.complete(v, null);
+        return v;
+    }
+
+    @Override
+    public void clear() {
+        inFlightLoads.clear();
+        map.clear();
+    }
+
+    @Override
+    public boolean containsKey(final K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public void remove(final K key) {
+        inFlightLoads.remove(key);
+        map.remove(key);
+    }
+
+    @Override
+    public void put(final K key, final V value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return map.values();
+    }
+
+    @Override
+    public Map<K, V> asMap() {
+        return Collections.unmodifiableMap(map);
+    }
+
+    public int getInFlightLoadCount() {
+        return inFlightLoads.size();
+    }
+
+    private static RuntimeException propagate(final Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            return new RuntimeException(t);
+        }
+    }
+
+    @ThreadSafe
+    private static final class InFlightLoad<V> {
+
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Throwable error;
+
+        private void complete(final V value, final Throwable error) {
+            this.value = value;
+            this.error = error;
+            latch.countDown();
+        }
+
+        private V await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        latch.await();
+                        break;
+                    } catch (final InterruptedException e) {
+                        //the load has to finish anyway, thus restore the interrupt afterwards
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (error != null) {
+                throw propagate(error);
+            }
+            return value;
+        }
+
+    }
+
+}
@@ -9,34 +9,88 @@ import java.util.function.Function;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import com.google.common.cache.RemovalCause;
+
 import de.invesdwin.util.collections.loadingcache.ILoadingCache;
+import de.invesdwin.util.collections.loadingcache.eviction.LoadingCacheEvictionPolicy;
 import de.invesdwin.util.collections.loadingcache.guava.AGuavaLoadingCacheMap;
 import de.invesdwin.util.collections.loadingcache.guava.GuavaLoadingCacheMapConfig;
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+import de.invesdwin.util.collections.loadingcache.weight.ILoadingCacheWeigher;
 
 @ThreadSafe
 public class GuavaLoadingCache<K, V> implements ILoadingCache<K, V> {
 
-    private final AGuavaLoadingCacheMap<K, V> delegate = new AGuavaLoadingCacheMap<K, V>() {
-        @Override
-        protected V loadValue(final K key) {
-            return loadValue.apply(key);
-        }
-
-        @Override
-        protected GuavaLoadingCacheMapConfig getConfig() {
-            return GuavaLoadingCache.this.getConfig();
-        }
-    };
+    private final AGuavaLoadingCacheMap<K, V> delegate;
     private final Function<K, V> loadValue;
     private final Integer maximumSize;
+    private final LoadingCacheEvictionPolicy evictionPolicy;
+    private final Long maximumWeight;
+    private final ILoadingCacheWeigher<? super K, ? super V> weigher;
+    private final IRemovalListener<K, V> evictionListener;
 
     public GuavaLoadingCache(final Function<K, V> loadValue, final Integer maximumSize) {
+        this(loadValue, maximumSize, LoadingCacheEvictionPolicy.LRU);
+    }
+
+    public GuavaLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final LoadingCacheEvictionPolicy evictionPolicy) {
+        this(loadValue, maximumSize, evictionPolicy, null, null);
+    }
+
+    public GuavaLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final LoadingCacheEvictionPolicy evictionPolicy, final Long maximumWeight,
+            final ILoadingCacheWeigher<? super K, ? super V> weigher) {
+        this(loadValue, maximumSize, evictionPolicy, maximumWeight, weigher, null);
+    }
+
+    /**
+     * The listener gets notified about entries that got removed because the maximum size or weight was exceeded or
+     * because they got collected, it might be null.
+     */
+    public GuavaLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final LoadingCacheEvictionPolicy evictionPolicy, final Long maximumWeight,
+            final ILoadingCacheWeigher<? super K, ? super V> weigher, final IRemovalListener<K, V> evictionListener) {
         this.loadValue = loadValue;
         this.maximumSize = maximumSize;
+        this.evictionPolicy = evictionPolicy;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+        //the config is only available after the fields are initialized
+        this.delegate = new AGuavaLoadingCacheMap<K, V>() {
+            @Override
+            protected V loadValue(final K key) {
+                return loadValue.apply(key);
+            }
+
+            @Override
+            protected GuavaLoadingCacheMapConfig getConfig() {
+                return GuavaLoadingCache.this.getConfig();
+            }
+        };
     }
 
     protected GuavaLoadingCacheMapConfig getConfig() {
-        return new GuavaLoadingCacheMapConfig().withMaximumSize(maximumSize);
+        return new GuavaLoadingCacheMapConfig().withMaximumSize(maximumSize)
+                .withEvictionPolicy(evictionPolicy)
+                .withMaximumWeight(maximumWeight)
+                .withWeigher(weigher)
+                .withRemovalListener(newEvictionRemovalListener());
+    }
+
+    private IRemovalListener<K, V> newEvictionRemovalListener() {
+        if (evictionListener == null) {
+            return null;
+        }
+        return new IRemovalListener<K, V>() {
+            @Override
+            public void onRemoval(final K key, final V value, final RemovalCause cause) {
+                if (cause != RemovalCause.EXPLICIT && cause != RemovalCause.REPLACED) {
+                    evictionListener.onRemoval(key, value, cause);
+                }
+            }
+        };
     }
 
     @Override
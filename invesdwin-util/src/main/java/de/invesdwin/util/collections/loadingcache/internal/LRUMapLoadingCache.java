@@ -7,26 +7,78 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.commons.collections.map.LRUMap;
 
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
 import de.invesdwin.util.lang.Reflections;
 
 @ThreadSafe
 public class LRUMapLoadingCache<K, V> extends ASynchronizedLoadingCache<K, V> {
 
-    @SuppressWarnings("unchecked")
+    private final IRemovalListener<K, V> evictionListener;
+
     public LRUMapLoadingCache(final Function<K, V> loadValue, final Integer maximumSize) {
+        this(loadValue, maximumSize, null);
+    }
+
+    /**
+     * The listener gets notified with RemovalCause.SIZE about entries that got evicted, it might be null.
+     */
+    @SuppressWarnings("unchecked")
+    public LRUMapLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final IRemovalListener<K, V> evictionListener) {
         //apache commons LRUMap is faster than adjusted LinkedHashMap!
-        super(loadValue, new LRUMap(maximumSize));
+        super(loadValue, newLRUMap(maximumSize, evictionListener));
+        this.evictionListener = evictionListener;
+    }
+
+    private static <K, V> LRUMap newLRUMap(final Integer maximumSize, final IRemovalListener<K, V> evictionListener) {
+        if (evictionListener == null) {
+            return new LRUMap(maximumSize);
+        }
+        return new LRUMap(maximumSize) {
+            @SuppressWarnings("unchecked")
+            @Override
+            protected boolean removeLRU(final LinkEntry entry) {
+                evictionListener.onRemoval((K) entry.getKey(), (V) entry.getValue(), RemovalCause.SIZE);
+                return true;
+            }
+        };
     }
 
+    /**
+     * Does nothing when the maximum size is not greater than the current one.
+     */
     public void increaseMaximumSize(final int maximumSize) {
         final LRUMap lru = (LRUMap) map;
         if (lru.maxSize() < maximumSize) {
             final Field field = Reflections.findField(LRUMap.class, "maxSize");
             Reflections.makeAccessible(field);
             Reflections.setField(field, map, maximumSize);
-        } else {
-            throw new IllegalArgumentException(
-                    "maximumSize [" + maximumSize + "] needs to be greater than current [" + lru.maxSize() + "]");
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries that do not fit anymore. Does nothing when the maximum size is not less
+     * than the current one.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void decreaseMaximumSize(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize [" + maximumSize + "] needs to be positive");
+        }
+        final LRUMap lru = (LRUMap) map;
+        if (lru.maxSize() > maximumSize) {
+            final Field field = Reflections.findField(LRUMap.class, "maxSize");
+            Reflections.makeAccessible(field);
+            Reflections.setField(field, map, maximumSize);
+            while (lru.size() > maximumSize) {
+                final K key = (K) lru.firstKey();
+                final V value = (V) lru.remove(key);
+                if (evictionListener != null) {
+                    evictionListener.onRemoval(key, value, RemovalCause.SIZE);
+                }
+            }
         }
     }
 
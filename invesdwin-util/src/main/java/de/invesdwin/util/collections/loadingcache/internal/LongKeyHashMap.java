@@ -0,0 +1,327 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Open addressing hash map with primitive long keys (linear probing with backward shift deletion), so that no boxed keys
+ * and no map entry objects are needed. With a maximum size the least recently used entries get evicted first, like
+ * with LRUMap. An access appends the entry to the eviction queue again, the outdated queue entries get skipped.
+ */
+@NotThreadSafe
+public class LongKeyHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final long FREE_SEQUENCE = 0;
+
+    private long[] keys;
+    private Object[] values;
+    //doubles as used marker and as access order for eviction
+    private long[] sequences;
+    private int mask;
+    private int resizeThreshold;
+    private int size;
+    private long nextSequence = FREE_SEQUENCE + 1;
+
+    private Integer maximumSize;
+    private long[] evictionQueueKeys;
+    private long[] evictionQueueSequences;
+    private int evictionQueueHead;
+    private int evictionQueueSize;
+
+    public LongKeyHashMap(final Integer maximumSize) {
+        if (maximumSize != null && maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize [" + maximumSize + "] should be greater than 0");
+        }
+        this.maximumSize = maximumSize;
+        allocate(MIN_CAPACITY);
+        if (maximumSize != null) {
+            evictionQueueKeys = new long[MIN_CAPACITY];
+            evictionQueueSequences = new long[MIN_CAPACITY];
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        sequences = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(final long key) {
+        int index = hash(key) & mask;
+        while (sequences[index] != FREE_SEQUENCE) {
+            if (keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    public Integer getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Does nothing when the maximum size is not greater than the current one.
+     */
+    public void increaseMaximumSize(final int maximumSize) {
+        if (this.maximumSize == null) {
+            //unlimited
+            return;
+        }
+        if (this.maximumSize < maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries that do not fit anymore. Does nothing when the maximum size is not less than the
+     * current one.
+     */
+    public void decreaseMaximumSize(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize [" + maximumSize + "] needs to be positive");
+        }
+        if (this.maximumSize == null) {
+            //unlimited
+            return;
+        }
+        if (this.maximumSize > maximumSize) {
+            this.maximumSize = maximumSize;
+            while (size > maximumSize) {
+                evictLeastRecentlyUsed();
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Counts as an access for the eviction order, containsKey does not.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        touch(index);
+        return (V) values[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        int index = hash(key) & mask;
+        while (sequences[index] != FREE_SEQUENCE) {
+            if (keys[index] == key) {
+                final V oldValue = (V) values[index];
+                values[index] = value;
+                touch(index);
+                return oldValue;
+            }
+            index = (index + 1) & mask;
+        }
+        final long sequence = nextSequence++;
+        keys[index] = key;
+        values[index] = value;
+        sequences[index] = sequence;
+        size++;
+        if (size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        if (maximumSize != null) {
+            enqueueForEviction(key, sequence);
+            while (size > maximumSize) {
+                evictLeastRecentlyUsed();
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        final V oldValue = (V) values[index];
+        removeAt(index);
+        return oldValue;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            Arrays.fill(sequences, FREE_SEQUENCE);
+            size = 0;
+        }
+        evictionQueueHead = 0;
+        evictionQueueSize = 0;
+    }
+
+    /**
+     * Returns the next used index starting at the given index or -1 if there is none. Use this together with keyAt and
+     * valueAt to iterate without allocations.
+     */
+    public int nextIndex(final int fromIndex) {
+        for (int i = fromIndex; i < sequences.length; i++) {
+            if (sequences[i] != FREE_SEQUENCE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long keyAt(final int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(final int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Can be overridden to get notified about entries that got removed because the maximum size was exceeded.
+     */
+    protected void onEvicted(final long key, final V value) {}
+
+    private void removeAt(final int index) {
+        int gap = index;
+        int cur = (index + 1) & mask;
+        while (sequences[cur] != FREE_SEQUENCE) {
+            final int home = hash(keys[cur]) & mask;
+            //move the entry into the gap if its home slot is not cyclically between the gap and its current slot
+            final boolean move;
+            if (cur > gap) {
+                move = home <= gap || home > cur;
+            } else {
+                move = home <= gap && home > cur;
+            }
+            if (move) {
+                keys[gap] = keys[cur];
+                values[gap] = values[cur];
+                sequences[gap] = sequences[cur];
+                gap = cur;
+            }
+            cur = (cur + 1) & mask;
+        }
+        values[gap] = null;
+        sequences[gap] = FREE_SEQUENCE;
+        size--;
+    }
+
+    private void rehash(final int newCapacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        final long[] oldSequences = sequences;
+        allocate(newCapacity);
+        for (int i = 0; i < oldSequences.length; i++) {
+            if (oldSequences[i] != FREE_SEQUENCE) {
+                int index = hash(oldKeys[i]) & mask;
+                while (sequences[index] != FREE_SEQUENCE) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                sequences[index] = oldSequences[i];
+            }
+        }
+    }
+
+    private void touch(final int index) {
+        if (maximumSize != null) {
+            final long sequence = nextSequence++;
+            sequences[index] = sequence;
+            enqueueForEviction(keys[index], sequence);
+        }
+    }
+
+    private void enqueueForEviction(final long key, final long sequence) {
+        if (evictionQueueSize > size + size + MIN_CAPACITY) {
+            //too many stale entries because of removals and accesses
+            compactEvictionQueue();
+        }
+        if (evictionQueueSize == evictionQueueKeys.length) {
+            growEvictionQueue();
+        }
+        final int tail = (evictionQueueHead + evictionQueueSize) % evictionQueueKeys.length;
+        evictionQueueKeys[tail] = key;
+        evictionQueueSequences[tail] = sequence;
+        evictionQueueSize++;
+    }
+
+    private void growEvictionQueue() {
+        final long[] newKeys = new long[evictionQueueKeys.length << 1];
+        final long[] newSequences = new long[newKeys.length];
+        for (int i = 0; i < evictionQueueSize; i++) {
+            final int index = (evictionQueueHead + i) % evictionQueueKeys.length;
+            newKeys[i] = evictionQueueKeys[index];
+            newSequences[i] = evictionQueueSequences[index];
+        }
+        evictionQueueKeys = newKeys;
+        evictionQueueSequences = newSequences;
+        evictionQueueHead = 0;
+    }
+
+    private void compactEvictionQueue() {
+        int newSize = 0;
+        for (int i = 0; i < evictionQueueSize; i++) {
+            final int index = (evictionQueueHead + i) % evictionQueueKeys.length;
+            final long key = evictionQueueKeys[index];
+            final long sequence = evictionQueueSequences[index];
+            if (isLive(key, sequence)) {
+                final int newIndex = (evictionQueueHead + newSize) % evictionQueueKeys.length;
+                evictionQueueKeys[newIndex] = key;
+                evictionQueueSequences[newIndex] = sequence;
+                newSize++;
+            }
+        }
+        evictionQueueSize = newSize;
+    }
+
+    private boolean isLive(final long key, final long sequence) {
+        final int index = indexOf(key);
+        return index >= 0 && sequences[index] == sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evictLeastRecentlyUsed() {
+        while (evictionQueueSize > 0) {
+            final long key = evictionQueueKeys[evictionQueueHead];
+            final long sequence = evictionQueueSequences[evictionQueueHead];
+            evictionQueueHead = (evictionQueueHead + 1) % evictionQueueKeys.length;
+            evictionQueueSize--;
+            final int index = indexOf(key);
+            if (index >= 0 && sequences[index] == sequence) {
+                final V value = (V) values[index];
+                removeAt(index);
+                onEvicted(key, value);
+                return;
+            }
+        }
+        throw new IllegalStateException("eviction queue should not be empty while size [" + size
+                + "] exceeds maximumSize [" + maximumSize + "]");
+    }
+
+}
@@ -0,0 +1,64 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.function.Function;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.eviction.TinyLfuMap;
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+
+@ThreadSafe
+public class TinyLfuLoadingCache<K, V> extends ASynchronizedLoadingCache<K, V> {
+
+    public TinyLfuLoadingCache(final Function<K, V> loadValue, final Integer maximumSize) {
+        this(loadValue, maximumSize, null);
+    }
+
+    /**
+     * The listener gets notified with RemovalCause.SIZE about entries that got evicted, it might be null.
+     */
+    public TinyLfuLoadingCache(final Function<K, V> loadValue, final Integer maximumSize,
+            final IRemovalListener<K, V> evictionListener) {
+        super(loadValue, newTinyLfuMap(maximumSize, evictionListener));
+    }
+
+    private static <K, V> TinyLfuMap<K, V> newTinyLfuMap(final Integer maximumSize,
+            final IRemovalListener<K, V> evictionListener) {
+        if (evictionListener == null) {
+            return new TinyLfuMap<K, V>(maximumSize);
+        }
+        return new TinyLfuMap<K, V>(maximumSize) {
+            @Override
+            protected void onEvicted(final K key, final V value) {
+                evictionListener.onRemoval(key, value, RemovalCause.SIZE);
+            }
+        };
+    }
+
+    /**
+     * Does nothing when the maximum size is not greater than the current one.
+     */
+    public synchronized void increaseMaximumSize(final int maximumSize) {
+        final TinyLfuMap<K, V> tinyLfu = (TinyLfuMap<K, V>) map;
+        if (tinyLfu.maxSize() < maximumSize) {
+            tinyLfu.setMaxSize(maximumSize);
+        }
+    }
+
+    /**
+     * Evicts the entries with the lowest frequencies that do not fit anymore. Does nothing when the maximum size is not
+     * less than the current one.
+     */
+    public synchronized void decreaseMaximumSize(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize [" + maximumSize + "] needs to be positive");
+        }
+        final TinyLfuMap<K, V> tinyLfu = (TinyLfuMap<K, V>) map;
+        if (tinyLfu.maxSize() > maximumSize) {
+            tinyLfu.setMaxSize(maximumSize);
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.function.Function;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.RemovalCause;
+
+import de.invesdwin.util.collections.loadingcache.guava.IRemovalListener;
+import de.invesdwin.util.collections.loadingcache.weight.ILoadingCacheWeigher;
+import de.invesdwin.util.collections.loadingcache.weight.WeightedLRUMap;
+
+@ThreadSafe
+public class WeightedLRUMapLoadingCache<K, V> extends ASynchronizedLoadingCache<K, V> {
+
+    public WeightedLRUMapLoadingCache(final Function<K, V> loadValue, final long maximumWeight,
+            final ILoadingCacheWeigher<? super K, ? super V> weigher) {
+        this(loadValue, maximumWeight, weigher, null);
+    }
+
+    /**
+     * The listener gets notified with RemovalCause.SIZE about entries that got evicted, it might be null.
+     */
+    public WeightedLRUMapLoadingCache(final Function<K, V> loadValue, final long maximumWeight,
+            final ILoadingCacheWeigher<? super K, ? super V> weigher, final IRemovalListener<K, V> evictionListener) {
+        super(loadValue, newWeightedLRUMap(maximumWeight, weigher, evictionListener));
+    }
+
+    private static <K, V> WeightedLRUMap<K, V> newWeightedLRUMap(final long maximumWeight,
+            final ILoadingCacheWeigher<? super K, ? super V> weigher, final IRemovalListener<K, V> evictionListener) {
+        if (evictionListener == null) {
+            return new WeightedLRUMap<K, V>(maximumWeight, weigher);
+        }
+        return new WeightedLRUMap<K, V>(maximumWeight, weigher) {
+            @Override
+            protected void onEvicted(final K key, final V value) {
+                evictionListener.onRemoval(key, value, RemovalCause.SIZE);
+            }
+        };
+    }
+
+    public synchronized long getWeight() {
+        return ((WeightedLRUMap<K, V>) map).getWeight();
+    }
+
+    public synchronized long getMaximumWeight() {
+        return ((WeightedLRUMap<K, V>) map).getMaximumWeight();
+    }
+
+    /**
+     * Evicts the least recently used entries that do not fit anymore when the maximum weight is decreased.
+     */
+    public synchronized void setMaximumWeight(final long maximumWeight) {
+        ((WeightedLRUMap<K, V>) map).setMaximumWeight(maximumWeight);
+    }
+
+}
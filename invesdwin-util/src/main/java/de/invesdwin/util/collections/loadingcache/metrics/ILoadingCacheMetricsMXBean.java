@@ -0,0 +1,33 @@
+package de.invesdwin.util.collections.loadingcache.metrics;
+
+import java.util.Map;
+
+public interface ILoadingCacheMetricsMXBean {
+
+    String getName();
+
+    long getRequests();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getEvictions();
+
+    long getReoptimizations();
+
+    /**
+     * How often a stale value was served while it was being refreshed in the background.
+     */
+    long getStaleHits();
+
+    /**
+     * A summary of the latency histogram per loading method.
+     */
+    Map<String, String> getLoadLatencies();
+
+    void reset();
+
+}
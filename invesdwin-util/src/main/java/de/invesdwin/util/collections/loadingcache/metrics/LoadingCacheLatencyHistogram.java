@@ -0,0 +1,110 @@
+package de.invesdwin.util.collections.loadingcache.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+/**
+ * Counts latencies in buckets of powers of two nanoseconds. This keeps recording allocation free and lock free while
+ * percentiles are still accurate within a factor of two.
+ */
+@ThreadSafe
+public class LoadingCacheLatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(final long nanos) {
+        final long positiveNanos = Math.max(0, nanos);
+        //the bucket is the bit length of the value
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(positiveNanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(positiveNanos);
+        long max = maxNanos.get();
+        while (positiveNanos > max && !maxNanos.compareAndSet(max, positiveNanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getAverageNanos() {
+        final long countCopy = count.get();
+        if (countCopy == 0) {
+            return 0;
+        } else {
+            return totalNanos.get() / countCopy;
+        }
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the given percentile (between 0 and 1).
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile [" + percentile + "] should be between 0 and 1");
+        }
+        final long countCopy = count.get();
+        if (countCopy == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(countCopy * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getUpperBoundNanos(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    private static long getUpperBoundNanos(final int bucket) {
+        if (bucket == 0) {
+            return 0;
+        } else if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        } else {
+            return (1L << bucket) - 1;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + "|avg=" + toDuration(getAverageNanos()) + "|p50="
+                + toDuration(getPercentileNanos(0.5D)) + "|p99=" + toDuration(getPercentileNanos(0.99D)) + "|max="
+                + toDuration(getMaxNanos());
+    }
+
+    private static Duration toDuration(final long nanos) {
+        return new Duration(nanos, FTimeUnit.NANOSECONDS);
+    }
+
+}
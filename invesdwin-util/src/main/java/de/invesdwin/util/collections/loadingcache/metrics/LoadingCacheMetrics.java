@@ -0,0 +1,266 @@
+package de.invesdwin.util.collections.loadingcache.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.invesdwin.util.collections.iterable.ACloseableIterator;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.collections.iterable.WrapperCloseableIterator;
+
+/**
+ * Counts hits, misses, evictions, stale hits and load latencies of a cache. Caches only create an instance when
+ * metrics are enabled, so that disabled metrics cost nothing more than a null check.
+ *
+ * The values can be polled directly or exported via JMX with registerMBean().
+ */
+@ThreadSafe
+public class LoadingCacheMetrics implements ILoadingCacheMetricsMXBean {
+
+    public static final String LOAD_VALUE = "loadValue";
+    public static final String RELOAD_VALUE = "reloadValue";
+    private static final String OBJECT_NAME_PREFIX = LoadingCacheMetrics.class.getPackage().getName() + ":type="
+            + LoadingCacheMetrics.class.getSimpleName() + ",name=";
+
+    private final String name;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reoptimizations = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final ConcurrentMap<String, LoadingCacheLatencyHistogram> loadLatencies = new ConcurrentHashMap<String, LoadingCacheLatencyHistogram>();
+    @GuardedBy("this")
+    private ObjectName registeredObjectName;
+
+    public LoadingCacheMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a request before the value is looked up. Misses are recorded by the load function of the cache, thus the
+     * hits are the requests that did not need a load and a single lookup suffices.
+     */
+    public void recordRequest() {
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Records a miss together with the latency of the load that started at the given nanos.
+     */
+    public void recordMiss(final long startNanos) {
+        recordLoadLatency(LOAD_VALUE, startNanos);
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Records an entry that got removed by the cache because its maximum size or weight was exceeded.
+     */
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    public void recordReoptimization() {
+        reoptimizations.incrementAndGet();
+    }
+
+    /**
+     * Records that a stale value was served while it was being reloaded in the background.
+     */
+    public void recordStaleHit() {
+        staleHits.incrementAndGet();
+    }
+
+    public void recordLoadLatency(final String method, final long startNanos) {
+        getLoadLatency(method).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Since iterables are normally loaded lazily, the latency consists of the time spent in the iterator until it is
+     * exhausted or closed.
+     */
+    public <T> ICloseableIterable<T> recordLoadLatency(final String method, final Iterable<? extends T> iterable) {
+        return new ICloseableIterable<T>() {
+            @Override
+            public ICloseableIterator<T> iterator() {
+                return new LoadLatencyRecordingIterator<T>(getLoadLatency(method), iterable);
+            }
+        };
+    }
+
+    public LoadingCacheLatencyHistogram getLoadLatency(final String method) {
+        final LoadingCacheLatencyHistogram existing = loadLatencies.get(method);
+        if (existing != null) {
+            return existing;
+        }
+        final LoadingCacheLatencyHistogram histogram = new LoadingCacheLatencyHistogram();
+        final LoadingCacheLatencyHistogram raced = loadLatencies.putIfAbsent(method, histogram);
+        if (raced != null) {
+            return raced;
+        } else {
+            return histogram;
+        }
+    }
+
+    public Map<String, LoadingCacheLatencyHistogram> getLoadLatencyHistograms() {
+        return Collections.unmodifiableMap(loadLatencies);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public long getHits() {
+        //a reset during a load might record the miss without its request
+        return Math.max(0, requests.get() - misses.get());
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long requestsCopy = requests.get();
+        if (requestsCopy == 0) {
+            return 0D;
+        } else {
+            final long hitsCopy = Math.max(0, requestsCopy - misses.get());
+            return (double) hitsCopy / requestsCopy;
+        }
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getReoptimizations() {
+        return reoptimizations.get();
+    }
+
+    @Override
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    @Override
+    public Map<String, String> getLoadLatencies() {
+        final Map<String, String> summaries = new TreeMap<String, String>();
+        for (final Entry<String, LoadingCacheLatencyHistogram> e : loadLatencies.entrySet()) {
+            summaries.put(e.getKey(), e.getValue().toString());
+        }
+        return summaries;
+    }
+
+    @Override
+    public void reset() {
+        requests.set(0);
+        misses.set(0);
+        evictions.set(0);
+        reoptimizations.set(0);
+        staleHits.set(0);
+        for (final LoadingCacheLatencyHistogram histogram : loadLatencies.values()) {
+            histogram.reset();
+        }
+    }
+
+    public synchronized ObjectName registerMBean() {
+        if (registeredObjectName == null) {
+            try {
+                final ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+                registeredObjectName = objectName;
+            } catch (final JMException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return registeredObjectName;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredObjectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                if (server.isRegistered(registeredObjectName)) {
+                    server.unregisterMBean(registeredObjectName);
+                }
+            } catch (final JMException e) {
+                throw new RuntimeException(e);
+            }
+            registeredObjectName = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + name + "|hits=" + getHits() + "|misses=" + getMisses()
+                + "|evictions=" + getEvictions() + "|reoptimizations=" + getReoptimizations() + "|staleHits="
+                + getStaleHits() + "|loadLatencies=" + getLoadLatencies() + "]";
+    }
+
+    @NotThreadSafe
+    private static final class LoadLatencyRecordingIterator<T> extends ACloseableIterator<T> {
+
+        private final LoadingCacheLatencyHistogram histogram;
+        private final ICloseableIterator<? extends T> delegate;
+        private long elapsedNanos;
+
+        private LoadLatencyRecordingIterator(final LoadingCacheLatencyHistogram histogram,
+                final Iterable<? extends T> iterable) {
+            this.histogram = histogram;
+            final long start = System.nanoTime();
+            this.delegate = WrapperCloseableIterator.maybeWrap(iterable.iterator());
+            elapsedNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        protected boolean innerHasNext() {
+            final long start = System.nanoTime();
+            try {
+                return delegate.hasNext();
+            } finally {
+                elapsedNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        protected T innerNext() {
+            final long start = System.nanoTime();
+            try {
+                return delegate.next();
+            } finally {
+                elapsedNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        protected void innerClose() {
+            delegate.close();
+            histogram.record(elapsedNanos);
+        }
+
+    }
+
+}
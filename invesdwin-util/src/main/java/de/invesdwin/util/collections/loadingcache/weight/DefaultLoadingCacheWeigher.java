@@ -0,0 +1,135 @@
+package de.invesdwin.util.collections.loadingcache.weight;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import javax.annotation.concurrent.Immutable;
+
+import de.invesdwin.util.math.decimal.ADecimal;
+import de.invesdwin.util.time.fdate.FDate;
+
+/**
+ * Estimates the size in bytes of common key and value types for a 64 bit JVM. Large collections and arrays are
+ * estimated from a sample of their elements, nested objects are only followed up to a limited depth.
+ */
+@Immutable
+public final class DefaultLoadingCacheWeigher implements ILoadingCacheWeigher<Object, Object> {
+
+    public static final DefaultLoadingCacheWeigher INSTANCE = new DefaultLoadingCacheWeigher();
+
+    /**
+     * map node with hash, links and references
+     */
+    public static final long ENTRY_WEIGHT = 48;
+    /**
+     * used for objects whose size is unknown
+     */
+    public static final long DEFAULT_OBJECT_WEIGHT = 64;
+
+    private static final long OBJECT_HEADER_WEIGHT = 16;
+    private static final long REFERENCE_WEIGHT = 8;
+    private static final long SMALL_BOX_WEIGHT = 16;
+    private static final long LARGE_BOX_WEIGHT = 24;
+    private static final long FDATE_WEIGHT = 32;
+    private static final long DECIMAL_WEIGHT = 64;
+    private static final long STRING_WEIGHT = 40;
+    private static final long COLLECTION_WEIGHT = 48;
+    private static final int SAMPLE_SIZE = 16;
+    private static final int MAX_DEPTH = 3;
+
+    private DefaultLoadingCacheWeigher() {}
+
+    @Override
+    public long weigh(final Object key, final Object value) {
+        return ENTRY_WEIGHT + estimate(key) + estimate(value);
+    }
+
+    public static long estimate(final Object obj) {
+        return estimate(obj, 0);
+    }
+
+    private static long estimate(final Object obj, final int depth) {
+        if (obj == null || obj instanceof Enum) {
+            //enums are shared singletons
+            return 0;
+        } else if (obj instanceof FDate) {
+            return FDATE_WEIGHT;
+        } else if (obj instanceof ADecimal) {
+            return DECIMAL_WEIGHT;
+        } else if (obj instanceof Long || obj instanceof Double) {
+            return LARGE_BOX_WEIGHT;
+        } else if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character) {
+            return SMALL_BOX_WEIGHT;
+        } else if (obj instanceof CharSequence) {
+            return STRING_WEIGHT + 2L * ((CharSequence) obj).length();
+        } else if (depth >= MAX_DEPTH) {
+            return DEFAULT_OBJECT_WEIGHT;
+        } else if (obj instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) obj;
+            return COLLECTION_WEIGHT + collection.size() * REFERENCE_WEIGHT + estimateElements(collection, depth + 1);
+        } else if (obj instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) obj;
+            return COLLECTION_WEIGHT + map.size() * ENTRY_WEIGHT + estimateElements(map.keySet(), depth + 1)
+                    + estimateElements(map.values(), depth + 1);
+        } else if (obj.getClass().isArray()) {
+            return estimateArray(obj, depth + 1);
+        } else {
+            return DEFAULT_OBJECT_WEIGHT;
+        }
+    }
+
+    private static long estimateElements(final Collection<?> collection, final int depth) {
+        final int size = collection.size();
+        if (size == 0) {
+            return 0;
+        }
+        long sampleWeight = 0;
+        int samples = 0;
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            final List<?> list = (List<?>) collection;
+            final int step = Math.max(1, size / SAMPLE_SIZE);
+            for (int i = 0; i < size && samples < SAMPLE_SIZE; i += step) {
+                sampleWeight += estimate(list.get(i), depth);
+                samples++;
+            }
+        } else {
+            final Iterator<?> iterator = collection.iterator();
+            while (iterator.hasNext() && samples < SAMPLE_SIZE) {
+                sampleWeight += estimate(iterator.next(), depth);
+                samples++;
+            }
+        }
+        return sampleWeight * size / samples;
+    }
+
+    private static long estimateArray(final Object array, final int depth) {
+        if (array instanceof Object[]) {
+            final Object[] objects = (Object[]) array;
+            return OBJECT_HEADER_WEIGHT + objects.length * REFERENCE_WEIGHT
+                    + estimateElements(Arrays.asList(objects), depth);
+        } else if (array instanceof long[]) {
+            return OBJECT_HEADER_WEIGHT + 8L * ((long[]) array).length;
+        } else if (array instanceof double[]) {
+            return OBJECT_HEADER_WEIGHT + 8L * ((double[]) array).length;
+        } else if (array instanceof int[]) {
+            return OBJECT_HEADER_WEIGHT + 4L * ((int[]) array).length;
+        } else if (array instanceof float[]) {
+            return OBJECT_HEADER_WEIGHT + 4L * ((float[]) array).length;
+        } else if (array instanceof char[]) {
+            return OBJECT_HEADER_WEIGHT + 2L * ((char[]) array).length;
+        } else if (array instanceof short[]) {
+            return OBJECT_HEADER_WEIGHT + 2L * ((short[]) array).length;
+        } else if (array instanceof byte[]) {
+            return OBJECT_HEADER_WEIGHT + ((byte[]) array).length;
+        } else if (array instanceof boolean[]) {
+            return OBJECT_HEADER_WEIGHT + ((boolean[]) array).length;
+        } else {
+            return DEFAULT_OBJECT_WEIGHT;
+        }
+    }
+
+}
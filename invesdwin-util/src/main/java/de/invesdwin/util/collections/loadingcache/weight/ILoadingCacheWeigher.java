@@ -0,0 +1,11 @@
+package de.invesdwin.util.collections.loadingcache.weight;
+
+/**
+ * Estimates the memory an entry occupies in a cache, e.g. in bytes. The weight is calculated once when the entry is
+ * put, thus it should not change afterwards.
+ */
+public interface ILoadingCacheWeigher<K, V> {
+
+    long weigh(K key, V value);
+
+}
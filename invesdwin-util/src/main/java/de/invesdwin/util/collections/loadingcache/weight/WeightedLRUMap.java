@@ -0,0 +1,112 @@
+package de.invesdwin.util.collections.loadingcache.weight;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import de.invesdwin.util.collections.ADelegateMap;
+
+/**
+ * LRU map that is limited by the total weight of its entries instead of their count. The weight of an entry is
+ * calculated once on put. A single entry that is heavier than the maximum weight is not kept at all.
+ */
+@NotThreadSafe
+public class WeightedLRUMap<K, V> extends ADelegateMap<K, V> {
+
+    private final ILoadingCacheWeigher<? super K, ? super V> weigher;
+    private final Map<K, Long> weights = new HashMap<K, Long>();
+    private long maximumWeight;
+    private long weight;
+
+    public WeightedLRUMap(final long maximumWeight, final ILoadingCacheWeigher<? super K, ? super V> weigher) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight [" + maximumWeight + "] should be positive");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    @Override
+    protected Map<K, V> newDelegate() {
+        //access order moves entries to the end on get
+        return new LinkedHashMap<K, V>(16, 0.75f, true);
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Evicts the least recently used entries that do not fit anymore.
+     */
+    public void setMaximumWeight(final long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight [" + maximumWeight + "] should be positive");
+        }
+        this.maximumWeight = maximumWeight;
+        evict();
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        final long entryWeight = weigher.weigh(key, value);
+        if (entryWeight < 0) {
+            throw new IllegalStateException("weight [" + entryWeight + "] of key [" + key + "] should not be negative");
+        }
+        final V oldValue = getDelegate().put(key, value);
+        final Long oldWeight = weights.put(key, entryWeight);
+        if (oldWeight != null) {
+            weight -= oldWeight;
+        }
+        weight += entryWeight;
+        evict();
+        return oldValue;
+    }
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> m) {
+        for (final Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    @Override
+    public V remove(final Object key) {
+        final Long oldWeight = weights.remove(key);
+        if (oldWeight != null) {
+            weight -= oldWeight;
+        }
+        return getDelegate().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        weights.clear();
+        weight = 0;
+        getDelegate().clear();
+    }
+
+    /**
+     * Can be overridden to get notified about entries that got removed because the maximum weight was exceeded.
+     */
+    protected void onEvicted(final K key, final V value) {}
+
+    private void evict() {
+        final Iterator<Entry<K, V>> eldest = getDelegate().entrySet().iterator();
+        while (weight > maximumWeight && eldest.hasNext()) {
+            final Entry<K, V> entry = eldest.next();
+            eldest.remove();
+            weight -= weights.remove(entry.getKey());
+            onEvicted(entry.getKey(), entry.getValue());
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package de.invesdwin.util.collections.loadingcache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+
+@NotThreadSafe
+public class AAsyncLoadingCacheTest {
+
+    private final WrappedExecutorService executor = Executors
+            .newFixedThreadPool(AAsyncLoadingCacheTest.class.getSimpleName(), 4);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+    private final CountDownLatch loadReleased = new CountDownLatch(1);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLoadsInCallingThread() throws Exception {
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(false) {
+            @Override
+            protected WrappedExecutorService newExecutor() {
+                return null;
+            }
+        };
+        final CompletableFuture<String> future = cache.get(1);
+        Assertions.assertThat(future.isDone()).isTrue();
+        Assertions.assertThat(future.get()).isEqualTo("1");
+        Assertions.assertThat(cache.get(1).getNow(null)).isEqualTo("1");
+        Assertions.assertThat(cache.getIfPresent(1)).isEqualTo("1");
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSharesInFlightLoads() throws Exception {
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(true);
+        final CompletableFuture<String> first = cache.get(1);
+        final CompletableFuture<String> second = cache.get(1);
+        Assertions.assertThat(second).isNotSameAs(first);
+        Assertions.assertThat(cache.getIfPresent(1)).isNull();
+        Assertions.assertThat(cache.containsKey(1)).isFalse();
+        loadReleased.countDown();
+        Assertions.assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("1");
+        Assertions.assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("1");
+        Assertions.assertThat(cache.containsKey(1)).isTrue();
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCancelledFutureDoesNotAffectOtherCallers() throws Exception {
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(true);
+        final CompletableFuture<String> cancelled = cache.get(1);
+        final CompletableFuture<String> other = cache.get(1);
+        Assertions.assertThat(cancelled.cancel(true)).isTrue();
+        //completing it from the outside does not affect the cache either
+        Assertions.assertThat(cache.get(1).complete("wrong")).isTrue();
+        loadReleased.countDown();
+        Assertions.assertThat(other.get(10, TimeUnit.SECONDS)).isEqualTo("1");
+        Assertions.assertThat(cache.get(1).get(10, TimeUnit.SECONDS)).isEqualTo("1");
+        Assertions.assertThat(cache.getIfPresent(1)).isEqualTo("1");
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetAllLoadsMissingKeysInOneBatch() throws Exception {
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(false);
+        cache.get(2).get(10, TimeUnit.SECONDS);
+        final Map<Integer, String> values = cache.getAll(Arrays.asList(1, 2, 3, 1, 0))
+                .get(10, TimeUnit.SECONDS);
+        //null values are missing in the result
+        Assertions.assertThat(values.keySet()).containsExactly(1, 2, 3);
+        Assertions.assertThat(values.get(3)).isEqualTo("3");
+        Assertions.assertThat(batches).hasSize(1);
+        Assertions.assertThat(batches.get(0)).containsExactly(1, 3, 0);
+        Assertions.assertThat(cache.size()).isEqualTo(3);
+        Assertions.assertThat(cache.containsKey(0)).isFalse();
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(1);
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(false) {
+            @Override
+            protected String loadValue(final Integer key) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("failing load");
+                }
+                return super.loadValue(key);
+            }
+        };
+        try {
+            cache.get(1).get(10, TimeUnit.SECONDS);
+            Assertions.fail("exception expected");
+        } catch (final ExecutionException e) {
+            Assertions.assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        Assertions.assertThat(cache.isEmpty()).isTrue();
+        Assertions.assertThat(cache.get(1).get(10, TimeUnit.SECONDS)).isEqualTo("1");
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        final AAsyncLoadingCache<Integer, String> cache = new TestAsyncLoadingCache(false);
+        cache.put(1, "one");
+        Assertions.assertThat(cache.getIfPresent(1)).isEqualTo("one");
+        cache.remove(1);
+        Assertions.assertThat(cache.isEmpty()).isTrue();
+        cache.put(1, "one");
+        cache.clear();
+        Assertions.assertThat(cache.getIfPresent(1)).isNull();
+        Assertions.assertThat(loads.get()).isEqualTo(0);
+    }
+
+    private class TestAsyncLoadingCache extends AAsyncLoadingCache<Integer, String> {
+
+        private final boolean blocking;
+
+        TestAsyncLoadingCache(final boolean blocking) {
+            this.blocking = blocking;
+        }
+
+        @Override
+        protected WrappedExecutorService newExecutor() {
+            return executor;
+        }
+
+        @Override
+        protected String loadValue(final Integer key) {
+            loads.incrementAndGet();
+            if (blocking) {
+                try {
+                    if (!loadReleased.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("load not released");
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (key == 0) {
+                return null;
+            }
+            return String.valueOf(key);
+        }
+
+        @Override
+        protected Map<Integer, String> loadValues(final List<Integer> keys) {
+            batches.add(new ArrayList<Integer>(keys));
+            return super.loadValues(keys);
+        }
+
+    }
+
+}
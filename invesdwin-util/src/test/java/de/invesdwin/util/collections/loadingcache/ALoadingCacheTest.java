@@ -0,0 +1,56 @@
+package de.invesdwin.util.collections.loadingcache;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.eviction.LoadingCacheEvictionPolicy;
+
+@NotThreadSafe
+public class ALoadingCacheTest {
+
+    @Test
+    public void testResizeIgnoresWrongDirection() {
+        for (final LoadingCacheEvictionPolicy evictionPolicy : LoadingCacheEvictionPolicy.values()) {
+            final ALoadingCache<Integer, Integer> cache = newCache(evictionPolicy);
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertThat(cache.get(i)).isEqualTo(i);
+            }
+            //e.g. the budget manager and adaptive sizing might both ask for the same size
+            cache.decreaseMaximumSize(3);
+            cache.decreaseMaximumSize(5);
+            cache.increaseMaximumSize(3);
+            cache.increaseMaximumSize(2);
+            Assertions.assertThat(cache.size()).as(evictionPolicy.toString()).isEqualTo(3);
+
+            cache.decreaseMaximumSize(2);
+            Assertions.assertThat(cache.size()).as(evictionPolicy.toString()).isEqualTo(2);
+            cache.increaseMaximumSize(4);
+            for (int i = 0; i < 4; i++) {
+                cache.put(i, i);
+            }
+            Assertions.assertThat(cache.size()).as(evictionPolicy.toString()).isEqualTo(4);
+        }
+    }
+
+    private ALoadingCache<Integer, Integer> newCache(final LoadingCacheEvictionPolicy evictionPolicy) {
+        return new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer getMaximumSize() {
+                return 3;
+            }
+
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return evictionPolicy;
+            }
+
+            @Override
+            protected Integer loadValue(final Integer key) {
+                return key;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,228 @@
+package de.invesdwin.util.collections.loadingcache.budget;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.ALoadingCache;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class LoadingCacheBudgetManagerTest {
+
+    @Test
+    public void testEvictColdestFirst() {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(10, Integer.MAX_VALUE);
+        final ALoadingCache<Integer, Integer> a = newCache(manager);
+        final ALoadingCache<Integer, Integer> b = newCache(manager);
+        final ALoadingCache<Integer, Integer> c = newCache(manager);
+        fill(a, 4);
+        fill(b, 4);
+        fill(c, 4);
+        //a is hot again
+        a.get(0);
+        Assertions.assertThat(manager.getConsumerCount()).isEqualTo(3);
+        Assertions.assertThat(manager.getWeight()).isEqualTo(12);
+
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(1);
+        Assertions.assertThat(a.size()).isEqualTo(4);
+        Assertions.assertThat(b.size()).isEqualTo(0);
+        Assertions.assertThat(c.size()).isEqualTo(4);
+        Assertions.assertThat(manager.getEvictions()).isEqualTo(1);
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(0);
+    }
+
+    @Test
+    public void testHottestCacheMayGrow() {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(10, Integer.MAX_VALUE);
+        final ALoadingCache<Integer, Integer> cold = newCache(manager);
+        final ALoadingCache<Integer, Integer> hot = newCache(manager);
+        fill(cold, 2);
+        fill(hot, 20);
+
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(1);
+        Assertions.assertThat(cold.size()).isEqualTo(0);
+        Assertions.assertThat(hot.size()).isEqualTo(20);
+    }
+
+    @Test
+    public void testEnforceBudgetOnAccess() throws InterruptedException {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(5, 1);
+        final ALoadingCache<Integer, Integer> cold = newCache(manager);
+        final ALoadingCache<Integer, Integer> hot = newCache(manager);
+        fill(cold, 5);
+        fill(hot, 3);
+        //the budget is enforced in the background
+        for (int i = 0; i < 100 && cold.size() > 0; i++) {
+            Thread.sleep(10);
+            hot.get(0);
+        }
+        Assertions.assertThat(cold.size()).isEqualTo(0);
+        Assertions.assertThat(hot.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void testHistoricalCacheWeight() {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(100, Integer.MAX_VALUE);
+        final AHistoricalCache<FDate> cold = newHistoricalCache(manager);
+        final AHistoricalCache<FDate> hot = newHistoricalCache(manager);
+        for (int i = 1; i <= 3; i++) {
+            Assertions.assertThat(cold.query().getValue(FDateBuilder.newDate(2000 + i))).isNotNull();
+        }
+        Assertions.assertThat(hot.query().getValue(FDateBuilder.newDate(2000))).isNotNull();
+        //each value weighs 32
+        Assertions.assertThat(manager.getWeight()).isEqualTo(128);
+
+        //the cold cache gets shrunk by one value instead of being cleared
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(1);
+        Assertions.assertThat(manager.getWeight()).isEqualTo(96);
+        Assertions.assertThat(manager.getShrinks()).isEqualTo(1);
+        Assertions.assertThat(manager.getEvictions()).isEqualTo(0);
+        Assertions.assertThat(cold.query().getValue(FDateBuilder.newDate(2003))).isNotNull();
+    }
+
+    @Test
+    public void testShrinkBeforeEvict() {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(10, Integer.MAX_VALUE);
+        final ALoadingCache<Integer, Integer> limited = newCache(manager, 100);
+        final ALoadingCache<Integer, Integer> unlimited = newCache(manager, null);
+        final ALoadingCache<Integer, Integer> hot = newCache(manager, 100);
+        fill(limited, 8);
+        fill(unlimited, 2);
+        //the least recently used entries of the limited cache get evicted
+        limited.get(0);
+        fill(hot, 4);
+
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(1);
+        Assertions.assertThat(limited.size()).isEqualTo(4);
+        Assertions.assertThat(limited.containsKey(0)).isTrue();
+        Assertions.assertThat(unlimited.size()).isEqualTo(2);
+        Assertions.assertThat(manager.getShrinks()).isEqualTo(1);
+        Assertions.assertThat(manager.getEvictions()).isEqualTo(0);
+
+        //one entry is kept, the remaining excess is freed by evicting the unlimited cache
+        fill(hot, 9);
+        Assertions.assertThat(manager.enforceBudget()).isEqualTo(2);
+        Assertions.assertThat(limited.size()).isEqualTo(1);
+        Assertions.assertThat(unlimited.size()).isEqualTo(0);
+        Assertions.assertThat(hot.size()).isEqualTo(9);
+        Assertions.assertThat(manager.getShrinks()).isEqualTo(2);
+        Assertions.assertThat(manager.getEvictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBudgetManagerFromSubclassField() {
+        final LoadingCacheBudgetManager manager = new LoadingCacheBudgetManager(10, Integer.MAX_VALUE);
+        final ALoadingCache<Integer, Integer> cache = new FieldBudgetLoadingCache(manager);
+        final AHistoricalCache<FDate> historicalCache = new FieldBudgetHistoricalCache(manager);
+        //registered on first access after construction
+        Assertions.assertThat(manager.getConsumerCount()).isEqualTo(0);
+        fill(cache, 2);
+        Assertions.assertThat(historicalCache.query().getValue(FDateBuilder.newDate(2000))).isNotNull();
+        Assertions.assertThat(manager.getConsumerCount()).isEqualTo(2);
+        Assertions.assertThat(manager.getWeight()).isEqualTo(3);
+    }
+
+    private void fill(final ALoadingCache<Integer, Integer> cache, final int count) {
+        for (int i = 0; i < count; i++) {
+            Assertions.assertThat(cache.get(i)).isEqualTo(i);
+        }
+    }
+
+    private ALoadingCache<Integer, Integer> newCache(final LoadingCacheBudgetManager manager) {
+        return newCache(manager, null);
+    }
+
+    private ALoadingCache<Integer, Integer> newCache(final LoadingCacheBudgetManager manager,
+            final Integer maximumSize) {
+        return new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer getMaximumSize() {
+                return maximumSize;
+            }
+
+            @Override
+            protected LoadingCacheBudgetManager getBudgetManager() {
+                return manager;
+            }
+
+            @Override
+            protected Integer loadValue(final Integer key) {
+                return key;
+            }
+        };
+    }
+
+    private AHistoricalCache<FDate> newHistoricalCache(final LoadingCacheBudgetManager manager) {
+        return new AHistoricalCache<FDate>() {
+            @Override
+            protected LoadingCacheBudgetManager getBudgetManager() {
+                return manager;
+            }
+
+            @Override
+            protected long getBudgetEntryWeight() {
+                return 32;
+            }
+
+            @Override
+            protected FDate loadValue(final FDate key) {
+                return key;
+            }
+
+            @Override
+            protected FDate innerExtractKey(final FDate key, final FDate value) {
+                return value;
+            }
+        };
+    }
+
+    private static final class FieldBudgetLoadingCache extends ALoadingCache<Integer, Integer> {
+
+        private final LoadingCacheBudgetManager manager;
+
+        private FieldBudgetLoadingCache(final LoadingCacheBudgetManager manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        protected LoadingCacheBudgetManager getBudgetManager() {
+            return manager;
+        }
+
+        @Override
+        protected Integer loadValue(final Integer key) {
+            return key;
+        }
+
+    }
+
+    private static final class FieldBudgetHistoricalCache extends AHistoricalCache<FDate> {
+
+        private final LoadingCacheBudgetManager manager;
+
+        private FieldBudgetHistoricalCache(final LoadingCacheBudgetManager manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        protected LoadingCacheBudgetManager getBudgetManager() {
+            return manager;
+        }
+
+        @Override
+        protected FDate loadValue(final FDate key) {
+            return key;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package de.invesdwin.util.collections.loadingcache.eviction;
+
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+
+@NotThreadSafe
+public class TinyLfuEvictionTest {
+
+    @Test
+    public void testFillsUpToMaximumSize() {
+        final TinyLfuEviction<Integer> eviction = new TinyLfuEviction<Integer>(100);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertThat(eviction.access(i)).isEmpty();
+        }
+        Assertions.assertThat(eviction.size()).isEqualTo(100);
+        final List<Integer> evicted = eviction.access(100);
+        Assertions.assertThat(evicted).hasSize(1);
+        Assertions.assertThat(eviction.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void testRejectsInfrequentKeys() {
+        final TinyLfuEviction<Integer> eviction = new TinyLfuEviction<Integer>(100);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                eviction.access(i);
+            }
+        }
+        //a scan of keys that are only accessed once does not replace the frequent keys
+        for (int i = 1000; i < 2000; i++) {
+            eviction.access(i);
+        }
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (eviction.contains(i)) {
+                hot++;
+            }
+        }
+        Assertions.assertThat(hot).isGreaterThanOrEqualTo(95);
+        Assertions.assertThat(eviction.frequency(0)).isGreaterThan(eviction.frequency(1500));
+    }
+
+    @Test
+    public void testAdmitsKeysThatBecomeFrequent() {
+        final TinyLfuEviction<Integer> eviction = new TinyLfuEviction<Integer>(100);
+        for (int i = 0; i < 100; i++) {
+            eviction.access(i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 100; i < 150; i++) {
+                eviction.access(i);
+            }
+        }
+        for (int i = 100; i < 150; i++) {
+            Assertions.assertThat(eviction.contains(i)).as("key %s", i).isTrue();
+        }
+    }
+
+    @Test
+    public void testSetMaximumSize() {
+        final TinyLfuEviction<Integer> eviction = new TinyLfuEviction<Integer>(100);
+        for (int i = 0; i < 100; i++) {
+            eviction.access(i);
+        }
+        final List<Integer> evicted = eviction.setMaximumSize(10);
+        Assertions.assertThat(evicted).hasSize(90);
+        Assertions.assertThat(eviction.size()).isEqualTo(10);
+        Assertions.assertThat(eviction.setMaximumSize(200)).isEmpty();
+        for (int i = 0; i < 190; i++) {
+            Assertions.assertThat(eviction.access(1000 + i)).isEmpty();
+        }
+        Assertions.assertThat(eviction.size()).isEqualTo(200);
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        final TinyLfuEviction<Integer> eviction = new TinyLfuEviction<Integer>(10);
+        eviction.access(1);
+        eviction.access(2);
+        eviction.remove(1);
+        Assertions.assertThat(eviction.contains(1)).isFalse();
+        Assertions.assertThat(eviction.size()).isEqualTo(1);
+        eviction.clear();
+        Assertions.assertThat(eviction.size()).isEqualTo(0);
+        //frequencies survive the clear
+        Assertions.assertThat(eviction.frequency(2)).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximumSize() {
+        new TinyLfuEviction<Integer>(0);
+    }
+
+}
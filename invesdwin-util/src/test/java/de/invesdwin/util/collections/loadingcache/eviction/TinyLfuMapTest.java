@@ -0,0 +1,172 @@
+package de.invesdwin.util.collections.loadingcache.eviction;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.ALoadingCache;
+import de.invesdwin.util.collections.loadingcache.guava.AGuavaLoadingCacheMap;
+import de.invesdwin.util.collections.loadingcache.guava.GuavaLoadingCacheMapConfig;
+
+@NotThreadSafe
+public class TinyLfuMapTest {
+
+    private static final int MAXIMUM_SIZE = 500;
+    private static final int HOT_KEYS = 400;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testMap() {
+        final TinyLfuMap<Integer, String> map = new TinyLfuMap<Integer, String>(10);
+        for (int i = 0; i < 20; i++) {
+            map.put(i, String.valueOf(i));
+        }
+        Assertions.assertThat(map.size()).isEqualTo(10);
+        map.setMaxSize(5);
+        Assertions.assertThat(map.size()).isEqualTo(5);
+        Assertions.assertThat(map.maxSize()).isEqualTo(5);
+        map.clear();
+        Assertions.assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testHitRateWithScans() {
+        final double lru = replayScanTrace(new TraceLoadingCache() {
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return LoadingCacheEvictionPolicy.LRU;
+            }
+        });
+        final double tinyLfu = replayScanTrace(new TraceLoadingCache() {
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return LoadingCacheEvictionPolicy.TINY_LFU;
+            }
+        });
+        final double guavaLru = replayScanTrace(new TraceGuavaLoadingCacheMap() {
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return LoadingCacheEvictionPolicy.LRU;
+            }
+        });
+        final double guavaTinyLfu = replayScanTrace(new TraceGuavaLoadingCacheMap() {
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return LoadingCacheEvictionPolicy.TINY_LFU;
+            }
+        });
+        final String hitRates = "hit rates with scans: LRU=" + lru + " TINY_LFU=" + tinyLfu + " guava LRU=" + guavaLru
+                + " guava TINY_LFU=" + guavaTinyLfu;
+        //each scan flushes the hot keys out of the lru caches
+        Assertions.assertThat(tinyLfu).as(hitRates).isGreaterThan(lru + 0.1);
+        Assertions.assertThat(guavaTinyLfu).as(hitRates).isGreaterThan(guavaLru + 0.1);
+    }
+
+    @Test
+    public void testHighConcurrencyHitRateWithScans() {
+        final double tinyLfu = replayScanTrace(new TraceLoadingCache() {
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return LoadingCacheEvictionPolicy.TINY_LFU;
+            }
+
+            @Override
+            protected boolean isHighConcurrency() {
+                return true;
+            }
+        });
+        Assertions.assertThat(tinyLfu).isGreaterThan(0.5);
+    }
+
+    /**
+     * Alternates between random accesses to the hot keys and a scan over keys that are never accessed again.
+     */
+    private double replayScanTrace(final ITraceCache cache) {
+        final Random random = new Random(0);
+        int accesses = 0;
+        int scanKey = HOT_KEYS;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < HOT_KEYS * 5; i++) {
+                cache.get(random.nextInt(HOT_KEYS));
+                accesses++;
+            }
+            for (int i = 0; i < MAXIMUM_SIZE * 2; i++) {
+                cache.get(scanKey++);
+                accesses++;
+            }
+        }
+        Assertions.assertThat(cache.size()).isLessThanOrEqualTo(MAXIMUM_SIZE);
+        return 1D - (double) cache.getLoads() / accesses;
+    }
+
+    private interface ITraceCache {
+
+        Integer get(Integer key);
+
+        int size();
+
+        int getLoads();
+
+    }
+
+    private abstract static class TraceLoadingCache extends ALoadingCache<Integer, Integer> implements ITraceCache {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        protected Integer getMaximumSize() {
+            return MAXIMUM_SIZE;
+        }
+
+        @Override
+        protected Integer loadValue(final Integer key) {
+            loads.incrementAndGet();
+            return key;
+        }
+
+        @Override
+        public int getLoads() {
+            return loads.get();
+        }
+
+    }
+
+    private abstract static class TraceGuavaLoadingCacheMap extends AGuavaLoadingCacheMap<Integer, Integer>
+            implements ITraceCache {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        //the config is created before the fields are initialized
+        protected abstract LoadingCacheEvictionPolicy getEvictionPolicy();
+
+        @Override
+        protected GuavaLoadingCacheMapConfig getConfig() {
+            //a single segment makes guava evict in global lru order
+            return new GuavaLoadingCacheMapConfig().withMaximumSize(MAXIMUM_SIZE)
+                    .withConcurrencyLevel(1)
+                    .withEvictionPolicy(getEvictionPolicy());
+        }
+
+        @Override
+        public Integer get(final Integer key) {
+            return super.get(key);
+        }
+
+        @Override
+        protected Integer loadValue(final Integer key) {
+            loads.incrementAndGet();
+            return key;
+        }
+
+        @Override
+        public int getLoads() {
+            return loads.get();
+        }
+
+    }
+
+}
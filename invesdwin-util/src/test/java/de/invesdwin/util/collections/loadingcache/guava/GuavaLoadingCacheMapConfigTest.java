@@ -0,0 +1,116 @@
+package de.invesdwin.util.collections.loadingcache.guava;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedScheduledExecutorService;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+@NotThreadSafe
+public class GuavaLoadingCacheMapConfigTest {
+
+    private static final Duration REFRESH_AFTER_WRITE = new Duration(50, FTimeUnit.MILLISECONDS);
+
+    private final WrappedScheduledExecutorService executor = Executors
+            .newScheduledThreadPool(GuavaLoadingCacheMapConfigTest.class.getSimpleName(), 1);
+    private final LoadingCacheMetrics metrics = new LoadingCacheMetrics(
+            GuavaLoadingCacheMapConfigTest.class.getSimpleName());
+    private final AtomicInteger loads = new AtomicInteger();
+    private final CountDownLatch reloadReleased = new CountDownLatch(1);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testServesStaleValueWhileRefreshing() throws InterruptedException {
+        final AGuavaLoadingCacheMap<Integer, Integer> map = new TestGuavaLoadingCacheMap() {
+            @Override
+            protected GuavaLoadingCacheMapConfig getConfig() {
+                return super.getConfig().withRefreshJitter(null);
+            }
+        };
+        Assertions.assertThat(map.get(1)).isEqualTo(1);
+        TimeUnit.MILLISECONDS.sleep(REFRESH_AFTER_WRITE.longValue(FTimeUnit.MILLISECONDS) * 2);
+        //the first request triggers the reload and does not wait for it
+        Assertions.assertThat(map.get(1)).isEqualTo(1);
+        Assertions.assertThat(map.get(1)).isEqualTo(1);
+        Assertions.assertThat(metrics.getStaleHits()).isEqualTo(2);
+        reloadReleased.countDown();
+        awaitValue(map, 2);
+        Assertions.assertThat(loads.get()).isEqualTo(2);
+        Assertions.assertThat(metrics.getLoadLatency(LoadingCacheMetrics.RELOAD_VALUE).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshWithJitter() throws InterruptedException {
+        final AGuavaLoadingCacheMap<Integer, Integer> map = new TestGuavaLoadingCacheMap();
+        reloadReleased.countDown();
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertThat(map.get(i)).isEqualTo(i + 1);
+        }
+        TimeUnit.MILLISECONDS.sleep(REFRESH_AFTER_WRITE.longValue(FTimeUnit.MILLISECONDS) * 2);
+        for (int i = 0; i < 10; i++) {
+            map.get(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            //every key got reloaded after the initial loads
+            awaitValue(map, i, 11);
+        }
+    }
+
+    private void awaitValue(final AGuavaLoadingCacheMap<Integer, Integer> map, final int expected)
+            throws InterruptedException {
+        awaitValue(map, 1, expected);
+    }
+
+    private void awaitValue(final AGuavaLoadingCacheMap<Integer, Integer> map, final int key, final int minExpected)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (map.get(key) < minExpected) {
+            if (System.currentTimeMillis() > deadline) {
+                Assertions.fail("refresh not finished for key: " + key);
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    private class TestGuavaLoadingCacheMap extends AGuavaLoadingCacheMap<Integer, Integer> {
+
+        @Override
+        protected GuavaLoadingCacheMapConfig getConfig() {
+            return new GuavaLoadingCacheMapConfig().withRefreshAfterWrite(REFRESH_AFTER_WRITE)
+                    .withRefreshJitter(new Duration(20, FTimeUnit.MILLISECONDS))
+                    .withRefreshExecutor(executor)
+                    .withMetrics(metrics);
+        }
+
+        @Override
+        protected Integer loadValue(final Integer key) {
+            final int load = loads.incrementAndGet();
+            if (load > 1) {
+                try {
+                    if (!reloadReleased.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("reload not released");
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return load;
+        }
+
+    }
+
+}
@@ -0,0 +1,266 @@
+package de.invesdwin.util.collections.loadingcache.historical;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.Futures;
+import de.invesdwin.util.time.Instant;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+/**
+ * Measures the query paths of AGapHistoricalCache with the default, unlimited and disabled cache sizes and logs the
+ * throughput. Compare the logged numbers before and after changes to CachedHistoricalCacheQueryCore or
+ * AGapHistoricalCache to notice regressions, the assertions only check relations that hold on any machine.
+ */
+@NotThreadSafe
+public class AGapHistoricalCachePerformanceTest {
+
+    private static final org.slf4j.ext.XLogger LOG = org.slf4j.ext.XLoggerFactory
+            .getXLogger(AGapHistoricalCachePerformanceTest.class);
+
+    private static final int COUNT_ENTITIES = 10000;
+    private static final int COUNT_WARMUP_RUNS = 3;
+    private static final int COUNT_RUNS = 5;
+    private static final int COUNT_THREADS = 4;
+    private static final int[] LOOKBACKS = { 1, 10, 100, 1000 };
+    private static final Integer[] MAXIMUM_SIZES = { AHistoricalCache.DEFAULT_MAXIMUM_SIZE,
+            AHistoricalCache.UNLIMITED_MAXIMUM_SIZE, AHistoricalCache.DISABLED_MAXIMUM_SIZE };
+
+    private static final List<FDate> ENTITIES = newEntities();
+
+    @Test
+    public void testGetValueForward() {
+        for (final Integer maximumSize : MAXIMUM_SIZES) {
+            final TestGapHistoricalCache cache = new TestGapHistoricalCache(maximumSize);
+            measure("getValue forward", maximumSize, ENTITIES.size(), new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < ENTITIES.size(); i++) {
+                        cache.query().getValue(ENTITIES.get(i));
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testGetValueRandom() {
+        final List<FDate> keys = newRandomKeys(new Random(0));
+        final Map<Integer, Double> opsPerMs = new HashMap<Integer, Double>();
+        for (final Integer maximumSize : MAXIMUM_SIZES) {
+            final TestGapHistoricalCache cache = new TestGapHistoricalCache(maximumSize);
+            opsPerMs.put(maximumSize, measure("getValue random", maximumSize, keys.size(), new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < keys.size(); i++) {
+                        cache.query().getValue(keys.get(i));
+                    }
+                }
+            }));
+        }
+        //random keys keep evicting the default sized cache, while the unlimited one loads each key only once
+        Assertions.assertThat(opsPerMs.get(AHistoricalCache.UNLIMITED_MAXIMUM_SIZE))
+                .isGreaterThan(opsPerMs.get(AHistoricalCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    @Test
+    public void testGetPreviousEntries() {
+        final Map<Integer, Double> minLookbackEntriesPerMs = new HashMap<Integer, Double>();
+        for (final int lookback : LOOKBACKS) {
+            for (final Integer maximumSize : MAXIMUM_SIZES) {
+                final TestGapHistoricalCache cache = new TestGapHistoricalCache(maximumSize);
+                final int from = Math.min(lookback, ENTITIES.size() - 1);
+                final double opsPerMs = measure("getPreviousEntries " + lookback, maximumSize,
+                        ENTITIES.size() - from, new Runnable() {
+                            @Override
+                            public void run() {
+                                for (int i = from; i < ENTITIES.size(); i++) {
+                                    drain(cache.query().getPreviousEntries(ENTITIES.get(i), lookback).iterator());
+                                }
+                            }
+                        });
+                final double entriesPerMs = opsPerMs * lookback;
+                final Double minLookback = minLookbackEntriesPerMs.get(maximumSize);
+                if (minLookback == null) {
+                    minLookbackEntriesPerMs.put(maximumSize, entriesPerMs);
+                } else {
+                    //longer lookbacks should scan ranges instead of paying the cost of a query per entry
+                    Assertions.assertThat(entriesPerMs).isGreaterThan(minLookback);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetEntriesRange() {
+        for (final Integer maximumSize : MAXIMUM_SIZES) {
+            final TestGapHistoricalCache cache = new TestGapHistoricalCache(maximumSize);
+            measure("getEntries range", maximumSize, ENTITIES.size(), new Runnable() {
+                @Override
+                public void run() {
+                    drain(cache.query().getEntries(ENTITIES.get(0), ENTITIES.get(ENTITIES.size() - 1)).iterator());
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() {
+        for (final Integer maximumSize : MAXIMUM_SIZES) {
+            final TestGapHistoricalCache cache = new TestGapHistoricalCache(maximumSize);
+            final ExecutorService executor = Executors.newFixedThreadPool("testConcurrentAccess", COUNT_THREADS);
+            final List<List<FDate>> threadKeys = new ArrayList<List<FDate>>();
+            for (int t = 0; t < COUNT_THREADS; t++) {
+                threadKeys.add(newRandomKeys(new Random(t)));
+            }
+            try {
+                measure("concurrent getValue/getPreviousEntries", maximumSize, COUNT_THREADS * ENTITIES.size(),
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                                for (int t = 0; t < COUNT_THREADS; t++) {
+                                    final List<FDate> keys = threadKeys.get(t);
+                                    futures.add(executor.submit(new Callable<Void>() {
+                                        @Override
+                                        public Void call() throws Exception {
+                                            for (int i = 0; i < keys.size(); i++) {
+                                                if (i % 2 == 0) {
+                                                    cache.query().getValue(keys.get(i));
+                                                } else {
+                                                    drain(cache.query().getPreviousEntries(keys.get(i), 10).iterator());
+                                                }
+                                            }
+                                            return null;
+                                        }
+                                    }));
+                                }
+                                try {
+                                    for (final Future<?> future : futures) {
+                                        Futures.get(future);
+                                    }
+                                } catch (final InterruptedException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                        });
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static double measure(final String name, final Integer maximumSize, final int operations,
+            final Runnable benchmark) {
+        for (int i = 0; i < COUNT_WARMUP_RUNS; i++) {
+            benchmark.run();
+        }
+        final Instant start = new Instant();
+        for (int i = 0; i < COUNT_RUNS; i++) {
+            benchmark.run();
+        }
+        final double millis = Math.max(1D, start.toDuration().doubleValue(FTimeUnit.MILLISECONDS));
+        final double opsPerMs = operations * COUNT_RUNS / millis;
+        final String result = String.format("%s [maximumSize=%s]: %.2f ops/ms", name, maximumSize, opsPerMs);
+        LOG.info(result);
+        return opsPerMs;
+    }
+
+    private static void drain(final ICloseableIterator<?> iterator) {
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+        } finally {
+            iterator.close();
+        }
+    }
+
+    private static List<FDate> newRandomKeys(final Random random) {
+        final List<FDate> keys = new ArrayList<FDate>(ENTITIES.size());
+        for (int i = 0; i < ENTITIES.size(); i++) {
+            keys.add(ENTITIES.get(random.nextInt(ENTITIES.size())));
+        }
+        return keys;
+    }
+
+    private static List<FDate> newEntities() {
+        final List<FDate> entities = new ArrayList<FDate>(COUNT_ENTITIES);
+        FDate entity = FDateBuilder.newDate(1990, 1, 1);
+        for (int i = 0; i < COUNT_ENTITIES; i++) {
+            entities.add(entity);
+            entity = entity.addDays(1);
+        }
+        return entities;
+    }
+
+    private static final class TestGapHistoricalCache extends AGapHistoricalCache<FDate> {
+
+        private final Integer maximumSize;
+
+        private TestGapHistoricalCache(final Integer maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        public Integer getMaximumSize() {
+            return maximumSize;
+        }
+
+        @Override
+        protected Iterable<FDate> readAllValuesAscendingFrom(final FDate key) {
+            final List<FDate> list = new ArrayList<FDate>();
+            for (final FDate d : ENTITIES) {
+                if (!d.isBefore(key)) {
+                    list.add(d);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            FDate previousE = null;
+            for (final FDate e : ENTITIES) {
+                if (previousE == null || key.isAfter(e)) {
+                    previousE = e;
+                } else {
+                    break;
+                }
+            }
+            return previousE;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate entity) {
+            return entity;
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addDays(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            return key.addDays(1);
+        }
+
+    }
+
+}
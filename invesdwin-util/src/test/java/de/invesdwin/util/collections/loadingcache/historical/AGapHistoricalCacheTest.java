@@ -1,24 +1,36 @@
 // CHECKSTYLE:OFF
 package de.invesdwin.util.collections.loadingcache.historical;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
 
 import de.invesdwin.util.assertions.Assertions;
 import de.invesdwin.util.collections.iterable.buffer.BufferingIterator;
 import de.invesdwin.util.collections.loadingcache.historical.key.APullingHistoricalCacheAdjustKeyProvider;
 import de.invesdwin.util.collections.loadingcache.historical.key.APushingHistoricalCacheAdjustKeyProvider;
 import de.invesdwin.util.collections.loadingcache.historical.key.IHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.collections.loadingcache.historical.persistent.HistoricalCachePersistentStore;
+import de.invesdwin.util.collections.loadingcache.historical.query.IHistoricalCacheQuery;
 import de.invesdwin.util.collections.loadingcache.historical.refresh.HistoricalCacheRefreshManager;
+import de.invesdwin.util.collections.loadingcache.metrics.LoadingCacheMetrics;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
 import de.invesdwin.util.time.fdate.FDate;
 import de.invesdwin.util.time.fdate.FDateBuilder;
 
@@ -29,13 +41,29 @@ public class AGapHistoricalCacheTest {
     //marker object
     private final List<FDate> entities;
 
+    private static final ThreadLocal<Boolean> PREFETCH_THREAD = new ThreadLocal<Boolean>();
+
+    //only counts the synchronous reads, prefetched reads are counted separately
     private int countReadAllValuesAscendingFrom;
+    private final AtomicInteger countPrefetchReadAllValuesAscendingFrom = new AtomicInteger();
+    private final AtomicInteger countPrefetchSubmissions = new AtomicInteger();
+    private WrappedExecutorService prefetchExecutor;
+    private volatile boolean failPrefetch;
     private int countReadNewestValueTo;
     private int countInnerExtractKey;
     private int countAdjustKey;
     private boolean returnNullInReadNewestValueTo;
     private boolean returnAllInReadAllValuesAscendingFrom;
     private Integer returnMaxResults;
+    private boolean bulkRangeLoading;
+    private boolean prefetching;
+    private boolean batchLoading;
+    private boolean adaptiveSizing;
+    private boolean incrementalRefresh;
+    private boolean parallelBatchLoading;
+    private int prefetchChunkSize = AGapHistoricalCache.DEFAULT_PREFETCH_CHUNK_SIZE;
+    private File persistentStoreDirectory;
+    private LoadingCacheMetrics metrics;
     private final int testReturnMaxResultsValue = 2;
     private final TestGapHistoricalCache cache = new TestGapHistoricalCache();
 
@@ -357,6 +385,268 @@ public class AGapHistoricalCacheTest {
         Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
     }
 
+    @Test
+    public void testKeysWithBulkRangeLoading() {
+        bulkRangeLoading = true;
+
+        final List<FDate> keys = asList(cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE));
+        Assertions.assertThat(keys).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        final List<FDate> subKeys = asList(cache.query().getKeys(entities.get(1).addDays(1), entities.get(3)));
+        Assertions.assertThat(subKeys).isEqualTo(entities.subList(1, 4));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //the cache got filled on the way
+        final List<FDate> previousValues = asList(cache.query().getPreviousValues(entities.get(3), 3));
+        Assertions.assertThat(previousValues).isEqualTo(entities.subList(1, 4));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeysWithBulkRangeLoadingAndReturnMaxResults() {
+        bulkRangeLoading = true;
+        returnMaxResults = testReturnMaxResultsValue;
+
+        final List<FDate> keys = asList(cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE));
+        Assertions.assertThat(keys).isEqualTo(entities);
+    }
+
+    @Test
+    public void testKeysWithBulkRangeLoadingAndHighestAllowedKey() {
+        bulkRangeLoading = true;
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        final FDate highestAllowedKey = entities.get(3);
+        adjustKeyProvider.pushHighestAllowedKey(highestAllowedKey);
+
+        final List<FDate> keys = asList(cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE));
+        Assertions.assertThat(keys).isEqualTo(entities.subList(0, 4));
+        final List<FDate> futureKeys = asList(cache.query().getKeys(entities.get(4), FDate.MAX_DATE));
+        Assertions.assertThat(futureKeys).containsExactly(highestAllowedKey);
+        final List<FDate> futureValues = asList(cache.query().getValues(entities.get(2), entities.get(5)));
+        Assertions.assertThat(futureValues).isEqualTo(entities.subList(2, 4));
+        //no future values leaked into the cache
+        for (final FDate futureKey : entities.subList(4, entities.size())) {
+            Assertions.assertThat(cache.containsKey(futureKey)).isFalse();
+        }
+
+        adjustKeyProvider.pushHighestAllowedKey(entities.get(5));
+        final List<FDate> allKeys = asList(cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE));
+        Assertions.assertThat(allKeys).isEqualTo(entities);
+    }
+
+    @Test
+    public void testPrefetchingWithForwardIteration() {
+        prefetching = true;
+        prefetchChunkSize = 2;
+        assertForwardAndBackwardIteration();
+    }
+
+    @Test
+    public void testPrefetchingWithForwardIterationAndReturnMaxResults() {
+        prefetching = true;
+        returnMaxResults = testReturnMaxResultsValue;
+        assertForwardAndBackwardIteration();
+    }
+
+    @Test
+    public void testForwardIterationWithoutPrefetching() {
+        returnMaxResults = testReturnMaxResultsValue;
+        assertForwardIteration();
+        //each chunk of 2 values needs its own read
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(5);
+        Assertions.assertThat(countPrefetchSubmissions.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPrefetchedChunksReplaceSynchronousReads() {
+        prefetching = true;
+        returnMaxResults = testReturnMaxResultsValue;
+        assertForwardIteration();
+        //only the first chunk is read synchronously, the following ones get consumed from the prefetched chunks
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countPrefetchSubmissions.get()).isGreaterThanOrEqualTo(4);
+        //cancelled chunks might not have been read
+        Assertions.assertThat(countPrefetchReadAllValuesAscendingFrom.get())
+                .isBetween(4, countPrefetchSubmissions.get());
+    }
+
+    @Test
+    public void testPrefetchingFailureFallsBackToSynchronousReads() {
+        prefetching = true;
+        returnMaxResults = testReturnMaxResultsValue;
+        failPrefetch = true;
+        assertForwardIteration();
+        //the failed chunks get logged and read again synchronously
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(5);
+        Assertions.assertThat(countPrefetchSubmissions.get()).isGreaterThan(0);
+    }
+
+    @Test
+    public void testAdaptiveSizingWithForwardIteration() {
+        adaptiveSizing = true;
+        assertForwardAndBackwardIteration();
+    }
+
+    @Test
+    public void testValuesWithBatchLoading() {
+        batchLoading = true;
+        assertValuesWithBatchLoading();
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testValuesWithoutBatchLoading() {
+        //each key gets looked up individually
+        assertValuesWithBatchLoading();
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testValuesWithParallelBatchLoading() {
+        batchLoading = true;
+        parallelBatchLoading = true;
+        assertValuesWithBatchLoading();
+    }
+
+    @Test
+    public void testValuesWithBatchLoadingAndReturnMaxResults() {
+        batchLoading = true;
+        returnMaxResults = testReturnMaxResultsValue;
+        assertValuesWithBatchLoading();
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(7);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    private void assertValuesWithBatchLoading() {
+        final List<FDate> keys = new ArrayList<FDate>();
+        keys.add(entities.get(3));
+        keys.add(entities.get(1).addDays(1));
+        keys.add(entities.get(0));
+        keys.add(entities.get(5).addDays(10));
+        keys.add(entities.get(1).addDays(1));
+        keys.add(entities.get(4));
+        keys.add(entities.get(2));
+        final List<FDate> expectedValues = new ArrayList<FDate>();
+        expectedValues.add(entities.get(3));
+        expectedValues.add(entities.get(1));
+        expectedValues.add(entities.get(0));
+        expectedValues.add(entities.get(5));
+        expectedValues.add(entities.get(1));
+        expectedValues.add(entities.get(4));
+        expectedValues.add(entities.get(2));
+        Assertions.assertThat(asList(cache.query().getValues(keys))).isEqualTo(expectedValues);
+        //now everything is cached
+        final int countReadAllValuesAscendingFromBefore = countReadAllValuesAscendingFrom;
+        final int countReadNewestValueToBefore = countReadNewestValueTo;
+        Assertions.assertThat(asList(cache.query().getValues(keys))).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(countReadAllValuesAscendingFromBefore);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(countReadNewestValueToBefore);
+    }
+
+    @Test
+    public void testPersistentStoreWithWarmRestart() {
+        persistentStoreDirectory = Files.createTempDir();
+        try {
+            final TestGapHistoricalCache cold = new TestGapHistoricalCache();
+            for (final FDate entity : entities) {
+                Assertions.assertThat(cold.query().getValue(entity)).isEqualTo(entity);
+            }
+            Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+            Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+            final TestGapHistoricalCache warm = new TestGapHistoricalCache();
+            for (final FDate entity : entities) {
+                Assertions.assertThat(warm.query().getValue(entity)).isEqualTo(entity);
+            }
+            final List<FDate> previousValues = asList(
+                    warm.query().getPreviousValues(entities.get(entities.size() - 1), entities.size()));
+            Assertions.assertThat(previousValues).isEqualTo(entities);
+            //only the max key is read from the db again
+            Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+            Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        } finally {
+            FileUtils.deleteQuietly(persistentStoreDirectory);
+        }
+    }
+
+    @Test
+    public void testMetrics() {
+        metrics = new LoadingCacheMetrics(AGapHistoricalCacheTest.class.getSimpleName());
+        final TestGapHistoricalCache metricsCache = new TestGapHistoricalCache();
+        Assertions.assertThat(metricsCache.getMetrics()).isSameAs(metrics);
+        for (final FDate entity : entities) {
+            Assertions.assertThat(metricsCache.query().getValue(entity)).isEqualTo(entity);
+        }
+        for (final FDate entity : entities) {
+            Assertions.assertThat(metricsCache.query().getValue(entity)).isEqualTo(entity);
+        }
+        Assertions.assertThat(metrics.getRequests()).isEqualTo(13);
+        Assertions.assertThat(metrics.getMisses()).isEqualTo(5);
+        Assertions.assertThat(metrics.getLoadLatency(LoadingCacheMetrics.LOAD_VALUE).getCount()).isEqualTo(5);
+        Assertions.assertThat(metrics.getLoadLatency(AGapHistoricalCache.READ_ALL_VALUES_ASCENDING_FROM).getCount())
+                .isEqualTo(countReadAllValuesAscendingFrom);
+        Assertions.assertThat(metrics.getLoadLatency(AGapHistoricalCache.READ_LATEST_VALUE_FOR).getCount())
+                .isEqualTo(countReadNewestValueTo);
+        metrics.reset();
+        Assertions.assertThat(metrics.getRequests()).isEqualTo(0);
+    }
+
+    private void assertForwardIteration() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+            Assertions.assertThat(cache.query().getValue(entity.addDays(1))).isEqualTo(entity);
+        }
+    }
+
+    private void assertForwardAndBackwardIteration() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+            Assertions.assertThat(cache.query().getValue(entity.addDays(1))).isEqualTo(entity);
+        }
+        for (int i = entities.size() - 1; i >= 0; i--) {
+            final FDate entity = entities.get(i);
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isEqualTo(entity);
+        }
+        final List<FDate> previousValues = asList(
+                cache.query().getPreviousValues(entities.get(entities.size() - 1), entities.size()));
+        Assertions.assertThat(previousValues).isEqualTo(entities);
+    }
+
+    @Test
+    public void testPreviousValuesIntoBuffer() {
+        final IHistoricalCacheQuery<FDate> query = cache.query();
+        final List<FDate> values = new ArrayList<FDate>();
+        final List<Entry<FDate, FDate>> entries = new ArrayList<Entry<FDate, FDate>>();
+        for (int shiftBackUnits = 1; shiftBackUnits <= entities.size(); shiftBackUnits++) {
+            for (int i = shiftBackUnits - 1; i < entities.size(); i++) {
+                final FDate entity = entities.get(i);
+                query.getPreviousValues(entity, shiftBackUnits, values);
+                Assertions.assertThat(values).isEqualTo(entities.subList(i - shiftBackUnits + 1, i + 1));
+                Assertions.assertThat(values)
+                        .isEqualTo(asList(cache.query().getPreviousValues(entity, shiftBackUnits)));
+            }
+            for (int i = entities.size() - 1; i >= shiftBackUnits - 1; i--) {
+                final FDate entity = entities.get(i);
+                query.getPreviousEntries(entity, shiftBackUnits, entries);
+                Assertions.assertThat(entries)
+                        .isEqualTo(asList(cache.query().getPreviousEntries(entity, shiftBackUnits)));
+            }
+        }
+    }
+
     @Test
     public void testPreviousValuesWithDistance() {
         final Collection<FDate> previousValues = asList(cache.query().getPreviousValues(new FDate(), entities.size()));
@@ -666,6 +956,79 @@ public class AGapHistoricalCacheTest {
         Assertions.assertThat(correctValue).isEqualTo(newEntity);
     }
 
+    @Test
+    public void testNewEntityIncomingWithIncrementalRefresh() {
+        incrementalRefresh = true;
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        final FDate keyAfterNewEntity = FDateBuilder.newDate(1996, 6, 1);
+        Assertions.assertThat(cache.query().getValue(keyAfterNewEntity)).isEqualTo(entities.get(entities.size() - 1));
+        entities.add(newEntity);
+        final FDate wrongValue = cache.query().getValue(keyAfterNewEntity);
+        Assertions.assertThat(wrongValue).isEqualTo(entities.get(entities.size() - 2));
+        final int countReadAllValuesAscendingFromBefore = countReadAllValuesAscendingFrom;
+        HistoricalCacheRefreshManager.refresh();
+        final FDate correctValue = cache.query().getValue(keyAfterNewEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+        Assertions.assertThat(cache.query().getPreviousValue(keyAfterNewEntity, 1))
+                .isEqualTo(entities.get(entities.size() - 2));
+        Assertions.assertThat(cache.query().withFuture().getNextValue(entities.get(entities.size() - 2), 1))
+                .isEqualTo(newEntity);
+        //only the appended values were loaded, the old ones are still cached
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(countReadAllValuesAscendingFromBefore + 1);
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(countReadAllValuesAscendingFromBefore + 1);
+    }
+
+    @Test
+    public void testNewEntityIncomingWithIncrementalRefreshAndHighestAllowedKey() {
+        incrementalRefresh = true;
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        final FDate highestAllowedKey = FDateBuilder.newDate(1996, 6, 1);
+        adjustKeyProvider.pushHighestAllowedKey(highestAllowedKey);
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        Assertions.assertThat(cache.query().getValue(highestAllowedKey)).isEqualTo(entities.get(entities.size() - 1));
+        //the new value lies before the highest allowed key, which did not change
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        entities.add(newEntity);
+        HistoricalCacheRefreshManager.refresh();
+        Assertions.assertThat(cache.query().getValue(highestAllowedKey)).isEqualTo(newEntity);
+        Assertions.assertThat(cache.query().getPreviousValue(highestAllowedKey, 1))
+                .isEqualTo(entities.get(entities.size() - 2));
+        //the old values are still cached
+        final int countReadAllValuesAscendingFromBefore = countReadAllValuesAscendingFrom;
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(countReadAllValuesAscendingFromBefore);
+    }
+
+    @Test
+    public void testIncrementalRefreshWithRemovedLastValue() {
+        incrementalRefresh = true;
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        final FDate removedEntity = entities.remove(entities.size() - 1);
+        HistoricalCacheRefreshManager.refresh();
+        Assertions.assertThat(cache.query().getValue(removedEntity)).isEqualTo(entities.get(entities.size() - 1));
+        Assertions.assertThat(cache.query().getPreviousValue(removedEntity, 1))
+                .isEqualTo(entities.get(entities.size() - 2));
+    }
+
     @Test
     public void testNewEntityIncomingPullingAdjustKeyProvider() {
         cache.setAdjustKeyProvider(new APullingHistoricalCacheAdjustKeyProvider(cache) {
@@ -720,6 +1083,107 @@ public class AGapHistoricalCacheTest {
         Assertions.assertThat(correctValue).isEqualTo(newEntity);
     }
 
+    @Test
+    public void testPushValues() {
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        adjustKeyProvider.pushHighestAllowedKey(entities.get(entities.size() - 1));
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        Assertions.assertThat(asList(cache.query().getPreviousValues(entities.get(entities.size() - 1), 3)))
+                .isEqualTo(entities.subList(entities.size() - 3, entities.size()));
+        final int countReadAllValuesAscendingFromBefore = countReadAllValuesAscendingFrom;
+        final int countReadNewestValueToBefore = countReadNewestValueTo;
+
+        final List<FDate> newEntities = new ArrayList<FDate>();
+        newEntities.add(FDateBuilder.newDate(1996, 1, 1));
+        newEntities.add(FDateBuilder.newDate(1997, 1, 1));
+        adjustKeyProvider.pushValues(cache, newEntities);
+        final FDate newEntity = FDateBuilder.newDate(1998, 1, 1);
+        adjustKeyProvider.pushValue(cache, newEntity);
+        Assertions.assertThat(adjustKeyProvider.getHighestAllowedKey()).isEqualTo(newEntity);
+        entities.addAll(newEntities);
+        entities.add(newEntity);
+
+        Assertions.assertThat(cache.query().getValue(newEntity.addDays(1))).isEqualTo(newEntity);
+        Assertions.assertThat(cache.query().getValue(newEntities.get(0))).isEqualTo(newEntities.get(0));
+        Assertions.assertThat(cache.query().getPreviousValue(newEntity, 1)).isEqualTo(newEntities.get(1));
+        Assertions.assertThat(asList(cache.query().getPreviousValues(newEntity, 5)))
+                .isEqualTo(entities.subList(entities.size() - 5, entities.size()));
+        Assertions.assertThat(cache.query().withFuture().getNextValue(entities.get(entities.size() - 4), 1))
+                .isEqualTo(newEntities.get(0));
+        //the pushed values did not have to be loaded from the db
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(countReadAllValuesAscendingFromBefore);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(countReadNewestValueToBefore);
+        //keys in between are resolved by the db which has the values aswell
+        Assertions.assertThat(cache.query().getValue(newEntities.get(0).addDays(1))).isEqualTo(newEntities.get(0));
+    }
+
+    @Test
+    public void testPushValuesAfterLaterKeyWasResolved() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        final FDate lastEntity = entities.get(entities.size() - 1);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        //resolved to the last value before the new one arrived
+        Assertions.assertThat(cache.query().getValue(newEntity.addDays(1))).isEqualTo(lastEntity);
+        entities.add(newEntity);
+        cache.pushValue(newEntity);
+
+        Assertions.assertThat(cache.query().getValue(newEntity.addDays(1))).isEqualTo(newEntity);
+        Assertions.assertThat(cache.query().getPreviousValue(newEntity.addDays(1), 1)).isEqualTo(lastEntity);
+        Assertions.assertThat(asList(cache.query().getPreviousValues(newEntity, 3)))
+                .isEqualTo(entities.subList(entities.size() - 3, entities.size()));
+        Assertions.assertThat(cache.query().withFuture().getNextValue(lastEntity, 1)).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testPushValuesRepeatedlyAfterLaterKeysWereResolved() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        //the first push scans the caches, the following ones only remove the remembered tail keys
+        for (int year = 1996; year <= 2000; year++) {
+            final FDate lastEntity = entities.get(entities.size() - 1);
+            final FDate newEntity = FDateBuilder.newDate(year, 1, 1);
+            Assertions.assertThat(cache.query().getValue(newEntity.addDays(1))).isEqualTo(lastEntity);
+            Assertions.assertThat(cache.query().getValue(newEntity.addDays(2))).isEqualTo(lastEntity);
+            entities.add(newEntity);
+            cache.pushValue(newEntity);
+
+            Assertions.assertThat(cache.query().getValue(newEntity.addDays(1))).isEqualTo(newEntity);
+            Assertions.assertThat(cache.query().getValue(newEntity.addDays(2))).isEqualTo(newEntity);
+            Assertions.assertThat(cache.query().getPreviousValue(newEntity.addDays(1), 1)).isEqualTo(lastEntity);
+            Assertions.assertThat(cache.query().withFuture().getNextValue(lastEntity, 1)).isEqualTo(newEntity);
+            Assertions.assertThat(asList(cache.query().getPreviousValues(newEntity.addDays(1), 3)))
+                    .isEqualTo(entities.subList(entities.size() - 3, entities.size()));
+        }
+    }
+
+    @Test
+    public void testPushValuesNotAscending() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity)).isEqualTo(entity);
+        }
+        final List<FDate> newEntities = new ArrayList<FDate>();
+        newEntities.add(FDateBuilder.newDate(1997, 1, 1));
+        newEntities.add(FDateBuilder.newDate(1996, 1, 1));
+        try {
+            cache.pushValues(newEntities);
+            Assertions.fail("exception expected");
+        } catch (final IllegalArgumentException e) {
+            Assertions.assertThat(e.getMessage()).contains("sorted ascending");
+        }
+    }
+
     @Test
     public void testNewEntityIncomingPushingAdjustKeyProviderWithoutInitialPush() {
         final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
@@ -1115,7 +1579,14 @@ public class AGapHistoricalCacheTest {
 
         @Override
         protected Iterable<FDate> readAllValuesAscendingFrom(final FDate key) {
-            countReadAllValuesAscendingFrom++;
+            if (Boolean.TRUE.equals(PREFETCH_THREAD.get())) {
+                countPrefetchReadAllValuesAscendingFrom.incrementAndGet();
+                if (failPrefetch) {
+                    throw new IllegalStateException("prefetch failure");
+                }
+            } else {
+                countReadAllValuesAscendingFrom++;
+            }
             if (returnMaxResults != null) {
                 Assertions.assertThat(returnAllInReadAllValuesAscendingFrom).isFalse();
                 Assertions.assertThat(returnNullInReadNewestValueTo).isFalse();
@@ -1143,6 +1614,63 @@ public class AGapHistoricalCacheTest {
             return super.getMaximumSize();
         }
 
+        @Override
+        protected boolean isBulkRangeLoading() {
+            return bulkRangeLoading;
+        }
+
+        @Override
+        protected boolean isPrefetching() {
+            return prefetching;
+        }
+
+        @Override
+        protected boolean isBatchLoading() {
+            return batchLoading;
+        }
+
+        @Override
+        protected boolean isAdaptiveSizing() {
+            return adaptiveSizing;
+        }
+
+        @Override
+        protected boolean isIncrementalRefresh() {
+            return incrementalRefresh;
+        }
+
+        @Override
+        protected boolean isParallelBatchLoading() {
+            return parallelBatchLoading;
+        }
+
+        @Override
+        protected int getPrefetchChunkSize() {
+            return prefetchChunkSize;
+        }
+
+        @Override
+        protected synchronized WrappedExecutorService getPrefetchExecutor() {
+            if (prefetchExecutor == null) {
+                prefetchExecutor = new CountingPrefetchExecutor();
+            }
+            return prefetchExecutor;
+        }
+
+        @Override
+        protected LoadingCacheMetrics newMetrics() {
+            return metrics;
+        }
+
+        @Override
+        protected HistoricalCachePersistentStore<FDate> newPersistentStore() {
+            if (persistentStoreDirectory == null) {
+                return null;
+            } else {
+                return new HistoricalCachePersistentStore<FDate>(persistentStoreDirectory);
+            }
+        }
+
         @Override
         protected FDate innerExtractKey(final FDate key, final FDate entity) {
             countInnerExtractKey++;
@@ -1182,4 +1710,29 @@ public class AGapHistoricalCacheTest {
         }
 
     }
+
+    private final class CountingPrefetchExecutor extends WrappedExecutorService {
+
+        private CountingPrefetchExecutor() {
+            super((ThreadPoolExecutor) java.util.concurrent.Executors.newCachedThreadPool(),
+                    AGapHistoricalCacheTest.class.getSimpleName() + "_prefetch");
+        }
+
+        @Override
+        public <T> Future<T> submit(final Callable<T> task) {
+            countPrefetchSubmissions.incrementAndGet();
+            return super.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    PREFETCH_THREAD.set(Boolean.TRUE);
+                    try {
+                        return task.call();
+                    } finally {
+                        PREFETCH_THREAD.remove();
+                    }
+                }
+            });
+        }
+
+    }
 }
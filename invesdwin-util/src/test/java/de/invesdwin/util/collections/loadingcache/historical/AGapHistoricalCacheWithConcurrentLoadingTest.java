@@ -0,0 +1,1338 @@
+// CHECKSTYLE:OFF
+package de.invesdwin.util.collections.loadingcache.historical;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.buffer.BufferingIterator;
+import de.invesdwin.util.collections.loadingcache.historical.key.APullingHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.collections.loadingcache.historical.key.APushingHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.collections.loadingcache.historical.key.IHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.collections.loadingcache.historical.refresh.HistoricalCacheRefreshManager;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.Futures;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@ThreadSafe
+public class AGapHistoricalCacheWithConcurrentLoadingTest {
+    //CHECKSTYLE:ON
+
+    //marker object
+    private final List<FDate> entities;
+
+    private int countReadAllValuesAscendingFrom;
+    private int countReadNewestValueTo;
+    private int countInnerExtractKey;
+    private int countAdjustKey;
+    private boolean returnNullInReadNewestValueTo;
+    private boolean returnAllInReadAllValuesAscendingFrom;
+    private Integer returnMaxResults;
+    private int concurrentLoadingSegments = 1;
+    private int countLoadsUnderCacheMonitor;
+    private volatile CountDownLatch readAllValuesAscendingFromRelease;
+    private final CountDownLatch readAllValuesAscendingFromBlocked = new CountDownLatch(1);
+    private final int testReturnMaxResultsValue = 2;
+    private final TestGapHistoricalCache cache = new TestGapHistoricalCache();
+
+    public AGapHistoricalCacheWithConcurrentLoadingTest() {
+        this.entities = new ArrayList<FDate>();
+        entities.add(FDateBuilder.newDate(1990, 1, 1));
+        entities.add(FDateBuilder.newDate(1991, 1, 1));
+        entities.add(FDateBuilder.newDate(1992, 1, 1));
+        entities.add(FDateBuilder.newDate(1993, 1, 1));
+        entities.add(FDateBuilder.newDate(1994, 1, 1));
+        entities.add(FDateBuilder.newDate(1995, 1, 1));
+    }
+
+    @Test
+    public void testInconsistentGapKey() {
+        FDate searchedKey = entities.get(0);
+        FDate value = cache.query().getValue(searchedKey);
+        Assertions.assertThat(value).isEqualTo(searchedKey);
+
+        searchedKey = entities.get(1);
+        value = cache.query().getValue(searchedKey.addDays(1));
+        Assertions.assertThat(value).isEqualTo(searchedKey);
+    }
+
+    @Test
+    public void testGaps() {
+        //once through the complete list
+        final List<FDate> liste = new ArrayList<FDate>();
+        for (final FDate entity : entities) {
+            final FDate cachedEntity = cache.query().getValue(entity);
+            liste.add(cachedEntity);
+            Assertions.assertThat(cachedEntity).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(liste).isEqualTo(entities);
+
+        //new maxKey without new db results
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(5))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //new minKey without new db limit
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().withFuture().getValue(entity.addYears(-5))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //again in the same limit
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //random order
+        for (final FDate entity : new HashSet<FDate>(entities)) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //simulate cache eviction
+        cache.clear();
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        cache.clear();
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(5);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(6);
+    }
+
+    @Test
+    public void testGapsWithReturnMaxResults() {
+        returnMaxResults = testReturnMaxResultsValue;
+
+        //once through the complete list
+        final List<FDate> liste = new ArrayList<FDate>();
+        for (final FDate entity : entities) {
+            final FDate cachedEntity = cache.query().getValue(entity);
+            liste.add(cachedEntity);
+            Assertions.assertThat(cachedEntity).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(liste).isEqualTo(entities);
+
+        //new maxKey without new db results
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(5))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(7);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //new minKey without new db limit
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().withFuture().getValue(entity.addYears(-5))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(7);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //again in the same limit
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(12);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //random order
+        for (final FDate entity : new HashSet<FDate>(entities)) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(12);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //simulate cache eviction
+        cache.clear();
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        cache.clear();
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addDays(2))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(22);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(6);
+    }
+
+    @Test
+    public void testOneResult() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addYears(5))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNoResultsUp() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().getValue(entity.addYears(100))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNoResultsDown() {
+        for (final FDate entity : entities) {
+            Assertions.assertThat(cache.query().withFuture().getValue(entity.addYears(-100))).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    /**
+     * for reverse sorting this is less efficient, this costs O(n) for queries.
+     */
+    @Test
+    public void testInverseOrder() {
+        final List<FDate> ents = new ArrayList<FDate>(entities);
+        Collections.reverse(ents);
+        for (final FDate entity : ents) {
+            Assertions.assertThat(cache.query().getValue(entity)).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testInverseOrderWithReturnMaxResults() {
+        returnMaxResults = testReturnMaxResultsValue;
+
+        final List<FDate> ents = new ArrayList<FDate>(entities);
+        Collections.reverse(ents);
+        for (final FDate entity : ents) {
+            Assertions.assertThat(cache.query().getValue(entity)).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousKey() {
+        FDate previousKey = cache.query().getPreviousKey(new FDate(), entities.size());
+        Assertions.assertThat(previousKey).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+
+        previousKey = cache.query().getPreviousKey(new FDate(), 1);
+        Assertions.assertThat(previousKey).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextKey() {
+        FDate previousKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, entities.size());
+        Assertions.assertThat(previousKey).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        previousKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, 1);
+        Assertions.assertThat(previousKey).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValueWithDistance() {
+        FDate previousValue = cache.query().getPreviousValue(new FDate(), entities.size());
+        Assertions.assertThat(previousValue).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+
+        previousValue = cache.query().getPreviousValue(new FDate(), 1);
+        Assertions.assertThat(previousValue).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextValueWithDistance() {
+        FDate previousValue = cache.query().withFuture().getNextValue(FDate.MIN_DATE, entities.size());
+        Assertions.assertThat(previousValue).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        previousValue = cache.query().withFuture().getNextValue(FDate.MIN_DATE, 1);
+        Assertions.assertThat(previousValue).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValueWithoutDistance() {
+        FDate previousValue = cache.query()
+
+                .getPreviousValue(entities.get(entities.size() - 1), entities.size());
+        Assertions.assertThat(previousValue).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+
+        previousValue = cache.query().getPreviousValue(entities.get(entities.size() - 1), 1);
+        Assertions.assertThat(previousValue).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextValueWithoutDistance() {
+        FDate nextValue = cache.query().withFuture().getNextValue(entities.get(0), entities.size());
+        Assertions.assertThat(nextValue).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        nextValue = cache.query().withFuture().getNextValue(entities.get(0), 1);
+        Assertions.assertThat(nextValue).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousKeys() {
+        final Collection<FDate> previousKeys = asList(cache.query().getPreviousKeys(new FDate(), entities.size()));
+        Assertions.assertThat(previousKeys).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextKeys() {
+        final Collection<FDate> nextKeys = asList(
+                cache.query().withFuture().getNextKeys(FDate.MIN_DATE, entities.size()));
+        Assertions.assertThat(nextKeys).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testConcurrentQueriesOnDifferentSegments() throws InterruptedException {
+        concurrentLoadingSegments = AGapHistoricalCache.DEFAULT_CONCURRENT_LOADING_SEGMENTS;
+        final TestGapHistoricalCache segmentedCache = new TestGapHistoricalCache();
+        final WrappedExecutorService executor = Executors
+                .newFixedThreadPool("testConcurrentQueriesOnDifferentSegments", 4);
+        try {
+            final List<Runnable> tasks = new ArrayList<Runnable>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < entities.size(); i++) {
+                            final FDate entity = entities.get((i + offset) % entities.size());
+                            Assertions.assertThat(segmentedCache.query().getValue(entity)).isEqualTo(entity);
+                            Assertions.assertThat(segmentedCache.query().getValue(entity.addDays(1)))
+                                    .isEqualTo(entity);
+                        }
+                    }
+                });
+            }
+            Futures.submitAndWait(executor, tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+        final Collection<FDate> previousValues = asList(
+                segmentedCache.query().getPreviousValues(entities.get(entities.size() - 1), entities.size()));
+        Assertions.assertThat(previousValues).isEqualTo(entities);
+    }
+
+    @Test
+    public void testPushValuesDoesNotLoadUnderCacheMonitor() {
+        concurrentLoadingSegments = AGapHistoricalCache.DEFAULT_CONCURRENT_LOADING_SEGMENTS;
+        final TestGapHistoricalCache segmentedCache = new TestGapHistoricalCache();
+        final FDate lastEntity = entities.get(entities.size() - 1);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        entities.add(newEntity);
+        //the previous value needs to be loaded, which takes the segment lock before the cache monitor
+        segmentedCache.pushValue(newEntity);
+        Assertions.assertThat(countReadAllValuesAscendingFrom + countReadNewestValueTo).isGreaterThan(0);
+        Assertions.assertThat(countLoadsUnderCacheMonitor).isEqualTo(0);
+        Assertions.assertThat(segmentedCache.query().getPreviousValue(newEntity, 1)).isEqualTo(lastEntity);
+    }
+
+    @Test
+    public void testClearDuringConcurrentLoad() throws Exception {
+        returnAllInReadAllValuesAscendingFrom = true;
+        concurrentLoadingSegments = AGapHistoricalCache.DEFAULT_CONCURRENT_LOADING_SEGMENTS;
+        final TestGapHistoricalCache segmentedCache = new TestGapHistoricalCache();
+        final FDate queriedEntity = entities.get(4);
+        final FDate correctedEntity = entities.get(3);
+        final WrappedExecutorService executor = Executors.newFixedThreadPool("testClearDuringConcurrentLoad", 1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            readAllValuesAscendingFromRelease = release;
+            final Future<FDate> load = executor.submit(new Callable<FDate>() {
+                @Override
+                public FDate call() throws Exception {
+                    return segmentedCache.query().getValue(queriedEntity.addDays(1));
+                }
+            });
+            //the reader has loaded the old values but did not put them into the cache yet
+            Assertions.assertThat(readAllValuesAscendingFromBlocked.await(1, TimeUnit.MINUTES)).isTrue();
+            entities.set(3, correctedEntity.addMonths(6));
+            segmentedCache.clear();
+            release.countDown();
+            Assertions.assertThat(load.get()).isEqualTo(queriedEntity);
+        } finally {
+            executor.shutdownNow();
+        }
+        //the old values must not have been written back after the clear
+        Assertions.assertThat(segmentedCache.query().getValue(correctedEntity)).isEqualTo(entities.get(2));
+        Assertions.assertThat(segmentedCache.query().getPreviousValue(queriedEntity, 1))
+                .isEqualTo(correctedEntity.addMonths(6));
+    }
+
+    @Test
+    public void testRefreshDuringConcurrentQueries() throws InterruptedException {
+        concurrentLoadingSegments = AGapHistoricalCache.DEFAULT_CONCURRENT_LOADING_SEGMENTS;
+        final TestGapHistoricalCache segmentedCache = new TestGapHistoricalCache();
+        final WrappedExecutorService executor = Executors
+                .newFixedThreadPool("testRefreshDuringConcurrentQueries", 4);
+        try {
+            final List<Runnable> tasks = new ArrayList<Runnable>();
+            for (int t = 0; t < 8; t++) {
+                final int offset = t;
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < entities.size() * 10; i++) {
+                            final FDate entity = entities.get((i + offset) % entities.size());
+                            if (i % entities.size() == 0) {
+                                if (offset % 2 == 0) {
+                                    segmentedCache.clear();
+                                } else {
+                                    segmentedCache.refresh();
+                                }
+                            }
+                            Assertions.assertThat(segmentedCache.query().getValue(entity.addDays(1)))
+                                    .isEqualTo(entity);
+                        }
+                    }
+                });
+            }
+            Futures.submitAndWait(executor, tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+        final Collection<FDate> previousValues = asList(
+                segmentedCache.query().getPreviousValues(entities.get(entities.size() - 1), entities.size()));
+        Assertions.assertThat(previousValues).isEqualTo(entities);
+    }
+
+    private <T> List<T> asList(final Iterable<T> iterable) {
+        final List<T> list = new ArrayList<T>();
+        Iterables.addAll(list, iterable);
+        return list;
+    }
+
+    @Test
+    public void testKeys() {
+        final Iterable<FDate> iterable = cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE);
+        final List<FDate> previousKeys = new ArrayList<FDate>();
+        for (final FDate d : iterable) {
+            previousKeys.add(d);
+        }
+        Assertions.assertThat(previousKeys).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testKeysWithReturnMaxResults() {
+        returnMaxResults = testReturnMaxResultsValue;
+
+        final Iterable<FDate> iterable = cache.query().getKeys(FDate.MIN_DATE, FDate.MAX_DATE);
+        final List<FDate> previousKeys = new ArrayList<FDate>();
+        for (final FDate d : iterable) {
+            previousKeys.add(d);
+        }
+        Assertions.assertThat(previousKeys).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValuesWithDistance() {
+        final Collection<FDate> previousValues = asList(cache.query().getPreviousValues(new FDate(), entities.size()));
+        Assertions.assertThat(previousValues).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextValuesWithDistance() {
+        final Collection<FDate> nextValues = asList(
+                cache.query().withFuture().getNextValues(FDate.MIN_DATE, entities.size()));
+        Assertions.assertThat(nextValues).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValuesWithoutDistance() {
+        final Collection<FDate> previousValues = asList(
+                cache.query().getPreviousValues(entities.get(entities.size() - 1), entities.size()));
+        Assertions.assertThat(previousValues).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextValuesWithoutDistance() {
+        final Collection<FDate> nextValues = asList(
+                cache.query().withFuture().getNextValues(entities.get(0), entities.size()));
+        Assertions.assertThat(nextValues).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValuesGetsFilledDownWithDistance() {
+        final Collection<FDate> previousValues = asList(cache.query()
+                .withFilterDuplicateKeys(false)
+                .withFuture()
+                .getPreviousValues(FDate.MIN_DATE, entities.size()));
+        Assertions.assertThat(previousValues.size()).isEqualTo(entities.size());
+        for (final FDate d : previousValues) {
+            Assertions.assertThat(d).isSameAs(entities.get(0));
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNextValuesGetsFilledUpWithDistance() {
+        final Collection<FDate> nextValues = asList(cache.query()
+                .withFilterDuplicateKeys(false)
+                .withFuture()
+                .getNextValues(FDate.MAX_DATE, entities.size()));
+        Assertions.assertThat(nextValues.size()).isEqualTo(entities.size());
+        for (final FDate d : nextValues) {
+            Assertions.assertThat(d).isSameAs(entities.get(entities.size() - 1));
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValuesGetsFilledDownWithoutDistance() {
+        final Collection<FDate> previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(0), entities.size()));
+        Assertions.assertThat(previousValues.size()).isEqualTo(entities.size());
+        for (final FDate d : previousValues) {
+            Assertions.assertThat(d).isSameAs(entities.get(0));
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNextValuesGetsFilledUpWithoutDistance() {
+        final Collection<FDate> nextValues = asList(
+                cache.query().withFuture().withFilterDuplicateKeys(false).getNextValues(
+                        entities.get(entities.size() - 1), entities.size()));
+        Assertions.assertThat(nextValues.size()).isEqualTo(entities.size());
+        for (final FDate d : nextValues) {
+            Assertions.assertThat(d).isSameAs(entities.get(entities.size() - 1));
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNoData() {
+        final List<FDate> liste = new ArrayList<FDate>(entities);
+        entities.clear();
+        for (final FDate entity : liste) {
+            final FDate cachedEntity = cache.query().getValue(entity);
+            Assertions.assertThat(cachedEntity).isNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(6);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(18);
+
+        //new minKey limit gets tested
+        final Collection<FDate> values = asList(cache.query().getPreviousValues(FDate.MIN_DATE, 5));
+        Assertions.assertThat(values).isEmpty();
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(7);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(21);
+    }
+
+    @Test
+    public void testNoDataInReadAllValuesAscendingFrom() {
+        returnNullInReadNewestValueTo = true;
+        for (final FDate entity : entities) {
+            final FDate cachedEntity = cache.query().getValue(entity);
+            Assertions.assertThat(cachedEntity).isNotNull();
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        //new minKey limit gets tested
+        final Collection<FDate> values = asList(cache.query().withFuture().getPreviousValues(FDate.MIN_DATE, 5));
+        for (final FDate d : values) {
+            Assertions.assertThat(d).isEqualTo(entities.get(0));
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousKeyWithAllValues() {
+        returnAllInReadAllValuesAscendingFrom = true;
+
+        FDate previousKey = cache.query().getPreviousKey(new FDate(), entities.size());
+        Assertions.assertThat(previousKey).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        previousKey = cache.query().getPreviousKey(new FDate(), 1);
+        Assertions.assertThat(previousKey).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNextKeyWithAllValues() {
+        returnAllInReadAllValuesAscendingFrom = true;
+
+        FDate nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, entities.size());
+        Assertions.assertThat(nextKey).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, 1);
+        Assertions.assertThat(nextKey).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousKeyWithReturnMaxResults() {
+        returnMaxResults = testReturnMaxResultsValue;
+
+        FDate previousKey = cache.query().getPreviousKey(new FDate(), entities.size());
+        Assertions.assertThat(previousKey).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+
+        previousKey = cache.query().getPreviousKey(new FDate(), 1);
+        Assertions.assertThat(previousKey).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextKeyWithReturnMaxResults() {
+        returnMaxResults = testReturnMaxResultsValue;
+
+        FDate nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, entities.size());
+        Assertions.assertThat(nextKey).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, 1);
+        Assertions.assertThat(nextKey).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousKeyWithAllValuesAndNullInReadNewestValueTo() {
+        returnAllInReadAllValuesAscendingFrom = true;
+        returnNullInReadNewestValueTo = true;
+
+        FDate previousKey = cache.query().getPreviousKey(new FDate(), entities.size());
+        Assertions.assertThat(previousKey).isSameAs(entities.get(0));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+
+        previousKey = cache.query().getPreviousKey(new FDate(), 1);
+        Assertions.assertThat(previousKey).isSameAs(entities.get(entities.size() - 2));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testNextKeyWithAllValuesAndNullInReadNewestValueTo() {
+        returnAllInReadAllValuesAscendingFrom = true;
+        returnNullInReadNewestValueTo = true;
+
+        FDate nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, entities.size());
+        Assertions.assertThat(nextKey).isSameAs(entities.get(entities.size() - 1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        //loading newest entity is faster than always loading all entities
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+
+        nextKey = cache.query().withFuture().getNextKey(FDate.MIN_DATE, 1);
+        Assertions.assertThat(nextKey).isSameAs(entities.get(1));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testPreviousKeysFilterDuplicateKeys() {
+        Assertions
+                .assertThat(
+                        asList(cache.query().withFilterDuplicateKeys(false).getPreviousKeys(new FDate(), 100)).size())
+                .isSameAs(100);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(asList(cache.query().getPreviousKeys(new FDate(), 100)).size())
+                .isEqualTo(entities.size());
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextKeysFilterDuplicateKeys() {
+        Assertions.assertThat(
+                asList(cache.query().withFilterDuplicateKeys(false).withFuture().getNextKeys(FDate.MIN_DATE, 100))
+                        .size())
+                .isSameAs(100);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(asList(cache.query().withFuture().getNextKeys(FDate.MIN_DATE, 100)).size())
+                .isEqualTo(entities.size());
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValuesFilterDuplicateKeys() {
+        Assertions
+                .assertThat(
+                        asList(cache.query().withFilterDuplicateKeys(false).getPreviousValues(new FDate(), 100)).size())
+                .isSameAs(100);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(asList(cache.query().getPreviousValues(new FDate(), 100)).size())
+                .isEqualTo(entities.size());
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+    }
+
+    @Test
+    public void testNextValuesFilterDuplicateKeys() {
+        Assertions.assertThat(
+                asList(cache.query().withFilterDuplicateKeys(false).withFuture().getNextValues(FDate.MIN_DATE, 100))
+                        .size())
+                .isSameAs(100);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(asList(cache.query().withFuture().getNextValues(FDate.MIN_DATE, 100)).size())
+                .isEqualTo(entities.size());
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+    }
+
+    @Test
+    public void testPreviousValueKeyBetween() {
+        for (final FDate entity : entities) {
+            final FDate foundKey = cache.query().getPreviousValueKeyBetween(FDate.MIN_DATE, FDate.MAX_DATE, entity);
+            Assertions.assertThat(foundKey).isEqualTo(entity);
+        }
+    }
+
+    @Test
+    public void testNewEntityIncomingAfterClear() {
+        final List<FDate> newEntities = new ArrayList<FDate>(entities);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        newEntities.add(newEntity);
+        for (final FDate entity : newEntities) {
+            final FDate value = cache.query().getValue(entity);
+            if (newEntity.equals(entity)) {
+                Assertions.assertThat(value).isNotEqualTo(newEntity);
+                Assertions.assertThat(value).isEqualTo(entities.get(entities.size() - 1));
+            } else {
+                Assertions.assertThat(value).isEqualTo(entity);
+            }
+        }
+        entities.add(newEntity);
+        final FDate wrongValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(wrongValue).isEqualTo(entities.get(entities.size() - 2));
+        HistoricalCacheRefreshManager.refresh();
+        final FDate correctValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testNewEntityIncomingPullingAdjustKeyProvider() {
+        cache.setAdjustKeyProvider(new APullingHistoricalCacheAdjustKeyProvider(cache) {
+            @Override
+            protected FDate innerGetHighestAllowedKey() {
+                return entities.get(entities.size() - 1);
+            }
+        });
+        final List<FDate> newEntities = new ArrayList<FDate>(entities);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        newEntities.add(newEntity);
+        for (final FDate entity : newEntities) {
+            final FDate value = cache.query().getValue(entity);
+            if (newEntity.equals(entity)) {
+                Assertions.assertThat(value).isNotEqualTo(newEntity);
+                Assertions.assertThat(value).isEqualTo(entities.get(entities.size() - 1));
+            } else {
+                Assertions.assertThat(value).isEqualTo(entity);
+            }
+        }
+        entities.add(newEntity);
+        final FDate correctValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testNewEntityIncomingPushingAdjustKeyProvider() {
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        adjustKeyProvider.pushHighestAllowedKey(entities.get(entities.size() - 1));
+        final List<FDate> newEntities = new ArrayList<FDate>(entities);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        newEntities.add(newEntity);
+        for (final FDate entity : newEntities) {
+            final FDate value = cache.query().getValue(entity);
+            if (newEntity.equals(entity)) {
+                Assertions.assertThat(value).isNotEqualTo(newEntity);
+                Assertions.assertThat(value).isEqualTo(entities.get(entities.size() - 1));
+            } else {
+                Assertions.assertThat(value).isEqualTo(entity);
+            }
+        }
+        adjustKeyProvider.pushHighestAllowedKey(newEntity);
+        entities.add(newEntity);
+        final FDate correctValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testNewEntityIncomingPushingAdjustKeyProviderWithoutInitialPush() {
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        final List<FDate> newEntities = new ArrayList<FDate>(entities);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        newEntities.add(newEntity);
+        for (final FDate entity : newEntities) {
+            final FDate value = cache.query().getValue(entity);
+            if (newEntity.equals(entity)) {
+                Assertions.assertThat(value).isNotEqualTo(newEntity);
+                Assertions.assertThat(value).isEqualTo(entities.get(entities.size() - 1));
+            } else {
+                Assertions.assertThat(value).isEqualTo(entity);
+            }
+        }
+        adjustKeyProvider.pushHighestAllowedKey(newEntity);
+        entities.add(newEntity);
+        final FDate correctValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testNewEntityIncomingPushingAdjustKeyProviderWithoutPush() {
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return entities.get(entities.size() - 1);
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        final List<FDate> newEntities = new ArrayList<FDate>(entities);
+        final FDate newEntity = FDateBuilder.newDate(1996, 1, 1);
+        newEntities.add(newEntity);
+        for (final FDate entity : newEntities) {
+            final FDate value = cache.query().getValue(entity);
+            if (newEntity.equals(entity)) {
+                Assertions.assertThat(value).isNotEqualTo(newEntity);
+                Assertions.assertThat(value).isEqualTo(entities.get(entities.size() - 1));
+            } else {
+                Assertions.assertThat(value).isEqualTo(entity);
+            }
+        }
+        adjustKeyProvider.pushHighestAllowedKey(newEntity);
+        entities.add(newEntity);
+        final FDate correctValue = cache.query().getValue(newEntity);
+        Assertions.assertThat(correctValue).isEqualTo(newEntity);
+    }
+
+    @Test
+    public void testNotCorrectTime() {
+        for (final FDate entity : entities.subList(1, entities.size() - 1)) {
+            final FDate valueBefore = cache.query().getValue(entity.addHours(-3));
+            Assertions.assertThat(valueBefore).isEqualTo(entity.addYears(-1));
+            final FDate value = cache.query().getValue(entity);
+            Assertions.assertThat(value).isEqualTo(entity);
+            final FDate valueAfter = cache.query().getValue(entity.addHours(2));
+            Assertions.assertThat(valueAfter).isEqualTo(entity);
+        }
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithAlwaysSameKey() {
+        for (int size = 1; size < entities.size(); size++) {
+            final Collection<FDate> previousValues = asList(cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValues(entities.get(entities.size() - 1), size));
+            final List<FDate> expectedValues = entities.subList(entities.size() - size, entities.size());
+            Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(34);
+        Assertions.assertThat(countAdjustKey).isEqualTo(15);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithIncrementingAlwaysOneValue() {
+        for (int index = 0; index < entities.size(); index++) {
+            final Collection<FDate> previousValues = asList(
+                    cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(index), 1));
+            final List<FDate> expectedValues = entities.subList(index, index + 1);
+            Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(37);
+        Assertions.assertThat(countAdjustKey).isEqualTo(7);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithIncrementingKey() {
+        for (int index = 0; index < entities.size(); index++) {
+            final Collection<FDate> previousValues = asList(
+                    cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(index), index + 1));
+            final List<FDate> expectedValues = entities.subList(0, index + 1);
+            Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(70);
+        Assertions.assertThat(countAdjustKey).isEqualTo(22);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithDecrementingKey() {
+        for (int index = entities.size() - 1; index >= 0; index--) {
+            final Collection<FDate> previousValues = asList(
+                    cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(index), index + 1));
+            final List<FDate> expectedValues = entities.subList(0, index + 1);
+            Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(37);
+        Assertions.assertThat(countAdjustKey).isEqualTo(18);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithDecrementingKeyAlwaysOne() {
+        for (int index = entities.size() - 1; index >= 0; index--) {
+            final Collection<FDate> previousValues = asList(
+                    cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(index), 1));
+            final List<FDate> expectedValues = entities.subList(index, index + 1);
+            Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(32);
+        Assertions.assertThat(countAdjustKey).isEqualTo(7);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithJumpingAround() {
+        //first
+        Collection<FDate> previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(0), 1));
+        List<FDate> expectedValues = entities.subList(0, 1);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(8);
+        Assertions.assertThat(countAdjustKey).isEqualTo(2);
+
+        //last
+        previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(entities.size() - 1), 1));
+        expectedValues = entities.subList(entities.size() - 1, entities.size());
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(11);
+        Assertions.assertThat(countAdjustKey).isEqualTo(3);
+
+        //first +1
+        previousValues = asList(cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(1), 1));
+        expectedValues = entities.subList(1, 2);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(17);
+        Assertions.assertThat(countAdjustKey).isEqualTo(4);
+
+        //last -1
+        previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(entities.size() - 2), 1));
+        expectedValues = entities.subList(entities.size() - 2, entities.size() - 1);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(25);
+        Assertions.assertThat(countAdjustKey).isEqualTo(5);
+    }
+
+    @Test
+    public void testPreviousValuesWithQueryCacheWithJumpingAroundTwoValues() {
+        //first
+        Collection<FDate> previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(1), 2));
+        List<FDate> expectedValues = entities.subList(0, 2);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(17);
+        Assertions.assertThat(countAdjustKey).isEqualTo(4);
+
+        //last
+        previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(entities.size() - 1), 2));
+        expectedValues = entities.subList(entities.size() - 2, entities.size());
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(30);
+        Assertions.assertThat(countAdjustKey).isEqualTo(8);
+
+        //first +1
+        previousValues = asList(cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(2), 2));
+        expectedValues = entities.subList(1, 3);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(36);
+        Assertions.assertThat(countAdjustKey).isEqualTo(12);
+
+        //last -1
+        previousValues = asList(
+                cache.query().withFilterDuplicateKeys(false).getPreviousValues(entities.get(entities.size() - 2), 2));
+        expectedValues = entities.subList(entities.size() - 3, entities.size() - 1);
+        Assertions.assertThat(previousValues).isEqualTo(expectedValues);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(42);
+        Assertions.assertThat(countAdjustKey).isEqualTo(16);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithAlwaysSameKey() {
+        for (int size = 1; size < entities.size(); size++) {
+            final FDate previousValue = cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValue(entities.get(entities.size() - 1), size);
+            final FDate expectedValue = entities.get(entities.size() - size - 1);
+            Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(34);
+        Assertions.assertThat(countAdjustKey).isEqualTo(17);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithIncrementingKey() {
+        for (int index = 0; index < entities.size(); index++) {
+            final FDate previousValue = cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValue(entities.get(index), index + 1);
+            final FDate expectedValue = entities.get(0);
+            Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(74);
+        Assertions.assertThat(countAdjustKey).isEqualTo(26);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithIncrementingAlwaysOneValue() {
+        for (int index = 1; index < entities.size(); index++) {
+            final FDate previousValue = cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValue(entities.get(index), 1);
+            final FDate expectedValue = entities.get(index - 1);
+            Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(66);
+        Assertions.assertThat(countAdjustKey).isEqualTo(20);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithDecrementingKey() {
+        for (int index = entities.size() - 1; index >= 0; index--) {
+            final FDate previousValue = cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValue(entities.get(index), index + 1);
+            final FDate expectedValue = entities.get(0);
+            Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(38);
+        Assertions.assertThat(countAdjustKey).isEqualTo(21);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithDecrementingKeyAlwaysOne() {
+        for (int index = entities.size() - 1; index > 0; index--) {
+            final FDate previousValue = cache.query()
+                    .withFilterDuplicateKeys(false)
+                    .getPreviousValue(entities.get(index), 1);
+            final FDate expectedValue = entities.get(index - 1);
+            Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        }
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(40);
+        Assertions.assertThat(countAdjustKey).isEqualTo(19);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithJumpingAround() {
+        //first
+        FDate previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(0), 1);
+        FDate expectedValue = entities.get(0);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(12);
+        Assertions.assertThat(countAdjustKey).isEqualTo(6);
+
+        //last
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(entities.size() - 1),
+                1);
+        expectedValue = entities.get(entities.size() - 2);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(3);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(22);
+        Assertions.assertThat(countAdjustKey).isEqualTo(10);
+
+        //first +1
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(1), 1);
+        expectedValue = entities.get(0);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(4);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(37);
+        Assertions.assertThat(countAdjustKey).isEqualTo(14);
+
+        //last -1
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(entities.size() - 2),
+                1);
+        expectedValue = entities.get(entities.size() - 3);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(4);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(48);
+        Assertions.assertThat(countAdjustKey).isEqualTo(18);
+    }
+
+    @Test
+    public void testPreviousValueWithQueryCacheWithJumpingAroundTwoValues() {
+        //first
+        FDate previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(1), 2);
+        FDate expectedValue = entities.get(0);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(21);
+        Assertions.assertThat(countAdjustKey).isEqualTo(7);
+
+        //last
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(entities.size() - 1),
+                2);
+        expectedValue = entities.get(entities.size() - 3);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(37);
+        Assertions.assertThat(countAdjustKey).isEqualTo(13);
+
+        //first +1
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(2), 2);
+        expectedValue = entities.get(0);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(46);
+        Assertions.assertThat(countAdjustKey).isEqualTo(19);
+
+        //last -1
+        previousValue = cache.query().withFilterDuplicateKeys(false).getPreviousValue(entities.get(entities.size() - 2),
+                2);
+        expectedValue = entities.get(entities.size() - 4);
+        Assertions.assertThat(previousValue).isEqualTo(expectedValue);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(countReadNewestValueTo).isEqualTo(2);
+        Assertions.assertThat(countInnerExtractKey).isEqualTo(55);
+        Assertions.assertThat(countAdjustKey).isEqualTo(25);
+    }
+
+    private class TestGapHistoricalCache extends AGapHistoricalCache<FDate> {
+
+        @Override
+        protected FDate adjustKey(final FDate key) {
+            countAdjustKey++;
+            return super.adjustKey(key);
+        }
+
+        @Override
+        public void setAdjustKeyProvider(final IHistoricalCacheAdjustKeyProvider adjustKeyProvider) {
+            super.setAdjustKeyProvider(adjustKeyProvider);
+        }
+
+        @Override
+        protected Iterable<FDate> readAllValuesAscendingFrom(final FDate key) {
+            countReadAllValuesAscendingFrom++;
+            if (Thread.holdsLock(this)) {
+                countLoadsUnderCacheMonitor++;
+            }
+            if (returnMaxResults != null) {
+                Assertions.assertThat(returnAllInReadAllValuesAscendingFrom).isFalse();
+                Assertions.assertThat(returnNullInReadNewestValueTo).isFalse();
+            }
+            List<FDate> result;
+            if (returnAllInReadAllValuesAscendingFrom && returnMaxResults == null) {
+                result = new ArrayList<FDate>(entities);
+            } else {
+                final List<FDate> list = new ArrayList<FDate>();
+                for (final FDate d : entities) {
+                    if (!d.isBefore(key)) {
+                        list.add(d);
+                    }
+                }
+                result = list;
+            }
+            if (returnMaxResults != null && !result.isEmpty()) {
+                result = result.subList(0, Math.min(result.size(), returnMaxResults));
+            }
+            final CountDownLatch release = readAllValuesAscendingFromRelease;
+            if (release != null) {
+                readAllValuesAscendingFromRelease = null;
+                readAllValuesAscendingFromBlocked.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return new BufferingIterator<FDate>(result.iterator());
+        }
+
+        @Override
+        protected boolean isConcurrentLoading() {
+            return true;
+        }
+
+        @Override
+        protected int getConcurrentLoadingSegments() {
+            return concurrentLoadingSegments;
+        }
+
+        @Override
+        public Integer getMaximumSize() {
+            return null;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate entity) {
+            countInnerExtractKey++;
+            return entity;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            countReadNewestValueTo++;
+            if (Thread.holdsLock(this)) {
+                countLoadsUnderCacheMonitor++;
+            }
+            if (returnNullInReadNewestValueTo) {
+                return null;
+            } else {
+                FDate previousE = null;
+                for (final FDate e : entities) {
+                    if (previousE == null) {
+                        previousE = e;
+                    } else {
+                        if (key.isAfter(e)) {
+                            previousE = e;
+                        } else {
+                            break;
+                        }
+                    }
+                }
+                return previousE;
+            }
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addDays(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            return key.addYears(1);
+        }
+
+    }
+}
@@ -0,0 +1,179 @@
+package de.invesdwin.util.collections.loadingcache.historical.aggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.loadingcache.historical.AGapHistoricalCache;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+@NotThreadSafe
+public class AAggregatingHistoricalCacheTest {
+
+    private final TickCache ticks = new TickCache();
+    private final BarCache bars = new BarCache();
+
+    @Test
+    public void testBuckets() {
+        Assertions.assertThat(bars.getBucketStart(time(10, 17))).isEqualTo(time(10, 15));
+        Assertions.assertThat(bars.getBucketEnd(time(10, 15))).isEqualTo(time(10, 20));
+
+        final Bar bar = bars.query().getValue(time(10, 17));
+        Assertions.assertThat(bar.end).isEqualTo(time(10, 15));
+        Assertions.assertThat(bar.first).isEqualTo(time(10, 10));
+        Assertions.assertThat(bar.last).isEqualTo(time(10, 14));
+        Assertions.assertThat(bar.count).isEqualTo(5);
+        //the partial bucket is not visible
+        Assertions.assertThat(bars.query().getValue(time(10, 7)).end).isEqualTo(time(10, 5));
+        Assertions.assertThat(bars.query().getValue(time(10, 3))).isNull();
+        Assertions.assertThat(bars.query().getValue(time(11, 30)).end).isEqualTo(time(11, 0));
+    }
+
+    @Test
+    public void testSkipsGaps() {
+        Assertions.assertThat(ends(bars.query().getPreviousValues(time(12, 10), 4))).containsExactly(time(10, 55),
+                time(11, 0), time(12, 5), time(12, 10));
+        Assertions.assertThat(ends(bars.query().getValues(time(10, 50), time(12, 10)))).containsExactly(time(10, 50),
+                time(10, 55), time(11, 0), time(12, 5), time(12, 10));
+        final int reads = ticks.reads;
+        Assertions.assertThat(ends(bars.query().getPreviousValues(time(12, 10), 4))).hasSize(4);
+        Assertions.assertThat(ticks.reads).isEqualTo(reads);
+    }
+
+    @Test
+    public void testPushSourceValues() {
+        Assertions.assertThat(bars.query().getValue(time(12, 37)).end).isEqualTo(time(12, 30));
+        final List<FDate> newTicks = new ArrayList<FDate>();
+        for (int minute = 30; minute < 37; minute++) {
+            newTicks.add(time(12, minute));
+        }
+        ticks.pushValues(newTicks);
+        bars.pushSourceValues(newTicks);
+        Assertions.assertThat(bars.getOpenAggregate().end).isEqualTo(time(12, 40));
+        Assertions.assertThat(bars.getOpenAggregate().count).isEqualTo(2);
+
+        final Bar pushed = bars.query().getValue(time(12, 37));
+        Assertions.assertThat(pushed.end).isEqualTo(time(12, 35));
+        Assertions.assertThat(pushed.count).isEqualTo(5);
+        Assertions.assertThat(bars.query().getPreviousValue(time(12, 37), 1).end).isEqualTo(time(12, 30));
+    }
+
+    private static FDate time(final int hour, final int minute) {
+        return FDateBuilder.newDate(2000, 1, 1, hour, minute);
+    }
+
+    private static List<FDate> ends(final ICloseableIterable<Bar> values) {
+        final List<FDate> ends = new ArrayList<FDate>();
+        for (final Bar bar : values) {
+            ends.add(bar.end);
+        }
+        return ends;
+    }
+
+    @Immutable
+    private static final class Bar {
+
+        private final FDate end;
+        private final FDate first;
+        private final FDate last;
+        private final int count;
+
+        private Bar(final FDate end, final FDate first, final FDate last, final int count) {
+            this.end = end;
+            this.first = first;
+            this.last = last;
+            this.count = count;
+        }
+
+    }
+
+    private final class BarCache extends AAggregatingHistoricalCache<FDate, Bar> {
+
+        private BarCache() {
+            super(ticks, new Duration(5, FTimeUnit.MINUTES));
+        }
+
+        @Override
+        protected Bar aggregate(final FDate bucketEnd, final Bar aggregate, final FDate value) {
+            if (aggregate == null) {
+                return new Bar(bucketEnd, value, value, 1);
+            } else {
+                return new Bar(bucketEnd, aggregate.first, value, aggregate.count + 1);
+            }
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final Bar value) {
+            return value.end;
+        }
+
+    }
+
+    private static final class TickCache extends AGapHistoricalCache<FDate> {
+
+        private final List<FDate> entities = new ArrayList<FDate>();
+        private int reads;
+
+        private TickCache() {
+            for (int minute = 0; minute < 60; minute++) {
+                entities.add(time(10, minute));
+            }
+            //gap of one hour
+            for (int minute = 0; minute < 30; minute++) {
+                entities.add(time(12, minute));
+            }
+        }
+
+        @Override
+        protected Iterable<? extends FDate> readAllValuesAscendingFrom(final FDate key) {
+            reads++;
+            final List<FDate> values = new ArrayList<FDate>();
+            for (final FDate entity : entities) {
+                if (!entity.isBefore(key)) {
+                    values.add(entity);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            reads++;
+            FDate latest = null;
+            for (final FDate entity : entities) {
+                if (latest == null || key.isAfter(entity)) {
+                    latest = entity;
+                } else {
+                    break;
+                }
+            }
+            return latest;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addMilliseconds(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            return key.addMinutes(1);
+        }
+
+    }
+
+}
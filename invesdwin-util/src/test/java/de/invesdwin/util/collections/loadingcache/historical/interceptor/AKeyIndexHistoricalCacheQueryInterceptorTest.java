@@ -0,0 +1,185 @@
+package de.invesdwin.util.collections.loadingcache.historical.interceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.loadingcache.historical.AGapHistoricalCache;
+import de.invesdwin.util.collections.loadingcache.historical.key.APushingHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.collections.loadingcache.historical.key.IHistoricalCacheAdjustKeyProvider;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class AKeyIndexHistoricalCacheQueryInterceptorTest {
+
+    private final List<FDate> entities = newEntities();
+    private final TestGapHistoricalCache cache = new TestGapHistoricalCache(true);
+    private final TestGapHistoricalCache reference = new TestGapHistoricalCache(false);
+
+    @Test
+    public void testSameResultsAsDefault() {
+        final FDate from = FDateBuilder.newDate(1990, 3, 1);
+        final FDate to = FDateBuilder.newDate(1991, 6, 15);
+        final List<FDate> keys = asList(cache.query().getKeys(from, to));
+        Assertions.assertThat(keys).isEqualTo(asList(reference.query().getKeys(from, to)));
+        Assertions.assertThat(keys).hasSize(337);
+        Assertions.assertThat(asList(cache.query().getValues(from, to)))
+                .isEqualTo(asList(reference.query().getValues(from, to)));
+        for (int shiftBackUnits = 0; shiftBackUnits < 10; shiftBackUnits++) {
+            Assertions.assertThat(cache.query().getPreviousKey(to, shiftBackUnits))
+                    .isEqualTo(reference.query().getPreviousKey(to, shiftBackUnits));
+        }
+        final FDate value = entities.get(100);
+        Assertions.assertThat(cache.query().getPreviousValueKeyBetween(entities.get(50), to, value))
+                .isEqualTo(value);
+        Assertions.assertThat(cache.query().getPreviousValueKeyBetween(entities.get(101), to, value)).isNull();
+    }
+
+    @Test
+    public void testAnsweredFromIndex() {
+        final FDate key = entities.get(entities.size() - 1);
+        Assertions.assertThat(cache.query().getPreviousKey(key, 500)).isEqualTo(entities.get(entities.size() - 501));
+        Assertions.assertThat(asList(cache.query().getKeys(entities.get(10), entities.get(19)))).hasSize(10);
+        //no values needed to be loaded for the keys
+        Assertions.assertThat(cache.countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(cache.countReadLatestValueFor).isEqualTo(0);
+        Assertions.assertThat(cache.countReadAllKeysAscending).isEqualTo(1);
+        //keys before the first one are left to the default implementation
+        Assertions.assertThat(cache.query().getPreviousKey(entities.get(5), 10)).isEqualTo(entities.get(0));
+    }
+
+    @Test
+    public void testHighestAllowedKeyAndAppend() {
+        final APushingHistoricalCacheAdjustKeyProvider adjustKeyProvider = new APushingHistoricalCacheAdjustKeyProvider(
+                cache) {
+            @Override
+            protected FDate getInitialHighestAllowedKey() {
+                return null;
+            }
+        };
+        cache.setAdjustKeyProvider(adjustKeyProvider);
+        adjustKeyProvider.pushHighestAllowedKey(entities.get(20));
+        final FDate last = entities.get(entities.size() - 1);
+        Assertions.assertThat(cache.query().getPreviousKey(last, 0)).isEqualTo(entities.get(20));
+        Assertions.assertThat(asList(cache.query().getKeys(entities.get(18), last))).containsExactly(entities.get(18),
+                entities.get(19), entities.get(20));
+
+        final FDate appended = last.addDays(1);
+        entities.add(appended);
+        cache.interceptor.appendKey(appended);
+        adjustKeyProvider.pushHighestAllowedKey(appended);
+        Assertions.assertThat(cache.query().getPreviousKey(appended, 0)).isEqualTo(appended);
+        Assertions.assertThat(cache.query().getPreviousKey(appended, 1)).isEqualTo(last);
+        Assertions.assertThat(cache.countReadAllKeysAscending).isEqualTo(1);
+    }
+
+    private static List<FDate> newEntities() {
+        final List<FDate> entities = new ArrayList<FDate>();
+        FDate entity = FDateBuilder.newDate(1990, 1, 1);
+        for (int i = 0; i < 1000; i++) {
+            entities.add(entity);
+            //skip weekends like a trading calendar would
+            entity = entity.addDays(i % 5 == 4 ? 3 : 1);
+        }
+        return entities;
+    }
+
+    private static <T> List<T> asList(final ICloseableIterable<T> iterable) {
+        final List<T> list = new ArrayList<T>();
+        for (final T value : iterable) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private final class TestGapHistoricalCache extends AGapHistoricalCache<FDate> {
+
+        private final AKeyIndexHistoricalCacheQueryInterceptor<FDate> interceptor;
+        private int countReadAllValuesAscendingFrom;
+        private int countReadLatestValueFor;
+        private int countReadAllKeysAscending;
+
+        private TestGapHistoricalCache(final boolean keyIndex) {
+            if (keyIndex) {
+                interceptor = new AKeyIndexHistoricalCacheQueryInterceptor<FDate>(this) {
+                    @Override
+                    protected Iterable<FDate> readAllKeysAscending() {
+                        countReadAllKeysAscending++;
+                        return new ArrayList<FDate>(entities);
+                    }
+                };
+            } else {
+                interceptor = null;
+            }
+        }
+
+        @Override
+        protected IHistoricalCacheQueryInterceptor<FDate> getQueryInterceptor() {
+            if (interceptor != null) {
+                return interceptor;
+            } else {
+                return super.getQueryInterceptor();
+            }
+        }
+
+        @Override
+        public void setAdjustKeyProvider(final IHistoricalCacheAdjustKeyProvider adjustKeyProvider) {
+            super.setAdjustKeyProvider(adjustKeyProvider);
+        }
+
+        @Override
+        protected Iterable<FDate> readAllValuesAscendingFrom(final FDate key) {
+            countReadAllValuesAscendingFrom++;
+            final List<FDate> list = new ArrayList<FDate>();
+            for (final FDate d : entities) {
+                if (!d.isBefore(key)) {
+                    list.add(d);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            countReadLatestValueFor++;
+            FDate previousE = null;
+            for (final FDate e : entities) {
+                if (previousE == null || key.isAfter(e)) {
+                    previousE = e;
+                } else {
+                    break;
+                }
+            }
+            return previousE;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate entity) {
+            return entity;
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addDays(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            //jump over weekends
+            for (final FDate e : entities) {
+                if (e.isAfter(key)) {
+                    return e;
+                }
+            }
+            return key.addDays(1);
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.time.fdate.FDate;
+
+@NotThreadSafe
+public class AGapHistoricalCacheMissCounterTest {
+
+    private static final int WINDOW_LOADS = 100;
+
+    private final List<Integer> maximumSizes = new ArrayList<Integer>();
+    private final List<FDate> values = new ArrayList<FDate>();
+    private boolean adaptiveSizing = true;
+    private int countReadAllValuesAscendingFrom;
+    private Integer budgetMaximumSize;
+    private final TestMissCounter counter = new TestMissCounter();
+
+    @Test
+    public void testGrowWithoutReadingAgain() {
+        //10 values per second
+        counter.onValuesLoaded(new FDate(0), new FDate(1000), 11);
+        evictSuccessively();
+        //2 seconds got evicted, which are about 21 values that get doubled
+        Assertions.assertThat(maximumSizes).containsExactly(42);
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(6000);
+    }
+
+    @Test
+    public void testShrinkWhenNoEvictions() {
+        counter.onValuesLoaded(new FDate(0), new FDate(1000), 11);
+        evictSuccessively();
+        //the window with the evictions does not shrink
+        load(WINDOW_LOADS);
+        Assertions.assertThat(maximumSizes).containsExactly(42);
+        load(WINDOW_LOADS);
+        Assertions.assertThat(maximumSizes).containsExactly(42, 31);
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(4500);
+        load(WINDOW_LOADS * 10);
+        //converges to the configured values
+        Assertions.assertThat(maximumSizes.get(maximumSizes.size() - 1)).isEqualTo(10);
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testShrinkNotBelowOutsideIncrease() {
+        counter.onValuesLoaded(new FDate(0), new FDate(1000), 11);
+        evictSuccessively();
+        //e.g. a lookback query needs this size
+        counter.increaseMaximumSize(50);
+        load(WINDOW_LOADS * 10);
+        Assertions.assertThat(maximumSizes).containsExactly(42);
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    public void testCountEvictedValuesSeparately() {
+        adaptiveSizing = false;
+        for (int i = 0; i <= 100; i++) {
+            values.add(new FDate(i * 100));
+        }
+        Assertions.assertThat(counter.checkSuccessiveCacheEvictions(new FDate(5000))).isNull();
+        Assertions.assertThat(counter.checkSuccessiveCacheEvictions(new FDate(4000))).isNull();
+        Assertions.assertThat(counter.checkSuccessiveCacheEvictions(new FDate(3000))).isNull();
+        final AGapHistoricalCacheMissCounter.Reoptimization reoptimization = counter
+                .checkSuccessiveCacheEvictions(new FDate(10000));
+        //the caller counts the values without holding the lock
+        Assertions.assertThat(reoptimization).isNotNull();
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(0);
+        Assertions.assertThat(maximumSizes).isEmpty();
+        final int newOptimalMaximumSize = counter.countOptimalMaximumSize(reoptimization);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isGreaterThan(0);
+        //the values from 3000 to 10000 are 71 values that get doubled
+        Assertions.assertThat(newOptimalMaximumSize).isEqualTo(142);
+        counter.reoptimize(reoptimization, newOptimalMaximumSize);
+        Assertions.assertThat(maximumSizes).containsExactly(newOptimalMaximumSize);
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(6000);
+    }
+
+    @Test
+    public void testGrowNotBeyondBudget() {
+        budgetMaximumSize = 30;
+        counter.onValuesLoaded(new FDate(0), new FDate(1000), 11);
+        evictSuccessively();
+        Assertions.assertThat(maximumSizes).containsExactly(30);
+        //the read back step still grows
+        Assertions.assertThat(counter.getOptimalReadBackStepMillis()).isEqualTo(6000);
+        evictSuccessively();
+        Assertions.assertThat(maximumSizes).containsExactly(30);
+
+        //e.g. the budget manager shrinks the cache, then it can grow again up to the budget
+        counter.decreaseMaximumSize(15);
+        evictSuccessively();
+        Assertions.assertThat(maximumSizes).containsExactly(30, 30);
+    }
+
+    private void evictSuccessively() {
+        counter.checkSuccessiveCacheEvictions(new FDate(5000));
+        counter.checkSuccessiveCacheEvictions(new FDate(4000));
+        counter.checkSuccessiveCacheEvictions(new FDate(3000));
+        counter.checkSuccessiveCacheEvictions(new FDate(10000));
+    }
+
+    private void load(final int count) {
+        for (int i = 0; i < count; i++) {
+            counter.onLoad();
+        }
+    }
+
+    private class TestMissCounter extends AGapHistoricalCacheMissCounter<FDate> {
+
+        @Override
+        protected void onReoptimization() {}
+
+        @Override
+        protected boolean isDebugAutomaticReoptimization() {
+            return false;
+        }
+
+        @Override
+        protected String parentToString() {
+            return toString();
+        }
+
+        @Override
+        protected void increaseOptimalMaximumSize(final int optimalMaximumSize) {
+            maximumSizes.add(optimalMaximumSize);
+            increaseMaximumSize(optimalMaximumSize);
+        }
+
+        @Override
+        protected void decreaseOptimalMaximumSize(final int optimalMaximumSize) {
+            maximumSizes.add(optimalMaximumSize);
+        }
+
+        @Override
+        protected boolean isAdaptiveSizing() {
+            return adaptiveSizing;
+        }
+
+        @Override
+        protected Integer getMaximumSize() {
+            return 10;
+        }
+
+        @Override
+        protected Integer getBudgetMaximumSize() {
+            return budgetMaximumSize;
+        }
+
+        @Override
+        protected long getReadBackStepMillis() {
+            return 1000;
+        }
+
+        @Override
+        protected FDate extractKey(final FDate v) {
+            return v;
+        }
+
+        @Override
+        protected Iterable<? extends FDate> readAllValuesAscendingFrom(final FDate curMaxDate) {
+            if (adaptiveSizing) {
+                throw new UnsupportedOperationException("adaptive sizing should not read values again");
+            }
+            countReadAllValuesAscendingFrom++;
+            final List<FDate> result = new ArrayList<FDate>();
+            for (final FDate value : values) {
+                if (value.isAfterOrEqual(curMaxDate)) {
+                    result.add(value);
+                }
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.invesdwin.util.collections.loadingcache.historical.internal;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.time.fdate.FDate;
+
+@NotThreadSafe
+public class HistoricalCacheTailKeysTest {
+
+    @Test
+    public void testRemoveAfterOrEqual() {
+        final HistoricalCacheTailKeys tailKeys = new HistoricalCacheTailKeys(10, new FDate(100));
+        //keys before or equal to the floor are already handled by the caller
+        tailKeys.add(new FDate(50));
+        tailKeys.add(new FDate(100));
+        for (int i = 1; i <= 5; i++) {
+            tailKeys.add(new FDate(100 + i));
+        }
+        tailKeys.add(new FDate(103));
+        Assertions.assertThat(tailKeys.isComplete(new FDate(100))).isFalse();
+        Assertions.assertThat(tailKeys.isComplete(new FDate(101))).isTrue();
+        Assertions.assertThat(tailKeys.getAfterOrEqual(new FDate(102))).containsExactly(new FDate(102),
+                new FDate(103), new FDate(104), new FDate(105));
+        Assertions.assertThat(tailKeys.removeAfterOrEqual(new FDate(104))).containsExactly(new FDate(104),
+                new FDate(105));
+        Assertions.assertThat(tailKeys.getAfterOrEqual(new FDate(0))).containsExactly(new FDate(101), new FDate(102),
+                new FDate(103));
+    }
+
+    @Test
+    public void testForgetLowestKeys() {
+        final HistoricalCacheTailKeys tailKeys = new HistoricalCacheTailKeys(3, new FDate(0));
+        for (int i = 1; i <= 5; i++) {
+            tailKeys.add(new FDate(i));
+        }
+        Assertions.assertThat(tailKeys.getAfterOrEqual(new FDate(0))).containsExactly(new FDate(3), new FDate(4),
+                new FDate(5));
+        //removals from forgotten keys need a scan
+        Assertions.assertThat(tailKeys.isComplete(new FDate(2))).isFalse();
+        Assertions.assertThat(tailKeys.isComplete(new FDate(3))).isTrue();
+        //forgotten keys are not remembered again
+        tailKeys.add(new FDate(1));
+        Assertions.assertThat(tailKeys.getAfterOrEqual(new FDate(0))).hasSize(3);
+
+        tailKeys.clear();
+        Assertions.assertThat(tailKeys.isComplete(new FDate(0))).isTrue();
+        tailKeys.add(new FDate(1));
+        Assertions.assertThat(tailKeys.getAfterOrEqual(new FDate(0))).containsExactly(new FDate(1));
+    }
+
+}
@@ -0,0 +1,237 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.ICloseableIterator;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class HistoricalCachePersistentStoreTest {
+
+    private final List<FDate> entities = new ArrayList<FDate>();
+    private File directory;
+    private int countReadAllValuesAscendingFrom;
+    private int countReadLatestValueFor;
+    private FDate knownMaxKey;
+
+    @Before
+    public void before() {
+        entities.add(FDateBuilder.newDate(1990, 1, 1));
+        entities.add(FDateBuilder.newDate(1991, 1, 1));
+        entities.add(FDateBuilder.newDate(1991, 6, 1));
+        entities.add(FDateBuilder.newDate(1992, 1, 1));
+        entities.add(FDateBuilder.newDate(1993, 1, 1));
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testWarmRestart() {
+        final HistoricalCachePersistentStore<FDate> store = new HistoricalCachePersistentStore<FDate>(directory);
+        Assertions.assertThat(readAll(store, FDate.MIN_DATE)).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+        store.close();
+        //one segment per year
+        Assertions.assertThat(directory.list()).hasSize(4);
+
+        final HistoricalCachePersistentStore<FDate> restarted = new HistoricalCachePersistentStore<FDate>(directory);
+        Assertions.assertThat(readAll(restarted, FDate.MIN_DATE)).isEqualTo(entities);
+        //only asks the db for new values after the last persistent one
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        Assertions.assertThat(readAll(restarted, FDateBuilder.newDate(1991, 3, 1)))
+                .isEqualTo(entities.subList(2, entities.size()));
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+
+        Assertions.assertThat(restarted.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(restarted.readLatestValueFor(FDateBuilder.newDate(1992, 1, 1), newSource()))
+                .isEqualTo(entities.get(3));
+        Assertions.assertThat(restarted.readLatestValueFor(FDateBuilder.newDate(1980, 1, 1), newSource()))
+                .isEqualTo(entities.get(0));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(0);
+        //the last value might have a successor in the meantime
+        Assertions.assertThat(restarted.readLatestValueFor(FDateBuilder.newDate(1995, 1, 1), newSource()))
+                .isEqualTo(entities.get(4));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(1);
+
+        knownMaxKey = entities.get(entities.size() - 1);
+        Assertions.assertThat(readAll(restarted, FDate.MIN_DATE)).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(3);
+        restarted.close();
+    }
+
+    @Test
+    public void testSharedBetweenStores() {
+        final HistoricalCachePersistentStore<FDate> writer = new HistoricalCachePersistentStore<FDate>(directory);
+        final HistoricalCachePersistentStore<FDate> reader = new HistoricalCachePersistentStore<FDate>(directory);
+        Assertions.assertThat(readAll(writer, FDate.MIN_DATE)).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(1);
+
+        entities.add(FDateBuilder.newDate(1993, 6, 1));
+        Assertions.assertThat(readAll(reader, FDate.MIN_DATE)).isEqualTo(entities);
+        Assertions.assertThat(countReadAllValuesAscendingFrom).isEqualTo(2);
+        //the new value was appended by the reader and is visible for the writer after its next refresh
+        writer.refresh();
+        Assertions.assertThat(writer.readLatestValueFor(FDateBuilder.newDate(1993, 3, 1), newSource()))
+                .isEqualTo(entities.get(4));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(0);
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void testOtherStoresPickedUpAfterRefreshInterval() {
+        final HistoricalCachePersistentStore<FDate> writer = new HistoricalCachePersistentStore<FDate>(directory);
+        final HistoricalCachePersistentStore<FDate> reader = newStore(Duration.ONE_HOUR);
+        final HistoricalCachePersistentStore<FDate> immediateReader = newStore(Duration.ZERO);
+        //both readers looked at the directory before the writer appended its values
+        reader.refresh();
+        immediateReader.refresh();
+        Assertions.assertThat(readAll(writer, FDate.MIN_DATE)).isEqualTo(entities);
+
+        //lookups within the interval don't check the files again
+        Assertions.assertThat(reader.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(1);
+        Assertions.assertThat(immediateReader.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(1);
+        reader.refresh();
+        Assertions.assertThat(reader.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(1);
+        writer.close();
+        reader.close();
+        immediateReader.close();
+    }
+
+    private HistoricalCachePersistentStore<FDate> newStore(final Duration refreshInterval) {
+        return new HistoricalCachePersistentStore<FDate>(directory) {
+            @Override
+            protected Duration getRefreshInterval() {
+                return refreshInterval;
+            }
+        };
+    }
+
+    @Test
+    public void testUnknownPreviousKey() {
+        final HistoricalCachePersistentStore<FDate> store = new HistoricalCachePersistentStore<FDate>(directory);
+        //the db is asked with a key that lies in between, so the previous value is not known
+        Assertions.assertThat(store.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(1);
+        Assertions.assertThat(store.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(2);
+        //a contiguous read fills the gap
+        Assertions.assertThat(readAll(store, FDate.MIN_DATE)).isEqualTo(entities);
+        Assertions.assertThat(store.readLatestValueFor(FDateBuilder.newDate(1991, 3, 1), newSource()))
+                .isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(2);
+        store.close();
+    }
+
+    @Test
+    public void testPartialIterationIsPersistedOnClose() {
+        final HistoricalCachePersistentStore<FDate> store = new HistoricalCachePersistentStore<FDate>(directory);
+        final ICloseableIterator<FDate> iterator = store.readAllValuesAscendingFrom(FDate.MIN_DATE, newSource())
+                .iterator();
+        Assertions.assertThat(iterator.next()).isEqualTo(entities.get(0));
+        Assertions.assertThat(iterator.next()).isEqualTo(entities.get(1));
+        iterator.close();
+        store.close();
+
+        final HistoricalCachePersistentStore<FDate> restarted = new HistoricalCachePersistentStore<FDate>(directory);
+        Assertions.assertThat(restarted.readLatestValueFor(entities.get(1), newSource())).isEqualTo(entities.get(1));
+        Assertions.assertThat(countReadLatestValueFor).isEqualTo(0);
+        restarted.close();
+    }
+
+    @Test
+    public void testCloseWhileIterating() {
+        final HistoricalCachePersistentStore<FDate> store = new HistoricalCachePersistentStore<FDate>(directory);
+        Assertions.assertThat(readAll(store, FDate.MIN_DATE)).isEqualTo(entities);
+        final ICloseableIterator<FDate> iterator = store.readAllValuesAscendingFrom(FDate.MIN_DATE, newSource())
+                .iterator();
+        Assertions.assertThat(iterator.next()).isEqualTo(entities.get(0));
+        //e.g. the cache got cleared, the remaining values are read from the db
+        store.close();
+        final List<FDate> remaining = new ArrayList<FDate>();
+        while (iterator.hasNext()) {
+            remaining.add(iterator.next());
+        }
+        Assertions.assertThat(remaining).isEqualTo(entities.subList(1, entities.size()));
+        store.close();
+    }
+
+    private List<FDate> readAll(final HistoricalCachePersistentStore<FDate> store, final FDate key) {
+        final List<FDate> values = new ArrayList<FDate>();
+        for (final FDate value : store.readAllValuesAscendingFrom(key, newSource())) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private IHistoricalCachePersistentStoreSource<FDate> newSource() {
+        return new IHistoricalCachePersistentStoreSource<FDate>() {
+
+            @Override
+            public Iterable<? extends FDate> readAllValuesAscendingFrom(final FDate key) {
+                countReadAllValuesAscendingFrom++;
+                final List<FDate> values = new ArrayList<FDate>();
+                for (final FDate entity : entities) {
+                    if (entity.isAfterOrEqual(key)) {
+                        values.add(entity);
+                    }
+                }
+                return values;
+            }
+
+            @Override
+            public FDate readLatestValueFor(final FDate key) {
+                countReadLatestValueFor++;
+                FDate latest = null;
+                for (final FDate entity : entities) {
+                    if (entity.isAfter(key)) {
+                        break;
+                    }
+                    latest = entity;
+                }
+                if (latest == null && !entities.isEmpty()) {
+                    return entities.get(0);
+                }
+                return latest;
+            }
+
+            @Override
+            public FDate extractKey(final FDate value) {
+                return value;
+            }
+
+            @Override
+            public FDate getKnownMaxKey() {
+                return knownMaxKey;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.invesdwin.util.collections.loadingcache.historical.persistent.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+import de.invesdwin.util.assertions.Assertions;
+
+@NotThreadSafe
+public class HistoricalCachePersistentSegmentTest {
+
+    private File directory;
+
+    @Before
+    public void before() {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void after() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testAppendBatch() {
+        final HistoricalCachePersistentSegment segment = new HistoricalCachePersistentSegment(
+                new File(directory, "test.segment"));
+        Assertions.assertThat(segment.append(newRecords(1, 3))).isEqualTo(3);
+        //only the records after the last key get appended
+        Assertions.assertThat(segment.append(newRecords(2, 5))).isEqualTo(2);
+        Assertions.assertThat(segment.size()).isEqualTo(5);
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertThat(segment.getKey(i)).isEqualTo(i + 1);
+            Assertions.assertThat(segment.getBytes(i)).containsExactly((byte) (i + 1));
+        }
+        Assertions.assertThat(segment.append(newRecords(1, 5))).isEqualTo(0);
+        segment.close();
+
+        final HistoricalCachePersistentSegment reopened = new HistoricalCachePersistentSegment(segment.getFile());
+        reopened.refresh();
+        Assertions.assertThat(reopened.size()).isEqualTo(5);
+        Assertions.assertThat(reopened.getPreviousKey(4)).isEqualTo(4);
+        reopened.close();
+    }
+
+    @Test
+    public void testAppendBatchSupersedesUnknownPreviousKey() {
+        final HistoricalCachePersistentSegment segment = new HistoricalCachePersistentSegment(
+                new File(directory, "test.segment"));
+        Assertions.assertThat(segment.append(3, HistoricalCachePersistentSegment.UNKNOWN_PREVIOUS_KEY,
+                new byte[] { 3 })).isTrue();
+        final List<HistoricalCachePersistentRecord> records = new ArrayList<HistoricalCachePersistentRecord>();
+        records.add(new HistoricalCachePersistentRecord(3, 2, new byte[] { 3 }));
+        records.add(new HistoricalCachePersistentRecord(3, 1, new byte[] { 3 }));
+        records.add(new HistoricalCachePersistentRecord(4, 3, new byte[] { 4 }));
+        //the second record for the same key is skipped since the previous key is known already
+        Assertions.assertThat(segment.append(records)).isEqualTo(2);
+        Assertions.assertThat(segment.size()).isEqualTo(2);
+        Assertions.assertThat(segment.getPreviousKey(0)).isEqualTo(2);
+        Assertions.assertThat(segment.getPreviousKey(1)).isEqualTo(3);
+        segment.close();
+    }
+
+    private List<HistoricalCachePersistentRecord> newRecords(final int fromKey, final int toKey) {
+        final List<HistoricalCachePersistentRecord> records = new ArrayList<HistoricalCachePersistentRecord>();
+        for (int key = fromKey; key <= toKey; key++) {
+            records.add(new HistoricalCachePersistentRecord(key, key - 1, new byte[] { (byte) key }));
+        }
+        return records;
+    }
+
+}
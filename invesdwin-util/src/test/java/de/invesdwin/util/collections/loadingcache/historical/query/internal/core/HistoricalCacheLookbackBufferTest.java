@@ -0,0 +1,76 @@
+package de.invesdwin.util.collections.loadingcache.historical.query.internal.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.bean.tuple.ImmutableEntry;
+import de.invesdwin.util.time.fdate.FDate;
+
+@NotThreadSafe
+public class HistoricalCacheLookbackBufferTest {
+
+    @Test
+    public void testShiftingWindow() {
+        final HistoricalCacheLookbackBuffer<Integer> buffer = new HistoricalCacheLookbackBuffer<Integer>();
+        for (int i = 0; i < 100; i++) {
+            buffer.addLast(newEntry(i));
+            if (buffer.size() > 10) {
+                buffer.removeFirst();
+            }
+        }
+        Assertions.assertThat(toValues(buffer)).isEqualTo(range(90, 100));
+        for (int i = 89; i >= 50; i--) {
+            buffer.addFirst(newEntry(i));
+            buffer.removeLast();
+        }
+        Assertions.assertThat(toValues(buffer)).isEqualTo(range(50, 60));
+        for (int i = 49; i >= 0; i--) {
+            buffer.addFirst(newEntry(i));
+        }
+        Assertions.assertThat(toValues(buffer)).isEqualTo(range(0, 60));
+        buffer.clear();
+        Assertions.assertThat(buffer.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testFloorIndex() {
+        final HistoricalCacheLookbackBuffer<Integer> buffer = new HistoricalCacheLookbackBuffer<Integer>();
+        for (int i = 10; i >= 1; i--) {
+            buffer.addFirst(newEntry(i * 2));
+        }
+        buffer.addLast(newEntry(20));
+        Assertions.assertThat(buffer.floorIndex(new FDate(1))).isEqualTo(-1);
+        Assertions.assertThat(buffer.floorIndex(new FDate(2))).isEqualTo(0);
+        Assertions.assertThat(buffer.floorIndex(new FDate(7))).isEqualTo(2);
+        //the last of duplicate keys
+        Assertions.assertThat(buffer.floorIndex(new FDate(20))).isEqualTo(10);
+        Assertions.assertThat(buffer.floorIndex(FDate.MAX_DATE)).isEqualTo(10);
+    }
+
+    private Entry<FDate, Integer> newEntry(final int value) {
+        return ImmutableEntry.of(new FDate(value), value);
+    }
+
+    private List<Integer> toValues(final HistoricalCacheLookbackBuffer<Integer> buffer) {
+        final List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < buffer.size(); i++) {
+            values.add(buffer.get(i).getValue());
+        }
+        return values;
+    }
+
+    private List<Integer> range(final int from, final int to) {
+        final List<Integer> values = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.invesdwin.util.collections.loadingcache.historical.refresh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedScheduledExecutorService;
+import de.invesdwin.util.time.duration.Duration;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+@NotThreadSafe
+public class HistoricalCacheRefreshSchedulerTest {
+
+    private static final Duration LONG_INTERVAL = new Duration(1, FTimeUnit.HOURS);
+
+    private final WrappedScheduledExecutorService executor = Executors
+            .newScheduledThreadPool(HistoricalCacheRefreshSchedulerTest.class.getSimpleName(), 1);
+    private final HistoricalCacheRefreshScheduler scheduler = new HistoricalCacheRefreshScheduler(executor);
+    private final List<String> refreshed = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRefreshGroup() throws Exception {
+        final TestHistoricalCache base = new TestHistoricalCache("base");
+        final TestHistoricalCache dependent = new TestHistoricalCache("dependent");
+        final TestHistoricalCache other = new TestHistoricalCache("other");
+        scheduler.register(base, LONG_INTERVAL, "group");
+        scheduler.register(other, LONG_INTERVAL, "otherGroup");
+        scheduler.register(dependent, LONG_INTERVAL, "group");
+        Assertions.assertThat(scheduler.getRegistrationCount()).isEqualTo(3);
+
+        scheduler.refreshGroup("group").get();
+        Assertions.assertThat(refreshed).containsExactly("base", "dependent");
+        Assertions.assertThat(other.refreshes.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testScheduledRefreshWithDependents() throws InterruptedException {
+        final TestHistoricalCache base = new TestHistoricalCache("base");
+        final TestHistoricalCache dependent = new TestHistoricalCache("dependent");
+        final TestHistoricalCache unchanged = new TestHistoricalCache("unchanged");
+        final TestHistoricalCache unchangedDependent = new TestHistoricalCache("unchangedDependent");
+        base.changed = true;
+        scheduler.register(base, new Duration(10, FTimeUnit.MILLISECONDS), "group");
+        scheduler.register(dependent, LONG_INTERVAL, "group");
+        scheduler.register(unchanged, new Duration(10, FTimeUnit.MILLISECONDS), "unchangedGroup");
+        scheduler.register(unchangedDependent, LONG_INTERVAL, "unchangedGroup");
+        //the dependent gets refreshed because the base found changes
+        for (int i = 0; i < 100 && (dependent.refreshes.get() == 0 || unchanged.refreshes.get() == 0); i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertThat(base.refreshes.get()).isGreaterThan(0);
+        Assertions.assertThat(dependent.refreshes.get()).isGreaterThan(0);
+        Assertions.assertThat(unchanged.refreshes.get()).isGreaterThan(0);
+        Assertions.assertThat(unchangedDependent.refreshes.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testIgnoresRefreshManager() {
+        final TestHistoricalCache cache = new TestHistoricalCache("cache");
+        scheduler.register(cache, LONG_INTERVAL);
+        Assertions.assertThat(cache.isRefreshScheduled()).isTrue();
+        HistoricalCacheRefreshManager.refresh();
+        Assertions.assertThat(cache.query().getValue(FDateBuilder.newDate(2000))).isNotNull();
+        Assertions.assertThat(cache.refreshes.get()).isEqualTo(0);
+
+        Assertions.assertThat(scheduler.unregister(cache)).isTrue();
+        Assertions.assertThat(scheduler.unregister(cache)).isFalse();
+        Assertions.assertThat(cache.isRefreshScheduled()).isFalse();
+        Assertions.assertThat(cache.query().getValue(FDateBuilder.newDate(2001))).isNotNull();
+        Assertions.assertThat(cache.refreshes.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshManagerAfterManualRefresh() {
+        final TestHistoricalCache cache = new TestHistoricalCache("cache");
+        Assertions.assertThat(cache.refresh()).isFalse();
+        Assertions.assertThat(cache.refreshes.get()).isEqualTo(1);
+        //even within the same millisecond the refresh of the manager gets noticed
+        HistoricalCacheRefreshManager.refresh();
+        Assertions.assertThat(cache.query().getValue(FDateBuilder.newDate(2000))).isNotNull();
+        Assertions.assertThat(cache.refreshes.get()).isEqualTo(2);
+    }
+
+    private final class TestHistoricalCache extends AHistoricalCache<FDate> {
+
+        private final String name;
+        private final AtomicInteger refreshes = new AtomicInteger();
+        private volatile boolean changed;
+
+        private TestHistoricalCache(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected boolean maybeRefresh() {
+            refreshes.incrementAndGet();
+            refreshed.add(name);
+            return changed;
+        }
+
+        @Override
+        protected FDate loadValue(final FDate key) {
+            return key;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package de.invesdwin.util.collections.loadingcache.historical.snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.iterable.ICloseableIterable;
+import de.invesdwin.util.collections.loadingcache.historical.AGapHistoricalCache;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class HistoricalCacheSnapshotTest {
+
+    private final TestGapHistoricalCache cache = new TestGapHistoricalCache();
+
+    @Test
+    public void testNoFutureValues() {
+        final HistoricalCacheSnapshot<FDate> snapshot1993 = cache.newSnapshot(FDateBuilder.newDate(1993));
+        final HistoricalCacheSnapshot<FDate> snapshot1996 = cache.newSnapshot(FDateBuilder.newDate(1996));
+
+        Assertions.assertThat(snapshot1993.query().getValue(FDateBuilder.newDate(2000)))
+                .isEqualTo(FDateBuilder.newDate(1993));
+        Assertions.assertThat(snapshot1996.query().getValue(FDateBuilder.newDate(2000)))
+                .isEqualTo(FDateBuilder.newDate(1996));
+        Assertions.assertThat(cache.query().getValue(FDateBuilder.newDate(2000)))
+                .isEqualTo(FDateBuilder.newDate(2000));
+
+        Assertions.assertThat(asList(snapshot1993.query().getPreviousValues(FDateBuilder.newDate(2000), 3)))
+                .containsExactly(FDateBuilder.newDate(1991), FDateBuilder.newDate(1992), FDateBuilder.newDate(1993));
+        Assertions.assertThat(asList(snapshot1996.query().getPreviousValues(FDateBuilder.newDate(2000), 3)))
+                .containsExactly(FDateBuilder.newDate(1994), FDateBuilder.newDate(1995), FDateBuilder.newDate(1996));
+        Assertions.assertThat(
+                asList(snapshot1993.query().getValues(FDateBuilder.newDate(1992), FDateBuilder.newDate(1999))))
+                .containsExactly(FDateBuilder.newDate(1992), FDateBuilder.newDate(1993));
+        Assertions.assertThat(snapshot1993.getAdjustKeyProvider().getHighestAllowedKey())
+                .isEqualTo(FDateBuilder.newDate(1993));
+    }
+
+    @Test
+    public void testSharesLoadedValues() {
+        final List<FDate> firstBacktest = new ArrayList<FDate>();
+        for (int year = 1991; year <= 2000; year++) {
+            final HistoricalCacheSnapshot<FDate> snapshot = cache.newSnapshot(FDateBuilder.newDate(year));
+            firstBacktest.addAll(asList(snapshot.query().getPreviousValues(FDateBuilder.newDate(2010), 2)));
+        }
+        final int reads = cache.reads.get();
+        //another backtest does not need to load the values again
+        final List<FDate> secondBacktest = new ArrayList<FDate>();
+        for (int year = 1991; year <= 2000; year++) {
+            final HistoricalCacheSnapshot<FDate> snapshot = cache.newSnapshot(FDateBuilder.newDate(year));
+            secondBacktest.addAll(asList(snapshot.query().getPreviousValues(FDateBuilder.newDate(2010), 2)));
+        }
+        Assertions.assertThat(cache.reads.get()).isEqualTo(reads);
+        Assertions.assertThat(secondBacktest).isEqualTo(firstBacktest);
+        Assertions.assertThat(secondBacktest).hasSize(20);
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws Exception {
+        final WrappedExecutorService executor = Executors
+                .newFixedThreadPool(HistoricalCacheSnapshotTest.class.getSimpleName(), 4);
+        try {
+            final List<Future<List<FDate>>> futures = new ArrayList<Future<List<FDate>>>();
+            for (int year = 1992; year <= 2000; year++) {
+                final HistoricalCacheSnapshot<FDate> snapshot = cache.newSnapshot(FDateBuilder.newDate(year));
+                futures.add(executor.submit(new Callable<List<FDate>>() {
+                    @Override
+                    public List<FDate> call() throws Exception {
+                        List<FDate> values = null;
+                        for (int i = 0; i < 100; i++) {
+                            values = asList(snapshot.query().getPreviousValues(FDateBuilder.newDate(2010), 3));
+                        }
+                        return values;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                final int year = 1992 + i;
+                Assertions.assertThat(futures.get(i).get()).containsExactly(FDateBuilder.newDate(year - 2),
+                        FDateBuilder.newDate(year - 1), FDateBuilder.newDate(year));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> asList(final ICloseableIterable<T> iterable) {
+        final List<T> list = new ArrayList<T>();
+        for (final T value : iterable) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static final class TestGapHistoricalCache extends AGapHistoricalCache<FDate> {
+
+        private final List<FDate> entities = new ArrayList<FDate>();
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private TestGapHistoricalCache() {
+            for (int year = 1990; year <= 2000; year++) {
+                entities.add(FDateBuilder.newDate(year));
+            }
+        }
+
+        @Override
+        protected Iterable<? extends FDate> readAllValuesAscendingFrom(final FDate key) {
+            reads.incrementAndGet();
+            final List<FDate> values = new ArrayList<FDate>();
+            for (final FDate entity : entities) {
+                if (!entity.isBefore(key)) {
+                    values.add(entity);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            reads.incrementAndGet();
+            FDate latest = null;
+            for (final FDate entity : entities) {
+                if (latest == null || key.isAfter(entity)) {
+                    latest = entity;
+                } else {
+                    break;
+                }
+            }
+            return latest;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addDays(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            return key.addYears(1);
+        }
+
+    }
+
+}
@@ -0,0 +1,187 @@
+package de.invesdwin.util.collections.loadingcache.historical.warmup;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.historical.AGapHistoricalCache;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.error.Throwables;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class HistoricalCacheWarmupTest {
+
+    private final AtomicInteger activeLoads = new AtomicInteger();
+    private final AtomicInteger maxActiveLoads = new AtomicInteger();
+    //released as soon as the maximum of two loads run concurrently
+    private final CountDownLatch concurrentLoads = new CountDownLatch(2);
+    private final AtomicReference<Throwable> uncaughtException = new AtomicReference<Throwable>();
+    private UncaughtExceptionHandler previousUncaughtExceptionHandler;
+
+    @Before
+    public void before() {
+        //the fork join pool requires a default handler like in the application
+        previousUncaughtExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(final Thread t, final Throwable e) {
+                uncaughtException.compareAndSet(null, e);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        Thread.setDefaultUncaughtExceptionHandler(previousUncaughtExceptionHandler);
+        final Throwable e = uncaughtException.get();
+        if (e != null) {
+            Assertions.fail("uncaught exception in warmup thread", e);
+        }
+    }
+
+    @Test
+    public void testWarmup() throws InterruptedException {
+        final HistoricalCacheWarmup warmup = new HistoricalCacheWarmup(4, 2);
+        final List<AHistoricalCache<FDate>> caches = new ArrayList<AHistoricalCache<FDate>>();
+        for (int i = 0; i < 20; i++) {
+            final AHistoricalCache<FDate> cache = new SlowHistoricalCache(false);
+            caches.add(cache);
+            warmup.add(cache, FDateBuilder.newDate(2000));
+            warmup.add(cache, FDateBuilder.newDate(2001));
+        }
+        final TestGapHistoricalCache gapCache = new TestGapHistoricalCache();
+        warmup.add(gapCache, FDateBuilder.newDate(1991), FDateBuilder.newDate(1993));
+        Assertions.assertThat(warmup.getCacheCount()).isEqualTo(21);
+        final AtomicInteger lastFinishedCount = new AtomicInteger();
+        warmup.setListener(new IHistoricalCacheWarmupListener() {
+            @Override
+            public void onWarmedUp(final AHistoricalCache<?> historicalCache, final int finishedCount,
+                    final int totalCount) {
+                Assertions.assertThat(totalCount).isEqualTo(21);
+                lastFinishedCount.set(Math.max(lastFinishedCount.get(), finishedCount));
+            }
+        });
+        warmup.warmup();
+
+        Assertions.assertThat(lastFinishedCount.get()).isEqualTo(21);
+        for (final AHistoricalCache<FDate> cache : caches) {
+            Assertions.assertThat(cache.containsKey(FDateBuilder.newDate(2000))).isTrue();
+            Assertions.assertThat(cache.containsKey(FDateBuilder.newDate(2001))).isTrue();
+        }
+        Assertions.assertThat(gapCache.containsKey(FDateBuilder.newDate(1992))).isTrue();
+        Assertions.assertThat(maxActiveLoads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailFast() throws InterruptedException {
+        final HistoricalCacheWarmup warmup = new HistoricalCacheWarmup(2, 2);
+        warmup.add(new SlowHistoricalCache(false), FDateBuilder.newDate(2000));
+        warmup.add(new SlowHistoricalCache(true), FDateBuilder.newDate(2000));
+        try {
+            warmup.warmup();
+            Assertions.fail("exception expected");
+        } catch (final RuntimeException e) {
+            Assertions.assertThat(Throwables.getCauseByType(e, IllegalStateException.class)).isNotNull();
+        }
+    }
+
+    private final class SlowHistoricalCache extends AHistoricalCache<FDate> {
+
+        private final boolean failing;
+
+        private SlowHistoricalCache(final boolean failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        protected FDate loadValue(final FDate key) {
+            if (failing) {
+                throw new IllegalStateException("failing load");
+            }
+            final int active = activeLoads.incrementAndGet();
+            try {
+                synchronized (maxActiveLoads) {
+                    maxActiveLoads.set(Math.max(maxActiveLoads.get(), active));
+                }
+                //the first loads wait for each other so that the limit gets reached
+                concurrentLoads.countDown();
+                concurrentLoads.await(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                activeLoads.decrementAndGet();
+            }
+            return key;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+    }
+
+    private static final class TestGapHistoricalCache extends AGapHistoricalCache<FDate> {
+
+        private final List<FDate> entities = new ArrayList<FDate>();
+
+        private TestGapHistoricalCache() {
+            for (int year = 1990; year <= 1995; year++) {
+                entities.add(FDateBuilder.newDate(year));
+            }
+        }
+
+        @Override
+        protected Iterable<? extends FDate> readAllValuesAscendingFrom(final FDate key) {
+            final List<FDate> values = new ArrayList<FDate>();
+            for (final FDate entity : entities) {
+                if (!entity.isBefore(key)) {
+                    values.add(entity);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        protected FDate readLatestValueFor(final FDate key) {
+            FDate latest = entities.get(0);
+            for (final FDate entity : entities) {
+                if (entity.isAfter(key)) {
+                    break;
+                }
+                latest = entity;
+            }
+            return latest;
+        }
+
+        @Override
+        protected FDate innerExtractKey(final FDate key, final FDate value) {
+            return value;
+        }
+
+        @Override
+        protected FDate innerCalculatePreviousKey(final FDate key) {
+            return key.addDays(-1);
+        }
+
+        @Override
+        protected FDate innerCalculateNextKey(final FDate key) {
+            return key.addYears(1);
+        }
+
+    }
+
+}
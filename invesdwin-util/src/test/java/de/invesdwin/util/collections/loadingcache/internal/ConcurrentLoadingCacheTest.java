@@ -0,0 +1,181 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.ALoadingCache;
+import de.invesdwin.util.concurrent.Executors;
+import de.invesdwin.util.concurrent.WrappedExecutorService;
+
+@NotThreadSafe
+public class ConcurrentLoadingCacheTest {
+
+    private final WrappedExecutorService executor = Executors
+            .newFixedThreadPool(ConcurrentLoadingCacheTest.class.getSimpleName(), 8);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final CountDownLatch loadStarted = new CountDownLatch(1);
+    private final CountDownLatch loadReleased = new CountDownLatch(1);
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLoadsKeyOnlyOnce() throws Exception {
+        final ConcurrentLoadingCache<Integer, String> cache = new ConcurrentLoadingCache<Integer, String>(
+                new BlockingLoadValue(1));
+        final List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(newGet(cache, 1)));
+        }
+        Assertions.assertThat(loadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        Assertions.assertThat(cache.getInFlightLoadCount()).isEqualTo(1);
+        loadReleased.countDown();
+        for (final Future<String> future : futures) {
+            Assertions.assertThat(future.get()).isEqualTo("1");
+        }
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+        Assertions.assertThat(cache.getInFlightLoadCount()).isEqualTo(0);
+        Assertions.assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnrelatedLoadDoesNotBlock() throws Exception {
+        final ConcurrentLoadingCache<Integer, String> cache = new ConcurrentLoadingCache<Integer, String>(
+                new BlockingLoadValue(1));
+        cache.put(2, "2");
+        final Future<String> blocked = executor.submit(newGet(cache, 1));
+        Assertions.assertThat(loadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        //neither reads nor loads of other keys wait for the blocked load
+        Assertions.assertThat(cache.get(2)).isEqualTo("2");
+        Assertions.assertThat(cache.get(3)).isEqualTo("3");
+        Assertions.assertThat(blocked.isDone()).isFalse();
+        loadReleased.countDown();
+        Assertions.assertThat(blocked.get()).isEqualTo("1");
+    }
+
+    @Test
+    public void testFailedLoadIsRetried() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(1);
+        final ConcurrentLoadingCache<Integer, String> cache = new ConcurrentLoadingCache<Integer, String>(
+                new Function<Integer, String>() {
+                    @Override
+                    public String apply(final Integer key) {
+                        if (failures.getAndDecrement() > 0) {
+                            throw new IllegalStateException("failing load");
+                        }
+                        return String.valueOf(key);
+                    }
+                });
+        try {
+            cache.get(1);
+            Assertions.fail("exception expected");
+        } catch (final IllegalStateException e) {
+            Assertions.assertThat(e.getMessage()).isEqualTo("failing load");
+        }
+        Assertions.assertThat(cache.getInFlightLoadCount()).isEqualTo(0);
+        Assertions.assertThat(cache.get(1)).isEqualTo("1");
+    }
+
+    @Test
+    public void testClearDuringLoad() throws Exception {
+        final ConcurrentLoadingCache<Integer, String> cache = new ConcurrentLoadingCache<Integer, String>(
+                new BlockingLoadValue(1));
+        final Future<String> blocked = executor.submit(newGet(cache, 1));
+        Assertions.assertThat(loadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+        cache.clear();
+        loadReleased.countDown();
+        Assertions.assertThat(blocked.get()).isEqualTo("1");
+        //the value was loaded before the clear, thus it is not cached
+        Assertions.assertThat(cache.containsKey(1)).isFalse();
+    }
+
+    @Test
+    public void testRecursiveLoad() {
+        final AtomicReference<ConcurrentLoadingCache<Integer, String>> holder;
+        holder = new AtomicReference<ConcurrentLoadingCache<Integer, String>>();
+        holder.set(new ConcurrentLoadingCache<Integer, String>(new Function<Integer, String>() {
+            @Override
+            public String apply(final Integer key) {
+                loads.incrementAndGet();
+                if (key > 0) {
+                    return holder.get().get(key - 1) + key;
+                } else {
+                    return String.valueOf(key);
+                }
+            }
+        }));
+        Assertions.assertThat(holder.get().get(3)).isEqualTo("0123");
+        Assertions.assertThat(loads.get()).isEqualTo(4);
+        Assertions.assertThat(holder.get().size()).isEqualTo(4);
+    }
+
+    @Test
+    public void testHighConcurrency() {
+        final ALoadingCache<Integer, String> cache = new ALoadingCache<Integer, String>() {
+            @Override
+            protected boolean isHighConcurrency() {
+                return true;
+            }
+
+            @Override
+            protected String loadValue(final Integer key) {
+                loads.incrementAndGet();
+                return String.valueOf(key);
+            }
+        };
+        Assertions.assertThat(cache.get(1)).isEqualTo("1");
+        Assertions.assertThat(cache.get(1)).isEqualTo("1");
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+    }
+
+    private Callable<String> newGet(final ConcurrentLoadingCache<Integer, String> cache, final int key) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return cache.get(key);
+            }
+        };
+    }
+
+    private final class BlockingLoadValue implements Function<Integer, String> {
+
+        private final int blockingKey;
+
+        private BlockingLoadValue(final int blockingKey) {
+            this.blockingKey = blockingKey;
+        }
+
+        @Override
+        public String apply(final Integer key) {
+            loads.incrementAndGet();
+            if (key == blockingKey) {
+                loadStarted.countDown();
+                try {
+                    if (!loadReleased.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("load not released");
+                    }
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return String.valueOf(key);
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package de.invesdwin.util.collections.loadingcache.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+
+@NotThreadSafe
+public class LongKeyHashMapTest {
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        final List<Long> evicted = new ArrayList<Long>();
+        final LongKeyHashMap<String> map = new LongKeyHashMap<String>(3) {
+            @Override
+            protected void onEvicted(final long key, final String value) {
+                evicted.add(key);
+            }
+        };
+        map.put(1, "1");
+        map.put(2, "2");
+        map.put(3, "3");
+        //like LRUMap, a get or an update moves the entry to the end, containsKey does not
+        Assertions.assertThat(map.get(1)).isEqualTo("1");
+        map.put(2, "two");
+        Assertions.assertThat(map.containsKey(3)).isTrue();
+        map.put(4, "4");
+        Assertions.assertThat(evicted).containsExactly(3L);
+        map.put(5, "5");
+        Assertions.assertThat(evicted).containsExactly(3L, 1L);
+        Assertions.assertThat(map.get(2)).isEqualTo("two");
+        map.decreaseMaximumSize(1);
+        Assertions.assertThat(evicted).containsExactly(3L, 1L, 4L, 5L);
+        Assertions.assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEvictUnaccessedAfterManyAccesses() {
+        final LongKeyHashMap<String> map = new LongKeyHashMap<String>(10);
+        for (long i = 0; i < 10; i++) {
+            map.put(i, String.valueOf(i));
+        }
+        for (int i = 0; i < 100000; i++) {
+            Assertions.assertThat(map.get(i % 5)).isNotNull();
+        }
+        //the keys that did not get accessed are evicted first
+        for (long i = 10; i < 15; i++) {
+            map.put(i, String.valueOf(i));
+        }
+        for (long i = 0; i < 5; i++) {
+            Assertions.assertThat(map.containsKey(i)).isTrue();
+        }
+        for (long i = 5; i < 10; i++) {
+            Assertions.assertThat(map.containsKey(i)).isFalse();
+        }
+    }
+
+    @Test
+    public void testResizeIgnoresWrongDirection() {
+        final LongKeyHashMap<String> map = new LongKeyHashMap<String>(3);
+        for (long i = 0; i < 3; i++) {
+            map.put(i, String.valueOf(i));
+        }
+        map.decreaseMaximumSize(3);
+        map.decreaseMaximumSize(5);
+        map.increaseMaximumSize(3);
+        map.increaseMaximumSize(2);
+        Assertions.assertThat(map.getMaximumSize()).isEqualTo(3);
+        Assertions.assertThat(map.size()).isEqualTo(3);
+
+        map.decreaseMaximumSize(2);
+        Assertions.assertThat(map.getMaximumSize()).isEqualTo(2);
+        Assertions.assertThat(map.size()).isEqualTo(2);
+        Assertions.assertThat(map.containsKey(0)).isFalse();
+        map.increaseMaximumSize(4);
+        Assertions.assertThat(map.getMaximumSize()).isEqualTo(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecreaseToZero() {
+        new LongKeyHashMap<String>(3).decreaseMaximumSize(0);
+    }
+
+}
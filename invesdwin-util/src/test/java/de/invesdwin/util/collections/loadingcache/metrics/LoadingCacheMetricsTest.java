@@ -0,0 +1,245 @@
+package de.invesdwin.util.collections.loadingcache.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.ALoadingCache;
+import de.invesdwin.util.collections.loadingcache.eviction.LoadingCacheEvictionPolicy;
+import de.invesdwin.util.collections.loadingcache.historical.AHistoricalCache;
+import de.invesdwin.util.collections.loadingcache.weight.ILoadingCacheWeigher;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FDateBuilder;
+
+@NotThreadSafe
+public class LoadingCacheMetricsTest {
+
+    @Test
+    public void testLoadingCache() {
+        final LoadingCacheMetrics metrics = new LoadingCacheMetrics("testLoadingCache");
+        final ALoadingCache<Integer, Integer> cache = new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer getMaximumSize() {
+                return 2;
+            }
+
+            @Override
+            protected LoadingCacheMetrics newMetrics() {
+                return metrics;
+            }
+
+            @Override
+            protected Integer loadValue(final Integer key) {
+                return key * 2;
+            }
+        };
+        Assertions.assertThat(cache.get(1)).isEqualTo(2);
+        Assertions.assertThat(cache.get(2)).isEqualTo(4);
+        Assertions.assertThat(cache.get(1)).isEqualTo(2);
+        Assertions.assertThat(cache.get(3)).isEqualTo(6);
+        Assertions.assertThat(metrics.getHits()).isEqualTo(1);
+        Assertions.assertThat(metrics.getMisses()).isEqualTo(3);
+        Assertions.assertThat(metrics.getEvictions()).isEqualTo(1);
+        Assertions.assertThat(metrics.getLoadLatency(LoadingCacheMetrics.LOAD_VALUE).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testEvictionsWithoutMisses() {
+        final LoadingCacheMetrics metrics = new LoadingCacheMetrics("testEvictionsWithoutMisses");
+        final ALoadingCache<Integer, Integer> cache = new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer getMaximumSize() {
+                return 2;
+            }
+
+            @Override
+            protected LoadingCacheMetrics newMetrics() {
+                return metrics;
+            }
+
+            @Override
+            protected Integer loadValue(final Integer key) {
+                if (key < 0) {
+                    return null;
+                }
+                return key * 2;
+            }
+        };
+        cache.put(1, 2);
+        cache.put(2, 4);
+        cache.put(3, 6);
+        Assertions.assertThat(metrics.getEvictions()).isEqualTo(1);
+        //null values are not cached, thus the size does not grow without an eviction
+        Assertions.assertThat(cache.get(-1)).isNull();
+        Assertions.assertThat(metrics.getMisses()).isEqualTo(1);
+        Assertions.assertThat(metrics.getEvictions()).isEqualTo(1);
+        cache.decreaseMaximumSize(1);
+        Assertions.assertThat(metrics.getEvictions()).isEqualTo(2);
+        Assertions.assertThat(cache.get(3)).isEqualTo(6);
+        Assertions.assertThat(metrics.getHits()).isEqualTo(1);
+        Assertions.assertThat(metrics.getRequests()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEvictionsOfDelegates() {
+        for (final LoadingCacheEvictionPolicy evictionPolicy : LoadingCacheEvictionPolicy.values()) {
+            assertEvictions(newLimitedCache(evictionPolicy, false, null));
+            assertEvictions(newLimitedCache(evictionPolicy, true, null));
+        }
+        assertEvictions(newLimitedCache(LoadingCacheEvictionPolicy.LRU, false, 100L));
+        assertEvictions(newLimitedCache(LoadingCacheEvictionPolicy.LRU, true, 100L));
+    }
+
+    private void assertEvictions(final ALoadingCache<Integer, Integer> cache) {
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertThat(cache.get(i)).isEqualTo(i);
+        }
+        final LoadingCacheMetrics metrics = cache.getMetrics();
+        Assertions.assertThat(metrics.getMisses()).isEqualTo(1000);
+        Assertions.assertThat(metrics.getEvictions()).as(metrics.getName()).isGreaterThan(0);
+        //each value that is not in the cache anymore got evicted
+        Assertions.assertThat(metrics.getEvictions()).as(metrics.getName()).isEqualTo(1000 - cache.size());
+    }
+
+    private ALoadingCache<Integer, Integer> newLimitedCache(final LoadingCacheEvictionPolicy evictionPolicy,
+            final boolean highConcurrency, final Long maximumWeight) {
+        final LoadingCacheMetrics metrics = new LoadingCacheMetrics(
+                evictionPolicy + "|highConcurrency=" + highConcurrency + "|maximumWeight=" + maximumWeight);
+        return new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer getMaximumSize() {
+                if (maximumWeight != null) {
+                    return null;
+                }
+                return 10;
+            }
+
+            @Override
+            protected Long getMaximumWeight() {
+                return maximumWeight;
+            }
+
+            @Override
+            protected ILoadingCacheWeigher<? super Integer, ? super Integer> getWeigher() {
+                return new ILoadingCacheWeigher<Integer, Integer>() {
+                    @Override
+                    public long weigh(final Integer key, final Integer value) {
+                        return 10;
+                    }
+                };
+            }
+
+            @Override
+            protected LoadingCacheEvictionPolicy getEvictionPolicy() {
+                return evictionPolicy;
+            }
+
+            @Override
+            protected boolean isHighConcurrency() {
+                return highConcurrency;
+            }
+
+            @Override
+            protected LoadingCacheMetrics newMetrics() {
+                return metrics;
+            }
+
+            @Override
+            protected Integer loadValue(final Integer key) {
+                return key;
+            }
+        };
+    }
+
+    @Test
+    public void testHistoricalCacheEvictions() {
+        assertHistoricalCacheEvictions(false);
+        assertHistoricalCacheEvictions(true);
+    }
+
+    private void assertHistoricalCacheEvictions(final boolean primitiveKeyStore) {
+        final LoadingCacheMetrics metrics = new LoadingCacheMetrics(
+                "testHistoricalCacheEvictions|primitiveKeyStore=" + primitiveKeyStore);
+        final AHistoricalCache<FDate> cache = new AHistoricalCache<FDate>() {
+            @Override
+            public Integer getMaximumSize() {
+                return 10;
+            }
+
+            @Override
+            protected boolean isPrimitiveKeyStore() {
+                return primitiveKeyStore;
+            }
+
+            @Override
+            protected LoadingCacheMetrics newMetrics() {
+                return metrics;
+            }
+
+            @Override
+            protected FDate loadValue(final FDate key) {
+                return key;
+            }
+
+            @Override
+            protected FDate innerExtractKey(final FDate key, final FDate value) {
+                return value;
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            final FDate key = FDateBuilder.newDate(2000).addDays(i);
+            Assertions.assertThat(cache.query().getValue(key)).isEqualTo(key);
+        }
+        Assertions.assertThat(metrics.getMisses()).isEqualTo(100);
+        Assertions.assertThat(metrics.getEvictions()).as(metrics.getName()).isEqualTo(90);
+        Assertions.assertThat(cache.query().getValue(FDateBuilder.newDate(2000).addDays(99))).isNotNull();
+        Assertions.assertThat(metrics.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDisabled() {
+        final ALoadingCache<Integer, Integer> cache = new ALoadingCache<Integer, Integer>() {
+            @Override
+            protected Integer loadValue(final Integer key) {
+                return key;
+            }
+        };
+        Assertions.assertThat(cache.get(1)).isEqualTo(1);
+        Assertions.assertThat(cache.getMetrics()).isNull();
+    }
+
+    @Test
+    public void testHistogram() {
+        final LoadingCacheLatencyHistogram histogram = new LoadingCacheLatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        Assertions.assertThat(histogram.getCount()).isEqualTo(100);
+        Assertions.assertThat(histogram.getMaxNanos()).isEqualTo(100);
+        Assertions.assertThat(histogram.getAverageNanos()).isEqualTo(50);
+        //percentiles are upper bounds of power of two buckets
+        Assertions.assertThat(histogram.getPercentileNanos(0.5D)).isEqualTo(63);
+        Assertions.assertThat(histogram.getPercentileNanos(1D)).isEqualTo(100);
+        histogram.reset();
+        Assertions.assertThat(histogram.getPercentileNanos(0.5D)).isEqualTo(0);
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        final LoadingCacheMetrics metrics = new LoadingCacheMetrics("testRegisterMBean");
+        final ObjectName objectName = metrics.registerMBean();
+        try {
+            Assertions.assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)).isTrue();
+            Assertions.assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Hits"))
+                    .isEqualTo(0L);
+        } finally {
+            metrics.unregisterMBean();
+        }
+        Assertions.assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)).isFalse();
+    }
+
+}
@@ -0,0 +1,69 @@
+package de.invesdwin.util.collections.loadingcache.weight;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.math.decimal.Decimal;
+import de.invesdwin.util.time.fdate.FDate;
+import de.invesdwin.util.time.fdate.FTimeUnit;
+
+@NotThreadSafe
+public class DefaultLoadingCacheWeigherTest {
+
+    @Test
+    public void testSimpleTypes() {
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(null)).isEqualTo(0);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(FTimeUnit.DAYS)).isEqualTo(0);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(new FDate())).isEqualTo(32);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(Decimal.ONE)).isEqualTo(64);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(1)).isEqualTo(16);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(1L)).isEqualTo(24);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate("abc")).isEqualTo(46);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(new long[10])).isEqualTo(96);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(new Object()))
+                .isEqualTo(DefaultLoadingCacheWeigher.DEFAULT_OBJECT_WEIGHT);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.INSTANCE.weigh(1L, new FDate()))
+                .isEqualTo(DefaultLoadingCacheWeigher.ENTRY_WEIGHT + 24 + 32);
+    }
+
+    @Test
+    public void testCollections() {
+        final List<Decimal> list = new ArrayList<Decimal>();
+        final List<Decimal> linkedList = new LinkedList<Decimal>();
+        final Map<FDate, Decimal> map = new HashMap<FDate, Decimal>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(Decimal.ONE);
+            linkedList.add(Decimal.ONE);
+            map.put(new FDate(i), Decimal.ONE);
+        }
+        //the sampled elements are extrapolated to the whole collection
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(list)).isEqualTo(48 + 1000 * (8 + 64));
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(linkedList)).isEqualTo(48 + 1000 * (8 + 64));
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(map)).isEqualTo(48 + 1000 * (48 + 32 + 64));
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(new Decimal[] { Decimal.ONE, null }))
+                .isEqualTo(16 + 2 * 8 + 64);
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(new ArrayList<Object>())).isEqualTo(48);
+    }
+
+    @Test
+    public void testNestingDepthIsLimited() {
+        final List<Object> nested = new ArrayList<Object>();
+        List<Object> current = nested;
+        for (int i = 0; i < 10; i++) {
+            final List<Object> child = new ArrayList<Object>();
+            current.add(child);
+            current = child;
+        }
+        Assertions.assertThat(DefaultLoadingCacheWeigher.estimate(nested))
+                .isEqualTo(3 * (48 + 8) + DefaultLoadingCacheWeigher.DEFAULT_OBJECT_WEIGHT);
+    }
+
+}
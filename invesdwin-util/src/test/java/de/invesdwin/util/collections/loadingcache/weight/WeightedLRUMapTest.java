@@ -0,0 +1,126 @@
+package de.invesdwin.util.collections.loadingcache.weight;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.junit.Test;
+
+import de.invesdwin.util.assertions.Assertions;
+import de.invesdwin.util.collections.loadingcache.ALoadingCache;
+import de.invesdwin.util.collections.loadingcache.guava.AGuavaLoadingCacheMap;
+import de.invesdwin.util.collections.loadingcache.guava.GuavaLoadingCacheMapConfig;
+
+@NotThreadSafe
+public class WeightedLRUMapTest {
+
+    private static final ILoadingCacheWeigher<Integer, String> LENGTH_WEIGHER = new ILoadingCacheWeigher<Integer, String>() {
+        @Override
+        public long weigh(final Integer key, final String value) {
+            return value.length();
+        }
+    };
+
+    @Test
+    public void testEvictsByWeight() {
+        final WeightedLRUMap<Integer, String> map = new WeightedLRUMap<Integer, String>(10, LENGTH_WEIGHER);
+        map.put(1, "aaaa");
+        map.put(2, "bbbb");
+        Assertions.assertThat(map.getWeight()).isEqualTo(8);
+        //access moves the entry to the end
+        map.get(1);
+        map.put(3, "cccc");
+        Assertions.assertThat(map.keySet()).containsExactly(1, 3);
+        Assertions.assertThat(map.getWeight()).isEqualTo(8);
+        map.put(1, "a");
+        Assertions.assertThat(map.getWeight()).isEqualTo(5);
+        map.remove(3);
+        Assertions.assertThat(map.getWeight()).isEqualTo(1);
+        map.put(4, "too heavy for the map");
+        Assertions.assertThat(map).isEmpty();
+        Assertions.assertThat(map.getWeight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSetMaximumWeight() {
+        final WeightedLRUMap<Integer, String> map = new WeightedLRUMap<Integer, String>(10, LENGTH_WEIGHER);
+        for (int i = 0; i < 5; i++) {
+            map.put(i, "aa");
+        }
+        map.setMaximumWeight(4);
+        Assertions.assertThat(map.keySet()).containsExactly(3, 4);
+        map.clear();
+        Assertions.assertThat(map.getWeight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLoadingCache() {
+        final AtomicInteger loads = new AtomicInteger();
+        final ALoadingCache<Integer, String> cache = new ALoadingCache<Integer, String>() {
+            @Override
+            protected Long getMaximumWeight() {
+                return 10L;
+            }
+
+            @Override
+            protected ILoadingCacheWeigher<? super Integer, ? super String> getWeigher() {
+                return LENGTH_WEIGHER;
+            }
+
+            @Override
+            protected String loadValue(final Integer key) {
+                loads.incrementAndGet();
+                return "aaaa";
+            }
+        };
+        cache.get(1);
+        cache.get(2);
+        cache.get(3);
+        Assertions.assertThat(cache.size()).isEqualTo(2);
+        Assertions.assertThat(cache.containsKey(1)).isFalse();
+        cache.get(3);
+        Assertions.assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaximumSizeAndWeightCanNotBeCombined() {
+        new ALoadingCache<Integer, String>() {
+            @Override
+            protected Integer getMaximumSize() {
+                return 10;
+            }
+
+            @Override
+            protected Long getMaximumWeight() {
+                return 10L;
+            }
+
+            @Override
+            protected String loadValue(final Integer key) {
+                return "";
+            }
+        };
+    }
+
+    @Test
+    public void testGuavaLoadingCacheMap() {
+        final AGuavaLoadingCacheMap<Integer, String> map = new AGuavaLoadingCacheMap<Integer, String>() {
+            @Override
+            protected GuavaLoadingCacheMapConfig getConfig() {
+                return new GuavaLoadingCacheMapConfig().withConcurrencyLevel(1)
+                        .withMaximumWeight(10L)
+                        .withWeigher(LENGTH_WEIGHER);
+            }
+
+            @Override
+            protected String loadValue(final Integer key) {
+                return "aaaa";
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            map.get(i);
+        }
+        Assertions.assertThat(map.size()).isEqualTo(2);
+    }
+
+}